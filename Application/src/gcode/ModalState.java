@@ -0,0 +1,139 @@
+/*
+ * File:    ModalState.java
+ * Package: gcode
+ * Author:  Nicolas Lopez
+ */
+
+package gcode;
+
+/**
+ * The modal state set by a run of gcode commands; the units, the distance mode and the feed rate.<br/>
+ * A mode that the run does not set is unset, so the state of a run can be followed by the state of the next run to find the state at the end of both.
+ * This is how the modal state is reconciled across chunks of a gcode file that were processed in parallel.
+ */
+public class ModalState
+{
+    
+    //Enums
+    
+    /**
+     * An enumeration of units.
+     */
+    public enum Units
+    {
+        METRIC,
+        IMPERIAL
+    }
+    
+    /**
+     * An enumeration of distance modes.
+     */
+    public enum DistanceMode
+    {
+        ABSOLUTE,
+        RELATIVE
+    }
+    
+    
+    //Fields
+    
+    /**
+     * The units, or null if they are not set.
+     */
+    private Units units = null;
+    
+    /**
+     * The distance mode, or null if it is not set.
+     */
+    private DistanceMode distanceMode = null;
+    
+    /**
+     * The feed rate, or NaN if it is not set.
+     */
+    private double feed = Double.NaN;
+    
+    
+    //Methods
+    
+    /**
+     * Returns the modal state at the end of this run followed by another run.
+     *
+     * @param next The modal state of the next run.
+     * @return The modal state at the end of both runs.
+     */
+    public ModalState then(ModalState next)
+    {
+        ModalState state = new ModalState();
+        state.units = (next.units != null) ? next.units : units;
+        state.distanceMode = (next.distanceMode != null) ? next.distanceMode : distanceMode;
+        state.feed = !Double.isNaN(next.feed) ? next.feed : feed;
+        return state;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the units.
+     *
+     * @return The units, or null if they are not set.
+     */
+    public Units getUnits()
+    {
+        return units;
+    }
+    
+    /**
+     * Returns the distance mode.
+     *
+     * @return The distance mode, or null if it is not set.
+     */
+    public DistanceMode getDistanceMode()
+    {
+        return distanceMode;
+    }
+    
+    /**
+     * Returns the feed rate.
+     *
+     * @return The feed rate, or NaN if it is not set.
+     */
+    public double getFeed()
+    {
+        return feed;
+    }
+    
+    
+    //Setters
+    
+    /**
+     * Sets the units.
+     *
+     * @param units The units.
+     */
+    public void setUnits(Units units)
+    {
+        this.units = units;
+    }
+    
+    /**
+     * Sets the distance mode.
+     *
+     * @param distanceMode The distance mode.
+     */
+    public void setDistanceMode(DistanceMode distanceMode)
+    {
+        this.distanceMode = distanceMode;
+    }
+    
+    /**
+     * Sets the feed rate.
+     *
+     * @param feed The feed rate.
+     */
+    public void setFeed(double feed)
+    {
+        this.feed = feed;
+    }
+    
+}
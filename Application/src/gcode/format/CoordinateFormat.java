@@ -0,0 +1,101 @@
+/*
+ * File:    CoordinateFormat.java
+ * Package: gcode.format
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.format;
+
+import java.util.Locale;
+
+/**
+ * Writes gcode coordinates with three decimal places straight into a StringBuilder.<br/>
+ * The output is the same as String.format("%.3f") with a '.' decimal separator, including its half up rounding of the shortest decimal representation of the value.
+ * Values that are too large, or too close to a rounding boundary to be rounded exactly with doubles, fall back to String.format().
+ */
+public final class CoordinateFormat
+{
+    
+    //Constants
+    
+    /**
+     * The number of decimal places that are written.
+     */
+    public static final int DECIMALS = 3;
+    
+    /**
+     * The factor that scales a value to units of the last decimal place.
+     */
+    private static final double SCALE = 1000.0;
+    
+    /**
+     * The largest magnitude of a value that is rounded without String.format().
+     */
+    private static final double MAX_FAST_VALUE = 1e6;
+    
+    /**
+     * The distance from a rounding boundary, in units of the last decimal place, within which a value is rounded by String.format().
+     */
+    private static final double TIE_MARGIN = 1e-5;
+    
+    
+    //Functions
+    
+    /**
+     * Appends a gcode word followed by a space, ie: X12.500 , as String.format("X%.3f ") would.
+     *
+     * @param sb     The StringBuilder to append to.
+     * @param letter The letter of the word.
+     * @param value  The value of the word.
+     * @return The StringBuilder.
+     */
+    public static StringBuilder appendWord(StringBuilder sb, char letter, double value)
+    {
+        sb.append(letter);
+        return append(sb, value).append(' ');
+    }
+    
+    /**
+     * Appends a value with three decimal places, as String.format("%.3f") would.
+     *
+     * @param sb    The StringBuilder to append to.
+     * @param value The value.
+     * @return The StringBuilder.
+     */
+    public static StringBuilder append(StringBuilder sb, double value)
+    {
+        double magnitude = Math.abs(value);
+        if (!(magnitude < MAX_FAST_VALUE)) {
+            return sb.append(String.format(Locale.ROOT, "%.3f", value));
+        }
+        
+        double scaled = magnitude * SCALE;
+        double whole = Math.floor(scaled);
+        double fraction = scaled - whole;
+        if (Math.abs(fraction - 0.5) < TIE_MARGIN) {
+            return sb.append(String.format(Locale.ROOT, "%.3f", value));
+        }
+        
+        long units = (long) whole + ((fraction > 0.5) ? 1 : 0);
+        if (Double.doubleToRawLongBits(value) < 0) {
+            sb.append('-');
+        }
+        sb.append(units / 1000).append('.');
+        int decimals = (int) (units % 1000);
+        return sb.append((char) ('0' + decimals / 100))
+                .append((char) ('0' + decimals / 10 % 10))
+                .append((char) ('0' + decimals % 10));
+    }
+    
+    /**
+     * Formats a value with three decimal places, as String.format("%.3f") would.
+     *
+     * @param value The value.
+     * @return The formatted value.
+     */
+    public static String format(double value)
+    {
+        return append(new StringBuilder(16), value).toString();
+    }
+    
+}
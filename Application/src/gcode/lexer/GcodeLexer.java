@@ -0,0 +1,149 @@
+/*
+ * File:    GcodeLexer.java
+ * Package: gcode.lexer
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.lexer;
+
+/**
+ * A character level scanner that splits gcode lines into words.<br/>
+ * A word is a letter followed by a number, ie: X12.5, and is written to a reusable GcodeWords buffer without allocating.
+ * Numbers are decoded to the same double Double.parseDouble() would return.
+ */
+public final class GcodeLexer
+{
+    
+    //Constants
+    
+    /**
+     * The character that starts a comment, which runs to the end of the line.
+     */
+    public static final char COMMENT = ';';
+    
+    /**
+     * The maximum number of significant digits that can be decoded exactly without Double.parseDouble().
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+    
+    /**
+     * The powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    
+    //Functions
+    
+    /**
+     * Splits a gcode line into words.<br/>
+     * Whitespace separates words but is not required between them, so G1X5 is lexed as G1 and X5.
+     * A word that is not a letter followed by a number, ie: X or M30*, is kept with a NaN value and spans up to the next whitespace or letter.
+     * Lexing stops at a comment.
+     *
+     * @param line  The gcode line.
+     * @param words The buffer to write the words to.
+     * @return The number of words in the line.
+     */
+    public static int lex(CharSequence line, GcodeWords words)
+    {
+        words.reset(line);
+        
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == COMMENT) {
+                break;
+            }
+            if (isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            
+            int start = i++;
+            boolean valid = isLetter(c);
+            
+            //sign
+            boolean negative = false;
+            if (i < length && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+                negative = line.charAt(i) == '-';
+                i++;
+            }
+            
+            //digits
+            long mantissa = 0;
+            int significantDigits = 0;
+            int fractionDigits = 0;
+            boolean digits = false;
+            boolean point = false;
+            for (; i < length; i++) {
+                char d = line.charAt(i);
+                if (d >= '0' && d <= '9') {
+                    digits = true;
+                    if (point) {
+                        fractionDigits++;
+                    }
+                    if (significantDigits > 0 || d != '0') {
+                        significantDigits++;
+                        if (significantDigits <= MAX_EXACT_DIGITS) {
+                            mantissa = mantissa * 10 + (d - '0');
+                        }
+                    }
+                } else if (d == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+            int numberEnd = i;
+            
+            //anything else up to the next whitespace or letter belongs to a word that is not formatted properly
+            while (i < length && !isWhitespace(line.charAt(i)) && !isLetter(line.charAt(i)) && line.charAt(i) != COMMENT) {
+                valid = false;
+                i++;
+            }
+            
+            double value = Double.NaN;
+            if (valid && digits) {
+                if (significantDigits <= MAX_EXACT_DIGITS && fractionDigits < POWERS_OF_TEN.length) {
+                    //both operands are exact, so the single rounding of the division gives the correctly rounded value
+                    value = mantissa / POWERS_OF_TEN[fractionDigits];
+                    if (negative) {
+                        value = -value;
+                    }
+                } else {
+                    value = Double.parseDouble(line.subSequence(start + 1, numberEnd).toString());
+                }
+            }
+            words.add(c, value, start, i);
+        }
+        
+        return words.size();
+    }
+    
+    /**
+     * Determines whether a character separates gcode words, the same characters StringTokenizer splits on.
+     *
+     * @param c The character.
+     * @return Whether the character separates gcode words or not.
+     */
+    static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+    
+    /**
+     * Determines whether a character is a gcode word letter.
+     *
+     * @param c The character.
+     * @return Whether the character is a gcode word letter or not.
+     */
+    private static boolean isLetter(char c)
+    {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+    
+}
@@ -0,0 +1,335 @@
+/*
+ * File:    GcodeWords.java
+ * Package: gcode.lexer
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.lexer;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of the words of a gcode line, filled by the GcodeLexer.<br/>
+ * Every word is stored as its letter, its value and its span in the line, in primitive arrays that are only grown, so lexing a line does not allocate.
+ */
+public final class GcodeWords
+{
+    
+    //Constants
+    
+    /**
+     * The initial number of words the buffer can hold.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    
+    
+    //Fields
+    
+    /**
+     * The line the words were lexed from.
+     */
+    private CharSequence line = "";
+    
+    /**
+     * The letters of the words.
+     */
+    private char[] letters = new char[INITIAL_CAPACITY];
+    
+    /**
+     * The values of the words, NaN for words that are not formatted properly.
+     */
+    private double[] values = new double[INITIAL_CAPACITY];
+    
+    /**
+     * The index in the line of the first character of each word.
+     */
+    private int[] starts = new int[INITIAL_CAPACITY];
+    
+    /**
+     * The index in the line after the last character of each word.
+     */
+    private int[] ends = new int[INITIAL_CAPACITY];
+    
+    /**
+     * The number of words in the buffer.
+     */
+    private int size = 0;
+    
+    
+    //Methods
+    
+    /**
+     * Empties the buffer for a new line.
+     *
+     * @param line The line the words will be lexed from.
+     */
+    void reset(CharSequence line)
+    {
+        this.line = line;
+        size = 0;
+    }
+    
+    /**
+     * Adds a word to the buffer.
+     *
+     * @param letter The letter of the word.
+     * @param value  The value of the word, NaN if it is not formatted properly.
+     * @param start  The index in the line of the first character of the word.
+     * @param end    The index in the line after the last character of the word.
+     */
+    void add(char letter, double value, int start, int end)
+    {
+        if (size == letters.length) {
+            int capacity = size * 2;
+            letters = Arrays.copyOf(letters, capacity);
+            values = Arrays.copyOf(values, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        
+        letters[size] = letter;
+        values[size] = value;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+    
+    /**
+     * Returns the index of the first word with a letter.
+     *
+     * @param letter The letter.
+     * @return The index of the first word with the letter, or -1 if there is none.
+     */
+    public int indexOf(char letter)
+    {
+        for (int i = 0; i < size; i++) {
+            if (letters[i] == letter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the index of the last word with a letter, which is the one that takes effect when a line repeats a word.
+     *
+     * @param letter The letter.
+     * @return The index of the last word with the letter, or -1 if there is none.
+     */
+    public int lastIndexOf(char letter)
+    {
+        for (int i = size - 1; i >= 0; i--) {
+            if (letters[i] == letter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Determines whether the line has a word with a letter or not.
+     *
+     * @param letter The letter.
+     * @return Whether the line has a word with the letter or not.
+     */
+    public boolean has(char letter)
+    {
+        return indexOf(letter) != -1;
+    }
+    
+    /**
+     * Returns the value of the last word with a letter.
+     *
+     * @param letter   The letter.
+     * @param fallback The value to return if the line has no word with the letter.
+     * @return The value of the word, NaN if it is not formatted properly, or the fallback if the line has no word with the letter.
+     */
+    public double getValue(char letter, double fallback)
+    {
+        int index = lastIndexOf(letter);
+        return (index == -1) ? fallback : values[index];
+    }
+    
+    /**
+     * Determines whether any word with a letter is not formatted properly.
+     *
+     * @param letter The letter.
+     * @return Whether any word with the letter is not formatted properly.
+     */
+    public boolean isMalformed(char letter)
+    {
+        for (int i = 0; i < size; i++) {
+            if (letters[i] == letter && Double.isNaN(values[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Determines whether the first word of the line is a command, ie: G1 or M5.<br/>
+     * Leading zeros are ignored, so G01 is the same command as G1.
+     *
+     * @param letter The letter of the command.
+     * @param code   The code of the command.
+     * @return Whether the first word of the line is the command or not.
+     */
+    public boolean isCommand(char letter, int code)
+    {
+        return size > 0 && letters[0] == letter && values[0] == code;
+    }
+    
+    /**
+     * Determines whether a word starts a whitespace separated token, or is written directly after the previous word, ie: the X5 in G1X5.
+     *
+     * @param index The index of the word.
+     * @return Whether the word starts a whitespace separated token or not.
+     */
+    public boolean isTokenStart(int index)
+    {
+        int start = starts[index];
+        return start == 0 || GcodeLexer.isWhitespace(line.charAt(start - 1));
+    }
+    
+    /**
+     * Returns the index in the line after the whitespace separated token a word belongs to, including the words written directly after it.
+     *
+     * @param index The index of the word.
+     * @return The index in the line after the token.
+     */
+    public int getTokenEnd(int index)
+    {
+        int i = index;
+        while (i + 1 < size && !isTokenStart(i + 1)) {
+            i++;
+        }
+        return ends[i];
+    }
+    
+    /**
+     * Determines whether the text of a word is exactly a string.
+     *
+     * @param index The index of the word.
+     * @param text  The string.
+     * @return Whether the text of the word is exactly the string or not.
+     */
+    public boolean textEquals(int index, String text)
+    {
+        int start = starts[index];
+        int length = ends[index] - start;
+        if (length != text.length()) {
+            return false;
+        }
+        
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Determines whether a word is a whole whitespace separated token with a specific text, ie: the G1 in G1 X5 but not in G1X5.
+     *
+     * @param index The index of the word.
+     * @param text  The text.
+     * @return Whether the word is a whole token with the text or not.
+     */
+    public boolean isToken(int index, String text)
+    {
+        return isTokenStart(index) && getTokenEnd(index) == ends[index] && textEquals(index, text);
+    }
+    
+    /**
+     * Appends the text of a word to a StringBuilder.
+     *
+     * @param index The index of the word.
+     * @param sb    The StringBuilder.
+     * @return The StringBuilder.
+     */
+    public StringBuilder appendText(int index, StringBuilder sb)
+    {
+        return sb.append(line, starts[index], ends[index]);
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the number of words in the line.
+     *
+     * @return The number of words in the line.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns the line the words were lexed from.
+     *
+     * @return The line the words were lexed from.
+     */
+    public CharSequence getLine()
+    {
+        return line;
+    }
+    
+    /**
+     * Returns the letter of a word.
+     *
+     * @param index The index of the word.
+     * @return The letter of the word.
+     */
+    public char getLetter(int index)
+    {
+        return letters[index];
+    }
+    
+    /**
+     * Returns the value of a word.
+     *
+     * @param index The index of the word.
+     * @return The value of the word, NaN if it is not formatted properly.
+     */
+    public double getValue(int index)
+    {
+        return values[index];
+    }
+    
+    /**
+     * Returns the index in the line of the first character of a word.
+     *
+     * @param index The index of the word.
+     * @return The index in the line of the first character of the word.
+     */
+    public int getStart(int index)
+    {
+        return starts[index];
+    }
+    
+    /**
+     * Returns the index in the line after the last character of a word.
+     *
+     * @param index The index of the word.
+     * @return The index in the line after the last character of the word.
+     */
+    public int getEnd(int index)
+    {
+        return ends[index];
+    }
+    
+    /**
+     * Returns the text of a word.<br/>
+     * This allocates a String, so it should only be used when the text is needed, ie: in error messages.
+     *
+     * @param index The index of the word.
+     * @return The text of the word.
+     */
+    public String getText(int index)
+    {
+        return line.subSequence(starts[index], ends[index]).toString();
+    }
+    
+}
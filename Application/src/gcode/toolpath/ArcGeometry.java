@@ -0,0 +1,86 @@
+/*
+ * File:    ArcGeometry.java
+ * Package: gcode.toolpath
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.toolpath;
+
+/**
+ * Provides the geometry of G2 and G3 arcs in the XY plane, as grbl interprets them.<br/>
+ * Centers are offsets from the start of the arc, as the I and J words are, and an arc whose end is its start is a full circle.
+ */
+public final class ArcGeometry
+{
+    
+    //Functions
+    
+    /**
+     * Calculates the center of an arc written with an R word, as grbl does.<br/>
+     * A negative radius selects the arc that sweeps more than half a circle.
+     *
+     * @param dx        The x distance from the start to the end of the arc.
+     * @param dy        The y distance from the start to the end of the arc.
+     * @param radius    The radius of the arc.
+     * @param clockwise Whether the arc is clockwise or not.
+     * @param center    The array to store the x and y offsets of the center from the start of the arc in.
+     * @return Whether the arc has a center or not, false if the distance between its start and end is longer than its diameter.
+     */
+    public static boolean centerFromRadius(double dx, double dy, double radius, boolean clockwise, double[] center)
+    {
+        double chord = Math.sqrt(dx * dx + dy * dy);
+        double h2 = 4.0 * radius * radius - chord * chord;
+        if (chord == 0.0 || h2 < 0.0) {
+            return false;
+        }
+        
+        double h = -Math.sqrt(h2) / chord;
+        if (!clockwise) {
+            h = -h;
+        }
+        if (radius < 0.0) {
+            h = -h;
+        }
+        center[0] = 0.5 * (dx - dy * h);
+        center[1] = 0.5 * (dy + dx * h);
+        return true;
+    }
+    
+    /**
+     * Calculates the angle swept by an arc.
+     *
+     * @param startX    The x offset of the start of the arc from its center.
+     * @param startY    The y offset of the start of the arc from its center.
+     * @param endX      The x offset of the end of the arc from its center.
+     * @param endY      The y offset of the end of the arc from its center.
+     * @param clockwise Whether the arc is clockwise or not.
+     * @return The angle swept by the arc, in radians, greater than 0 and at most a full circle.
+     */
+    public static double sweep(double startX, double startY, double endX, double endY, boolean clockwise)
+    {
+        double angle = Math.atan2(startX * endY - startY * endX, startX * endX + startY * endY);
+        if (clockwise) {
+            angle = -angle;
+        }
+        return (angle <= 0.0) ? angle + 2.0 * Math.PI : angle;
+    }
+    
+    /**
+     * Calculates the number of straight segments needed to stay within a chord tolerance of an arc.
+     *
+     * @param radius      The radius of the arc.
+     * @param sweep       The angle swept by the arc, in radians.
+     * @param tolerance   The maximum distance between the arc and its segments.
+     * @param maxSegments The maximum number of segments.
+     * @return The number of segments, between 1 and the maximum number of segments.
+     */
+    public static int segments(double radius, double sweep, double tolerance, int maxSegments)
+    {
+        if (radius <= tolerance) {
+            return 1;
+        }
+        double segmentSweep = 2.0 * Math.acos(1.0 - tolerance / radius);
+        return (int) Math.max(1, Math.min(maxSegments, Math.ceil(sweep / segmentSweep)));
+    }
+    
+}
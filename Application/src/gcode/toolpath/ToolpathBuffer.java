@@ -0,0 +1,546 @@
+/*
+ * File:    ToolpathBuffer.java
+ * Package: gcode.toolpath
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.toolpath;
+
+import java.util.Arrays;
+
+/**
+ * The toolpath of a gcode job, stored as columns of primitives with one entry per motion segment.<br/>
+ * Each segment has the position it ends at, its feed rate, its motion type, the line of the job it came from, and the cumulative distance and motion time up to its end.
+ * The columns are allocated in fixed size blocks and never copied, so the heap used by a toolpath is BYTES_PER_SEGMENT per segment, rounded up to a block, and never more than the budget it was created with.
+ */
+public final class ToolpathBuffer
+{
+    
+    //Constants
+    
+    /**
+     * The motion type of a rapid move, G0.
+     */
+    public static final byte RAPID = 0;
+    
+    /**
+     * The motion type of a linear move, G1.
+     */
+    public static final byte LINEAR = 1;
+    
+    /**
+     * The motion type of a clockwise arc, G2.
+     */
+    public static final byte ARC_CW = 2;
+    
+    /**
+     * The motion type of a counter-clockwise arc, G3.
+     */
+    public static final byte ARC_CCW = 3;
+    
+    /**
+     * The number of bytes stored for each segment; six double columns, the line number and the motion type.
+     */
+    public static final int BYTES_PER_SEGMENT = 6 * 8 + 4 + 1;
+    
+    /**
+     * The log2 of the number of segments in a block of the columns.
+     */
+    private static final int BLOCK_SHIFT = 16;
+    
+    /**
+     * The number of segments in a block of the columns.
+     */
+    public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    
+    /**
+     * The mask of the index of a segment in its block.
+     */
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    
+    /**
+     * The number of blocks the columns can hold before the references to the blocks are grown.
+     */
+    private static final int INITIAL_BLOCKS = 16;
+    
+    
+    //Fields
+    
+    /**
+     * The maximum number of segments the toolpath can hold.
+     */
+    private final int maxSegments;
+    
+    /**
+     * The x positions at the end of the segments.
+     */
+    private double[][] x;
+    
+    /**
+     * The y positions at the end of the segments.
+     */
+    private double[][] y;
+    
+    /**
+     * The z positions at the end of the segments.
+     */
+    private double[][] z;
+    
+    /**
+     * The feed rates of the segments, NaN if no feed rate has been set.
+     */
+    private double[][] feed;
+    
+    /**
+     * The cumulative distance travelled up to the end of the segments.
+     */
+    private double[][] distance;
+    
+    /**
+     * The cumulative motion time up to the end of the segments, as calculated by the GcodeProgressCalculator.
+     */
+    private double[][] time;
+    
+    /**
+     * The lines of the job the segments came from.
+     */
+    private int[][] line;
+    
+    /**
+     * The motion types of the segments.
+     */
+    private byte[][] type;
+    
+    /**
+     * The number of segments in the toolpath.
+     */
+    private int size = 0;
+    
+    /**
+     * The x position before the first segment.
+     */
+    private final double startX;
+    
+    /**
+     * The y position before the first segment.
+     */
+    private final double startY;
+    
+    /**
+     * The z position before the first segment.
+     */
+    private final double startZ;
+    
+    /**
+     * The smallest x position of the toolpath, including the start position.
+     */
+    private double minX;
+    
+    /**
+     * The largest x position of the toolpath, including the start position.
+     */
+    private double maxX;
+    
+    /**
+     * The smallest y position of the toolpath, including the start position.
+     */
+    private double minY;
+    
+    /**
+     * The largest y position of the toolpath, including the start position.
+     */
+    private double maxY;
+    
+    /**
+     * The smallest z position of the toolpath, including the start position.
+     */
+    private double minZ;
+    
+    /**
+     * The largest z position of the toolpath, including the start position.
+     */
+    private double maxZ;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a ToolpathBuffer.
+     *
+     * @param maxSegments The maximum number of segments the toolpath can hold.
+     * @param startX      The x position before the first segment.
+     * @param startY      The y position before the first segment.
+     * @param startZ      The z position before the first segment.
+     */
+    public ToolpathBuffer(int maxSegments, double startX, double startY, double startZ)
+    {
+        this.maxSegments = maxSegments;
+        this.startX = startX;
+        this.startY = startY;
+        this.startZ = startZ;
+        
+        minX = maxX = startX;
+        minY = maxY = startY;
+        minZ = maxZ = startZ;
+        
+        int blocks = Math.min((int) (((long) maxSegments + BLOCK_MASK) >>> BLOCK_SHIFT), INITIAL_BLOCKS);
+        x = new double[blocks][];
+        y = new double[blocks][];
+        z = new double[blocks][];
+        feed = new double[blocks][];
+        distance = new double[blocks][];
+        time = new double[blocks][];
+        line = new int[blocks][];
+        type = new byte[blocks][];
+    }
+    
+    /**
+     * The constructor for a ToolpathBuffer that starts at the origin and can hold as many segments as an array.
+     */
+    public ToolpathBuffer()
+    {
+        this(Integer.MAX_VALUE - BLOCK_SIZE, 0, 0, 0);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Appends a segment to the toolpath.
+     *
+     * @param type       The motion type of the segment.
+     * @param x          The x position at the end of the segment.
+     * @param y          The y position at the end of the segment.
+     * @param z          The z position at the end of the segment.
+     * @param feed       The feed rate of the segment, NaN if no feed rate has been set.
+     * @param line       The line of the job the segment came from.
+     * @param motionTime The motion time of the segment.
+     * @throws IllegalStateException When the toolpath already holds its maximum number of segments.
+     */
+    public void append(byte type, double x, double y, double z, double feed, int line, double motionTime)
+    {
+        if (size >= maxSegments) {
+            throw new IllegalStateException("The toolpath cannot hold more than " + maxSegments + " segments!");
+        }
+        
+        int block = size >>> BLOCK_SHIFT;
+        int index = size & BLOCK_MASK;
+        if (index == 0) {
+            if (block == this.x.length) {
+                growBlocks();
+            }
+            int blockSize = Math.min(BLOCK_SIZE, maxSegments - size);
+            this.x[block] = new double[blockSize];
+            this.y[block] = new double[blockSize];
+            this.z[block] = new double[blockSize];
+            this.feed[block] = new double[blockSize];
+            this.distance[block] = new double[blockSize];
+            this.time[block] = new double[blockSize];
+            this.line[block] = new int[blockSize];
+            this.type[block] = new byte[blockSize];
+        }
+        
+        double dx = x - getX(size - 1);
+        double dy = y - getY(size - 1);
+        double dz = z - getZ(size - 1);
+        
+        this.x[block][index] = x;
+        this.y[block][index] = y;
+        this.z[block][index] = z;
+        this.feed[block][index] = feed;
+        this.distance[block][index] = getDistance(size - 1) + Math.sqrt(dx * dx + dy * dy + dz * dz);
+        this.time[block][index] = getTime(size - 1) + motionTime;
+        this.line[block][index] = line;
+        this.type[block][index] = type;
+        size++;
+        
+        minX = Math.min(minX, x);
+        maxX = Math.max(maxX, x);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+        minZ = Math.min(minZ, z);
+        maxZ = Math.max(maxZ, z);
+    }
+    
+    /**
+     * Doubles the number of blocks the columns can hold, which only copies the references to the blocks.
+     */
+    private void growBlocks()
+    {
+        int blocks = this.x.length * 2;
+        this.x = Arrays.copyOf(this.x, blocks);
+        this.y = Arrays.copyOf(this.y, blocks);
+        this.z = Arrays.copyOf(this.z, blocks);
+        this.feed = Arrays.copyOf(this.feed, blocks);
+        this.distance = Arrays.copyOf(this.distance, blocks);
+        this.time = Arrays.copyOf(this.time, blocks);
+        this.line = Arrays.copyOf(this.line, blocks);
+        this.type = Arrays.copyOf(this.type, blocks);
+    }
+    
+    /**
+     * Finds the last segment that came from a line of the job, which ends at the position the line moves to.<br/>
+     * An arc is split into several segments that come from the same line.
+     *
+     * @param line The line of the job.
+     * @return The index of the segment, or -1 if the line is not a segment of the toolpath.
+     */
+    public int findSegment(int line)
+    {
+        int found = -1;
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleLine = getLine(middle);
+            if (middleLine <= line) {
+                if (middleLine == line) {
+                    found = middle;
+                }
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Finds the number of segments that end at or before a cumulative motion time.
+     *
+     * @param motionTime The cumulative motion time.
+     * @return The number of segments that end at or before the cumulative motion time.
+     */
+    public int countSegmentsBefore(double motionTime)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTime(middle) <= motionTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Returns the number of bytes of heap used by the columns of a toolpath.
+     *
+     * @param segments The number of segments in the toolpath.
+     * @return The number of bytes of heap used by the columns, not counting array headers.
+     */
+    public static long bytesFor(int segments)
+    {
+        long blocks = ((long) segments + BLOCK_MASK) >>> BLOCK_SHIFT;
+        return Math.min(blocks * BLOCK_SIZE, segments) * BYTES_PER_SEGMENT;
+    }
+    
+    /**
+     * Returns the number of segments a toolpath can hold within a heap budget.
+     *
+     * @param budget The heap budget, in bytes.
+     * @return The number of segments a toolpath can hold within the heap budget.
+     */
+    public static int segmentsFor(long budget)
+    {
+        return (int) Math.min(budget / BYTES_PER_SEGMENT, Integer.MAX_VALUE - BLOCK_SIZE);
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the number of segments in the toolpath.
+     *
+     * @return The number of segments in the toolpath.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns the maximum number of segments the toolpath can hold.
+     *
+     * @return The maximum number of segments the toolpath can hold.
+     */
+    public int getMaxSegments()
+    {
+        return maxSegments;
+    }
+    
+    /**
+     * Returns the x position at the end of a segment.
+     *
+     * @param segment The index of the segment, or -1 for the start position.
+     * @return The x position at the end of the segment.
+     */
+    public double getX(int segment)
+    {
+        return (segment < 0) ? startX : x[segment >>> BLOCK_SHIFT][segment & BLOCK_MASK];
+    }
+    
+    /**
+     * Returns the y position at the end of a segment.
+     *
+     * @param segment The index of the segment, or -1 for the start position.
+     * @return The y position at the end of the segment.
+     */
+    public double getY(int segment)
+    {
+        return (segment < 0) ? startY : y[segment >>> BLOCK_SHIFT][segment & BLOCK_MASK];
+    }
+    
+    /**
+     * Returns the z position at the end of a segment.
+     *
+     * @param segment The index of the segment, or -1 for the start position.
+     * @return The z position at the end of the segment.
+     */
+    public double getZ(int segment)
+    {
+        return (segment < 0) ? startZ : z[segment >>> BLOCK_SHIFT][segment & BLOCK_MASK];
+    }
+    
+    /**
+     * Returns the feed rate of a segment.
+     *
+     * @param segment The index of the segment.
+     * @return The feed rate of the segment, NaN if no feed rate has been set.
+     */
+    public double getFeed(int segment)
+    {
+        return feed[segment >>> BLOCK_SHIFT][segment & BLOCK_MASK];
+    }
+    
+    /**
+     * Returns the cumulative distance travelled up to the end of a segment.
+     *
+     * @param segment The index of the segment, or -1 for the start position.
+     * @return The cumulative distance travelled up to the end of the segment.
+     */
+    public double getDistance(int segment)
+    {
+        return (segment < 0) ? 0 : distance[segment >>> BLOCK_SHIFT][segment & BLOCK_MASK];
+    }
+    
+    /**
+     * Returns the cumulative motion time up to the end of a segment.
+     *
+     * @param segment The index of the segment, or -1 for the start position.
+     * @return The cumulative motion time up to the end of the segment.
+     */
+    public double getTime(int segment)
+    {
+        return (segment < 0) ? 0 : time[segment >>> BLOCK_SHIFT][segment & BLOCK_MASK];
+    }
+    
+    /**
+     * Returns the line of the job a segment came from.
+     *
+     * @param segment The index of the segment.
+     * @return The line of the job the segment came from.
+     */
+    public int getLine(int segment)
+    {
+        return line[segment >>> BLOCK_SHIFT][segment & BLOCK_MASK];
+    }
+    
+    /**
+     * Returns the motion type of a segment.
+     *
+     * @param segment The index of the segment.
+     * @return The motion type of the segment.
+     */
+    public byte getType(int segment)
+    {
+        return type[segment >>> BLOCK_SHIFT][segment & BLOCK_MASK];
+    }
+    
+    /**
+     * Returns the total distance travelled by the toolpath.
+     *
+     * @return The total distance travelled by the toolpath.
+     */
+    public double getTotalDistance()
+    {
+        return getDistance(size - 1);
+    }
+    
+    /**
+     * Returns the total motion time of the toolpath.
+     *
+     * @return The total motion time of the toolpath.
+     */
+    public double getTotalTime()
+    {
+        return getTime(size - 1);
+    }
+    
+    /**
+     * Returns the smallest x position of the toolpath.
+     *
+     * @return The smallest x position of the toolpath.
+     */
+    public double getMinX()
+    {
+        return minX;
+    }
+    
+    /**
+     * Returns the largest x position of the toolpath.
+     *
+     * @return The largest x position of the toolpath.
+     */
+    public double getMaxX()
+    {
+        return maxX;
+    }
+    
+    /**
+     * Returns the smallest y position of the toolpath.
+     *
+     * @return The smallest y position of the toolpath.
+     */
+    public double getMinY()
+    {
+        return minY;
+    }
+    
+    /**
+     * Returns the largest y position of the toolpath.
+     *
+     * @return The largest y position of the toolpath.
+     */
+    public double getMaxY()
+    {
+        return maxY;
+    }
+    
+    /**
+     * Returns the smallest z position of the toolpath.
+     *
+     * @return The smallest z position of the toolpath.
+     */
+    public double getMinZ()
+    {
+        return minZ;
+    }
+    
+    /**
+     * Returns the largest z position of the toolpath.
+     *
+     * @return The largest z position of the toolpath.
+     */
+    public double getMaxZ()
+    {
+        return maxZ;
+    }
+    
+}
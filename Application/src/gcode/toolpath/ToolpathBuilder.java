@@ -0,0 +1,302 @@
+/*
+ * File:    ToolpathBuilder.java
+ * Package: gcode.toolpath
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.toolpath;
+
+import gcode.ModalState;
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+import utils.GcodeProgressCalculator;
+
+import java.util.List;
+
+/**
+ * Builds the ToolpathBuffer of a gcode job in a single pass over its lines.<br/>
+ * Each line is lexed once; G20/G21, G90/G91 and F words update the modal state, and G0, G1, G2 and G3 moves append a segment ending at the position they move to.<br/>
+ * G2 and G3 arcs in the XY plane are split into as many segments as it takes to stay within ARC_TOLERANCE of the arc, the last of which ends at the position they move to.
+ */
+public final class ToolpathBuilder
+{
+    
+    //Constants
+    
+    /**
+     * The maximum distance between an arc and the segments it is split into.
+     */
+    public static final double ARC_TOLERANCE = 0.01;
+    
+    /**
+     * The maximum number of segments an arc is split into.
+     */
+    public static final int MAX_ARC_SEGMENTS = 256;
+    
+    
+    //Fields
+    
+    /**
+     * The toolpath being built.
+     */
+    private final ToolpathBuffer toolpath;
+    
+    /**
+     * The modal state of the job at the current line.
+     */
+    private final ModalState modalState = new ModalState();
+    
+    /**
+     * The word buffer for the line being appended.
+     */
+    private final GcodeWords words = new GcodeWords();
+    
+    /**
+     * The number of lines that have been appended.
+     */
+    private int lines = 0;
+    
+    /**
+     * The first line with a move that is not formatted properly, or -1 if there is none.
+     */
+    private int malformedLine = -1;
+    
+    /**
+     * The offset of the center of the arc being appended from its start.
+     */
+    private final double[] center = new double[2];
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a ToolpathBuilder.
+     *
+     * @param toolpath     The toolpath to build.
+     * @param distanceMode The distance mode before the first line.
+     */
+    public ToolpathBuilder(ToolpathBuffer toolpath, ModalState.DistanceMode distanceMode)
+    {
+        this.toolpath = toolpath;
+        modalState.setDistanceMode(distanceMode);
+    }
+    
+    /**
+     * The constructor for a ToolpathBuilder that starts at the origin in relative coordinates, as jobs are streamed to grbl.
+     */
+    public ToolpathBuilder()
+    {
+        this(new ToolpathBuffer(), ModalState.DistanceMode.RELATIVE);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Appends a line of the job.
+     *
+     * @param line The line.
+     * @return Whether the line was appended or not, false if it is a move that is not formatted properly.
+     */
+    public boolean append(CharSequence line)
+    {
+        GcodeLexer.lex(line, words);
+        return append(words);
+    }
+    
+    /**
+     * Appends a line of the job that has already been lexed.
+     *
+     * @param words The words of the line.
+     * @return Whether the line was appended or not, false if it is a move that is not formatted properly.
+     */
+    public boolean append(GcodeWords words)
+    {
+        int line = lines++;
+        
+        for (int i = 0; i < words.size(); i++) {
+            if (words.getLetter(i) == 'G') {
+                double code = words.getValue(i);
+                if (code == 20) {
+                    modalState.setUnits(ModalState.Units.IMPERIAL);
+                } else if (code == 21) {
+                    modalState.setUnits(ModalState.Units.METRIC);
+                } else if (code == 90) {
+                    modalState.setDistanceMode(ModalState.DistanceMode.ABSOLUTE);
+                } else if (code == 91) {
+                    modalState.setDistanceMode(ModalState.DistanceMode.RELATIVE);
+                }
+            }
+        }
+        
+        byte type = getMotionType(words);
+        if (type < 0) {
+            double feed = words.getValue('F', Double.NaN);
+            if (!Double.isNaN(feed)) {
+                modalState.setFeed(feed);
+            }
+            return true;
+        }
+        
+        boolean arc = (type == ToolpathBuffer.ARC_CW || type == ToolpathBuffer.ARC_CCW);
+        if (words.isMalformed('X') || words.isMalformed('Y') || words.isMalformed('Z') || words.isMalformed('F') ||
+                (arc && (words.isMalformed('I') || words.isMalformed('J') || words.isMalformed('R')))) {
+            if (malformedLine < 0) {
+                malformedLine = line;
+            }
+            return false;
+        }
+        
+        if (words.has('F')) {
+            modalState.setFeed(words.getValue('F', Double.NaN));
+        }
+        
+        int last = toolpath.size() - 1;
+        double x = toolpath.getX(last);
+        double y = toolpath.getY(last);
+        double z = toolpath.getZ(last);
+        if (modalState.getDistanceMode() == ModalState.DistanceMode.ABSOLUTE) {
+            x = words.getValue('X', x);
+            y = words.getValue('Y', y);
+            z = words.getValue('Z', z);
+        } else {
+            x += words.getValue('X', 0);
+            y += words.getValue('Y', 0);
+            z += words.getValue('Z', 0);
+        }
+        
+        double motionTime = GcodeProgressCalculator.calculateInstructionProgressUnits(words);
+        if (arc) {
+            appendArc(words, type, last, x, y, z, line);
+        }
+        toolpath.append(type, x, y, z, modalState.getFeed(), line, motionTime);
+        return true;
+    }
+    
+    /**
+     * Appends the segments of an arc before the segment that ends at the position it moves to.<br/>
+     * The motion time of the arc is given to its last segment, so the total motion time is the same as the sum over the lines of the job.
+     *
+     * @param words The words of the arc.
+     * @param type  The motion type of the arc.
+     * @param start The index of the segment the arc starts at the end of.
+     * @param endX  The x position the arc moves to.
+     * @param endY  The y position the arc moves to.
+     * @param endZ  The z position the arc moves to.
+     * @param line  The line of the arc.
+     */
+    private void appendArc(GcodeWords words, byte type, int start, double endX, double endY, double endZ, int line)
+    {
+        double startX = toolpath.getX(start);
+        double startY = toolpath.getY(start);
+        double startZ = toolpath.getZ(start);
+        boolean clockwise = (type == ToolpathBuffer.ARC_CW);
+        
+        center[0] = words.getValue('I', 0);
+        center[1] = words.getValue('J', 0);
+        if (words.has('R') && !ArcGeometry.centerFromRadius(endX - startX, endY - startY, words.getValue('R', 0), clockwise, center)) {
+            return;
+        }
+        double radius = Math.sqrt(center[0] * center[0] + center[1] * center[1]);
+        if (radius == 0) {
+            return;
+        }
+        
+        //rotate the start of the arc around its center
+        double fromX = -center[0];
+        double fromY = -center[1];
+        double sweep = ArcGeometry.sweep(fromX, fromY, endX - startX - center[0], endY - startY - center[1], clockwise);
+        int segments = ArcGeometry.segments(radius, sweep, ARC_TOLERANCE, MAX_ARC_SEGMENTS);
+        double step = (clockwise ? -sweep : sweep) / segments;
+        for (int i = 1; i < segments; i++) {
+            double cos = Math.cos(step * i);
+            double sin = Math.sin(step * i);
+            double x = startX + center[0] + fromX * cos - fromY * sin;
+            double y = startY + center[1] + fromX * sin + fromY * cos;
+            double z = startZ + (endZ - startZ) * i / segments;
+            toolpath.append(type, x, y, z, modalState.getFeed(), line, 0);
+        }
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Builds the toolpath of a job.
+     *
+     * @param lines The lines of the job.
+     * @return The toolpath of the job.
+     */
+    public static ToolpathBuffer build(List<String> lines)
+    {
+        ToolpathBuilder builder = new ToolpathBuilder();
+        for (String line : lines) {
+            builder.append(line);
+        }
+        return builder.getToolpath();
+    }
+    
+    /**
+     * Returns the motion type of a line.
+     *
+     * @param words The words of the line.
+     * @return The motion type of the line, or -1 if the line is not a move.
+     */
+    private static byte getMotionType(GcodeWords words)
+    {
+        if (words.isCommand('G', 0)) {
+            return ToolpathBuffer.RAPID;
+        } else if (words.isCommand('G', 1)) {
+            return ToolpathBuffer.LINEAR;
+        } else if (words.isCommand('G', 2)) {
+            return ToolpathBuffer.ARC_CW;
+        } else if (words.isCommand('G', 3)) {
+            return ToolpathBuffer.ARC_CCW;
+        }
+        return -1;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the toolpath being built.
+     *
+     * @return The toolpath being built.
+     */
+    public ToolpathBuffer getToolpath()
+    {
+        return toolpath;
+    }
+    
+    /**
+     * Returns the modal state of the job at the current line.
+     *
+     * @return The modal state of the job at the current line.
+     */
+    public ModalState getModalState()
+    {
+        return modalState;
+    }
+    
+    /**
+     * Returns the number of lines that have been appended.
+     *
+     * @return The number of lines that have been appended.
+     */
+    public int getLines()
+    {
+        return lines;
+    }
+    
+    /**
+     * Returns the first line with a move that is not formatted properly.
+     *
+     * @return The first line with a move that is not formatted properly, or -1 if there is none.
+     */
+    public int getMalformedLine()
+    {
+        return malformedLine;
+    }
+    
+}
@@ -6,21 +6,38 @@
 
 package grbl;
 
+import gcode.ModalState;
+import gcode.format.CoordinateFormat;
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+import gcode.toolpath.ToolpathBuffer;
+import gcode.toolpath.ToolpathBuilder;
+import grbl.simulator.GrblSimulator;
+import grbl.simulator.MotionModel;
+import grbl.simulator.VirtualClock;
+import grbl.transport.GrblTransport;
+import grbl.transport.LoopbackGrblTransport;
+import grbl.transport.SerialGrblTransport;
 import gui.interfaces.main.*;
 import gui.interfaces.popup.SystemNotificationController;
 import javafx.application.Platform;
-import javafx.scene.image.Image;
 import main.Main;
 import renderer.Renderer;
 import utils.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Facilitates the grbl  process.
  */
-public class APIgrbl extends Thread
+public class APIgrbl extends Thread implements GrblStreamer.Listener
 {
     
     //Constants
@@ -30,6 +47,26 @@ public class APIgrbl extends Thread
      */
     public static final int DEFAULT_TIME_REMAINING_HISTORY_COUNT = 5;
     
+    /**
+     * The minimum interval between status queries while streaming, in milliseconds.
+     */
+    public static final long STATUS_QUERY_INTERVAL = 200;
+    
+    /**
+     * The tag used to stream user entered commands.
+     */
+    private static final int USER_COMMAND_TAG = -1;
+    
+    /**
+     * The time to wait for grbl to report its settings before the first job is streamed, in milliseconds.
+     */
+    private static final long SETTINGS_TIMEOUT = 1000;
+    
+    /**
+     * The words of a G2 or G3 arc that describe its center or radius.
+     */
+    private static final char[] ARC_WORDS = {'I', 'J', 'K', 'R'};
+    
     
     //Static Fields
     
@@ -62,14 +99,19 @@ public class APIgrbl extends Thread
     private List<String> profiles = null;
     
     /**
-     * The list of gcode commands.
+     * The gcode commands of the job.
      */
-    private List<String> commands;
+    private CommandBuffer commands;
     
     /**
-     * The map from the index of the command that starts the profile and the image of that profile.
+     * The pipeline pre-processing the gcode file while it streams, or null if the whole job is in the list of commands.
      */
-    private Map<Integer, Image> profileImages;
+    private volatile GcodePipeline pipeline = null;
+    
+    /**
+     * The map from the index of the command that starts the profile and that profile.
+     */
+    private Map<Integer, RotationProfile> profileStarts;
     
     /**
      * A flag indicating whether grbl is done streaming or not.
@@ -112,14 +154,59 @@ public class APIgrbl extends Thread
     private String status = "Off";
     
     /**
-     * The buffer of user entered gcode commands.
+     * The connection to grbl, kept open for the whole session.
+     */
+    private GrblTransport transport = null;
+    
+    /**
+     * The character-counting streamer writing to the connection to grbl.
+     */
+    private GrblStreamer streamer = null;
+    
+    /**
+     * The channel for sending realtime commands to grbl ahead of the streamed lines.
+     */
+    private GrblRealtimeChannel realtime = null;
+    
+    /**
+     * The time of the last status query, in milliseconds.
      */
-    private List<String> commandsFromUI = new ArrayList<>();
+    private long lastStatusQuery = 0;
     
     /**
-     * The timer for checking user entered commands.
+     * The state of the machine, updated by every status report.
      */
-    private Timer commandCheckingTimer = null;
+    private final MachineState machineState = new MachineState();
+    
+    /**
+     * The parser for grbl's status reports.
+     */
+    private final StatusReportParser statusParser = new StatusReportParser();
+    
+    /**
+     * A flag indicating whether an update of the grbl status fields is waiting to run on the JavaFX thread or not.
+     */
+    private final AtomicBoolean coordinatesUpdatePending = new AtomicBoolean(false);
+    
+    /**
+     * The update of the grbl status fields on the Tracer tab, reused for every status report.
+     */
+    private final Runnable coordinatesUpdate = this::showCoordinates;
+    
+    /**
+     * The queue of user entered gcode commands.
+     */
+    private final CommandQueue userCommands = new CommandQueue();
+    
+    /**
+     * The user entered gcode commands that have been sent to grbl and not acknowledged yet, oldest first.
+     */
+    private final Queue<CommandQueue.Command> userCommandsInFlight = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * The thread writing user entered commands to grbl as soon as they are queued.
+     */
+    private Thread userCommandWriter = null;
 
     /**
      * The field to tell if it's in inches
@@ -136,11 +223,46 @@ public class APIgrbl extends Thread
      * Variable to check if we've started streaming
      */
     private boolean startedStreaming = false;
-
+    
+    /**
+     * The time the job was initialized, in nanoseconds.
+     */
+    private long jobStartTime = 0;
+    
+    /**
+     * The index of the first motion command of the job, or -1 if it has not been streamed yet.
+     */
+    private volatile int firstMoveIndex = -1;
+    
+    /**
+     * The time from the job being initialized to grbl accepting its first motion command, in milliseconds, or -1 if it has not been accepted yet.
+     */
+    private volatile long timeToFirstMove = -1;
+    
+    /**
+     * The compactor of the job being streamed, or null if the job is not compacted.
+     */
+    private GcodeCompactor compactor = null;
+    
+    /**
+     * The lock held while a command is compacted and sent, so the user entered commands sent during a job are ordered with the compacted commands of the job.
+     */
+    private final Object compactLock = new Object();
+    
+    /**
+     * The motion model of the machine, from the settings grbl reported in response to $$.
+     */
+    private volatile MotionModel motionModel = new MotionModel();
+    
+    /**
+     * A flag indicating whether grbl has been asked to report its settings or not.
+     */
+    private boolean settingsRequested = false;
+    
     /**
-     * A flag indicating whether grbl has been started yet or not.
+     * The cycle time estimate of the job, or null if the job has not been planned yet.
      */
-    private boolean grblStarted = false;
+    private volatile CycleTimeEstimator cycleTime = null;
     
     
     //Constructors
@@ -152,7 +274,7 @@ public class APIgrbl extends Thread
     {
         grbl = this;
         
-        setupCommandChecking();
+        startUserCommandWriter();
     }
     
     /**
@@ -194,45 +316,69 @@ public class APIgrbl extends Thread
      */
     public boolean initialize()
     {
-        commands = new ArrayList<>();
-        profileImages = new HashMap<>();
+        commands = new CommandBuffer();
+        profileStarts = new HashMap<>();
         totalProgress = 0;
-        grblStarted = false;
-
-        commands.add("G21"); //set units to millimeters
+        cycleTime = null;
+        jobStartTime = System.nanoTime();
+        firstMoveIndex = -1;
+        timeToFirstMove = -1;
+        cancelPipeline();
 
         if (profiles == null) {
-            // Modifies to gbrl acceptable gcode
-            GcodeModifier m = new GcodeModifier(filename);
-            if (!m.modify()) {
-                System.err.println("An error occurred while running the GcodeModifier on file: " + filename);
+            File gcode = new File(filename);
+            String key;
+            try {
+                key = JobCache.cacheKey(gcode, getModifierSettings());
+            } catch (IOException e) {
+                System.err.println("Cannot modify gcode file: " + gcode.getAbsolutePath() + ". File cannot be read!");
                 return false;
             }
-    
-            commands = m.getCommands();
+            
+            // Reuses the job compiled the last time the file was cut, or modifies it to gbrl acceptable gcode while it streams
+            CompiledJob job = JobCache.find(key);
+            if (job == null) {
+                pipeline = new GcodePipeline(filename, key);
+                pipeline.start();
+                currentProgress = 0;
+                return true;
+            }
+            
+            applyUnits(job);
+            commands.appendBlock(commands.addBlock(job));
             totalProgress = commands.size();
             currentProgress = 0;
 //            return adjustGcode();
             return true;
             
         } else {
-            commands.add("G91"); //use relative positioning
+            commands.append("G21"); //set units to millimeters
+            commands.append("G91"); //use relative positioning
+            
+            // each profile is modified and stored once, however many rotation steps cut it, and the job only references its block between the rotation moves
+            Map<String, Integer> profileBlocks = new HashMap<>();
+            int rotationBlock = commands.addBlock(Collections.singletonList("G0 Z" + String.format("%d", RotationController.rotationStep)));
     
             for (String profile : profiles) {
-                // Modifies to gbrl acceptable gcode
-                GcodeModifier m = new GcodeModifier(profile);
-                if (!m.modify()) {
-                    System.err.println("An error occurred while running the GcodeModifier on file: " + profile);
-                    return false;
+                Integer block = profileBlocks.get(profile);
+                if (block == null) {
+                    // Modifies to gbrl acceptable gcode, or reuses the job compiled the last time the profile was cut
+                    CompiledJob job = loadCompiledJob(profile);
+                    if (job == null) {
+                        return false;
+                    }
+                    block = commands.addBlock(job);
+                    profileBlocks.put(profile, block);
                 }
                 
-                if (!profileImages.containsValue(RotationController.controller.gcodeTraceMap.get(profile))) {
-                    profileImages.put(commands.size(), RotationController.controller.gcodeTraceMap.get(profile));
+                RotationProfile rotationProfile = RotationController.controller.getProfile(profile);
+                if (rotationProfile != null && !profileStarts.containsValue(rotationProfile)) {
+                    profileStarts.put(commands.size(), rotationProfile);
                 }
                 
-                commands.addAll(m.getCommands());
+                commands.appendBlock(block);
                 if (profiles.size() > 1) {
-                    commands.add("G0 Z" + String.format("%d", RotationController.rotationStep));
+                    commands.appendBlock(rotationBlock);
                 }
             }
             totalProgress = commands.size();
@@ -242,131 +388,232 @@ public class APIgrbl extends Thread
         return true;
     }
     
+    /**
+     * Loads the compiled job for a gcode file, reusing the job loaded earlier in the session while the file is unchanged, or compiling it with the GcodeModifier if it is not in the job cache.<br/>
+     * The units set by the job are applied, as the GcodeModifier does when it modifies the file.
+     *
+     * @param file The gcode file.
+     * @return The compiled job, or null if the gcode file could not be modified.
+     */
+    private CompiledJob loadCompiledJob(String file)
+    {
+        CompiledJob job = JobCache.loadSession(file, getModifierSettings());
+        if (job == null) {
+            System.err.println("An error occurred while running the GcodeModifier on file: " + file);
+            return null;
+        }
+        
+        applyUnits(job);
+        return job;
+    }
+    
+    /**
+     * Applies the units set by a compiled job.
+     *
+     * @param job The compiled job.
+     */
+    private void applyUnits(CompiledJob job)
+    {
+        if (job.getUnits() == CompiledJob.UNITS_METRIC) {
+            setMetric();
+        } else if (job.getUnits() == CompiledJob.UNITS_IMPERIAL) {
+            setImperial();
+        }
+    }
+    
+    /**
+     * Moves the next command from the pre-processing pipeline into the list of commands, querying grbl's status while it waits for the command to be modified.
+     *
+     * @return Whether a command was received or not, false when there are no more commands in the job.
+     * @throws IOException When grbl's status could not be queried.
+     */
+    private boolean receiveCommand() throws IOException
+    {
+        GcodePipeline pipeline = this.pipeline;
+        if (pipeline == null) {
+            return false;
+        }
+        
+        try {
+            String command;
+            while ((command = pipeline.poll(STATUS_QUERY_INTERVAL)) == null) {
+                if (pipeline.isFinished()) {
+                    totalProgress = commands.size();
+                    estimateCycleTime();
+                    return false;
+                }
+                queryStatus();
+            }
+            
+            commands.append(command);
+            totalProgress = Math.max(commands.size(), pipeline.getEstimatedSize());
+            return true;
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Asks grbl to report its settings, the first time a job is streamed, so the motion model matches the machine.<br/>
+     * grbl only reports its settings when it is idle, so they are read before the job starts moving the machine.
+     */
+    private void requestSettings()
+    {
+        if (settingsRequested) {
+            return;
+        }
+        settingsRequested = true;
+        
+        try {
+            sendRequest("$$").get(SETTINGS_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("grbl did not report its settings, the time remaining will be estimated with the default settings.");
+        }
+    }
+    
+    /**
+     * Plans the job in the background once all of its commands are in the list of commands, for the time remaining.
+     */
+    private void estimateCycleTime()
+    {
+        CommandBuffer job = commands;
+        MotionModel model = motionModel;
+        CompletableFuture.runAsync(() -> {
+            CycleTimeEstimator estimator = new CycleTimeEstimator(model);
+            CommandBuffer.LineView lineView = job.newLineView();
+            for (int line = 0; line < job.size(); line++) {
+                estimator.append(lineView.moveTo(line));
+            }
+            estimator.finish();
+            
+            //the job may have been replaced while it was planned
+            if (commands == job) {
+                cycleTime = estimator;
+                System.out.println(String.format("The job is estimated to take %s", formatTime(estimator.getTotalTime())));
+            }
+        });
+    }
+    
+    /**
+     * Cancels the pre-processing pipeline, if there is one.
+     */
+    private void cancelPipeline()
+    {
+        GcodePipeline pipeline = this.pipeline;
+        this.pipeline = null;
+        if (pipeline != null) {
+            pipeline.cancel();
+        }
+    }
+    
+    /**
+     * Returns the settings that affect the output of the GcodeModifier, which compiled jobs are cached under.
+     *
+     * @return The settings that affect the output of the GcodeModifier.
+     */
+    private static String getModifierSettings()
+    {
+        return "MAX_SPEED=" + GcodeController.MAX_SPEED + ",ARC_TOLERANCE=" + ArcFitter.arcTolerance +
+                ",SIMPLIFY_TOLERANCE=" + PathSimplifier.simplifyTolerance + ",SIMPLIFY_Z_TOLERANCE=" + PathSimplifier.simplifyZTolerance +
+                ",TRAVEL_OPTIMIZATION=" + TravelOptimizer.travelOptimization;
+    }
+    
+    /**
+     * Determines whether a gcode command moves the machine or not.
+     *
+     * @param command The gcode command.
+     * @return Whether the gcode command moves the machine or not.
+     */
+    private static boolean isMotionCommand(CharSequence command)
+    {
+        int end = 0;
+        while (end < command.length() && command.charAt(end) != ' ') {
+            end++;
+        }
+        if (end < 2 || end > 3 || command.charAt(0) != 'G') {
+            return false;
+        }
+        
+        char code = command.charAt(end - 1);
+        return (end == 2) ? (code >= '0' && code <= '3') : (command.charAt(1) == '0' && (code == '0' || code == '1'));
+    }
+    
     /**
      * Starts the grbl processor.
      */
     public void run()
     {
-        //Begin streaming the gcode file
-        partitionAndStream();
+        //Begin streaming the gcode file, the serial ports are not polled while the job streams
+        MachineDetector.setHotPlugMonitorSuspended(true);
+        try {
+            partitionAndStream();
+        } finally {
+            MachineDetector.setHotPlugMonitorSuspended(false);
+        }
     }
     
     /**
-     * Parses the gcode file into packets and streams them to the Arduino.
+     * Streams the gcode commands to the Arduino, keeping grbl's receive buffer full.
      */
     private void partitionAndStream()
     {
-        File tempDirectory = new File(Constants.GRBL_TEMP_DIRECTORY);
-        File tempFile = new File(tempDirectory, "tempfile.txt");
-        if (!tempDirectory.exists() || !tempFile.exists()) {
-            try {
-                tempDirectory.mkdir();
-                tempFile.createNewFile();
-            } catch (IOException e) {
-                System.err.println("There was an error creating tempfile.txt used for streaming!");
-                e.printStackTrace();
-                SystemNotificationController.throwNotification("There was an error streaming to the machine!", true, false);
-                return;
-            }
+        if (!openConnection()) {
+            SystemNotificationController.throwNotification("There was an error streaming to the machine!", true, false);
+            return;
         }
         
+        streamer.resume();
+        
+        // the toolpath the tracer follows when it is not connected to grbl
+        ToolpathBuilder bypassToolpath = new ToolpathBuilder(new ToolpathBuffer(), ModalState.DistanceMode.ABSOLUTE);
+        
+        requestSettings();
+        if (pipeline == null) {
+            estimateCycleTime();
+        }
+        
+        synchronized (compactLock) {
+            compactor = GcodeCompactor.compactStream ? new GcodeCompactor() : null;
+        }
+        
+        // the line being streamed, read from the command buffer without creating a String
+        CommandBuffer.LineView lineView = commands.newLineView();
+        
         try {
             int i = 0;
             startedStreaming = true;
-            while (i < commands.size()) {
-
-                BufferedWriter bw = new BufferedWriter(new FileWriter(tempFile));
-                StringBuilder sb = new StringBuilder();
-
-                int charsUsed = 0;
+            while (i < commands.size() || receiveCommand()) {
 
-                if (profileImages.containsKey(i)) {
-                    ModelController.setCurrentProfileImage(profileImages.get(i));
+                if (profileStarts.containsKey(i)) {
+                    RotationProfile profile = profileStarts.get(i);
+                    Platform.runLater(() -> RotationController.controller.loadThumbnail(profile).thenAccept(ModelController::setCurrentProfileImage));
 
-                    File profileGcode = new File(RotationController.controller.gcodeTraceFileMap.get(profileImages.get(i)));
+                    File profileGcode = new File(profile.getFile());
                     Platform.runLater(() -> ModelController.setFileName(profileGcode.getName()));
                     Platform.runLater(() -> ModelController.setFileSize(ModelController.calculateFileSize(profileGcode)));
                 }
 
                 if (Main.development && Main.bypassArduinoForTracer && MachineDetector.isCncMachine()) {
-                    TracerGcodeBypass.traceGcodeCommand(commands.get(i), true);
+                    int segment = bypassToolpath.getToolpath().size();
+                    bypassToolpath.append(commands.get(i));
+                    for (; segment < bypassToolpath.getToolpath().size(); segment++) {
+                        TracerGcodeBypass.traceSegment(bypassToolpath.getToolpath(), segment);
+                    }
                 }
 
-                // create string to be printed
-                String gcode = commands.get(i++) + '\n';
-                bw.write(gcode);
-                bw.close();
-
-                currentProgress++;
-
-
-//                while (i < commands.size()) {
-//
-//                    BufferedWriter bw = new BufferedWriter(new FileWriter(tempFile));
-//                    StringBuilder sb = new StringBuilder();
-//
-//                    int charsUsed = 0;
-//                    int packetProgressUnits = 0;
-//
-//                    while (charsUsed < 127) {
-//                        if (profileImages.containsKey(i)) {
-//                            ModelController.setCurrentProfileImage(profileImages.get(i));
-//
-//                            File profileGcode = new File(RotationController.controller.gcodeTraceFileMap.get(profileImages.get(i)));
-//                            Platform.runLater(() -> ModelController.setFileName(profileGcode.getName()));
-//                            Platform.runLater(() -> ModelController.setFileSize(ModelController.calculateFileSize(profileGcode)));
-//                        }
-//
-//                        String newCommand = null;
-//                        if (i < commands.size()) {
-//                            newCommand = commands.get(i);
-//                            i++;
-//                        }
-//
-//                        if (newCommand != null) {
-//                            if ((newCommand.length() + charsUsed + 1) < 127) {
-//                                // append what will be written
-//                                sb.append(newCommand);
-//                                sb.append('\n');
-//
-//                                if (Main.development && Main.bypassArduinoForTracer && MachineDetector.isCncMachine()) {
-//                                    TracerGcodeBypass.traceGcodeCommand(commands.get(i), true);
-//                                }
-//
-//                                // update counts
-//                                charsUsed += newCommand.length() + 1;
-//                                packetProgressUnits++;
-//                            } else {
-//                                // end of 127 char limit
-//                                i--;
-//                                charsUsed = 127;
-//                            }
-//                        } else {
-//                            // end of file, stopping conditions
-//                            charsUsed = 127;
-//                        }
-//                    }
-//                    currentProgress += packetProgressUnits;
-//
-//                    // create string to be printed
-//                    String gcode = sb.toString();
-////                String gcode = commands.get(i++) + '\n';
-//                    bw.write(gcode);
-//                    bw.close();
-
-        
-                // Update UI
-                while (gcode.contains("\n\n")) {
-                    gcode = gcode.replaceAll("\\n\\n", "\n");
-                }
-                if (!gcode.isEmpty()) {
-                    GcodeController.codeBlock.add(gcode);
-                }
+                // Update UI, the text of the line is only built when the gcode window is redrawn
+                int index = i++;
+                CharSequence command = lineView.moveTo(index);
+                GcodeController.codeBlock.record(commands, index);
         
                 // Check for pause/resume
                 if (MenuController.paused) {
                     synchronized (this) {
-                        while (MenuController.paused) {
+                        while (MenuController.paused && !MenuController.stopped) {
                             try {
                                 wait();
                             } catch (InterruptedException e) {
@@ -382,47 +629,66 @@ public class APIgrbl extends Thread
                 if (MenuController.stopped) {
                     // Reset UI
                     currentProgress = 0;
+                    cancelPipeline();
+                    startedStreaming = false;
                     return;
                 }
 
-                while (commandsFromUI.size() > 0) {
-                    //create new process and add to the response for UI
-                    handleRequest();
+                // stream the command as soon as there is room for it in grbl's receive buffer
+                if (firstMoveIndex == -1 && isMotionCommand(command)) {
+                    firstMoveIndex = index;
                 }
-                
-                // execute stream.py with the file created, get input stream as a response
-                Process process = null;
-                while (process == null) {
-                    process = CmdLine.executeCmdAsThread("py " + Constants.GRBL_DIRECTORY + "stream.py \"" + Constants.GRBL_TEMP_DIRECTORY + tempFile.getName() + "\" " + (grblStarted ? "1" : "0") + "\n");
-                    if (!grblStarted) {
-                        grblStarted = true;
-                    }
-                    if (process != null) {
-                        BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream()));
-    
-                        String line = "";
-                        while (line.isEmpty()) {
-                            line = r.readLine();
-        
-                            if (!line.isEmpty()) {
-                                System.out.println(line);
-                                if(MachineDetector.isCncMachine())
-                                {
-                                    updateCoordinates(line);
-                                }
-                            }
-                        }
-                    } else {
-                        System.err.println("Error attempting to run stream.py! Reattempting...");
-                        try {
-                            Thread.sleep(100);
-                        } catch (InterruptedException ignored) {
-                        }
+                boolean sent;
+                synchronized (compactLock) {
+                    sent = (compactor == null) ? streamer.send(commands, index, index) : streamer.send(compactor.compact(command), index);
+                    if (!sent && !streamer.isRunning()) {
+                        throw new IOException("The connection to grbl was closed!");
                     }
                 }
+                
+                //the line is longer than grbl's receive buffer, so grbl could never accept it and the job cannot continue without it
+                if (!sent && !streamer.isHalted() && !MenuController.stopped) {
+                    System.err.println("The gcode line: " + command + " at line: " + (index + 1) + " is longer than grbl's receive buffer!");
+                    SystemNotificationController.throwNotification("Line " + (index + 1) + " of your gcode file is too long to be sent to the machine!", true, false);
+                    initiateStop();
+                    currentProgress = 0;
+                    cancelPipeline();
+                    startedStreaming = false;
+                    return;
+                }
+
+                // the job was stopped while the command waited for room in grbl's receive buffer
+                if (streamer.isHalted() || MenuController.stopped) {
+                    currentProgress = 0;
+                    cancelPipeline();
+                    startedStreaming = false;
+                    return;
+                }
+                queryStatus();
+            }
+            
+            GcodePipeline pipeline = this.pipeline;
+            this.pipeline = null;
+            if (pipeline != null && pipeline.isFailed()) {
+                System.err.println("An error occurred while running the GcodeModifier on file: " + filename);
+                SystemNotificationController.throwNotification("Your gcode file could not be read!", true, false);
+                initiateStop();
+                return;
+            }
+            
+            // wait for grbl to acknowledge the rest of the job
+            if (!streamer.drain()) {
+                throw new IOException("The connection to grbl was closed!");
+            }
+            synchronized (compactLock) {
+                if (compactor != null) {
+                    compactor.flush(line -> {
+                    });
+                    compactor = null;
+                }
             }
         } catch (IOException e) {
-            System.err.println("There was an error writing tempfile.txt during streaming!");
+            System.err.println("There was an error communicating with grbl during streaming!");
             e.printStackTrace();
             SystemNotificationController.controller.raise("There was an error streaming to the machine!", false, false);
             return;
@@ -430,7 +696,6 @@ public class APIgrbl extends Thread
         
         // Reset UI
         doneStreaming = true;
-        grblStarted = false;
         startedStreaming = false;
     }
     
@@ -447,79 +712,70 @@ public class APIgrbl extends Thread
         double yAdjustment = Renderer.yAdjustment;
         double zAdjustment = Renderer.zAdjustment;
 
-        double xMax = 0;
-        double yMax = 0;
-        double zMax = 0;
-
         boolean absolute = false;
 
+        CommandBuffer adjusted = new CommandBuffer();
+        ToolpathBuilder toolpath = new ToolpathBuilder();
+        GcodeWords words = new GcodeWords();
         for (int i = 0; i < commands.size(); i++) {
             String command = commands.get(i);
+            String adjustedCommand = command;
+            GcodeLexer.lex(command, words);
+            toolpath.append(words);
 
-            List<String> tokens = new ArrayList<>();
-            StringTokenizer st = new StringTokenizer(command);
-            while (st.hasMoreTokens()) {
-                tokens.add(st.nextToken());
-            }
-
-            if (tokens.size() > 0) {
-                if (tokens.get(0).equals("G90")) {
+            if (words.size() > 0) {
+                if (words.isToken(0, "G90")) {
                     absolute = true;
                 }
 
-                if (tokens.get(0).equals("G1") || tokens.get(0).equals("G0")) {
-    
-                    double x = Double.MIN_VALUE;
-                    double y = Double.MIN_VALUE;
-                    double z = Double.MIN_VALUE;
-                    double f = Double.MIN_VALUE;
-
-                    try {
-                        for (String token : tokens) {
-                            if (token.startsWith("X")) {
-                                x = Double.parseDouble(token.substring(1)) + xAdjustment;
-                            } else if (token.startsWith("Y")) {
-                                y = Double.parseDouble(token.substring(1)) + yAdjustment;
-                            } else if (token.startsWith("Z")) {
-                                z = Double.parseDouble(token.substring(1)) + zAdjustment;
-                            } else if (token.startsWith("F")) {
-                                f = Double.parseDouble(token.substring(1));
-                            }
-                        }
-
-                        if (Math.abs(x) > xMax) {
-                            xMax = Math.abs(x);
-                        }
-                        if (Math.abs(y) > yMax) {
-                            yMax = Math.abs(y);
-                        }
-                        if (z > zMax) {
-                            zMax = z;
-                        }
+                boolean arc = words.isToken(0, "G2") || words.isToken(0, "G3");
+                if (words.isToken(0, "G1") || words.isToken(0, "G0") || arc) {
     
-                        StringBuilder newCommand = new StringBuilder(tokens.get(0)).append(" ");
-                        if (x != Double.MIN_VALUE) {
-                            newCommand.append(String.format("X%.3f ", x));
-                        }
-                        if (y != Double.MIN_VALUE) {
-                            newCommand.append(String.format("Y%.3f ", y));
-                        }
-                        if (z != Double.MIN_VALUE) {
-                            newCommand.append(String.format("Z%.3f ", z));
-                        }
-                        if (f != Double.MIN_VALUE) {
-                            newCommand.append(String.format("F%.3f ", f));
-                        }
-                        commands.set(i, newCommand.toString());
-
-                    } catch (NumberFormatException e) {
+                    if (words.isMalformed('X') || words.isMalformed('Y') || words.isMalformed('Z') || words.isMalformed('F') ||
+                            (arc && (words.isMalformed('I') || words.isMalformed('J') || words.isMalformed('K') || words.isMalformed('R')))) {
                         System.err.println("Error making adjustments to gcode instruction: " + command + ". Number is not formatted properly!");
                         SystemNotificationController.throwNotification("There was an error adjusting the gcode to fit the machine!", true, false);
                         return false;
                     }
+                    
+                    double x = words.has('X') ? words.getValue('X', 0) + xAdjustment : Double.MIN_VALUE;
+                    double y = words.has('Y') ? words.getValue('Y', 0) + yAdjustment : Double.MIN_VALUE;
+                    double z = words.has('Z') ? words.getValue('Z', 0) + zAdjustment : Double.MIN_VALUE;
+                    double f = words.getValue('F', Double.MIN_VALUE);
+    
+                    StringBuilder newCommand = words.appendText(0, new StringBuilder()).append(" ");
+                    if (x != Double.MIN_VALUE) {
+                        CoordinateFormat.appendWord(newCommand, 'X', x);
+                    }
+                    if (y != Double.MIN_VALUE) {
+                        CoordinateFormat.appendWord(newCommand, 'Y', y);
+                    }
+                    if (z != Double.MIN_VALUE) {
+                        CoordinateFormat.appendWord(newCommand, 'Z', z);
+                    }
+                    if (arc) {
+                        // the center and radius of an arc are relative to its start, so they are not adjusted
+                        for (char letter : ARC_WORDS) {
+                            if (words.has(letter)) {
+                                CoordinateFormat.appendWord(newCommand, letter, words.getValue(letter, 0));
+                            }
+                        }
+                    }
+                    if (f != Double.MIN_VALUE) {
+                        CoordinateFormat.appendWord(newCommand, 'F', f);
+                    }
+                    adjustedCommand = newCommand.toString();
                 }
             }
+            adjusted.append(adjustedCommand);
         }
+        commands = adjusted;
+
+        // the adjustment moves every absolute position of the toolpath by the same amount
+        ToolpathBuffer path = toolpath.getToolpath();
+        double xMax = Math.max(Math.abs(path.getMinX() + xAdjustment), Math.abs(path.getMaxX() + xAdjustment));
+        double yMax = Math.max(Math.abs(path.getMinY() + yAdjustment), Math.abs(path.getMaxY() + yAdjustment));
+        double zMax = path.getMaxZ() + zAdjustment;
 
         if (absolute) {
             if (xMax > ModelController.maxXTravelCnc / 2.0 || yMax > ModelController.maxYTravelCnc / 2.0 || zMax > ModelController.maxZTravelCnc) {
@@ -538,203 +794,241 @@ public class APIgrbl extends Thread
     }
     
     /**
-     * Queues a new user entered gcode command.
+     * Queues a new user entered gcode command, which is sent to grbl immediately, between the lines of a job if one is streaming.
      *
      * @param command The command.
+     * @return The future completed with grbl's response to the command, or completed exceptionally if the command could not be sent or grbl was reset before it responded.
      */
-    public void sendRequest(String command)
+    public CompletableFuture<String> sendRequest(String command)
     {
-        commandsFromUI.add(command);
+        return userCommands.offer(command).getResponse();
     }
     
     /**
-     * Checks for user entered commands to process.
+     * Starts the thread writing user entered commands to grbl.
      */
-    private void setupCommandChecking()
+    private void startUserCommandWriter()
     {
-        TimerTask checkCommands = new TimerTask()
-        {
-            @Override
-            public void run()
-            {
-                // check for commands from UI
-                if (!startedStreaming) {
-                    while (commandsFromUI.size() > 0) {
-                        //create new process and add to the response for UI
-                        handleRequest();
-                        
-                        if (startedStreaming) {
-                            break;
-                        }
-                    }
+        userCommandWriter = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    handleRequest(userCommands.take());
                 }
+            } catch (InterruptedException ignored) {
             }
-        };
-        commandCheckingTimer = new Timer();
-        commandCheckingTimer.scheduleAtFixedRate(checkCommands, 0, 100);
+        }, "grbl-user-commands");
+        userCommandWriter.setDaemon(true);
+        userCommandWriter.start();
     }
     
     /**
      * Performs a user entered command.
+     *
+     * @param command The command.
      */
-    private synchronized void handleRequest()
+    private void handleRequest(CommandQueue.Command command)
     {
-        File tempDirectory = new File(Constants.GRBL_TEMP_DIRECTORY);
-        File tempCommand = new File(tempDirectory, "tempCommand.txt");
-        if (!tempDirectory.exists() || !tempCommand.exists()) {
-            try {
-                tempDirectory.mkdir();
-                tempCommand.createNewFile();
-            } catch (IOException e) {
-                System.err.println("There was an error creating tempcommand.txt used for streaming user commands!");
-                e.printStackTrace();
-                SystemNotificationController.throwNotification("There was an error executing your command!", false, false);
-                return;
-            }
+        if (!openConnection()) {
+            command.getResponse().completeExceptionally(new IOException("The connection to grbl could not be opened!"));
+            return;
+        }
+        
+        System.out.println("> " + command.getText());
+        
+        //a command entered after a job was stopped is sent once the job is no longer streaming
+        if (!startedStreaming) {
+            streamer.resume();
         }
         
+        //the command is in flight before it is written, as grbl may respond before the write returns
+        userCommandsInFlight.add(command);
         try {
-            //write the command to file
-            BufferedWriter bw = new BufferedWriter(new FileWriter(tempCommand));
-            bw.write(commandsFromUI.get(0));
-            bw.close();
-            
-            System.out.println("> " + commandsFromUI.get(0));
-            
-            // execute stream.py with the command being sent, get input stream as a response
-            Process process = null;
-            while (process == null) {
-                process = CmdLine.executeCmdAsThread("py " + Constants.GRBL_DIRECTORY + "stream.py \"" + Constants.GRBL_TEMP_DIRECTORY + tempCommand.getName() + "\" " + (grblStarted ? "1" : "0") + "\n");
-                if (process != null) {
-                    BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream()));
-    
-
-                    
-                    String line;
-                    while (true) {
-                        line = r.readLine();
-                        if (line == null || line.isEmpty()) {
-                            break;
-                        }
-                        
-                        System.out.println(line);
-                        GcodeController.commandBlock.add(' ' + line);
-                    }
-                } else {
-                    System.err.println("Error attempting to run stream.py! Reattempting...");
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException ignored) {
-                    }
+            synchronized (compactLock) {
+                //the command may change the modal state the compactor of the job has sent to grbl
+                if (compactor != null) {
+                    compactor.reset();
+                }
+                if (!streamer.send(command.getText(), USER_COMMAND_TAG)) {
+                    userCommandsInFlight.remove(command);
+                    command.getResponse().completeExceptionally(new IOException("The command was not sent to grbl!"));
                 }
             }
         } catch (IOException e) {
-            System.err.println("There was an error writing a user entered command or reading grbl's response!");
+            userCommandsInFlight.remove(command);
+            System.err.println("There was an error writing a user entered command to grbl!");
             e.printStackTrace();
-            SystemNotificationController.throwNotification("There was an error executing your command!", false, false);
+            command.getResponse().completeExceptionally(e);
+        }
+    }
+    
+    /**
+     * Fails the user entered commands in flight, as grbl discards them when it is reset.
+     */
+    private void abandonUserCommands()
+    {
+        CommandQueue.Command command;
+        while ((command = userCommandsInFlight.poll()) != null) {
+            command.getResponse().completeExceptionally(new IOException("grbl was reset before responding to the command!"));
+        }
+    }
+    
+    /**
+     * Handles grbl acknowledging a streamed line.
+     *
+     * @param tag      The index of the gcode command, or the user command tag.
+     * @param response The response from grbl, either "ok" or "error:N".
+     */
+    @Override
+    public void lineAcknowledged(int tag, String response)
+    {
+        if (tag == USER_COMMAND_TAG) {
+            System.out.println(response);
+            CommandQueue.Command command = userCommandsInFlight.poll();
+            if (command != null) {
+                command.getResponse().complete(response);
+            }
+        } else {
+            currentProgress++;
+            if (tag == firstMoveIndex && timeToFirstMove == -1) {
+                timeToFirstMove = (System.nanoTime() - jobStartTime) / 1000000;
+                System.out.println(String.format("grbl started the first move %d ms after the job was started", timeToFirstMove));
+            }
+            if (response.startsWith("error")) {
+                System.err.println("grbl rejected the command: " + commands.get(tag) + ". " + response);
+            }
+        }
+    }
+    
+    /**
+     * Handles a status report from grbl.
+     *
+     * @param report The status report.
+     */
+    @Override
+    public void statusReported(String report)
+    {
+        realtime.handle(report);
+        
+        if (!statusParser.parse(report, machineState)) {
             return;
         }
+        setStatus(machineState.getState().getName());
         
-        commandsFromUI.remove(0);
+        if (MachineDetector.isCncMachine()) {
+            updateCoordinates();
+        }
     }
     
     /**
-     * Updates the grbl status fields from grbl feedback.
+     * Handles any other message from grbl.
      *
-     * @param line The grbl feedback.
+     * @param message The message.
      */
-    private void updateCoordinates(String line)
+    @Override
+    public void messageReceived(String message)
     {
-        //  Parse line into coordinates
-        String[] decomposed = line.split(",");
-
-        if (decomposed.length != 7) {
-            return;
+        realtime.handle(message);
+        motionModel = motionModel.withSetting(message);
+        
+        System.out.println(message);
+        GcodeController.commandBlock.add(' ' + message);
+    }
+    
+    /**
+     * Updates the grbl status fields from the machine state.<br/>
+     * The fields on the Tracer tab are updated at most once per frame, however often grbl reports its status.
+     */
+    private void updateCoordinates()
+    {
+        setX(machineState.getMachinePosition(0));
+        setY(machineState.getMachinePosition(1));
+        setZ(machineState.getMachinePosition(2));
+        TraceController.addTrace(getCoordinateX(), getCoordinateY(), getCoordinateZ());
+        
+        if (coordinatesUpdatePending.compareAndSet(false, true)) {
+            Platform.runLater(coordinatesUpdate);
         }
-
-        setStatus(decomposed[0].substring(1));
-        String[] first = decomposed[1].split(":");
-        setX(Double.parseDouble(first[1]));
-        setY(Double.parseDouble(decomposed[2]));
-        setZ(Double.parseDouble(decomposed[3]));
-
-        String x = String.format("%.2f", getCoordinateX());
-        String y = String.format("%.2f", getCoordinateY());
-        String z = String.format("%.2f", getCoordinateZ());
+    }
+    
+    /**
+     * Displays the latest grbl status fields on the Tracer tab, on the JavaFX thread.
+     */
+    private void showCoordinates()
+    {
+        coordinatesUpdatePending.set(false);
+        
         String status = getStatus();
-
-        Platform.runLater(()->{
-            TraceController.controller.grblX.setText(x);
-            TraceController.controller.grblY.setText(y);
-            TraceController.controller.grblZ.setText(z);
-            TraceController.controller.grblStatus.setText(status.equals("Idle") ? "Run" : status);
-            TraceController.addTrace(getCoordinateX(), getCoordinateY(), getCoordinateZ());
-        });
+        TraceController.controller.grblX.setText(String.format("%.2f", getCoordinateX()));
+        TraceController.controller.grblY.setText(String.format("%.2f", getCoordinateY()));
+        TraceController.controller.grblZ.setText(String.format("%.2f", getCoordinateZ()));
+        TraceController.controller.grblStatus.setText(status.equals("Idle") ? "Run" : status);
     }
-
+    
+    /**
+     * Queries the status of grbl, at most once per status query interval.<br/>
+     * The status report is received by statusReported().
+     *
+     * @throws IOException When there was an error communicating with grbl.
+     */
+    private void queryStatus() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        if (now - lastStatusQuery >= STATUS_QUERY_INTERVAL) {
+            lastStatusQuery = now;
+            realtime.send(RealtimeCommand.STATUS_QUERY);
+        }
+    }
+    
     /**
-     * Queries the status of grbl.
+     * Opens the connection to grbl and starts streaming to it, if that has not already been done.
+     *
+     * @return Whether the connection to grbl is open or not.
      */
-    private void queryStatus()
+    private synchronized boolean openConnection()
     {
-        File tempDirectory = new File(Constants.GRBL_TEMP_DIRECTORY);
-        File tempCommand = new File(tempDirectory, "tempQuery.txt");
-        if (!tempDirectory.exists() || !tempCommand.exists()) {
+        //a serial connection that was closed, as when the Arduino was unplugged, is not opened again as the Arduino may be on another port now
+        if (transport instanceof SerialGrblTransport && !transport.isOpen()) {
+            if (streamer != null) {
+                streamer.stop();
+                streamer = null;
+            }
+            transport = null;
+        }
+        
+        if (transport == null) {
+            if (Main.development && Main.simulateGrbl) {
+                transport = new GrblSimulator(new MotionModel(), new VirtualClock(1), SerialGrblTransport.BAUD_RATE);
+            } else if (Main.development && Main.bypassArduinoForTracer) {
+                transport = new LoopbackGrblTransport();
+            } else {
+                transport = new SerialGrblTransport(MachineDetector.getPort());
+            }
+        }
+        
+        if (!transport.isOpen()) {
             try {
-                tempDirectory.mkdir();
-                tempCommand.createNewFile();
+                transport.open();
             } catch (IOException e) {
-                System.err.println("There was an error creating tempQuery.txt used for streaming instructions!");
+                System.err.println("There was an error opening the connection to grbl!");
                 e.printStackTrace();
-                SystemNotificationController.throwNotification("There was an error in grbl's status when querying it!", false, false);
-                return;
+                return false;
             }
         }
-
-        try {
-            //write the command to file
-            BufferedWriter bw = new BufferedWriter(new FileWriter(tempCommand));
-            bw.write("?\n");
-            bw.close();
-
-            // execute stream.py with the command being sent, get input stream as a response
-            Process process = null;
-            while (process == null) {
-                process = CmdLine.executeCmdAsThread("python " + Constants.GRBL_DIRECTORY + "stream.py \"" + Constants.GRBL_TEMP_DIRECTORY + tempCommand.getName() + "\" " + (grblStarted ? "1" : "0") + "\n");
-                if (process != null) {
-                    BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-                    String line;
-                    while (true) {
-                        line = r.readLine();
-                        if (line == null || line.isEmpty()) {
-                            break;
-                        }
-
-                        //  Parse line into coordinates
-                        String[] decomposed = line.split("[,]");
-
-                        if (decomposed.length != 7) {
-                            return;
-                        }
-
-                        setStatus(decomposed[0].substring(1));
-                        System.out.println(line + " Status Query");
-                    }
-                } else {
-                    System.err.println("Error attempting to run stream.py! Reattempting...");
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException ignored) {
-                    }
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("There was an error writing a user entered command or reading grbl's response!");
-            e.printStackTrace();
-            SystemNotificationController.throwNotification("There was an error executing your command!", false, false);
-            return;
+        
+        if (streamer == null || !streamer.isRunning()) {
+            realtime = new GrblRealtimeChannel(transport);
+            streamer = new GrblStreamer(transport, this);
+            streamer.start();
         }
+        return true;
+    }
+    
+    /**
+     * Handles a Pause event by putting grbl in a feed hold immediately.
+     */
+    public void initiatePause()
+    {
+        sendRealtime(RealtimeCommand.FEED_HOLD);
     }
     
     /**
@@ -742,21 +1036,68 @@ public class APIgrbl extends Thread
      */
     public synchronized void initiateResume()
     {
+        sendRealtime(RealtimeCommand.CYCLE_START);
+        notify();
+    }
+    
+    /**
+     * Handles a Stop event by resetting grbl immediately, which halts the machine and discards its buffers.<br/>
+     * The streamer is halted before grbl is reset, so a line of the job that was waiting for room in grbl's receive buffer is never sent after the reset.
+     */
+    public synchronized void initiateStop()
+    {
+        if (streamer != null) {
+            streamer.halt();
+        }
+        sendRealtime(RealtimeCommand.SOFT_RESET);
+        abandonUserCommands();
         notify();
     }
     
+    /**
+     * Sends a realtime command to grbl if the connection to grbl is open.
+     *
+     * @param command The realtime command.
+     */
+    private void sendRealtime(RealtimeCommand command)
+    {
+        if (realtime == null || transport == null || !transport.isOpen()) {
+            return;
+        }
+        
+        try {
+            realtime.send(command);
+        } catch (IOException e) {
+            System.err.println("There was an error sending the realtime command: " + command + " to grbl!");
+            e.printStackTrace();
+        }
+    }
+    
     /**
      * Resets the controller.
      */
     public void reset()
     {
-        if (commandCheckingTimer != null) {
-            commandCheckingTimer.purge();
-            commandCheckingTimer.cancel();
+        if (userCommandWriter != null) {
+            userCommandWriter.interrupt();
+        }
+
+        if (startedStreaming && !doneStreaming) {
+            initiateStop();
+        }
+        if (streamer != null) {
+            streamer.stop();
+            streamer = null;
+        }
+        cancelPipeline();
+        abandonUserCommands();
+        realtime = null;
+        if (transport != null) {
+            transport.close();
+            transport = null;
         }
 
         this.doneStreaming = false;
-        this.grblStarted = false;
     }
     
     
@@ -795,6 +1136,12 @@ public class APIgrbl extends Thread
         if (Main.startTime == 0 || grbl == null || grbl.isDoneStreaming()) {
             return "00:00:00";
         } else {
+            //the time of the lines left in the planned job, or the average time of the lines so far until the job is planned
+            CycleTimeEstimator cycleTime = grbl.cycleTime;
+            if (cycleTime != null) {
+                return formatTime(cycleTime.getRemainingTime((int) grbl.currentProgress));
+            }
+            
             double timeElapsed = (double)(TimeUtil.currentTimeMillis() - Main.startTime) / 1000;
             double timePerProgress = timeElapsed / grbl.currentProgress;
             double progressRemaining = grbl.totalProgress - grbl.currentProgress;
@@ -811,13 +1158,24 @@ public class APIgrbl extends Thread
             }
             averageTimeRemaining /= grbl.timeRemainingHistory.size();
             
-            long hours = (long) (averageTimeRemaining / 3600);
-            long minutes = (long) ((averageTimeRemaining % 3600) / 60);
-            long seconds = (long) (averageTimeRemaining % 60);
-            return String.format("%02d:%02d:%02d", hours, minutes, seconds);
+            return formatTime(averageTimeRemaining);
         }
     }
     
+    /**
+     * Formats a time as hours, minutes and seconds.
+     *
+     * @param time The time, in seconds.
+     * @return The time string.
+     */
+    private static String formatTime(double time)
+    {
+        long hours = (long) (time / 3600);
+        long minutes = (long) ((time % 3600) / 60);
+        long seconds = (long) (time % 60);
+        return String.format("%02d:%02d:%02d", hours, minutes, seconds);
+    }
+    
     /**
      * Returns the x coordinate status field for grbl.
      *
@@ -858,6 +1216,26 @@ public class APIgrbl extends Thread
         return status;
     }
     
+    /**
+     * Returns the channel for sending realtime commands to grbl, which measures their latency.
+     *
+     * @return The channel for sending realtime commands to grbl, or null if the connection to grbl is not open.
+     */
+    public GrblRealtimeChannel getRealtimeChannel()
+    {
+        return realtime;
+    }
+    
+    /**
+     * Returns the state of the machine, as last reported by grbl.
+     *
+     * @return The state of the machine.
+     */
+    public MachineState getMachineState()
+    {
+        return machineState;
+    }
+    
     /**
      * Returns whether grbl is done streaming or not.
      *
@@ -868,6 +1246,16 @@ public class APIgrbl extends Thread
         return doneStreaming;
     }
     
+    /**
+     * Returns the time from the job being started to grbl accepting its first motion command.
+     *
+     * @return The time to the first move, in milliseconds, or -1 if the job has not moved the machine yet.
+     */
+    public long getTimeToFirstMove()
+    {
+        return timeToFirstMove;
+    }
+    
     
     //Setters
     
@@ -911,6 +1299,17 @@ public class APIgrbl extends Thread
         this.status = status;
     }
     
+    /**
+     * Sets the connection to grbl.
+     *
+     * @param transport The connection to grbl.
+     */
+    public void setTransport(GrblTransport transport)
+    {
+        this.transport = transport;
+        settingsRequested = false;
+    }
+    
     /**
      * Sets the filename to be used for grbl.
      *
@@ -0,0 +1,364 @@
+/*
+ * File:    ArcFitter.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.format.CoordinateFormat;
+
+import java.util.function.Consumer;
+
+/**
+ * A stage of the GcodeModifier that replaces runs of short G1 moves that lie on a circle with a single G2 or G3 arc.<br/>
+ * Slicers and CAM tools write curves as dense polylines, which makes grbl's serial receive buffer the bottleneck of a job, so every run that stays within the chord tolerance of an arc is sent as one command instead.<br/>
+ * A run is only fitted while the position it starts at is known, ie: after a G91 or a move to an absolute X and Y, the moves have the same feed rate, stay in the XY plane and are in units per minute.
+ */
+public class ArcFitter extends MotionStage
+{
+    
+    //Constants
+    
+    /**
+     * The default chord tolerance, a tolerance of 0 disables arc fitting.
+     */
+    public static final double DEFAULT_ARC_TOLERANCE = 0.0;
+    
+    /**
+     * The minimum number of moves replaced by an arc.
+     */
+    public static final int MIN_ARC_MOVES = 3;
+    
+    /**
+     * The maximum number of moves replaced by an arc, which bounds the number of lines held back by the stage.
+     */
+    public static final int MAX_ARC_MOVES = 256;
+    
+    /**
+     * The maximum radius of an arc, above which a run is closer to a straight line than to an arc.
+     */
+    public static final double MAX_ARC_RADIUS = 1000.0;
+    
+    /**
+     * The maximum angle swept by an arc, which keeps its end point away from its start point so grbl never reads it as a full circle.
+     */
+    public static final double MAX_ARC_SWEEP = 1.5 * Math.PI;
+    
+    /**
+     * The motion commands of the moves that can be part of an arc.
+     */
+    private static final String[] FITTED_MOTIONS = {"G1", "G01"};
+    
+    
+    //Static Fields
+    
+    /**
+     * The maximum distance between an arc and the moves it replaces.
+     */
+    public static double arcTolerance = DEFAULT_ARC_TOLERANCE;
+    
+    
+    //Fields
+    
+    /**
+     * The maximum distance between an arc and the moves it replaces.
+     */
+    private final double tolerance;
+    
+    /**
+     * The x positions of the run, starting with the position before its first move.
+     */
+    private final double[] xs = new double[MAX_ARC_MOVES + 1];
+    
+    /**
+     * The y positions of the run, starting with the position before its first move.
+     */
+    private final double[] ys = new double[MAX_ARC_MOVES + 1];
+    
+    /**
+     * The moves of the run that are held back, the move to each position after the first.
+     */
+    private final String[] moves = new String[MAX_ARC_MOVES + 1];
+    
+    /**
+     * The number of positions in the run.
+     */
+    private int count = 0;
+    
+    /**
+     * The feed rate of the moves in the run, or NaN if they do not set one.
+     */
+    private double feed = Double.NaN;
+    
+    /**
+     * The number of positions at the start of the run that the fitted arc passes through, or 0 if they have not been fitted.
+     */
+    private int fitted = 0;
+    
+    /**
+     * The x coordinate of the center of the fitted arc.
+     */
+    private double centerX;
+    
+    /**
+     * The y coordinate of the center of the fitted arc.
+     */
+    private double centerY;
+    
+    /**
+     * A flag indicating whether the fitted arc is clockwise or not.
+     */
+    private boolean clockwise;
+    
+    /**
+     * A flag indicating whether the last motion command passed on was a fitted arc in place of G1 moves, so a following move without a motion command would be read as an arc.
+     */
+    private boolean arcMotion = false;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for an ArcFitter.
+     *
+     * @param tolerance The maximum distance between an arc and the moves it replaces.
+     */
+    public ArcFitter(double tolerance)
+    {
+        super("Arc fitting");
+        this.tolerance = tolerance;
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Holds back the command being processed if it is a G1 move in the XY plane that may be part of an arc.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     * @return Whether the command was held back or not.
+     */
+    @Override
+    protected boolean hold(CharSequence command, Consumer<String> next)
+    {
+        if (Double.isNaN(x) || Double.isNaN(y) || !planeXY || inverseTime || !isMove(FITTED_MOTIONS, "XYF")) {
+            return false;
+        }
+        
+        double moveFeed = words.getValue('F', Double.NaN);
+        double moveX = moveTo('X', x);
+        double moveY = moveTo('Y', y);
+        if (count > 0 && Double.compare(moveFeed, feed) != 0) {
+            release(next);
+        }
+        if (count == 0) {
+            xs[0] = x;
+            ys[0] = y;
+            count = 1;
+            feed = moveFeed;
+        }
+        
+        x = moveX;
+        y = moveY;
+        addMove(command.toString(), next);
+        return true;
+    }
+    
+    /**
+     * Adds the move to the current position to the run, passing on the moves that can no longer be part of an arc.
+     *
+     * @param move The move.
+     * @param next The next stage.
+     */
+    private void addMove(String move, Consumer<String> next)
+    {
+        xs[count] = x;
+        ys[count] = y;
+        moves[count] = move;
+        count++;
+        
+        while (count >= 3 && !fit(count)) {
+            if (fitted > MIN_ARC_MOVES) {
+                emitArc(next);
+            } else {
+                emitMoves(2, next);
+            }
+        }
+        if (count - 1 == MAX_ARC_MOVES) {
+            emitArc(next);
+        }
+    }
+    
+    /**
+     * Ends the run, passing on its fitted arc and the moves that are not part of it.
+     *
+     * @param next The next stage.
+     */
+    @Override
+    protected void release(Consumer<String> next)
+    {
+        if (fitted == count && fitted > MIN_ARC_MOVES) {
+            emitArc(next);
+        }
+        emitMoves(count, next);
+        count = 0;
+    }
+    
+    /**
+     * Fits an arc through the first positions of the run.
+     *
+     * @param n The number of positions.
+     * @return Whether every position and every move between them is within the tolerance of the arc or not.
+     */
+    private boolean fit(int n)
+    {
+        int last = n - 1;
+        int middle = last / 2;
+        
+        //the circle through the first, middle and last position, relative to the first
+        double bx = xs[middle] - xs[0];
+        double by = ys[middle] - ys[0];
+        double cx = xs[last] - xs[0];
+        double cy = ys[last] - ys[0];
+        double d = 2.0 * (bx * cy - by * cx);
+        if (d == 0.0) {
+            return false;
+        }
+        double b2 = bx * bx + by * by;
+        double c2 = cx * cx + cy * cy;
+        double i = (cy * b2 - by * c2) / d;
+        double j = (bx * c2 - cx * b2) / d;
+        double radius = Math.sqrt(i * i + j * j);
+        if (radius > MAX_ARC_RADIUS) {
+            return false;
+        }
+        
+        double ox = xs[0] + i;
+        double oy = ys[0] + j;
+        double direction = Math.signum(d);
+        double sweep = 0.0;
+        for (int k = 0; k < n; k++) {
+            double dx = xs[k] - ox;
+            double dy = ys[k] - oy;
+            if (Math.abs(Math.sqrt(dx * dx + dy * dy) - radius) > tolerance) {
+                return false;
+            }
+            if (k == last) {
+                break;
+            }
+            
+            //each move has to turn the same way and stay within the tolerance of the arc between its ends
+            double ex = xs[k + 1] - ox;
+            double ey = ys[k + 1] - oy;
+            double angle = Math.atan2(dx * ey - dy * ex, dx * ex + dy * ey) * direction;
+            double chord = Math.hypot(xs[k + 1] - xs[k], ys[k + 1] - ys[k]);
+            if (angle <= 0.0 || chord > 2.0 * radius || radius - Math.sqrt(radius * radius - chord * chord / 4.0) > tolerance) {
+                return false;
+            }
+            sweep += angle;
+        }
+        if (sweep > MAX_ARC_SWEEP) {
+            return false;
+        }
+        
+        fitted = n;
+        centerX = ox;
+        centerY = oy;
+        clockwise = direction < 0.0;
+        return true;
+    }
+    
+    /**
+     * Passes on the fitted arc in place of the moves it replaces, starting a new run from its end.
+     *
+     * @param next The next stage.
+     */
+    private void emitArc(Consumer<String> next)
+    {
+        int end = fitted - 1;
+        StringBuilder arc = new StringBuilder(48).append(clockwise ? "G2 " : "G3 ");
+        CoordinateFormat.appendWord(arc, 'X', relative ? xs[end] - xs[0] : xs[end]);
+        CoordinateFormat.appendWord(arc, 'Y', relative ? ys[end] - ys[0] : ys[end]);
+        CoordinateFormat.appendWord(arc, 'I', withoutNegativeZero(centerX - xs[0]));
+        CoordinateFormat.appendWord(arc, 'J', withoutNegativeZero(centerY - ys[0]));
+        if (!Double.isNaN(feed)) {
+            CoordinateFormat.appendWord(arc, 'F', feed);
+        }
+        emit(arc.toString(), next);
+        arcMotion = true;
+        
+        //the end of the arc starts the rest of the run
+        shift(end);
+    }
+    
+    /**
+     * Passes on the moves at the start of the run.
+     *
+     * @param n    The number of positions whose moves are passed on, the first position has no move.
+     * @param next The next stage.
+     */
+    private void emitMoves(int n, Consumer<String> next)
+    {
+        for (int k = 1; k < n; k++) {
+            emit(moves[k], next);
+        }
+        shift(n - 1);
+    }
+    
+    /**
+     * Removes the positions at the start of the run.
+     *
+     * @param n The number of positions to remove.
+     */
+    private void shift(int n)
+    {
+        if (n <= 0) {
+            return;
+        }
+        count -= n;
+        System.arraycopy(xs, n, xs, 0, count);
+        System.arraycopy(ys, n, ys, 0, count);
+        System.arraycopy(moves, n, moves, 0, count);
+        moves[0] = null;
+        fitted = 0;
+    }
+    
+    /**
+     * Passes a command on to the next stage, making sure a move that does not set its motion is not read as a fitted arc.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     */
+    @Override
+    protected void emit(String command, Consumer<String> next)
+    {
+        char first = command.isEmpty() ? ' ' : command.charAt(0);
+        if (first == 'X' || first == 'Y' || first == 'Z') {
+            if (arcMotion) {
+                command = "G1 " + command;
+            }
+        } else {
+            int space = command.indexOf(' ');
+            GcodeCommand motion = GcodeCommand.lookup(command, 0, (space == -1) ? command.length() : space);
+            if (motion == GcodeCommand.G0 || motion == GcodeCommand.G00 || motion == GcodeCommand.G1 || motion == GcodeCommand.G01 ||
+                    motion == GcodeCommand.G2 || motion == GcodeCommand.G3) {
+                arcMotion = false;
+            }
+        }
+        super.emit(command, next);
+    }
+    
+    /**
+     * Replaces an offset that rounds to zero with zero, so it is not written as -0.000.
+     *
+     * @param offset The offset.
+     * @return The offset.
+     */
+    private static double withoutNegativeZero(double offset)
+    {
+        return (Math.abs(offset) < 0.0005) ? 0.0 : offset;
+    }
+    
+}
@@ -0,0 +1,543 @@
+/*
+ * File:    CommandBuffer.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact store for the gcode commands of a job.<br/>
+ * The ascii bytes of every stored line live in a single byte arena, indexed by an int offset and length per line.
+ * A job is a sequence of segments that each reference a range of stored lines, so a block of lines that repeats, like a hot wire profile cut at every rotation step, is stored once.
+ */
+public class CommandBuffer
+{
+    
+    //Constants
+    
+    /**
+     * The initial capacity of the byte arena.
+     */
+    private static final int INITIAL_BYTES = 1 << 12;
+    
+    /**
+     * The initial capacity of the line and segment indices.
+     */
+    private static final int INITIAL_LINES = 1 << 8;
+    
+    
+    //Fields
+    
+    /**
+     * The arena holding the ascii bytes of every stored line, without line terminators.
+     */
+    private byte[] arena = new byte[INITIAL_BYTES];
+    
+    /**
+     * The number of bytes used in the arena.
+     */
+    private int arenaSize = 0;
+    
+    /**
+     * The offset in the arena of each stored line.
+     */
+    private int[] lineOffsets = new int[INITIAL_LINES];
+    
+    /**
+     * The length of each stored line.
+     */
+    private int[] lineLengths = new int[INITIAL_LINES];
+    
+    /**
+     * The number of stored lines.
+     */
+    private int storedLines = 0;
+    
+    /**
+     * The first stored line of each block.
+     */
+    private int[] blockFirst = new int[INITIAL_LINES];
+    
+    /**
+     * The number of lines in each block.
+     */
+    private int[] blockCount = new int[INITIAL_LINES];
+    
+    /**
+     * The number of blocks.
+     */
+    private int blocks = 0;
+    
+    /**
+     * The compiled job each block was stored from, or null for a block that was not.
+     */
+    private CompiledJob[] blockJobs = new CompiledJob[INITIAL_LINES];
+    
+    /**
+     * The index in the job of the first line of each segment.
+     */
+    private int[] segmentStart = new int[INITIAL_LINES];
+    
+    /**
+     * The first stored line of each segment.
+     */
+    private int[] segmentFirst = new int[INITIAL_LINES];
+    
+    /**
+     * The number of segments in the job.
+     */
+    private int segments = 0;
+    
+    /**
+     * The compiled job the lines of each segment were stored from, or null for a segment that was not.
+     */
+    private CompiledJob[] segmentJobs = new CompiledJob[INITIAL_LINES];
+    
+    /**
+     * The index in its compiled job of the first line of each segment that was stored from a compiled job.
+     */
+    private int[] segmentJobLine = new int[INITIAL_LINES];
+    
+    /**
+     * The number of lines in the job.
+     */
+    private int size = 0;
+    
+    /**
+     * The segment of the most recently located line, as lines are usually read in order.
+     */
+    private int lastSegment = 0;
+    
+    
+    //Methods
+    
+    /**
+     * Stores a block of lines that can be appended to the job any number of times.
+     *
+     * @param lines The lines of the block.
+     * @return The id of the block.
+     */
+    public int addBlock(List<? extends CharSequence> lines)
+    {
+        int first = storedLines;
+        for (CharSequence line : lines) {
+            store(line);
+        }
+        return addBlockRange(first, null);
+    }
+    
+    /**
+     * Stores the lines of a compiled job as a block that can be appended to the job any number of times.<br/>
+     * The text of the compiled job is copied into the arena in one piece, and the lines keep a reference to the job so its columns can be read.
+     *
+     * @param job The compiled job.
+     * @return The id of the block.
+     */
+    public int addBlock(CompiledJob job)
+    {
+        int first = storedLines;
+        int count = job.size();
+        int textSize = job.getTextSize();
+        
+        if (arenaSize + textSize > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + textSize));
+        }
+        job.copyText(0, arena, arenaSize, textSize);
+        
+        if (storedLines + count > lineOffsets.length) {
+            lineOffsets = Arrays.copyOf(lineOffsets, Math.max(lineOffsets.length * 2, storedLines + count));
+            lineLengths = Arrays.copyOf(lineLengths, lineOffsets.length);
+        }
+        for (int i = 0; i < count; i++) {
+            lineOffsets[storedLines + i] = arenaSize + job.getTextOffset(i);
+            lineLengths[storedLines + i] = job.getLength(i);
+        }
+        storedLines += count;
+        arenaSize += textSize;
+        
+        return addBlockRange(first, job);
+    }
+    
+    /**
+     * Appends a stored block to the end of the job, without copying its lines.
+     *
+     * @param block The id of the block.
+     */
+    public void appendBlock(int block)
+    {
+        appendSegment(blockFirst[block], blockCount[block], blockJobs[block], 0);
+    }
+    
+    /**
+     * Stores a line and appends it to the end of the job.
+     *
+     * @param line The line.
+     */
+    public void append(CharSequence line)
+    {
+        int stored = storedLines;
+        store(line);
+        appendSegment(stored, 1, null, 0);
+    }
+    
+    /**
+     * Stores and appends a list of lines to the end of the job.
+     *
+     * @param lines The lines.
+     */
+    public void appendAll(List<? extends CharSequence> lines)
+    {
+        appendBlock(addBlock(lines));
+    }
+    
+    /**
+     * Copies the bytes of a line of the job into a buffer.
+     *
+     * @param line   The index of the line in the job.
+     * @param dest   The buffer to copy the bytes into.
+     * @param offset The offset in the buffer to copy the bytes to.
+     * @return The number of bytes copied.
+     */
+    public int copy(int line, byte[] dest, int offset)
+    {
+        int stored = locate(line);
+        int length = lineLengths[stored];
+        System.arraycopy(arena, lineOffsets[stored], dest, offset, length);
+        return length;
+    }
+    
+    /**
+     * Returns a line of the job.<br/>
+     * This creates a String, so it should not be used when streaming.
+     *
+     * @param line The index of the line in the job.
+     * @return The line.
+     */
+    public String get(int line)
+    {
+        int stored = locate(line);
+        return new String(arena, lineOffsets[stored], lineLengths[stored], StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Creates a view of the lines of the job, which reads a line without creating a String.
+     *
+     * @return The view.
+     */
+    public LineView newLineView()
+    {
+        return new LineView();
+    }
+    
+    /**
+     * Returns the length of a line of the job, without its line terminator.
+     *
+     * @param line The index of the line in the job.
+     * @return The length of the line.
+     */
+    public int getLength(int line)
+    {
+        return lineLengths[locate(line)];
+    }
+    
+    /**
+     * Stores the ascii bytes of a line in the arena.<br/>
+     * Characters outside of ascii are stored as '?', as grbl only accepts ascii.
+     *
+     * @param line The line.
+     */
+    private void store(CharSequence line)
+    {
+        int length = line.length();
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            arena[arenaSize + i] = (c < 128) ? (byte) c : (byte) '?';
+        }
+        
+        if (storedLines == lineOffsets.length) {
+            lineOffsets = Arrays.copyOf(lineOffsets, storedLines * 2);
+            lineLengths = Arrays.copyOf(lineLengths, storedLines * 2);
+        }
+        lineOffsets[storedLines] = arenaSize;
+        lineLengths[storedLines] = length;
+        storedLines++;
+        arenaSize += length;
+    }
+    
+    /**
+     * Records the lines stored since a stored line as a block.
+     *
+     * @param first The first stored line of the block.
+     * @param job   The compiled job the lines were stored from, or null if they were not.
+     * @return The id of the block.
+     */
+    private int addBlockRange(int first, CompiledJob job)
+    {
+        if (blocks == blockFirst.length) {
+            blockFirst = Arrays.copyOf(blockFirst, blocks * 2);
+            blockCount = Arrays.copyOf(blockCount, blocks * 2);
+            blockJobs = Arrays.copyOf(blockJobs, blocks * 2);
+        }
+        blockFirst[blocks] = first;
+        blockCount[blocks] = storedLines - first;
+        blockJobs[blocks] = job;
+        return blocks++;
+    }
+    
+    /**
+     * Appends a range of stored lines to the end of the job, extending the last segment if the range follows on from it.
+     *
+     * @param first   The first stored line of the range.
+     * @param count   The number of lines in the range.
+     * @param job     The compiled job the lines were stored from, or null if they were not.
+     * @param jobLine The index in the compiled job of the first line of the range.
+     */
+    private void appendSegment(int first, int count, CompiledJob job, int jobLine)
+    {
+        if (count == 0) {
+            return;
+        }
+        
+        if (segments > 0 && segmentFirst[segments - 1] + (size - segmentStart[segments - 1]) == first && segmentJobs[segments - 1] == job) {
+            size += count;
+            return;
+        }
+        
+        if (segments == segmentStart.length) {
+            segmentStart = Arrays.copyOf(segmentStart, segments * 2);
+            segmentFirst = Arrays.copyOf(segmentFirst, segments * 2);
+            segmentJobs = Arrays.copyOf(segmentJobs, segments * 2);
+            segmentJobLine = Arrays.copyOf(segmentJobLine, segments * 2);
+        }
+        segmentStart[segments] = size;
+        segmentFirst[segments] = first;
+        segmentJobs[segments] = job;
+        segmentJobLine[segments] = jobLine;
+        segments++;
+        size += count;
+    }
+    
+    /**
+     * Finds the stored line for a line of the job.
+     *
+     * @param line The index of the line in the job.
+     * @return The index of the stored line.
+     */
+    private int locate(int line)
+    {
+        int segment = locateSegment(line);
+        return segmentFirst[segment] + (line - segmentStart[segment]);
+    }
+    
+    /**
+     * Finds the segment holding a line of the job.
+     *
+     * @param line The index of the line in the job.
+     * @return The index of the segment.
+     */
+    private int locateSegment(int line)
+    {
+        if (line < 0 || line >= size) {
+            throw new IndexOutOfBoundsException("Line: " + line + ", Size: " + size);
+        }
+        
+        int segment = lastSegment;
+        if (segment >= segments || line < segmentStart[segment] || (segment + 1 < segments && line >= segmentStart[segment + 1])) {
+            if (segment + 1 < segments && line >= segmentStart[segment + 1] && (segment + 2 >= segments || line < segmentStart[segment + 2])) {
+                segment++;
+            } else {
+                segment = Arrays.binarySearch(segmentStart, 0, segments, line);
+                if (segment < 0) {
+                    segment = -segment - 2;
+                }
+            }
+            lastSegment = segment;
+        }
+        return segment;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the number of lines in the job.
+     *
+     * @return The number of lines in the job.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns the number of lines stored in the arena, which is less than the number of lines in the job when blocks repeat.
+     *
+     * @return The number of stored lines.
+     */
+    public int getStoredLines()
+    {
+        return storedLines;
+    }
+    
+    /**
+     * Returns the number of bytes used in the arena.
+     *
+     * @return The number of bytes used in the arena.
+     */
+    public int getStoredBytes()
+    {
+        return arenaSize;
+    }
+    
+    
+    //Inner Classes
+    
+    /**
+     * A view of a line of the job as a CharSequence, which reads the bytes of the line from the arena.<br/>
+     * The view is moved from line to line, so it can be lexed and compacted while streaming without creating a String for each line.
+     */
+    public final class LineView implements CharSequence
+    {
+        
+        //Fields
+        
+        /**
+         * The arena holding the line, which is kept when the arena grows as it still holds the line.
+         */
+        private byte[] bytes = arena;
+        
+        /**
+         * The offset of the line in the arena.
+         */
+        private int offset = 0;
+        
+        /**
+         * The length of the line.
+         */
+        private int length = 0;
+        
+        /**
+         * The compiled job the line was stored from, or null if it was not.
+         */
+        private CompiledJob job = null;
+        
+        /**
+         * The index of the line in its compiled job.
+         */
+        private int jobLine = -1;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a LineView.
+         */
+        private LineView()
+        {
+        }
+        
+        
+        //Methods
+        
+        /**
+         * Moves the view to a line of the job.
+         *
+         * @param line The index of the line in the job.
+         * @return The view.
+         */
+        public LineView moveTo(int line)
+        {
+            int segment = locateSegment(line);
+            int stored = segmentFirst[segment] + (line - segmentStart[segment]);
+            bytes = arena;
+            offset = lineOffsets[stored];
+            length = lineLengths[stored];
+            job = segmentJobs[segment];
+            jobLine = (job == null) ? -1 : segmentJobLine[segment] + (line - segmentStart[segment]);
+            return this;
+        }
+        
+        /**
+         * Returns the length of the line.
+         *
+         * @return The length of the line.
+         */
+        @Override
+        public int length()
+        {
+            return length;
+        }
+        
+        /**
+         * Returns a character of the line.
+         *
+         * @param index The index of the character.
+         * @return The character.
+         */
+        @Override
+        public char charAt(int index)
+        {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+            }
+            return (char) bytes[offset + index];
+        }
+        
+        /**
+         * Returns a part of the line, as a String.
+         *
+         * @param start The index of the first character of the part.
+         * @param end   The index after the last character of the part.
+         * @return The part of the line.
+         */
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return toString().substring(start, end);
+        }
+        
+        /**
+         * Returns the line as a String.
+         *
+         * @return The line.
+         */
+        @Override
+        public String toString()
+        {
+            return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+        }
+        
+        
+        //Getters
+        
+        /**
+         * Returns the compiled job the line was stored from.
+         *
+         * @return The compiled job the line was stored from, or null if it was not.
+         */
+        public CompiledJob getCompiledJob()
+        {
+            return job;
+        }
+        
+        /**
+         * Returns the index of the line in its compiled job.
+         *
+         * @return The index of the line in its compiled job, or -1 if it was not stored from a compiled job.
+         */
+        public int getCompiledLine()
+        {
+            return jobLine;
+        }
+    
+    }
+    
+}
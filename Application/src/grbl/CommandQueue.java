@@ -0,0 +1,186 @@
+/*
+ * File:    CommandQueue.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free queue of user entered gcode commands, with many producers and a single consumer.<br/>
+ * Producers link commands onto the tail with a single atomic swap and wake the consumer, so a command is sent as soon as it is queued rather than when the queue is next polled.
+ * Each command carries a future that is completed with grbl's response to it.
+ */
+public class CommandQueue
+{
+    
+    //Fields
+    
+    /**
+     * The node before the oldest command in the queue, only accessed by the consumer.
+     */
+    private Command head;
+    
+    /**
+     * The newest node in the queue.
+     */
+    private final AtomicReference<Command> tail;
+    
+    /**
+     * The thread consuming the queue, or null if it has not started waiting yet.
+     */
+    private volatile Thread consumer = null;
+    
+    
+    //Constructors
+    
+    /**
+     * The default no-argument constructor for a CommandQueue.
+     */
+    public CommandQueue()
+    {
+        Command stub = new Command(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Adds a command to the queue and wakes the consumer, from any thread.
+     *
+     * @param text The gcode command.
+     * @return The queued command.
+     */
+    public Command offer(String text)
+    {
+        Command command = new Command(text);
+        Command previous = tail.getAndSet(command);
+        previous.next = command;
+        
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+        return command;
+    }
+    
+    /**
+     * Removes the oldest command from the queue, from the consumer thread.
+     *
+     * @return The oldest command, or null if the queue is empty.
+     */
+    public Command poll()
+    {
+        Command next = head.next;
+        if (next == null) {
+            return null;
+        }
+        head = next;
+        return next;
+    }
+    
+    /**
+     * Removes the oldest command from the queue, waiting for one to be offered if the queue is empty.<br/>
+     * This must always be called from the same consumer thread.
+     *
+     * @return The oldest command.
+     * @throws InterruptedException When the consumer thread is interrupted while waiting.
+     */
+    public Command take() throws InterruptedException
+    {
+        consumer = Thread.currentThread();
+        while (true) {
+            Command command = poll();
+            if (command != null) {
+                return command;
+            }
+            
+            //a command offered after the poll leaves a permit, so the park returns immediately
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+    
+    /**
+     * Determines if the queue is empty, from the consumer thread.
+     *
+     * @return Whether the queue is empty or not.
+     */
+    public boolean isEmpty()
+    {
+        return head.next == null;
+    }
+    
+    
+    //Inner Classes
+    
+    /**
+     * A user entered gcode command and its response from grbl.
+     */
+    public static class Command
+    {
+        
+        //Fields
+        
+        /**
+         * The gcode command.
+         */
+        private final String text;
+        
+        /**
+         * The future completed with grbl's response to the command.
+         */
+        private final CompletableFuture<String> response = new CompletableFuture<>();
+        
+        /**
+         * The next command in the queue.
+         */
+        private volatile Command next = null;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a Command.
+         *
+         * @param text The gcode command.
+         */
+        private Command(String text)
+        {
+            this.text = text;
+        }
+        
+        
+        //Getters
+        
+        /**
+         * Returns the gcode command.
+         *
+         * @return The gcode command.
+         */
+        public String getText()
+        {
+            return text;
+        }
+        
+        /**
+         * Returns the future completed with grbl's response to the command.
+         *
+         * @return The future completed with grbl's response, either "ok" or "error:N".
+         */
+        public CompletableFuture<String> getResponse()
+        {
+            return response;
+        }
+    
+    }
+    
+}
@@ -0,0 +1,557 @@
+/*
+ * File:    CompiledJob.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+import utils.GcodeProgressCalculator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * A gcode job compiled to the binary .gcb format, so that it can be streamed again without reading or modifying its text.<br/>
+ * The format is a header followed by columns: the x, y, z, feed rate, i, j and r words, the motion time and the text offset and byte length of every line, the opcode of every line, and then the ascii text of the lines.
+ * The moves of a job that is opened again are read from the columns, so its text is only lexed for the lines that are not moves.
+ * Compiled jobs are read through a memory mapping of their file.
+ */
+public class CompiledJob
+{
+    
+    //Constants
+    
+    /**
+     * The file extension of compiled jobs.
+     */
+    public static final String EXTENSION = ".gcb";
+    
+    /**
+     * The version of the compiled job format.
+     */
+    public static final int VERSION = 4;
+    
+    /**
+     * The opcode of a line that is not a move, or that has words that are not in the columns.
+     */
+    public static final byte OP_OTHER = 0;
+    
+    /**
+     * The opcode of a G0 rapid move.
+     */
+    public static final byte OP_RAPID = 1;
+    
+    /**
+     * The opcode of a G1 linear move.
+     */
+    public static final byte OP_LINEAR = 2;
+    
+    /**
+     * The opcode of a G2 clockwise arc.
+     */
+    public static final byte OP_ARC_CW = 3;
+    
+    /**
+     * The opcode of a G3 counter-clockwise arc.
+     */
+    public static final byte OP_ARC_CCW = 4;
+    
+    /**
+     * The units of a job that does not set its units.
+     */
+    public static final int UNITS_UNSET = 0;
+    
+    /**
+     * The units of a job that is in millimeters.
+     */
+    public static final int UNITS_METRIC = 1;
+    
+    /**
+     * The units of a job that is in inches.
+     */
+    public static final int UNITS_IMPERIAL = 2;
+    
+    /**
+     * The magic number at the start of a compiled job, "GCB1".
+     */
+    private static final int MAGIC = 0x47434231;
+    
+    /**
+     * The size of the header.
+     */
+    private static final int HEADER_SIZE = 32;
+    
+    /**
+     * The words stored in the double columns, in the order of the columns.
+     */
+    private static final String WORD_COLUMNS = "XYZFIJR";
+    
+    /**
+     * The number of double columns, the words and the motion time.
+     */
+    private static final int DOUBLE_COLUMNS = WORD_COLUMNS.length() + 1;
+    
+    /**
+     * The number of int columns.
+     */
+    private static final int INT_COLUMNS = 2;
+    
+    
+    //Fields
+    
+    /**
+     * The buffer holding the compiled job.
+     */
+    private final ByteBuffer buffer;
+    
+    /**
+     * The number of lines in the job.
+     */
+    private final int size;
+    
+    /**
+     * The units set by the job.
+     */
+    private final int units;
+    
+    /**
+     * The total motion time of the job.
+     */
+    private final double totalMotionTime;
+    
+    /**
+     * The offset of the opcode column.
+     */
+    private final int opcodeStart;
+    
+    /**
+     * The offset of the text.
+     */
+    private final int textStart;
+    
+    /**
+     * The number of bytes of text.
+     */
+    private final int textSize;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a CompiledJob.
+     *
+     * @param buffer The buffer holding the compiled job.
+     * @throws IOException When the buffer does not hold a valid compiled job.
+     */
+    private CompiledJob(ByteBuffer buffer) throws IOException
+    {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("The compiled job is not valid!");
+        }
+        
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.units = buffer.getInt(12);
+        this.textSize = buffer.getInt(16);
+        this.totalMotionTime = buffer.getDouble(24);
+        this.opcodeStart = HEADER_SIZE + size * (DOUBLE_COLUMNS * 8 + INT_COLUMNS * 4);
+        this.textStart = opcodeStart + size;
+        
+        if ((long) textStart + textSize != buffer.capacity()) {
+            throw new IOException("The compiled job is truncated!");
+        }
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Returns the opcode of a line.
+     *
+     * @param line The index of the line.
+     * @return The opcode of the line.
+     */
+    public byte getOpcode(int line)
+    {
+        return buffer.get(opcodeStart + line);
+    }
+    
+    /**
+     * Returns the x word of a line.
+     *
+     * @param line The index of the line.
+     * @return The x word of the line, or NaN if the line is not a move or has none.
+     */
+    public double getX(int line)
+    {
+        return getWord('X', line);
+    }
+    
+    /**
+     * Returns the y word of a line.
+     *
+     * @param line The index of the line.
+     * @return The y word of the line, or NaN if the line is not a move or has none.
+     */
+    public double getY(int line)
+    {
+        return getWord('Y', line);
+    }
+    
+    /**
+     * Returns the z word of a line.
+     *
+     * @param line The index of the line.
+     * @return The z word of the line, or NaN if the line is not a move or has none.
+     */
+    public double getZ(int line)
+    {
+        return getWord('Z', line);
+    }
+    
+    /**
+     * Returns the feed rate word of a line.
+     *
+     * @param line The index of the line.
+     * @return The feed rate word of the line, or NaN if the line is not a move or has none.
+     */
+    public double getF(int line)
+    {
+        return getWord('F', line);
+    }
+    
+    /**
+     * Returns a word of a line that is stored in the columns; X, Y, Z, F, I, J or R.
+     *
+     * @param letter The letter of the word.
+     * @param line   The index of the line.
+     * @return The word of the line, or NaN if the line is not a move or has none.
+     */
+    public double getWord(char letter, int line)
+    {
+        int column = WORD_COLUMNS.indexOf(letter);
+        if (column < 0) {
+            throw new IllegalArgumentException("The word: " + letter + " is not stored in a compiled job!");
+        }
+        return buffer.getDouble(doubleColumn(column, line));
+    }
+    
+    /**
+     * Returns the motion time of a line, as calculated by the GcodeProgressCalculator.
+     *
+     * @param line The index of the line.
+     * @return The motion time of the line.
+     */
+    public double getMotionTime(int line)
+    {
+        return buffer.getDouble(doubleColumn(WORD_COLUMNS.length(), line));
+    }
+    
+    /**
+     * Returns the offset of the text of a line in the text of the job.
+     *
+     * @param line The index of the line.
+     * @return The offset of the text of the line.
+     */
+    public int getTextOffset(int line)
+    {
+        return buffer.getInt(intColumn(0, line));
+    }
+    
+    /**
+     * Returns the byte length of a line, without its line terminator.
+     *
+     * @param line The index of the line.
+     * @return The byte length of the line.
+     */
+    public int getLength(int line)
+    {
+        return buffer.getInt(intColumn(1, line));
+    }
+    
+    /**
+     * Returns the text of a line.
+     *
+     * @param line The index of the line.
+     * @return The text of the line.
+     */
+    public String get(int line)
+    {
+        byte[] bytes = new byte[getLength(line)];
+        copyText(getTextOffset(line), bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Copies a range of the text of the job into a buffer.
+     *
+     * @param offset The offset in the text of the job.
+     * @param dest   The buffer to copy into.
+     * @param index  The index in the buffer to copy to.
+     * @param length The number of bytes to copy.
+     */
+    public void copyText(int offset, byte[] dest, int index, int length)
+    {
+        ByteBuffer text = buffer.duplicate();
+        text.position(textStart + offset);
+        text.get(dest, index, length);
+    }
+    
+    /**
+     * Returns the offset of a value in a double column.
+     *
+     * @param column The index of the column.
+     * @param line   The index of the line.
+     * @return The offset of the value.
+     */
+    private int doubleColumn(int column, int line)
+    {
+        return HEADER_SIZE + (column * size + line) * 8;
+    }
+    
+    /**
+     * Returns the offset of a value in an int column.
+     *
+     * @param column The index of the column.
+     * @param line   The index of the line.
+     * @return The offset of the value.
+     */
+    private int intColumn(int column, int line)
+    {
+        return HEADER_SIZE + DOUBLE_COLUMNS * 8 * size + (column * size + line) * 4;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the number of lines in the job.
+     *
+     * @return The number of lines in the job.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Returns the units set by the job.
+     *
+     * @return The units set by the job; UNITS_UNSET, UNITS_METRIC or UNITS_IMPERIAL.
+     */
+    public int getUnits()
+    {
+        return units;
+    }
+    
+    /**
+     * Returns the total motion time of the job.
+     *
+     * @return The total motion time of the job.
+     */
+    public double getTotalMotionTime()
+    {
+        return totalMotionTime;
+    }
+    
+    /**
+     * Returns the number of bytes of text in the job.
+     *
+     * @return The number of bytes of text in the job.
+     */
+    public int getTextSize()
+    {
+        return textSize;
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Opens a compiled job by memory-mapping its file.
+     *
+     * @param file The compiled job file.
+     * @return The compiled job.
+     * @throws IOException When the file could not be mapped or does not hold a valid compiled job.
+     */
+    public static CompiledJob open(File file) throws IOException
+    {
+        try (RandomAccessFile compiled = new RandomAccessFile(file, "r");
+             FileChannel channel = compiled.getChannel()) {
+            return new CompiledJob(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    /**
+     * Compiles modified gcode commands into a compiled job file, and returns the job memory-mapped from that file.<br/>
+     * The job is written to a temporary file in the same directory which then replaces the file, so a job that is open or was not completely written is never changed or opened.
+     *
+     * @param commands The modified gcode commands.
+     * @param file     The compiled job file to write.
+     * @return The compiled job.
+     * @throws IOException When the file could not be written.
+     */
+    public static CompiledJob write(List<String> commands, File file) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) compiledSize(commands));
+        encode(commands, buffer);
+        buffer.putInt(0, MAGIC);
+        
+        File temp = File.createTempFile("job", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp);
+                 FileChannel channel = out.getChannel()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+        return open(file);
+    }
+    
+    /**
+     * Compiles modified gcode commands into a compiled job in memory, for when the job cannot be written to disk.
+     *
+     * @param commands The modified gcode commands.
+     * @return The compiled job.
+     */
+    public static CompiledJob compile(List<String> commands)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) compiledSize(commands));
+        encode(commands, buffer);
+        buffer.putInt(0, MAGIC);
+        try {
+            return new CompiledJob(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Returns the size of the compiled job for modified gcode commands.
+     *
+     * @param commands The modified gcode commands.
+     * @return The size of the compiled job, in bytes.
+     * @throws IllegalArgumentException When the job is too large to be compiled.
+     */
+    private static long compiledSize(List<String> commands)
+    {
+        long size = HEADER_SIZE + (long) commands.size() * (DOUBLE_COLUMNS * 8 + INT_COLUMNS * 4 + 1);
+        for (String command : commands) {
+            size += command.length();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The gcode job is too large to be compiled!");
+        }
+        return size;
+    }
+    
+    /**
+     * Encodes modified gcode commands into a buffer, leaving the magic number unset.
+     *
+     * @param commands The modified gcode commands.
+     * @param buffer   The buffer, sized by compiledSize().
+     */
+    private static void encode(List<String> commands, ByteBuffer buffer)
+    {
+        int size = commands.size();
+        int intStart = HEADER_SIZE + DOUBLE_COLUMNS * 8 * size;
+        int opcodeStart = intStart + INT_COLUMNS * 4 * size;
+        int textStart = opcodeStart + size;
+        
+        int units = UNITS_UNSET;
+        int textOffset = 0;
+        double totalMotionTime = 0;
+        GcodeWords lexed = new GcodeWords();
+        
+        for (int line = 0; line < size; line++) {
+            String command = commands.get(line);
+            
+            GcodeLexer.lex(command, lexed);
+            if (lexed.isCommand('G', 21)) {
+                units = UNITS_METRIC;
+            } else if (lexed.isCommand('G', 20)) {
+                units = UNITS_IMPERIAL;
+            }
+            
+            byte opcode = getOpcode(lexed);
+            for (int word = 0; word < WORD_COLUMNS.length(); word++) {
+                double value = (opcode == OP_OTHER) ? Double.NaN : lexed.getValue(WORD_COLUMNS.charAt(word), Double.NaN);
+                buffer.putDouble(HEADER_SIZE + (word * size + line) * 8, value);
+            }
+            
+            double motionTime = GcodeProgressCalculator.calculateInstructionProgressUnits(lexed);
+            totalMotionTime += motionTime;
+            buffer.putDouble(HEADER_SIZE + (WORD_COLUMNS.length() * size + line) * 8, motionTime);
+            
+            buffer.putInt(intStart + line * 4, textOffset);
+            buffer.putInt(intStart + (size + line) * 4, command.length());
+            buffer.put(opcodeStart + line, opcode);
+            
+            for (int i = 0; i < command.length(); i++) {
+                char c = command.charAt(i);
+                buffer.put(textStart + textOffset + i, (c < 128) ? (byte) c : (byte) '?');
+            }
+            textOffset += command.length();
+        }
+        
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, size);
+        buffer.putInt(12, units);
+        buffer.putInt(16, textOffset);
+        buffer.putDouble(24, totalMotionTime);
+    }
+    
+    /**
+     * Returns the opcode of a lexed line.<br/>
+     * A line is only given the opcode of a move when its only words are its motion command and words stored in the columns, so the move can be read from the columns without lexing its text.
+     *
+     * @param words The words of the line.
+     * @return The opcode of the line.
+     */
+    private static byte getOpcode(GcodeWords words)
+    {
+        byte opcode = OP_OTHER;
+        for (int i = 0; i < words.size(); i++) {
+            char letter = words.getLetter(i);
+            double value = words.getValue(i);
+            if (Double.isNaN(value)) {
+                return OP_OTHER;
+            }
+            
+            if (letter == 'G') {
+                if (opcode != OP_OTHER || value < 0 || value > 3 || value != Math.rint(value)) {
+                    return OP_OTHER;
+                }
+                opcode = (byte) (OP_RAPID + (int) value);
+            } else if (WORD_COLUMNS.indexOf(letter) < 0 || words.indexOf(letter) != i) {
+                return OP_OTHER;
+            }
+        }
+        return opcode;
+    }
+    
+}
@@ -0,0 +1,691 @@
+/*
+ * File:    CycleTimeEstimator.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+import gcode.toolpath.ArcGeometry;
+import grbl.simulator.GrblSimulator;
+import grbl.simulator.MotionModel;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the time grbl takes to execute each line of a job, by planning its moves the way grbl's planner does.<br/>
+ * Each move accelerates and decelerates at the acceleration of its axes, up to its feed rate and the maximum rate of its axes, and passes through each corner at the speed allowed by the junction deviation.
+ * A move only slows down for the moves that fit in grbl's planner buffer with it, and the machine stops before each command grbl waits for the moves before it to finish.<br/>
+ * The time at the end of each move is summed as the job is planned, so the time remaining after any line of the job is found without going through the lines after it.
+ */
+public class CycleTimeEstimator
+{
+    
+    //Constants
+    
+    /**
+     * The number of moves grbl plans ahead of the move it is executing.
+     */
+    public static final int PLANNER_BUFFER_SIZE = GrblSimulator.PLANNER_BUFFER_SIZE;
+    
+    /**
+     * The tolerance grbl splits arcs into lines with, grbl's default $12 setting, in mm.
+     */
+    public static final double ARC_TOLERANCE = 0.002;
+    
+    /**
+     * The number of millimeters in an inch.
+     */
+    private static final double MM_PER_INCH = 25.4;
+    
+    /**
+     * The initial capacity of the arrays of lines and moves.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    
+    //Fields
+    
+    /**
+     * The motion model of the machine.
+     */
+    private final MotionModel model;
+    
+    /**
+     * The word buffer for the line being appended.
+     */
+    private final GcodeWords words = new GcodeWords();
+    
+    /**
+     * The number of lines appended.
+     */
+    private int lines = 0;
+    
+    /**
+     * The number of moves planned before the end of each line.
+     */
+    private int[] lineEnd = new int[INITIAL_CAPACITY];
+    
+    /**
+     * The number of moves appended, including dwells.
+     */
+    private int moves = 0;
+    
+    /**
+     * The length of each move in mm, or 0 for a dwell.
+     */
+    private double[] length = new double[INITIAL_CAPACITY];
+    
+    /**
+     * The fastest speed allowed during each move in mm/sec, or the time of a dwell in seconds.
+     */
+    private double[] nominalSpeed = new double[INITIAL_CAPACITY];
+    
+    /**
+     * The acceleration of each move, in mm/sec^2.
+     */
+    private double[] acceleration = new double[INITIAL_CAPACITY];
+    
+    /**
+     * The fastest speed allowed at the start of each move, in mm/sec.
+     */
+    private double[] maxEntrySpeed = new double[INITIAL_CAPACITY];
+    
+    /**
+     * The flags indicating whether the machine stops at the end of each move or not.
+     */
+    private boolean[] stop = new boolean[INITIAL_CAPACITY];
+    
+    /**
+     * The time at the end of each move, in seconds from the start of the job.
+     */
+    private double[] moveEnd = null;
+    
+    /**
+     * The current position, in mm.
+     */
+    private final double[] position = new double[3];
+    
+    /**
+     * The direction of the end of the previous move, or null if the machine stops before the next move.
+     */
+    private double[] previousUnit = null;
+    
+    /**
+     * The fastest speed allowed during the previous move, in mm/sec.
+     */
+    private double previousNominalSpeed = 0;
+    
+    /**
+     * The code of the current motion command.
+     */
+    private int motion = 0;
+    
+    /**
+     * The current feed rate, in mm/min.
+     */
+    private double feedRate = 0;
+    
+    /**
+     * A flag indicating whether positions are absolute or not.
+     */
+    private boolean absolute = true;
+    
+    /**
+     * A flag indicating whether positions are in inches or not.
+     */
+    private boolean inches = false;
+    
+    /**
+     * A flag indicating whether feed rates are in inverse time or not.
+     */
+    private boolean inverseTime = false;
+    
+    /**
+     * A flag indicating whether the job has been planned or not.
+     */
+    private volatile boolean finished = false;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a CycleTimeEstimator.
+     *
+     * @param model The motion model of the machine.
+     */
+    public CycleTimeEstimator(MotionModel model)
+    {
+        this.model = model;
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Appends the next line of the job.
+     *
+     * @param line The line.
+     */
+    public void append(CharSequence line)
+    {
+        if (finished) {
+            throw new IllegalStateException("The job has already been planned!");
+        }
+        
+        if (line.length() > 0 && line.charAt(0) == '$') {
+            //grbl only executes system commands when it is idle
+            stopMachine();
+        } else if (GcodeLexer.lex(line, words) > 0) {
+            appendWords();
+        }
+        endLine();
+    }
+    
+    /**
+     * Appends the next line of the job from a view of the command buffer.<br/>
+     * A move stored from a compiled job is read from the columns of the job, so only the lines that are not moves are lexed.
+     *
+     * @param line The view of the line.
+     */
+    public void append(CommandBuffer.LineView line)
+    {
+        CompiledJob job = line.getCompiledJob();
+        int jobLine = line.getCompiledLine();
+        if (job == null || job.getOpcode(jobLine) == CompiledJob.OP_OTHER) {
+            append((CharSequence) line);
+            return;
+        }
+        
+        if (finished) {
+            throw new IllegalStateException("The job has already been planned!");
+        }
+        
+        double[] target = {job.getX(jobLine), job.getY(jobLine), job.getZ(jobLine)};
+        boolean[] axis = {!Double.isNaN(target[0]), !Double.isNaN(target[1]), !Double.isNaN(target[2])};
+        double i = job.getWord('I', jobLine);
+        double j = job.getWord('J', jobLine);
+        
+        setFeedRate(job.getF(jobLine));
+        appendMotion(job.getOpcode(jobLine) - CompiledJob.OP_RAPID, axis, target, Double.isNaN(i) ? 0 : i, Double.isNaN(j) ? 0 : j, job.getWord('R', jobLine));
+        endLine();
+    }
+    
+    /**
+     * Records the number of moves planned at the end of the line appended.
+     */
+    private void endLine()
+    {
+        if (lines == lineEnd.length) {
+            lineEnd = Arrays.copyOf(lineEnd, lines * 2);
+        }
+        lineEnd[lines++] = moves;
+    }
+    
+    /**
+     * Plans the moves of the job once all of its lines have been appended, finding the time at the end of each move.<br/>
+     * The speed at the start of each move is planned when the move before it starts, when grbl's planner buffer holds the moves up to PLANNER_BUFFER_SIZE after it.
+     */
+    public void finish()
+    {
+        if (finished) {
+            return;
+        }
+        stopMachine();
+        
+        double[] moveEnd = new double[moves];
+        double time = 0;
+        double entrySpeed = 0;
+        for (int move = 0; move < moves; move++) {
+            if (length[move] == 0) {
+                //a dwell
+                time += nominalSpeed[move];
+                entrySpeed = 0;
+                moveEnd[move] = time;
+                continue;
+            }
+            
+            double exitSpeed = 0;
+            if (!stop[move]) {
+                double reachable = Math.sqrt(entrySpeed * entrySpeed + 2.0 * acceleration[move] * length[move]);
+                exitSpeed = Math.min(Math.min(maxEntrySpeed[move + 1], reachable), stoppableSpeed(move + 1, move + PLANNER_BUFFER_SIZE - 1));
+            }
+            
+            time += moveTime(length[move], entrySpeed, exitSpeed, nominalSpeed[move], acceleration[move]);
+            moveEnd[move] = time;
+            entrySpeed = exitSpeed;
+        }
+        this.moveEnd = moveEnd;
+        
+        //only the times are kept once the job is planned
+        length = null;
+        nominalSpeed = null;
+        acceleration = null;
+        maxEntrySpeed = null;
+        stop = null;
+        
+        finished = true;
+    }
+    
+    /**
+     * Returns the time remaining in the job once grbl has acknowledged a number of its lines.<br/>
+     * The moves grbl has acknowledged wait in its planner buffer before they are executed, so the moves in a full planner buffer are counted as remaining.
+     *
+     * @param acknowledged The number of lines grbl has acknowledged.
+     * @return The time remaining in the job, in seconds.
+     */
+    public double getRemainingTime(int acknowledged)
+    {
+        int line = Math.min(Math.max(acknowledged, 0), lines);
+        int executed = ((line == 0) ? 0 : lineEnd[line - 1]) - PLANNER_BUFFER_SIZE;
+        return getTotalTime() - ((executed > 0) ? moveEnd[executed - 1] : 0);
+    }
+    
+    /**
+     * Returns the time grbl takes to execute a line of the job.
+     *
+     * @param line The index of the line.
+     * @return The time of the line, in seconds.
+     */
+    public double getLineTime(int line)
+    {
+        int start = (line == 0) ? 0 : lineEnd[line - 1];
+        int end = lineEnd[line];
+        if (start == end) {
+            return 0;
+        }
+        return moveEnd[end - 1] - ((start == 0) ? 0 : moveEnd[start - 1]);
+    }
+    
+    /**
+     * Appends the line that has been lexed into the word buffer.
+     */
+    private void appendWords()
+    {
+        int lineMotion = motion;
+        boolean sync = false;
+        boolean dwell = false;
+        boolean setPosition = false;
+        boolean[] axis = new boolean[3];
+        double[] target = new double[3];
+        double feed = Double.NaN;
+        double i = 0;
+        double j = 0;
+        double r = Double.NaN;
+        double p = 0;
+        
+        for (int w = 0; w < words.size(); w++) {
+            char letter = words.getLetter(w);
+            double value = words.getValue(w);
+            if (Double.isNaN(value)) {
+                //grbl rejects a line with a malformed number
+                return;
+            }
+            switch (letter) {
+                case 'G':
+                    switch ((int) Math.round(value * 10)) {
+                        case 0:
+                        case 10:
+                        case 20:
+                        case 30:
+                            lineMotion = (int) Math.round(value);
+                            break;
+                        case 40:
+                            dwell = true;
+                            break;
+                        case 200:
+                            inches = true;
+                            break;
+                        case 210:
+                            inches = false;
+                            break;
+                        case 900:
+                            absolute = true;
+                            break;
+                        case 910:
+                            absolute = false;
+                            break;
+                        case 930:
+                            inverseTime = true;
+                            break;
+                        case 940:
+                            inverseTime = false;
+                            break;
+                        case 170:
+                        case 180:
+                        case 190:
+                        case 800:
+                            break;
+                        case 920:
+                            setPosition = true;
+                            sync = true;
+                            break;
+                        default:
+                            //homing, probing, coordinate systems and machine coordinates wait for the moves before them
+                            sync = true;
+                            break;
+                    }
+                    break;
+                case 'M':
+                    //grbl waits for the moves before program, spindle and coolant commands
+                    sync = true;
+                    break;
+                case 'X':
+                case 'Y':
+                case 'Z':
+                    target[letter - 'X'] = value;
+                    axis[letter - 'X'] = true;
+                    break;
+                case 'F':
+                    feed = value;
+                    break;
+                case 'I':
+                    i = value;
+                    break;
+                case 'J':
+                    j = value;
+                    break;
+                case 'R':
+                    r = value;
+                    break;
+                case 'P':
+                    p = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        setFeedRate(feed);
+        
+        if (sync || dwell) {
+            stopMachine();
+        }
+        if (dwell) {
+            appendMove(0, p, 0, 0, true);
+            return;
+        }
+        if (setPosition) {
+            double scale = inches ? MM_PER_INCH : 1.0;
+            for (int a = 0; a < 3; a++) {
+                if (axis[a]) {
+                    position[a] = target[a] * scale;
+                }
+            }
+            return;
+        }
+        if (sync) {
+            return;
+        }
+        
+        appendMotion(lineMotion, axis, target, i, j, r);
+    }
+    
+    /**
+     * Sets the feed rate from the feed rate word of a line.
+     *
+     * @param feed The feed rate word of the line, or NaN if the line has none.
+     */
+    private void setFeedRate(double feed)
+    {
+        if (!Double.isNaN(feed)) {
+            feedRate = inverseTime ? feed : feed * (inches ? MM_PER_INCH : 1.0);
+        }
+    }
+    
+    /**
+     * Appends the move of a line in the current motion mode, which is set by the line.
+     *
+     * @param lineMotion The code of the motion command of the line.
+     * @param axis       The flags indicating which axis words the line has.
+     * @param target     The axis words of the line.
+     * @param i          The i word of the line, or 0 if it has none.
+     * @param j          The j word of the line, or 0 if it has none.
+     * @param r          The r word of the line, or NaN if it has none.
+     */
+    private void appendMotion(int lineMotion, boolean[] axis, double[] target, double i, double j, double r)
+    {
+        motion = lineMotion;
+        if (!axis[0] && !axis[1] && !axis[2]) {
+            return;
+        }
+        
+        double scale = inches ? MM_PER_INCH : 1.0;
+        for (int a = 0; a < 3; a++) {
+            target[a] = !axis[a] ? position[a] : absolute ? target[a] * scale : position[a] + target[a] * scale;
+        }
+        
+        if (motion == 2 || motion == 3) {
+            appendArc(target, i * scale, j * scale, r * scale, motion == 2);
+        } else {
+            appendLine(target);
+        }
+        System.arraycopy(target, 0, position, 0, 3);
+    }
+    
+    /**
+     * Appends a linear move from the current position.
+     *
+     * @param target The end of the move, in mm.
+     */
+    private void appendLine(double[] target)
+    {
+        double[] delta = {target[0] - position[0], target[1] - position[1], target[2] - position[2]};
+        double distance = Math.sqrt(delta[0] * delta[0] + delta[1] * delta[1] + delta[2] * delta[2]);
+        if (distance == 0) {
+            return;
+        }
+        
+        double[] unit = {delta[0] / distance, delta[1] / distance, delta[2] / distance};
+        double speed = model.nominalSpeed(unit, getFeedRate(distance));
+        double accel = model.acceleration(unit);
+        appendMove(distance, speed, accel, entrySpeed(unit, speed, accel), false);
+        previousUnit = unit;
+        previousNominalSpeed = speed;
+    }
+    
+    /**
+     * Appends an arc in the xy plane from the current position.<br/>
+     * grbl splits an arc into short lines, and the junction deviation between them limits the speed around the arc to about the speed of an acceleration towards its center.
+     *
+     * @param target    The end of the arc, in mm.
+     * @param i         The x offset of the center of the arc, in mm.
+     * @param j         The y offset of the center of the arc, in mm.
+     * @param r         The radius of the arc in mm, or NaN if the center offsets are used.
+     * @param clockwise Whether the arc is clockwise or not.
+     */
+    private void appendArc(double[] target, double i, double j, double r, boolean clockwise)
+    {
+        double x = target[0] - position[0];
+        double y = target[1] - position[1];
+        double z = target[2] - position[2];
+        if (!Double.isNaN(r)) {
+            double[] center = new double[2];
+            if (!ArcGeometry.centerFromRadius(x, y, r, clockwise, center)) {
+                return;
+            }
+            i = center[0];
+            j = center[1];
+        }
+        
+        double radius = Math.sqrt(i * i + j * j);
+        if (radius == 0) {
+            appendLine(target);
+            return;
+        }
+        double arc = radius * ArcGeometry.sweep(-i, -j, x - i, y - j, clockwise);
+        double distance = Math.sqrt(arc * arc + z * z);
+        if (distance == 0) {
+            return;
+        }
+        
+        //the directions at the ends of the arc are tangent to it
+        double sign = clockwise ? -1 : 1;
+        double planar = arc / distance / radius;
+        double[] startUnit = {-sign * -j * planar, sign * -i * planar, z / distance};
+        double[] endUnit = {-sign * (y - j) * planar, sign * (x - i) * planar, z / distance};
+        
+        double accel = Math.min(model.acceleration(startUnit), model.acceleration(endUnit));
+        double speed = Math.min(Math.min(model.nominalSpeed(startUnit, getFeedRate(distance)), model.nominalSpeed(endUnit, getFeedRate(distance))),
+                Math.sqrt(accel * radius * model.getJunctionDeviation() / ARC_TOLERANCE));
+        appendMove(distance, speed, accel, entrySpeed(startUnit, speed, accel), false);
+        previousUnit = endUnit;
+        previousNominalSpeed = speed;
+    }
+    
+    /**
+     * Returns the feed rate of a move of the current motion command.
+     *
+     * @param distance The length of the move, in mm.
+     * @return The feed rate in mm/min, or a non-positive value for a rapid move.
+     */
+    private double getFeedRate(double distance)
+    {
+        if (motion == 0) {
+            return -1;
+        }
+        //an inverse time feed rate is the number of times the move could be made in a minute
+        return inverseTime ? feedRate * distance : feedRate;
+    }
+    
+    /**
+     * Returns the fastest speed allowed at the start of a move, through the junction with the previous move.
+     *
+     * @param unit  The direction of the start of the move.
+     * @param speed The fastest speed allowed during the move, in mm/sec.
+     * @param accel The acceleration of the move, in mm/sec^2.
+     * @return The speed, in mm/sec.
+     */
+    private double entrySpeed(double[] unit, double speed, double accel)
+    {
+        if (previousUnit == null) {
+            return 0;
+        }
+        return Math.min(Math.min(speed, previousNominalSpeed), model.junctionSpeed(previousUnit, unit, accel));
+    }
+    
+    /**
+     * Appends a move, or a dwell.
+     *
+     * @param distance   The length of the move in mm, or 0 for a dwell.
+     * @param speed      The fastest speed allowed during the move in mm/sec, or the time of the dwell in seconds.
+     * @param accel      The acceleration of the move, in mm/sec^2.
+     * @param entrySpeed The fastest speed allowed at the start of the move, in mm/sec.
+     * @param stops      Whether the machine stops at the end of the move or not.
+     */
+    private void appendMove(double distance, double speed, double accel, double entrySpeed, boolean stops)
+    {
+        if (moves == length.length) {
+            int capacity = moves * 2;
+            length = Arrays.copyOf(length, capacity);
+            nominalSpeed = Arrays.copyOf(nominalSpeed, capacity);
+            acceleration = Arrays.copyOf(acceleration, capacity);
+            maxEntrySpeed = Arrays.copyOf(maxEntrySpeed, capacity);
+            stop = Arrays.copyOf(stop, capacity);
+        }
+        length[moves] = distance;
+        nominalSpeed[moves] = speed;
+        acceleration[moves] = accel;
+        maxEntrySpeed[moves] = entrySpeed;
+        stop[moves] = stops;
+        moves++;
+    }
+    
+    /**
+     * Stops the machine at the end of the last move, as grbl does before a command that waits for the moves before it.
+     */
+    private void stopMachine()
+    {
+        if (moves > 0) {
+            stop[moves - 1] = true;
+        }
+        previousUnit = null;
+    }
+    
+    /**
+     * Returns the fastest speed at the start of a move from which the machine can stop by the end of a later move.
+     *
+     * @param first The index of the move.
+     * @param last  The index of the move the machine stops at the end of, if it does not stop before it.
+     * @return The speed, in mm/sec.
+     */
+    private double stoppableSpeed(int first, int last)
+    {
+        int end = first;
+        while (end < last && end < moves - 1 && !stop[end]) {
+            end++;
+        }
+        
+        double speed = 0;
+        for (int move = end; move >= first; move--) {
+            speed = Math.min(maxEntrySpeed[move], Math.sqrt(speed * speed + 2.0 * acceleration[move] * length[move]));
+        }
+        return speed;
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Returns the time of a move that accelerates from its entry speed towards its nominal speed and decelerates to its exit speed.
+     *
+     * @param distance     The length of the move, in mm.
+     * @param entrySpeed   The speed at the start of the move, in mm/sec.
+     * @param exitSpeed    The speed at the end of the move, in mm/sec.
+     * @param nominalSpeed The fastest speed allowed during the move, in mm/sec.
+     * @param acceleration The acceleration of the move, in mm/sec^2.
+     * @return The time of the move, in seconds.
+     */
+    public static double moveTime(double distance, double entrySpeed, double exitSpeed, double nominalSpeed, double acceleration)
+    {
+        double accelerationDistance = (nominalSpeed * nominalSpeed - entrySpeed * entrySpeed) / (2.0 * acceleration);
+        double decelerationDistance = (nominalSpeed * nominalSpeed - exitSpeed * exitSpeed) / (2.0 * acceleration);
+        if (accelerationDistance + decelerationDistance <= distance) {
+            return (nominalSpeed - entrySpeed) / acceleration + (nominalSpeed - exitSpeed) / acceleration +
+                    (distance - accelerationDistance - decelerationDistance) / nominalSpeed;
+        }
+        
+        //the move does not reach its nominal speed
+        double peakSpeed = Math.sqrt(acceleration * distance + 0.5 * (entrySpeed * entrySpeed + exitSpeed * exitSpeed));
+        if (peakSpeed <= Math.max(entrySpeed, exitSpeed)) {
+            return 2.0 * distance / (entrySpeed + exitSpeed);
+        }
+        return (2.0 * peakSpeed - entrySpeed - exitSpeed) / acceleration;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the time grbl takes to execute the job.
+     *
+     * @return The time of the job, in seconds.
+     */
+    public double getTotalTime()
+    {
+        return (moveEnd.length == 0) ? 0 : moveEnd[moveEnd.length - 1];
+    }
+    
+    /**
+     * Returns the number of lines appended.
+     *
+     * @return The number of lines appended.
+     */
+    public int getLines()
+    {
+        return lines;
+    }
+    
+    /**
+     * Returns whether the job has been planned or not.
+     *
+     * @return Whether the job has been planned or not.
+     */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+    
+}
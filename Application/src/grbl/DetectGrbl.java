@@ -6,12 +6,10 @@
 
 package grbl;
 
-import utils.CmdLine;
-import utils.Constants;
+import grbl.transport.SerialPortEnumerator;
+import grbl.transport.SerialPortInfo;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.List;
 
 /**
  * Detects the machine type through grbl.
@@ -22,65 +20,72 @@ public class DetectGrbl
     //Fields
     
     /**
-     *  The Machine type to be set by detect.py.
+     *  The serial number of the detected Arduino, which identifies the machine type.
      */
     private String type;
     
+    /**
+     *  The serial port of the detected Arduino.
+     */
+    private String port;
+    
     
     //Constructors
     
     /**
-     * The default constructor for DetectGrbl.
+     * The constructor for DetectGrbl.
+     *
+     * @param serialNumbers The serial numbers of the Arduinos of the known machines.
+     */
+    public DetectGrbl(String... serialNumbers)
+    {
+        detectMachine(SerialPortEnumerator.listPorts(), serialNumbers);
+    }
+    
+    /**
+     * The constructor for DetectGrbl from an already enumerated list of serial ports.
+     *
+     * @param ports         The serial ports attached to the system.
+     * @param serialNumbers The serial numbers of the Arduinos of the known machines.
      */
-    public DetectGrbl(){
-        detectMachine();
+    DetectGrbl(List<SerialPortInfo> ports, String... serialNumbers)
+    {
+        detectMachine(ports, serialNumbers);
     }
     
     
     //Methods
     
     /**
-     * Detects which machine is connected.
+     * Detects which machine is connected.<br/>
+     * A port whose serial number belongs to a known machine is preferred, otherwise the first Arduino is used, as detect.py did.
+     *
+     * @param ports         The serial ports attached to the system.
+     * @param serialNumbers The serial numbers of the Arduinos of the known machines.
      */
-    private void detectMachine()
+    private void detectMachine(List<SerialPortInfo> ports, String... serialNumbers)
     {
-        Process process = null;
-
-        // The command needed to run detect.py
-        String command = "\" \"";
-
-        while (process == null) {
-
-            process = CmdLine.executeCmdAsThread("py " + Constants.GRBL_DIRECTORY + "runDetect.py");
-            if (process != null) {
-                BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-                String line = "";
-                while (line != null && line.isEmpty()) {
-                    try {
-                        line = r.readLine();
-
-                        if (line != null && !line.isEmpty()) {
-                            if (line.equals("Traceback (most recent call last):")) {
-                                this.type = null;
-                            } else {
-                                this.type = line;
-                            }
-                        }
-                    }catch (IOException e)
-                    {
-                        System.out.println("Error detecting machine");
-                        e.printStackTrace();
-                    }
-                }
-            } else {
-                System.err.println("Error attempting to run detect.py! Reattempting...");
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ignored) {
+        for (String serialNumber : serialNumbers) {
+            for (SerialPortInfo port : ports) {
+                if (serialNumber != null && serialNumber.equals(port.getSerialNumber())) {
+                    this.type = port.getSerialNumber();
+                    this.port = port.getPort();
+                    return;
                 }
             }
         }
+        
+        for (SerialPortInfo port : ports) {
+            if (port.isArduino()) {
+                this.type = port.getSerialNumber();
+                this.port = port.getPort();
+                return;
+            }
+        }
+        
+        System.err.println("No Arduino was detected!");
+        this.type = null;
+        this.port = null;
     }
     
     
@@ -89,11 +94,21 @@ public class DetectGrbl
     /**
      * Returns the detected machine.
      *
-     * @return The detected machine.
+     * @return The serial number of the detected Arduino, or null if it is not known.
      */
     public String getType()
     {
         return this.type;
     }
-
+    
+    /**
+     * Returns the serial port of the detected machine.
+     *
+     * @return The serial port of the detected machine, or null if no Arduino was detected.
+     */
+    public String getPort()
+    {
+        return this.port;
+    }
+    
 }
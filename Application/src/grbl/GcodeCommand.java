@@ -0,0 +1,213 @@
+/*
+ * File:    GcodeCommand.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+/**
+ * An enumeration of the gcode commands that are acceptable as the first word of a line sent to grbl.<br/>
+ * Commands are looked up in a perfect hash table, so a line can be checked without creating a String for its first word.
+ */
+public enum GcodeCommand
+{
+    
+    //Values
+    
+    G0("G0"),
+    G1("G1"),
+    G2("G2"),
+    G3("G3"),
+    G4("G4"),
+    G10L2("G10L2"),
+    G10L20("G10L20"),
+    G17("G17"),
+    G18("G18"),
+    G19("G19"),
+    G20("G20"),
+    G21("G21"),
+    G28("G28"),
+    G28_1("G28.1"),
+    G30("G30"),
+    G30_1("G30.1"),
+    G38_2("G38.2"),
+    G38_3("G38.3"),
+    G38_4("G38.4"),
+    G38_5("G38.5"),
+    G53("G53"),
+    G80("G80"),
+    G90("G90"),
+    G91("G91"),
+    G91_1("G91.1"),
+    G92("G92"),
+    G92_1("G92.1"),
+    G93("G93"),
+    G94("G94"),
+    G40("G40"),
+    G43_1("G43.1"),
+    G49("G49"),
+    G54("G54"),
+    G55("G55"),
+    G56("G56"),
+    G57("G57"),
+    G58("G58"),
+    G59("G59"),
+    G61("G61"),
+    M0("M0"),
+    M1("M1"),
+    M2("M2"),
+    M30("M30*"),
+    M7("M7*"),
+    M8("M8"),
+    M9("M9"),
+    M3("M3"),
+    M4("M4"),
+    M5("M5"),
+    F("F"),
+    I("I"),
+    J("J"),
+    K("K"),
+    L("L"),
+    N("N"),
+    P("P"),
+    R("R"),
+    S("S"),
+    T("T"),
+    X("X"),
+    Y("Y"),
+    Z("Z"),
+    G00("G00"),
+    G01("G01"),
+    Z01("Z01");
+    
+    
+    //Constants
+    
+    /**
+     * The maximum size of the hash table.
+     */
+    private static final int MAX_TABLE_SIZE = 1 << 16;
+    
+    
+    //Static Fields
+    
+    /**
+     * The perfect hash table of the commands, indexed by the mixed hash of their text.
+     */
+    private static final GcodeCommand[] table;
+    
+    /**
+     * The mask of the hash table index.
+     */
+    private static final int mask;
+    
+    
+    //Fields
+    
+    /**
+     * The text of the command.
+     */
+    private final String text;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a GcodeCommand.
+     *
+     * @param text The text of the command.
+     */
+    GcodeCommand(String text)
+    {
+        this.text = text;
+    }
+    
+    
+    //Static Methods
+    
+    static {
+        //grow the table until no two commands share a slot
+        GcodeCommand[] slots = null;
+        int size = Integer.highestOneBit(values().length) * 2;
+        for (; size <= MAX_TABLE_SIZE; size *= 2) {
+            slots = new GcodeCommand[size];
+            boolean perfect = true;
+            for (GcodeCommand command : values()) {
+                int slot = mix(command.text.hashCode()) & (size - 1);
+                if (slots[slot] != null) {
+                    perfect = false;
+                    break;
+                }
+                slots[slot] = command;
+            }
+            if (perfect) {
+                break;
+            }
+        }
+        if (size > MAX_TABLE_SIZE) {
+            throw new IllegalStateException("Could not build a perfect hash table for the gcode commands!");
+        }
+        table = slots;
+        mask = size - 1;
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Looks up the command written in a region of a line.
+     *
+     * @param line  The line.
+     * @param start The index of the first character of the command.
+     * @param end   The index after the last character of the command.
+     * @return The command, or null if the text is not an acceptable command.
+     */
+    public static GcodeCommand lookup(CharSequence line, int start, int end)
+    {
+        //the same hash as String.hashCode(), without creating the String
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        
+        GcodeCommand command = table[mix(hash) & mask];
+        if (command == null || command.text.length() != end - start) {
+            return null;
+        }
+        for (int i = 0; i < command.text.length(); i++) {
+            if (command.text.charAt(i) != line.charAt(start + i)) {
+                return null;
+            }
+        }
+        return command;
+    }
+    
+    /**
+     * Mixes the bits of a hash code, so that the low bits used to index the table depend on every character.
+     *
+     * @param hash The hash code.
+     * @return The mixed hash code.
+     */
+    private static int mix(int hash)
+    {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the text of the command.
+     *
+     * @return The text of the command.
+     */
+    public String getText()
+    {
+        return text;
+    }
+    
+}
@@ -0,0 +1,336 @@
+/*
+ * File:    GcodeCompactor.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import java.util.function.Consumer;
+
+/**
+ * A stage that rewrites moves with as few bytes as possible before they are streamed to grbl.<br/>
+ * grbl keeps the motion command and the feed rate until they are changed, and an axis that is left out of a move does not move, so the stage tracks the modal state grbl has been sent and drops the motion commands, feed rates and axes that would not change it.<br/>
+ * The numbers are copied from the text of each word without trailing zeros, so grbl reads exactly the same values and the machine follows exactly the same path, and the words are written without the spaces between them, which grbl ignores.<br/>
+ * Under character counting, the number of bytes in each line limits how many lines grbl's receive buffer holds, so shorter lines keep more moves planned ahead at high segment rates.
+ */
+public class GcodeCompactor extends MotionStage
+{
+    
+    //Constants
+    
+    /**
+     * The default flag indicating whether jobs are compacted as they are streamed or not.
+     */
+    public static final boolean DEFAULT_COMPACT_STREAM = true;
+    
+    /**
+     * The letters of the words a linear move can have.
+     */
+    private static final String LINEAR_LETTERS = "XYZF";
+    
+    /**
+     * The letters of the words an arc can have.
+     */
+    private static final String ARC_LETTERS = "XYZIJKRF";
+    
+    /**
+     * The code of a motion command that is not known.
+     */
+    private static final int UNKNOWN_MOTION = -1;
+    
+    
+    //Static Fields
+    
+    /**
+     * A flag indicating whether jobs are compacted as they are streamed or not.
+     */
+    public static boolean compactStream = DEFAULT_COMPACT_STREAM;
+    
+    
+    //Fields
+    
+    /**
+     * The code of the motion command grbl has been sent, or UNKNOWN_MOTION if it is not known.
+     */
+    private int motion = UNKNOWN_MOTION;
+    
+    /**
+     * The code of the motion command set by the commands passed through the stage, or UNKNOWN_MOTION if it is not known.<br/>
+     * This is the motion of a move without a motion command, which differs from the motion grbl has been sent when a motion command was dropped from a move that did not move any axis.
+     */
+    private int sourceMotion = UNKNOWN_MOTION;
+    
+    /**
+     * The feed rate grbl has been sent, or NaN if it is not known.
+     */
+    private double feed = Double.NaN;
+    
+    /**
+     * A flag indicating whether the distance mode grbl has been sent is known or not.
+     */
+    private boolean distanceModeKnown = false;
+    
+    /**
+     * The buffer the compacted command is built in.
+     */
+    private final StringBuilder compacted = new StringBuilder();
+    
+    /**
+     * The buffer the digits of a number are normalized in.
+     */
+    private final StringBuilder digits = new StringBuilder();
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a GcodeCompactor.
+     */
+    public GcodeCompactor()
+    {
+        super("Stream compaction");
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Compacts a command.
+     *
+     * @param command The command.
+     * @return The compacted command, which is empty if the command does not change the state of grbl.
+     */
+    public String compact(String command)
+    {
+        return compact((CharSequence) command).toString();
+    }
+    
+    /**
+     * Compacts a command without creating a String, ie: a line of a job read from its command buffer.<br/>
+     * The compacted command is built in a buffer that is reused for the next command, so it must be sent before another command is compacted.
+     *
+     * @param command The command.
+     * @return The compacted command, or the command itself if it is not a move the stage can compact.
+     */
+    public CharSequence compact(CharSequence command)
+    {
+        if (receive(command, null)) {
+            return compacted;
+        }
+        count(command);
+        return command;
+    }
+    
+    /**
+     * Forgets the modal state and position grbl has been sent, ie: after commands that did not pass through the stage were sent to grbl.
+     */
+    public void reset()
+    {
+        motion = UNKNOWN_MOTION;
+        sourceMotion = UNKNOWN_MOTION;
+        feed = Double.NaN;
+        distanceModeKnown = false;
+        relative = false;
+        x = Double.NaN;
+        y = Double.NaN;
+        z = Double.NaN;
+    }
+    
+    /**
+     * Compacts the command being processed if it is a move, updating the current position to the end of it.
+     *
+     * @param command The command, which has been lexed into the word buffer.
+     * @param next    The next stage, or null if the compacted command is returned by compact.
+     * @return Whether the command was compacted or not.
+     */
+    @Override
+    protected boolean hold(CharSequence command, Consumer<String> next)
+    {
+        int code = getMotion();
+        if (code == UNKNOWN_MOTION || inverseTime) {
+            forget();
+            return false;
+        }
+        
+        sourceMotion = code;
+        boolean arc = (code == 2 || code == 3);
+        boolean dropAxes = distanceModeKnown && !arc;
+        
+        compacted.setLength(0);
+        for (int i = (words.getLetter(0) == 'G') ? 1 : 0; i < words.size(); i++) {
+            char letter = words.getLetter(i);
+            double value = words.getValue(i);
+            if (letter == 'F' || (dropAxes && isUnchanged(letter, value))) {
+                continue;
+            }
+            appendWord(i);
+        }
+        
+        //a move that does not move any axis only sets the modal state, so its motion command does not need to be sent
+        if (compacted.length() > 0 && code != motion) {
+            compacted.insert(0, code).insert(0, 'G');
+            motion = code;
+        }
+        
+        int f = words.lastIndexOf('F');
+        if (f != -1 && words.getValue(f) != feed) {
+            appendWord(f);
+            feed = words.getValue(f);
+        }
+        
+        x = moveTo('X', x);
+        y = moveTo('Y', y);
+        z = moveTo('Z', z);
+        
+        if (next == null) {
+            count(compacted);
+        } else {
+            emit(compacted.toString(), next);
+        }
+        return true;
+    }
+    
+    /**
+     * Passes on the commands held back, the stage does not hold back any commands.
+     *
+     * @param next The next stage.
+     */
+    @Override
+    protected void release(Consumer<String> next)
+    {
+    }
+    
+    /**
+     * Returns the motion command of the command being processed if it is a move the stage can compact.
+     *
+     * @return The code of the motion command of the move, or UNKNOWN_MOTION if the command is not such a move.
+     */
+    private int getMotion()
+    {
+        int code;
+        int first;
+        if (words.getLetter(0) == 'G') {
+            double value = words.getValue(0);
+            if (value != 0 && value != 1 && value != 2 && value != 3) {
+                return UNKNOWN_MOTION;
+            }
+            code = (int) value;
+            first = 1;
+        } else {
+            code = sourceMotion;
+            first = 0;
+        }
+        if (code == UNKNOWN_MOTION) {
+            return UNKNOWN_MOTION;
+        }
+        
+        String letters = (code == 2 || code == 3) ? ARC_LETTERS : LINEAR_LETTERS;
+        boolean moves = false;
+        for (int i = first; i < words.size(); i++) {
+            char letter = words.getLetter(i);
+            if (letters.indexOf(letter) == -1 || Double.isNaN(words.getValue(i)) || words.lastIndexOf(letter) != i) {
+                return UNKNOWN_MOTION;
+            }
+            moves |= (letter != 'F');
+        }
+        return (moves || first == 1) ? code : UNKNOWN_MOTION;
+    }
+    
+    /**
+     * Forgets the modal state that may be changed by a command that is not compacted.
+     */
+    private void forget()
+    {
+        //the position is only tracked through a distance mode set by the first word of a command
+        for (int i = 0; i < words.size(); i++) {
+            if (words.getLetter(i) == 'G' && (words.getValue(i) == 90 || words.getValue(i) == 91)) {
+                if (i == 0 && !distanceModeKnown) {
+                    //the position was tracked in a distance mode that may not be the one grbl used
+                    x = Double.NaN;
+                    y = Double.NaN;
+                    z = Double.NaN;
+                }
+                distanceModeKnown = (i == 0);
+            }
+        }
+        if (words.has('G')) {
+            motion = UNKNOWN_MOTION;
+            sourceMotion = UNKNOWN_MOTION;
+        }
+        if (words.has('F') || words.has('G')) {
+            feed = Double.NaN;
+        }
+    }
+    
+    /**
+     * Determines whether an axis word of the command being processed leaves the axis where it is.
+     *
+     * @param letter The letter of the word.
+     * @param value  The value of the word.
+     * @return Whether the axis does not move or not.
+     */
+    private boolean isUnchanged(char letter, double value)
+    {
+        if (relative) {
+            return value == 0;
+        }
+        switch (letter) {
+            case 'X':
+                return value == x;
+            case 'Y':
+                return value == y;
+            case 'Z':
+                return value == z;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Appends a word of the command being processed to the compacted command, without the sign, leading zeros and trailing zeros that do not change its value.
+     *
+     * @param index The index of the word.
+     */
+    private void appendWord(int index)
+    {
+        CharSequence line = words.getLine();
+        int start = words.getStart(index);
+        int end = words.getEnd(index);
+        
+        boolean negative = false;
+        digits.setLength(0);
+        for (int i = start + 1; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '-') {
+                negative = true;
+            } else if (c != '+') {
+                digits.append(c);
+            }
+        }
+        
+        if (digits.indexOf(".") != -1) {
+            int length = digits.length();
+            while (digits.charAt(length - 1) == '0') {
+                length--;
+            }
+            if (digits.charAt(length - 1) == '.') {
+                length--;
+            }
+            digits.setLength(length);
+        }
+        int leading = 0;
+        while (leading < digits.length() && digits.charAt(leading) == '0') {
+            leading++;
+        }
+        digits.delete(0, leading);
+        
+        compacted.append(Character.toUpperCase(line.charAt(start)));
+        if (digits.length() == 0) {
+            compacted.append('0');
+        } else {
+            compacted.append(negative ? "-" : "").append(digits);
+        }
+    }
+    
+}
@@ -6,16 +6,22 @@
 
 package grbl;
 
+import gcode.ModalState;
+import gcode.format.CoordinateFormat;
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
 import gui.interfaces.main.GcodeController;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.function.Consumer;
 
 /**
  * Modifies gcode files to our Application's specifications.
@@ -26,22 +32,29 @@ public class GcodeModifier
     //Constants
     
     /**
-     * The list of acceptable gcode commands.
+     * The list of unacceptable gcode parameters.
      */
-    private static final List<String> ACCEPTABLE_GCODE = Arrays.asList(
-            "G0", "G1", "G2", "G3", "G4", "G10L2", "G10L20", "G17", "G18",
-            "G19", "G20", "G21", "G28", "G28.1", "G30", "G30.1", "G38.2",
-            "G38.3", "G38.4", "G38.5", "G53", "G80", "G90", "G91", "G91.1",
-            "G92", "G92.1", "G93", "G94", "G40", "G43.1", "G49", "G54", "G55",
-            "G56", "G57", "G58", "G59", "G61", "M0", "M1", "M2", "M30*", "M7*",
-            "M8", "M9", "M3", "M4", "M5", "F", "I", "J", "K", "L", "N", "P", "R",
-            "S", "T", "X", "Y", "Z", "G00", "G01", "Z01"
-    );
+    private static final List<Character> UNACCEPTABLE_PARAMETERS = Arrays.asList('E', 'A');
     
     /**
-     * The list of unacceptable gcode parameters.
+     * The token that replaces a feed rate above the maximum speed.
      */
-    private static final List<Character> UNACCEPTABLE_PARAMETERS = Arrays.asList('E', 'A');
+    private static final int MAX_SPEED_TOKEN = -1;
+    
+    /**
+     * The offset of tokens converted to a feed rate, a converted token is stored as CONVERTED_TOKEN minus the index of its word.
+     */
+    private static final int CONVERTED_TOKEN = -2;
+    
+    /**
+     * The words of a G0 or G1 move that are kept when its precision is truncated, in the order they are written.
+     */
+    private static final String MOVE_WORDS = "XYZF";
+    
+    /**
+     * The words of a G2 or G3 arc that are formatted when its precision is truncated, in the order they are written, the other words of the arc are kept as they are.
+     */
+    private static final String ARC_WORDS = "XYZIJKRF";
     
     
     //Fields
@@ -56,6 +69,46 @@ public class GcodeModifier
      */
     private String file;
     
+    /**
+     * The stages that each line of the gcode file is passed through, in order.
+     */
+    private final List<Stage> stages = new ArrayList<>();
+    
+    /**
+     * The inputs of the stages, chained to the output the lines were last modified into.
+     */
+    private List<Consumer<String>> chain = new ArrayList<>();
+    
+    /**
+     * The output the stages were last chained to.
+     */
+    private Consumer<String> chainOutput = null;
+    
+    /**
+     * The modal state set by the commands that have been modified.
+     */
+    private ModalState modalState = new ModalState();
+    
+    /**
+     * A flag indicating whether the units set by the commands are applied to grbl as they are modified or not.
+     */
+    private boolean applyUnits = true;
+    
+    /**
+     * The word buffer for the command being modified.
+     */
+    private final GcodeWords words = new GcodeWords();
+    
+    /**
+     * The tokens of the command being converted.
+     */
+    private int[] tokens = new int[16];
+    
+    /**
+     * The values of the words of the command being truncated, in the order of the words that are kept.
+     */
+    private final double[] values = new double[ARC_WORDS.length()];
+    
     
     //Constructors
     
@@ -65,8 +118,31 @@ public class GcodeModifier
      * @param file The gcode file to modify.
      */
     public GcodeModifier(String file)
+    {
+        this(file, true);
+    }
+    
+    /**
+     * The constructor for a GcodeModifier.
+     *
+     * @param file     The gcode file to modify.
+     * @param optimize Whether the optional stages enabled in the settings are added after the stages that clean the commands or not.
+     */
+    GcodeModifier(String file, boolean optimize)
     {
         this.file = file;
+        
+        addStage(this::removeComments);
+        addStage(this::removeWhitespace);
+        addStage(this::removeBadCommands);
+        addStage(this::convertBadParameters);
+        addStage(this::truncatePrecision);
+        
+        if (optimize) {
+            for (Stage stage : createOptimizations()) {
+                addStage(stage);
+            }
+        }
     }
     
     
@@ -79,24 +155,18 @@ public class GcodeModifier
      */
     public boolean modify()
     {
-        if (readGcodeFile()) {
-            removeComments();
-            removeWhitespace();
-            removeBadCommands();
-            convertBadParameters();
-            truncatePrecision();
-            return true;
-        }
-        
-        return false;
+        commands = new ArrayList<>();
+        return modify(commands::add);
     }
     
     /**
-     * Reads the commands from the specified gcode file.
+     * Modifies the specified gcode file, passing each modified command to an output as soon as it is produced.<br/>
+     * The file is read one line at a time, so only the lines held back by the stages are kept in memory.
      *
-     * @return Whether the gcode file was successfully read or not.
+     * @param output The output of the modified commands.
+     * @return Whether the gcode file was successfully modified or not.
      */
-    private boolean readGcodeFile()
+    public boolean modify(Consumer<String> output)
     {
         //open the gcode file
         File gcode = new File(file);
@@ -104,210 +174,319 @@ public class GcodeModifier
             System.err.println("Cannot modify gcode file: " + gcode.getAbsolutePath() + ". File does not exist!");
             return false;
         }
-    
-        //read the gcode file
-        try {
-            commands = Files.readAllLines(Paths.get(gcode.getAbsolutePath()));
+        modalState = new ModalState();
+        
+        //modify the gcode file line by line
+        try (BufferedReader reader = Files.newBufferedReader(gcode.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                modify(line, output);
+            }
         } catch (IOException e) {
             System.err.println("Cannot modify gcode file: " + gcode.getAbsolutePath() + ". File cannot be read!");
             return false;
         }
         
-        removeWhitespace();
-        
+        flush(output);
         return true;
     }
     
     /**
-     * Removes comments from the specified gcode file.
+     * Modifies a chunk of lines read from a gcode file.
+     *
+     * @param lines The lines of the gcode file.
+     * @return The modified gcode commands.
      */
-    private void removeComments()
+    public List<String> modify(List<String> lines)
     {
-        for (int i = 0; i < commands.size(); i++) {
-            String command = commands.get(i);
-            if (command.contains(";")) {
-                StringBuilder sb = new StringBuilder();
-                char[] cbuf = command.toCharArray();
-    
-                for (char aCbuf : cbuf) {
-                    if (aCbuf == ';') {
-                        break;
-                    }
-                    sb.append(aCbuf);
-                }
-                
-                String str = sb.toString();
-                commands.set(i, str);
-            }
+        commands = new ArrayList<>(lines.size());
+        Consumer<String> output = commands::add;
+        for (String line : lines) {
+            modify(line, output);
         }
+        flush(output);
+        return commands;
     }
     
     /**
-     * Removes preceding and trailing whitespace form the specified gcode file.
+     * Passes a line of a gcode file through the stages.
+     *
+     * @param line   The line of the gcode file.
+     * @param output The output of the modified commands.
      */
-    private void removeWhitespace()
+    public void modify(String line, Consumer<String> output)
     {
-        //remove unnecessary spaces in commands
-        for (int i = 0; i < commands.size(); i++) {
-            commands.set(i, commands.get(i).trim());
+        chain(output).get(0).accept(line);
+    }
+    
+    /**
+     * Flushes the lines held back by the stages once the last line of a gcode file has been passed through them.
+     *
+     * @param output The output of the modified commands.
+     */
+    public void flush(Consumer<String> output)
+    {
+        List<Consumer<String>> inputs = chain(output);
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).flush(inputs.get(i + 1));
         }
     }
     
     /**
-     * Removes bad commands from the specified gcode file.
+     * Adds a stage after the stages that lines of the gcode file are already passed through.
+     *
+     * @param stage The stage.
      */
-    private void removeBadCommands()
+    public void addStage(Stage stage)
     {
-        for (int i = 0; i < commands.size(); i++) {
-            String command = commands.get(i);
-            
-            
-            if (command.isEmpty()) {
-                commands.remove(i); //continue or remove
-                i--;
-                continue;
-            }
+        stages.add(stage);
+        chainOutput = null;
+    }
     
-            String gCommand = command.indexOf(' ') == -1 ? command : command.substring(0, command.indexOf(' '));
-            
-            // check the acceptable set
-            if (!ACCEPTABLE_GCODE.contains(gCommand)) {
-                commands.remove(i); //continue or remove
-                i--;
+    /**
+     * Chains the stages to an output.
+     *
+     * @param output The output of the modified commands.
+     * @return The inputs of the stages, followed by the output.
+     */
+    private List<Consumer<String>> chain(Consumer<String> output)
+    {
+        if (output != chainOutput) {
+            List<Consumer<String>> inputs = new ArrayList<>(Collections.nCopies(stages.size() + 1, output));
+            for (int i = stages.size() - 1; i >= 0; i--) {
+                Stage stage = stages.get(i);
+                Consumer<String> next = inputs.get(i + 1);
+                inputs.set(i, line -> stage.process(line, next));
             }
+            chain = inputs;
+            chainOutput = output;
         }
+        return chain;
     }
     
     /**
-     * Converts bad parameters in the specified gcode file.
+     * Removes the comment from a line of the gcode file.
+     *
+     * @param command The line of the gcode file.
+     * @param next    The next stage.
      */
-    private void convertBadParameters()
+    private void removeComments(String command, Consumer<String> next)
     {
-        for (int index = 0; index < commands.size(); index++) {
-            String command = commands.get(index);
+        int comment = command.indexOf(';');
+        next.accept((comment == -1) ? command : command.substring(0, comment));
+    }
     
-            List<String> tokens = new ArrayList<>();
-            StringTokenizer st = new StringTokenizer(command);
-            while (st.hasMoreTokens()) {
-                tokens.add(st.nextToken());
+    /**
+     * Removes preceding and trailing whitespace from a line of the gcode file.
+     *
+     * @param command The line of the gcode file.
+     * @param next    The next stage.
+     */
+    private void removeWhitespace(String command, Consumer<String> next)
+    {
+        next.accept(command.trim());
+    }
+    
+    /**
+     * Removes a line of the gcode file if it is empty or is not an acceptable command.
+     *
+     * @param command The line of the gcode file.
+     * @param next    The next stage.
+     */
+    private void removeBadCommands(String command, Consumer<String> next)
+    {
+        if (command.isEmpty()) {
+            return;
+        }
+        
+        // check the acceptable set
+        int space = command.indexOf(' ');
+        if (GcodeCommand.lookup(command, 0, (space == -1) ? command.length() : space) != null) {
+            next.accept(command);
+        }
+    }
+    
+    /**
+     * Converts bad parameters in a command of the gcode file.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     */
+    private void convertBadParameters(String command, Consumer<String> next)
+    {
+        GcodeLexer.lex(command, words);
+        if (words.size() == 0) {
+            return;
+        }
+        
+        // Check for mm vs inches
+        if (words.isToken(0, "G21")) {
+            modalState.setUnits(ModalState.Units.METRIC);
+            if (applyUnits) {
+                APIgrbl.grbl.setMetric();
             }
-
-            if (tokens.size() > 0) {
-                // Check for mm vs inches
-                if(tokens.get(0).compareTo("G21") == 0){
-                    APIgrbl.grbl.setMetric();
-                }else if(tokens.get(0).compareTo("G20") == 0){
-                    APIgrbl.grbl.setImperial();
+        } else if (words.isToken(0, "G20")) {
+            modalState.setUnits(ModalState.Units.IMPERIAL);
+            if (applyUnits) {
+                APIgrbl.grbl.setImperial();
+            }
+        } else if (words.isToken(0, "G90")) {
+            modalState.setDistanceMode(ModalState.DistanceMode.ABSOLUTE);
+        } else if (words.isToken(0, "G91")) {
+            modalState.setDistanceMode(ModalState.DistanceMode.RELATIVE);
+        }
+        
+        // the tokens of the command, as the index of their first word
+        int tokenCount = 0;
+        if (tokens.length < words.size() + 1) {
+            tokens = new int[words.size() + 1];
+        }
+        for (int i = 0; i < words.size(); i++) {
+            if (words.isTokenStart(i)) {
+                tokens[tokenCount++] = i;
+            }
+        }
+        
+        boolean hitF = false;
+        int mockF = -1;
+        for (int j = 0; j < tokenCount; j++) {
+            int token = tokens[j];
+            
+            if (token >= 0 && UNACCEPTABLE_PARAMETERS.contains(words.getLetter(token))) {
+                if (hitF) {
+                    tokenCount = removeToken(j--, tokenCount);
+                } else {
+                    tokens[j] = CONVERTED_TOKEN - token;
+                    mockF = j;
                 }
-
-                boolean hitF = false;
-                int mockF = -1;
-                for (int j = 0; j < tokens.size(); j++) {
-                    String token = tokens.get(j);
-
-                    if (UNACCEPTABLE_PARAMETERS.contains(token.charAt(0))) {
-                        if (hitF) {
-                            tokens.remove(j--);
-                        } else {
-                            tokens.set(j, 'F' + token.substring(1));
-                            mockF = j;
-                        }
-                    } else if (token.charAt(0) == 'F') {
-                        hitF = true;
-                        // Check for speed
-                        String speed = token.substring(1);
-                        double newSpeed = Double.parseDouble(speed);
-
-                        if (newSpeed > GcodeController.MAX_SPEED)
-                        {
-                            speed = String.valueOf(GcodeController.MAX_SPEED);
-                            String newToken = token.charAt(0) + speed;
-                            tokens.remove(j);
-                            tokens.add(newToken);
-                        }
-
-                        if (mockF != -1) {
-                            tokens.remove(mockF);
-                            mockF = -1;
-                            j--;
-                        }
-                    }
+            } else if (token < 0 || words.getLetter(token) == 'F') {
+                hitF = true;
+                // Check for speed
+                double newSpeed = (token == MAX_SPEED_TOKEN) ? GcodeController.MAX_SPEED : words.getValue((token < 0) ? CONVERTED_TOKEN - token : token);
+                
+                if (newSpeed > GcodeController.MAX_SPEED) {
+                    tokenCount = removeToken(j, tokenCount);
+                    tokens[tokenCount++] = MAX_SPEED_TOKEN;
                 }
-        
-                StringBuilder sb = new StringBuilder();
-                for (String token : tokens) {
-                    if (sb.length() > 0) {
-                        sb.append(' ');
-                    }
-                    sb.append(token);
+                
+                if (mockF != -1) {
+                    tokenCount = removeToken(mockF, tokenCount);
+                    mockF = -1;
+                    j--;
                 }
-                commands.set(index, sb.toString());
+            }
+        }
         
+        StringBuilder sb = new StringBuilder(command.length() + 8);
+        for (int j = 0; j < tokenCount; j++) {
+            int token = tokens[j];
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            if (token == MAX_SPEED_TOKEN) {
+                sb.append('F').append(String.valueOf(GcodeController.MAX_SPEED));
+                modalState.setFeed(GcodeController.MAX_SPEED);
+            } else if (token < MAX_SPEED_TOKEN) {
+                int word = CONVERTED_TOKEN - token;
+                sb.append('F').append(command, words.getStart(word) + 1, words.getTokenEnd(word));
+                setFeed(words.getValue(word));
             } else {
-                commands.remove(index--);
+                sb.append(command, words.getStart(token), words.getTokenEnd(token));
+                if (words.getLetter(token) == 'F') {
+                    setFeed(words.getValue(token));
+                }
             }
         }
+        next.accept(sb.toString());
+    }
+    
+    /**
+     * Sets the feed rate of the modal state, if the feed rate of the command is a number.
+     *
+     * @param feed The feed rate of the command.
+     */
+    private void setFeed(double feed)
+    {
+        if (!Double.isNaN(feed)) {
+            modalState.setFeed(feed);
+        }
     }
     
     /**
-     * Truncates precision in the specified gcode file.
+     * Removes a token from the tokens of the command being converted.
+     *
+     * @param index The index of the token.
+     * @param count The number of tokens.
+     * @return The number of tokens left.
      */
-    private void truncatePrecision()
+    private int removeToken(int index, int count)
     {
-        for (int i = 0; i < commands.size(); i++) {
-            String command = commands.get(i);
+        System.arraycopy(tokens, index + 1, tokens, index, count - index - 1);
+        return count - 1;
+    }
+    
+    /**
+     * Truncates precision in a command of the gcode file.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     */
+    private void truncatePrecision(String command, Consumer<String> next)
+    {
+        GcodeLexer.lex(command, words);
         
-            List<String> tokens = new ArrayList<>();
-            StringTokenizer st = new StringTokenizer(command);
-            while (st.hasMoreTokens()) {
-                tokens.add(st.nextToken());
-            }
+        String letters = null;
+        if (words.size() > 0 && (words.isToken(0, "G1") || words.isToken(0, "G0"))) {
+            letters = MOVE_WORDS;
+        } else if (ArcFitter.arcTolerance > 0 && words.size() > 0 && (words.isToken(0, "G2") || words.isToken(0, "G3"))) {
+            //the arcs of a job are left as they are unless arc fitting is enabled
+            letters = ARC_WORDS;
+        }
         
-            if (tokens.size() > 0) {
+        if (letters != null) {
+            Arrays.fill(values, Double.MIN_VALUE);
+            
+            boolean formatted = true;
+            for (int j = 0; j < words.size(); j++) {
+                if (!words.isTokenStart(j)) {
+                    continue;
+                }
                 
-                if (tokens.get(0).equals("G1") || tokens.get(0).equals("G0")) {
-
-                    double x = Double.MIN_VALUE;
-                    double y = Double.MIN_VALUE;
-                    double z = Double.MIN_VALUE;
-                    double f = Double.MIN_VALUE;
-
-                    try {
-                        for (String token : tokens) {
-                            if (token.startsWith("X")) {
-                                x = Double.parseDouble(token.substring(1));
-                            } else if (token.startsWith("Y")) {
-                                y = Double.parseDouble(token.substring(1));
-                            } else if (token.startsWith("Z")) {
-                                z = Double.parseDouble(token.substring(1));
-                            } else if (token.startsWith("F")) {
-                                f = Double.parseDouble(token.substring(1));
-                            }
-                        }
-
-                        StringBuilder newCommand = new StringBuilder(tokens.get(0)).append(" ");
-                        if (x != Double.MIN_VALUE) {
-                            newCommand.append(String.format("X%.3f ", x));
-                        }
-                        if (y != Double.MIN_VALUE) {
-                            newCommand.append(String.format("Y%.3f ", y));
-                        }
-                        if (z != Double.MIN_VALUE) {
-                            newCommand.append(String.format("Z%.3f ", z));
-                        }
-                        if (f != Double.MIN_VALUE) {
-                            newCommand.append(String.format("F%.3f ", f));
-                        }
-                        commands.set(i, newCommand.toString());
-
-                    } catch (NumberFormatException e) {
-                        System.err.println("Error making adjustments to gcode instruction: " + command + ". Number is not formatted properly!");
+                int letter = letters.indexOf(words.getLetter(j));
+                if (letter != -1) {
+                    double value = words.getValue(j);
+                    if (Double.isNaN(value) || words.getTokenEnd(j) != words.getEnd(j)) {
+                        formatted = false;
+                        break;
+                    }
+                    values[letter] = value;
+                }
+            }
+            if (!formatted) {
+                System.err.println("Error making adjustments to gcode instruction: " + command + ". Number is not formatted properly!");
+                next.accept(command);
+                return;
+            }
+            
+            StringBuilder newCommand = words.appendText(0, new StringBuilder(command.length() + 8)).append(" ");
+            for (int i = 0; i < letters.length(); i++) {
+                if (values[i] != Double.MIN_VALUE) {
+                    CoordinateFormat.appendWord(newCommand, letters.charAt(i), values[i]);
+                }
+            }
+            if (letters.equals(ARC_WORDS)) {
+                //the other words of an arc, like the P of a multi-turn arc or an S spindle speed, are kept
+                for (int j = 1; j < words.size(); j++) {
+                    if (words.isTokenStart(j) && letters.indexOf(words.getLetter(j)) == -1) {
+                        newCommand.append(words.getLine(), words.getStart(j), words.getTokenEnd(j)).append(' ');
                     }
                 }
             }
+            command = newCommand.toString();
         }
+        next.accept(command);
     }
-
+    
     /**
      * Prints the list of commands.
      */
@@ -319,6 +498,50 @@ public class GcodeModifier
     }
     
     
+    //Functions
+    
+    /**
+     * Creates the optional stages enabled in the settings, which optimize the commands once they have been cleaned.
+     *
+     * @return The optional stages, in the order the commands are passed through them.
+     */
+    public static List<Stage> createOptimizations()
+    {
+        List<Stage> optimizations = new ArrayList<>();
+        if (TravelOptimizer.travelOptimization) {
+            optimizations.add(new TravelOptimizer());
+        }
+        if (ArcFitter.arcTolerance > 0) {
+            optimizations.add(new ArcFitter(ArcFitter.arcTolerance));
+        }
+        if (PathSimplifier.simplifyTolerance > 0) {
+            optimizations.add(new PathSimplifier(PathSimplifier.simplifyTolerance, PathSimplifier.simplifyZTolerance));
+        }
+        return optimizations;
+    }
+    
+    /**
+     * Passes a list of commands through stages, one stage at a time.
+     *
+     * @param stages   The stages.
+     * @param commands The commands.
+     * @return The commands passed on by the last stage.
+     */
+    public static List<String> process(List<Stage> stages, List<String> commands)
+    {
+        for (Stage stage : stages) {
+            List<String> processed = new ArrayList<>(commands.size());
+            Consumer<String> next = processed::add;
+            for (String command : commands) {
+                stage.process(command, next);
+            }
+            stage.flush(next);
+            commands = processed;
+        }
+        return commands;
+    }
+    
+    
     //Getters
     
     /**
@@ -331,4 +554,55 @@ public class GcodeModifier
         return commands;
     }
     
+    /**
+     * Returns the modal state set by the commands that have been modified.
+     *
+     * @return The modal state set by the commands that have been modified.
+     */
+    public ModalState getModalState()
+    {
+        return modalState;
+    }
+    
+    
+    //Setters
+    
+    /**
+     * Sets whether the units set by the commands are applied to grbl as they are modified or not.
+     *
+     * @param applyUnits Whether the units set by the commands are applied to grbl or not.
+     */
+    public void setApplyUnits(boolean applyUnits)
+    {
+        this.applyUnits = applyUnits;
+    }
+    
+    
+    //Interfaces
+    
+    /**
+     * A stage that lines of a gcode file are passed through one at a time.
+     */
+    public interface Stage
+    {
+        
+        /**
+         * Processes a line of the gcode file, passing any number of lines to the next stage.
+         *
+         * @param line The line of the gcode file.
+         * @param next The next stage.
+         */
+        void process(String line, Consumer<String> next);
+        
+        /**
+         * Passes the lines held back by the stage to the next stage once the last line of the gcode file has been processed.
+         *
+         * @param next The next stage.
+         */
+        default void flush(Consumer<String> next)
+        {
+        }
+    
+    }
+    
 }
\ No newline at end of file
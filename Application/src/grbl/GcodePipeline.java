@@ -0,0 +1,261 @@
+/*
+ * File:    GcodePipeline.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Pre-processes a gcode file on its own thread, handing the modified commands to the streamer through a bounded queue.<br/>
+ * The file is read and modified line by line, so streaming can start as soon as the first command is clean instead of after the whole file has been modified.
+ */
+public class GcodePipeline extends Thread
+{
+    
+    //Constants
+    
+    /**
+     * The default number of modified commands that can wait in the queue for the streamer.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    
+    /**
+     * The marker put in the queue after the last command.
+     */
+    private static final String END = new String();
+    
+    
+    //Fields
+    
+    /**
+     * The gcode file to pre-process.
+     */
+    private final String file;
+    
+    /**
+     * The cache key the compiled job is stored under once the file has been pre-processed, or null if it should not be cached.
+     */
+    private final String key;
+    
+    /**
+     * The queue of modified commands waiting for the streamer.
+     */
+    private final BlockingQueue<String> queue;
+    
+    /**
+     * The GcodeModifier used to modify the lines of the gcode file.
+     */
+    private final GcodeModifier modifier;
+    
+    /**
+     * The size of the gcode file, in bytes.
+     */
+    private final long fileSize;
+    
+    /**
+     * The approximate number of bytes of the gcode file that have been read.
+     */
+    private volatile long bytesRead = 0;
+    
+    /**
+     * The number of modified commands that have been produced.
+     */
+    private volatile int produced = 0;
+    
+    /**
+     * A flag indicating whether the gcode file could not be pre-processed or not.
+     */
+    private volatile boolean failed = false;
+    
+    /**
+     * A flag indicating whether the last command has been taken from the queue or not.
+     */
+    private boolean finished = false;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a GcodePipeline.
+     *
+     * @param file     The gcode file to pre-process.
+     * @param key      The cache key to store the compiled job under once the file has been pre-processed, or null if it should not be cached.
+     * @param capacity The number of modified commands that can wait in the queue for the streamer.
+     */
+    public GcodePipeline(String file, String key, int capacity)
+    {
+        super("gcode-pipeline");
+        setDaemon(true);
+        
+        this.file = file;
+        this.key = key;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.modifier = new GcodeModifier(file);
+        this.fileSize = new File(file).length();
+    }
+    
+    /**
+     * The constructor for a GcodePipeline.
+     *
+     * @param file The gcode file to pre-process.
+     * @param key  The cache key to store the compiled job under once the file has been pre-processed, or null if it should not be cached.
+     */
+    public GcodePipeline(String file, String key)
+    {
+        this(file, key, DEFAULT_CAPACITY);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Reads and modifies the gcode file, putting the modified commands in the queue.
+     */
+    @Override
+    public void run()
+    {
+        File gcode = new File(file);
+        List<String> compiled = (key == null) ? null : new ArrayList<>();
+        
+        List<String> modified = new ArrayList<>();
+        Consumer<String> output = modified::add;
+        
+        try (BufferedReader reader = Files.newBufferedReader(gcode.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                bytesRead += line.length() + 1;
+                modifier.modify(line, output);
+                produce(modified, compiled);
+            }
+            modifier.flush(output);
+            produce(modified, compiled);
+        
+        } catch (IOException e) {
+            System.err.println("Cannot modify gcode file: " + gcode.getAbsolutePath() + ". File cannot be read!");
+            failed = true;
+        } catch (InterruptedException ignored) {
+            return;
+        }
+        
+        try {
+            queue.put(END);
+        } catch (InterruptedException ignored) {
+            return;
+        }
+        
+        // the next time the file is cut its compiled job is loaded from the job cache
+        if (!failed && compiled != null) {
+            JobCache.store(key, compiled);
+        }
+    }
+    
+    /**
+     * Puts the commands produced by the GcodeModifier in the queue.
+     *
+     * @param modified The commands produced by the GcodeModifier, which are cleared once they are in the queue.
+     * @param compiled The list of every modified command, or null if the commands are not being collected.
+     * @throws InterruptedException When the pipeline is cancelled while waiting for room in the queue.
+     */
+    private void produce(List<String> modified, List<String> compiled) throws InterruptedException
+    {
+        for (String command : modified) {
+            produced++;
+            queue.put(command);
+            if (compiled != null) {
+                compiled.add(command);
+            }
+        }
+        modified.clear();
+    }
+    
+    /**
+     * Takes the next modified command from the queue, waiting up to a timeout for it to be produced.
+     *
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return The next modified command, or null if it was not produced in time or there are no more commands.
+     * @throws InterruptedException When the calling thread is interrupted while waiting.
+     */
+    public String poll(long timeout) throws InterruptedException
+    {
+        if (finished) {
+            return null;
+        }
+        
+        String command = queue.poll(timeout, TimeUnit.MILLISECONDS);
+        if (command == END) {
+            finished = true;
+            return null;
+        }
+        return command;
+    }
+    
+    /**
+     * Cancels the pre-processing of the gcode file.
+     */
+    public void cancel()
+    {
+        interrupt();
+        queue.clear();
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns whether the last command has been taken from the queue or not.
+     *
+     * @return Whether the last command has been taken from the queue or not.
+     */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+    
+    /**
+     * Returns whether the gcode file could not be pre-processed or not.
+     *
+     * @return Whether the gcode file could not be pre-processed or not.
+     */
+    public boolean isFailed()
+    {
+        return failed;
+    }
+    
+    /**
+     * Returns the number of modified commands that have been produced.
+     *
+     * @return The number of modified commands that have been produced.
+     */
+    public int getProduced()
+    {
+        return produced;
+    }
+    
+    /**
+     * Returns the estimated number of modified commands in the whole gcode file, extrapolated from the part of the file that has been read.
+     *
+     * @return The estimated number of modified commands in the gcode file.
+     */
+    public int getEstimatedSize()
+    {
+        long read = bytesRead;
+        if (read == 0 || read >= fileSize) {
+            return produced;
+        }
+        return (int) (produced * ((double) fileSize / read));
+    }
+    
+}
@@ -0,0 +1,247 @@
+/*
+ * File:    GrblRealtimeChannel.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import grbl.transport.GrblTransport;
+
+import java.io.IOException;
+
+/**
+ * Sends grbl's realtime commands immediately, bypassing the queue of streamed lines.<br/>
+ * The latency between sending a feed hold, cycle start or soft reset and grbl confirming it is measured for each command.<br/>
+ * A command that grbl does not confirm within a number of status reports or a timeout is counted as failed.
+ */
+public class GrblRealtimeChannel
+{
+    
+    //Constants
+    
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+    
+    /**
+     * The maximum number of status queries sent while waiting for grbl to confirm a command.
+     */
+    public static final int MAX_CONFIRM_ATTEMPTS = 20;
+    
+    /**
+     * The maximum time to wait for grbl to confirm a command, in milliseconds.
+     */
+    public static final long CONFIRM_TIMEOUT = 2000;
+    
+    
+    //Fields
+    
+    /**
+     * The connection to grbl.
+     */
+    private final GrblTransport transport;
+    
+    /**
+     * The command waiting to be confirmed by grbl, or null if there is none.
+     */
+    private RealtimeCommand pending = null;
+    
+    /**
+     * The time the pending command was sent, in nanoseconds.
+     */
+    private long pendingSentAt = 0;
+    
+    /**
+     * The number of status queries sent while waiting for grbl to confirm the pending command.
+     */
+    private int pendingAttempts = 0;
+    
+    /**
+     * The number of confirmed commands, indexed by command.
+     */
+    private final int[] confirmedCount = new int[RealtimeCommand.values().length];
+    
+    /**
+     * The latency of the most recent confirmed command, in nanoseconds, indexed by command.
+     */
+    private final long[] lastLatency = new long[RealtimeCommand.values().length];
+    
+    /**
+     * The maximum latency of a confirmed command, in nanoseconds, indexed by command.
+     */
+    private final long[] maxLatency = new long[RealtimeCommand.values().length];
+    
+    /**
+     * The total latency of the confirmed commands, in nanoseconds, indexed by command.
+     */
+    private final long[] totalLatency = new long[RealtimeCommand.values().length];
+    
+    /**
+     * The number of commands that grbl did not confirm in time, indexed by command.
+     */
+    private final int[] failedCount = new int[RealtimeCommand.values().length];
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a GrblRealtimeChannel.
+     *
+     * @param transport The open connection to grbl.
+     */
+    public GrblRealtimeChannel(GrblTransport transport)
+    {
+        this.transport = transport;
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Sends a realtime command to grbl immediately.<br/>
+     * Commands that grbl confirms are followed by a status query so that their latency can be measured.
+     *
+     * @param command The realtime command.
+     * @throws IOException When there was an error communicating with grbl.
+     */
+    public void send(RealtimeCommand command) throws IOException
+    {
+        long sentAt = System.nanoTime();
+        transport.writeRealtime(command.getCode());
+        
+        if (command.isConfirmed()) {
+            synchronized (this) {
+                pending = command;
+                pendingSentAt = sentAt;
+                pendingAttempts = 0;
+            }
+            if (command != RealtimeCommand.SOFT_RESET) {
+                transport.writeRealtime(RealtimeCommand.STATUS_QUERY.getCode());
+            }
+        }
+    }
+    
+    /**
+     * Handles a status report or message from grbl, confirming the pending command if it has taken effect.<br/>
+     * The pending command fails when grbl has not confirmed it after MAX_CONFIRM_ATTEMPTS status reports or CONFIRM_TIMEOUT milliseconds.
+     *
+     * @param message The status report or message.
+     * @return Whether the message confirmed the pending command or not.
+     */
+    public boolean handle(String message)
+    {
+        RealtimeCommand failed;
+        synchronized (this) {
+            if (pending == null) {
+                return false;
+            }
+            
+            long latency = System.nanoTime() - pendingSentAt;
+            if (pending.isConfirmedBy(message)) {
+                int i = pending.ordinal();
+                confirmedCount[i]++;
+                lastLatency[i] = latency;
+                maxLatency[i] = Math.max(maxLatency[i], latency);
+                totalLatency[i] += latency;
+                pending = null;
+                return true;
+            }
+            
+            boolean statusReport = message.startsWith("<");
+            if (statusReport) {
+                pendingAttempts++;
+            }
+            if (pendingAttempts < MAX_CONFIRM_ATTEMPTS && latency < CONFIRM_TIMEOUT * NANOS_PER_MILLI) {
+                if (pending != RealtimeCommand.SOFT_RESET && statusReport) {
+                    //keep polling until the command takes effect
+                    try {
+                        transport.writeRealtime(RealtimeCommand.STATUS_QUERY.getCode());
+                    } catch (IOException ignored) {
+                    }
+                }
+                return false;
+            }
+            
+            failed = pending;
+            failedCount[failed.ordinal()]++;
+            pending = null;
+        }
+        
+        System.err.println("grbl did not confirm " + failed + " after " + pendingAttempts + " status reports!");
+        return false;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the latency of the most recent confirmed command of a type.
+     *
+     * @param command The realtime command.
+     * @return The latency in milliseconds, or -1 if the command has not been confirmed yet.
+     */
+    public synchronized double getLastLatency(RealtimeCommand command)
+    {
+        int i = command.ordinal();
+        return (confirmedCount[i] == 0) ? -1 : lastLatency[i] / NANOS_PER_MILLI;
+    }
+    
+    /**
+     * Returns the maximum latency of the confirmed commands of a type.
+     *
+     * @param command The realtime command.
+     * @return The latency in milliseconds, or -1 if the command has not been confirmed yet.
+     */
+    public synchronized double getMaxLatency(RealtimeCommand command)
+    {
+        int i = command.ordinal();
+        return (confirmedCount[i] == 0) ? -1 : maxLatency[i] / NANOS_PER_MILLI;
+    }
+    
+    /**
+     * Returns the average latency of the confirmed commands of a type.
+     *
+     * @param command The realtime command.
+     * @return The latency in milliseconds, or -1 if the command has not been confirmed yet.
+     */
+    public synchronized double getAverageLatency(RealtimeCommand command)
+    {
+        int i = command.ordinal();
+        return (confirmedCount[i] == 0) ? -1 : (totalLatency[i] / NANOS_PER_MILLI) / confirmedCount[i];
+    }
+    
+    /**
+     * Returns the number of confirmed commands of a type.
+     *
+     * @param command The realtime command.
+     * @return The number of confirmed commands.
+     */
+    public synchronized int getConfirmedCount(RealtimeCommand command)
+    {
+        return confirmedCount[command.ordinal()];
+    }
+    
+    /**
+     * Returns the number of commands of a type that grbl did not confirm in time.
+     *
+     * @param command The realtime command.
+     * @return The number of failed commands.
+     */
+    public synchronized int getFailedCount(RealtimeCommand command)
+    {
+        return failedCount[command.ordinal()];
+    }
+    
+    /**
+     * Returns the command waiting to be confirmed by grbl.
+     *
+     * @return The command waiting to be confirmed by grbl, or null if there is none.
+     */
+    public synchronized RealtimeCommand getPending()
+    {
+        return pending;
+    }
+    
+}
@@ -0,0 +1,533 @@
+/*
+ * File:    GrblStreamer.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import grbl.transport.GrblTransport;
+
+import java.io.IOException;
+
+/**
+ * Streams gcode to grbl using grbl's character-counting protocol.<br/>
+ * Lines are sent as long as they fit in grbl's serial receive buffer, and each "ok" or "error" response is matched to the oldest line in flight.
+ * This keeps grbl's buffers full instead of waiting for every line to finish before sending the next one.
+ */
+public class GrblStreamer
+{
+    
+    //Interfaces
+    
+    /**
+     * The interface that defines the contract for receiving grbl's responses.
+     */
+    public interface Listener
+    {
+        
+        /**
+         * Called when grbl acknowledges a line.
+         *
+         * @param tag      The tag the line was sent with.
+         * @param response The response from grbl, either "ok" or "error:N".
+         */
+        void lineAcknowledged(int tag, String response);
+        
+        /**
+         * Called when grbl sends a status report.
+         *
+         * @param report The status report.
+         */
+        void statusReported(String report);
+        
+        /**
+         * Called when grbl sends any other message, ie: the startup banner, feedback or settings.
+         *
+         * @param message The message.
+         */
+        void messageReceived(String message);
+    
+    }
+    
+    
+    //Constants
+    
+    /**
+     * The default size of grbl's serial receive buffer.
+     */
+    public static final int DEFAULT_RX_BUFFER_SIZE = 127;
+    
+    /**
+     * The start of the banner grbl sends when it starts up or is reset.
+     */
+    public static final String STARTUP_BANNER = "Grbl";
+    
+    
+    //Static Fields
+    
+    /**
+     * The size of grbl's serial receive buffer.
+     */
+    public static int rxBufferSize = DEFAULT_RX_BUFFER_SIZE;
+    
+    
+    //Fields
+    
+    /**
+     * The connection to grbl.
+     */
+    private final GrblTransport transport;
+    
+    /**
+     * The listener for grbl's responses.
+     */
+    private final Listener listener;
+    
+    /**
+     * The size of the receive buffer used by this streamer.
+     */
+    private final int bufferSize;
+    
+    /**
+     * The buffer used to build a line before it is written.
+     */
+    private final byte[] lineBuffer;
+    
+    /**
+     * The ring of tags for the lines in flight, oldest first.
+     */
+    private final int[] pendingTags;
+    
+    /**
+     * The ring of byte counts for the lines in flight, oldest first.
+     */
+    private final int[] pendingLengths;
+    
+    /**
+     * The index of the oldest line in flight.
+     */
+    private int pendingHead = 0;
+    
+    /**
+     * The number of lines in flight.
+     */
+    private int pendingCount = 0;
+    
+    /**
+     * The number of bytes in flight in grbl's receive buffer.
+     */
+    private int bytesInFlight = 0;
+    
+    /**
+     * The number of lines that grbl responded to with an error.
+     */
+    private int errorCount = 0;
+    
+    /**
+     * The number of acknowledgements that have been matched to a line but not yet dispatched to the listener.
+     */
+    private int dispatching = 0;
+    
+    /**
+     * The number of acknowledgements that have been dispatched to the listener.
+     */
+    private long acknowledgedLines = 0;
+    
+    /**
+     * The lock held while a line is being sent, so that lines are written in the same order they are recorded.
+     */
+    private final Object sendLock = new Object();
+    
+    /**
+     * The thread reading grbl's responses.
+     */
+    private Thread reader;
+    
+    /**
+     * A flag indicating whether the streamer is running or not.
+     */
+    private volatile boolean running = false;
+    
+    /**
+     * A flag indicating whether the streamer is halted or not, in which case no line is sent until it is resumed.
+     */
+    private volatile boolean halted = false;
+    
+    /**
+     * A flag indicating whether the streamer is waiting for grbl's startup banner after being halted or not, in which case the responses to the lines sent before the reset are ignored.
+     */
+    private boolean awaitingReset = false;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a GrblStreamer.
+     *
+     * @param transport  The open connection to grbl.
+     * @param listener   The listener for grbl's responses.
+     * @param bufferSize The size of grbl's serial receive buffer.
+     */
+    public GrblStreamer(GrblTransport transport, Listener listener, int bufferSize)
+    {
+        this.transport = transport;
+        this.listener = listener;
+        this.bufferSize = bufferSize;
+        this.lineBuffer = new byte[bufferSize];
+        this.pendingTags = new int[bufferSize];
+        this.pendingLengths = new int[bufferSize];
+    }
+    
+    /**
+     * The constructor for a GrblStreamer using the configured receive buffer size.
+     *
+     * @param transport The open connection to grbl.
+     * @param listener  The listener for grbl's responses.
+     */
+    public GrblStreamer(GrblTransport transport, Listener listener)
+    {
+        this(transport, listener, rxBufferSize);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Starts reading grbl's responses.
+     */
+    public void start()
+    {
+        if (running) {
+            return;
+        }
+        running = true;
+        
+        reader = new Thread(this::readResponses, "grbl-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    /**
+     * Sends a line to grbl, blocking until there is room for it in grbl's receive buffer.
+     *
+     * @param line The gcode line, without a line terminator.
+     * @param tag  The tag to report with the response to the line.
+     * @return Whether the line was sent or not.
+     * @throws IOException When there was an error communicating with grbl.
+     */
+    public boolean send(CharSequence line, int tag) throws IOException
+    {
+        int length = line.length() + 1;
+        if (length > bufferSize) {
+            System.err.println("The gcode line: " + line + " is too long for grbl's receive buffer!");
+            return false;
+        }
+        
+        synchronized (sendLock) {
+            if (!reserve(length, tag)) {
+                return false;
+            }
+            
+            for (int i = 0; i < line.length(); i++) {
+                lineBuffer[i] = (byte) line.charAt(i);
+            }
+            lineBuffer[length - 1] = '\n';
+            transport.write(lineBuffer, 0, length);
+        }
+        return true;
+    }
+    
+    /**
+     * Sends a line of a job to grbl, blocking until there is room for it in grbl's receive buffer.<br/>
+     * The bytes of the line are copied straight from the command buffer, without creating a String.
+     *
+     * @param commands The commands of the job.
+     * @param line     The index of the line in the job.
+     * @param tag      The tag to report with the response to the line.
+     * @return Whether the line was sent or not.
+     * @throws IOException When there was an error communicating with grbl.
+     */
+    public boolean send(CommandBuffer commands, int line, int tag) throws IOException
+    {
+        int length = commands.getLength(line) + 1;
+        if (length > bufferSize) {
+            System.err.println("The gcode line: " + commands.get(line) + " is too long for grbl's receive buffer!");
+            return false;
+        }
+        
+        synchronized (sendLock) {
+            if (!reserve(length, tag)) {
+                return false;
+            }
+            
+            commands.copy(line, lineBuffer, 0);
+            lineBuffer[length - 1] = '\n';
+            transport.write(lineBuffer, 0, length);
+        }
+        return true;
+    }
+    
+    /**
+     * Waits for room in grbl's receive buffer and records a line as in flight.
+     *
+     * @param length The number of bytes in the line, including its line terminator.
+     * @param tag    The tag of the line.
+     * @return Whether the line was recorded or not.
+     */
+    private synchronized boolean reserve(int length, int tag)
+    {
+        while (running && !halted && bytesInFlight + length > bufferSize) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        if (!running || halted) {
+            return false;
+        }
+        
+        int index = (pendingHead + pendingCount) % pendingTags.length;
+        pendingTags[index] = tag;
+        pendingLengths[index] = length;
+        pendingCount++;
+        bytesInFlight += length;
+        return true;
+    }
+    
+    /**
+     * Waits until grbl has acknowledged every line in flight, and the listener has been told about every acknowledgement.
+     *
+     * @return Whether every line was acknowledged or not.
+     */
+    public synchronized boolean drain()
+    {
+        while (running && (pendingCount > 0 || dispatching > 0)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return pendingCount == 0 && dispatching == 0;
+    }
+    
+    /**
+     * Waits until a number of acknowledgements have been dispatched to the listener.
+     *
+     * @param lines The number of acknowledgements to wait for.
+     * @return Whether the acknowledgements were dispatched or not.
+     */
+    public synchronized boolean awaitAcknowledged(long lines)
+    {
+        while (running && acknowledgedLines < lines) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return acknowledgedLines >= lines;
+    }
+    
+    /**
+     * Reads and dispatches grbl's responses until the streamer is stopped.
+     */
+    private void readResponses()
+    {
+        try {
+            String line;
+            while (running && (line = transport.readLine()) != null) {
+                if (line.equals("ok") || line.startsWith("error")) {
+                    acknowledge(line);
+                } else if (line.startsWith("<")) {
+                    listener.statusReported(line);
+                } else {
+                    if (line.startsWith(STARTUP_BANNER)) {
+                        resetConfirmed();
+                    }
+                    listener.messageReceived(line);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("There was an error reading grbl's responses!");
+                e.printStackTrace();
+            }
+        }
+        
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+    }
+    
+    /**
+     * Matches a response to the oldest line in flight and frees its room in grbl's receive buffer.<br/>
+     * The room is freed before the listener is called, so the next line can be sent while the response is handled, but the response is not counted as dispatched until the listener returns.
+     *
+     * @param response The "ok" or "error:N" response.
+     */
+    private void acknowledge(String response)
+    {
+        int tag;
+        synchronized (this) {
+            //a response grbl sent before it was reset belongs to a line that was forgotten when the streamer was halted
+            if (awaitingReset) {
+                return;
+            }
+            if (pendingCount == 0) {
+                System.err.println("Received an unexpected response from grbl: " + response);
+                return;
+            }
+            
+            tag = pendingTags[pendingHead];
+            bytesInFlight -= pendingLengths[pendingHead];
+            pendingHead = (pendingHead + 1) % pendingTags.length;
+            pendingCount--;
+            if (response.startsWith("error")) {
+                errorCount++;
+            }
+            dispatching++;
+            notifyAll();
+        }
+        
+        try {
+            listener.lineAcknowledged(tag, response);
+        } finally {
+            synchronized (this) {
+                dispatching--;
+                acknowledgedLines++;
+                notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Halts the streamer before grbl is reset, and forgets every line in flight, as grbl discards its receive buffer when it is reset.<br/>
+     * A line waiting for room in grbl's receive buffer is not sent, and this returns once no line is being written, so no line is sent after the reset until the streamer is resumed.<br/>
+     * The responses grbl sends until its startup banner confirms the reset are ignored, so a late response to a forgotten line is not matched to a line sent after the reset.
+     */
+    public void halt()
+    {
+        synchronized (this) {
+            halted = true;
+            awaitingReset = true;
+            pendingHead = 0;
+            pendingCount = 0;
+            bytesInFlight = 0;
+            notifyAll();
+        }
+        
+        //waits for a line that was being written when the streamer was halted
+        synchronized (sendLock) {
+            halted = true;
+        }
+    }
+    
+    /**
+     * Matches responses to the lines in flight again once grbl's startup banner confirms it was reset.
+     */
+    private synchronized void resetConfirmed()
+    {
+        awaitingReset = false;
+    }
+    
+    /**
+     * Resumes sending lines after the streamer was halted.
+     */
+    public synchronized void resume()
+    {
+        halted = false;
+    }
+    
+    /**
+     * Stops the streamer, releasing any thread waiting on it.
+     */
+    public void stop()
+    {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        
+        if (reader != null && reader != Thread.currentThread()) {
+            reader.interrupt();
+        }
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the number of bytes in flight in grbl's receive buffer.
+     *
+     * @return The number of bytes in flight in grbl's receive buffer.
+     */
+    public synchronized int getBytesInFlight()
+    {
+        return bytesInFlight;
+    }
+    
+    /**
+     * Returns the number of lines in flight.
+     *
+     * @return The number of lines in flight.
+     */
+    public synchronized int getLinesInFlight()
+    {
+        return pendingCount;
+    }
+    
+    /**
+     * Returns the number of lines that grbl responded to with an error.
+     *
+     * @return The number of lines that grbl responded to with an error.
+     */
+    public synchronized int getErrorCount()
+    {
+        return errorCount;
+    }
+    
+    /**
+     * Returns the number of acknowledgements that have been dispatched to the listener.
+     *
+     * @return The number of acknowledgements that have been dispatched to the listener.
+     */
+    public synchronized long getAcknowledgedLines()
+    {
+        return acknowledgedLines;
+    }
+    
+    /**
+     * Returns the size of the receive buffer used by this streamer.
+     *
+     * @return The size of the receive buffer used by this streamer.
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+    
+    /**
+     * Returns whether the streamer is halted or not.
+     *
+     * @return Whether the streamer is halted or not.
+     */
+    public boolean isHalted()
+    {
+        return halted;
+    }
+    
+    /**
+     * Returns whether the streamer is running or not.
+     *
+     * @return Whether the streamer is running or not.
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+    
+}
@@ -0,0 +1,305 @@
+/*
+ * File:    JobCache.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import utils.Constants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of compiled gcode jobs on disk.<br/>
+ * A job is compiled the first time its gcode file is cut and stored under the SHA-256 of the file and the settings that affect the GcodeModifier, so reopening the same job skips reading and modifying its text.<br/>
+ * The compiled jobs loaded in a session are also kept in memory by path, so a profile that is cut again is not hashed again while its file is unchanged.<br/>
+ * The least recently used jobs are deleted when the cache grows larger than its maximum size.
+ */
+public final class JobCache
+{
+    
+    //Constants
+    
+    /**
+     * The size of the buffer used to hash gcode files.
+     */
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+    
+    /**
+     * The default maximum size of the cache, in megabytes.
+     */
+    public static final int DEFAULT_MAX_CACHE_SIZE = 512;
+    
+    /**
+     * The number of bytes in a megabyte.
+     */
+    private static final long BYTES_IN_MEGABYTE = 1024L * 1024L;
+    
+    
+    //Static Fields
+    
+    /**
+     * The directory of compiled jobs.
+     */
+    public static String cacheDirectory = Constants.GRBL_CACHE_DIRECTORY;
+    
+    /**
+     * The maximum size of the cache, in megabytes.
+     */
+    public static int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    
+    /**
+     * The compiled jobs loaded in this session, by the absolute path of their gcode file.
+     */
+    private static final Map<String, SessionJob> sessionJobs = new ConcurrentHashMap<>();
+    
+    
+    //Functions
+    
+    /**
+     * Returns the compiled job for a gcode file, compiling and caching it if it has not been compiled with the current settings before.
+     *
+     * @param gcodeFile The gcode file.
+     * @param settings  The settings that affect the output of the GcodeModifier.
+     * @return The compiled job, or null if the gcode file could not be modified.
+     */
+    public static CompiledJob load(String gcodeFile, String settings)
+    {
+        File source = new File(gcodeFile);
+        String key;
+        try {
+            key = cacheKey(source, settings);
+        } catch (IOException e) {
+            System.err.println("Cannot compile gcode file: " + source.getAbsolutePath() + ". File cannot be read!");
+            return null;
+        }
+        
+        CompiledJob job = find(key);
+        if (job != null) {
+            return job;
+        }
+        
+        // large files are modified on every core
+        if (source.length() >= ParallelGcodeModifier.PARALLEL_THRESHOLD) {
+            ParallelGcodeModifier m = new ParallelGcodeModifier(gcodeFile);
+            if (!m.modify()) {
+                return null;
+            }
+            return store(key, m.getCommands());
+        }
+        
+        GcodeModifier m = new GcodeModifier(gcodeFile);
+        if (!m.modify()) {
+            return null;
+        }
+        return store(key, m.getCommands());
+    }
+    
+    /**
+     * Returns the compiled job for a gcode file, from the jobs loaded in this session if the file and the settings have not changed since it was loaded.
+     *
+     * @param gcodeFile The gcode file.
+     * @param settings  The settings that affect the output of the GcodeModifier.
+     * @return The compiled job, or null if the gcode file could not be modified.
+     */
+    public static CompiledJob loadSession(String gcodeFile, String settings)
+    {
+        //the file is checked before it is loaded, so a change made while it is loaded is seen the next time
+        File source = new File(gcodeFile).getAbsoluteFile();
+        long lastModified = source.lastModified();
+        long length = source.length();
+        
+        SessionJob loaded = sessionJobs.get(source.getPath());
+        if (loaded != null && loaded.lastModified == lastModified && loaded.length == length && loaded.settings.equals(settings)) {
+            return loaded.job;
+        }
+        
+        CompiledJob job = load(gcodeFile, settings);
+        if (job != null) {
+            sessionJobs.put(source.getPath(), new SessionJob(lastModified, length, settings, job));
+        }
+        return job;
+    }
+    
+    /**
+     * Returns the compiled job stored under a cache key, and marks it as recently used.
+     *
+     * @param key The cache key.
+     * @return The compiled job, or null if there is no valid compiled job stored under the cache key.
+     */
+    public static CompiledJob find(String key)
+    {
+        File compiled = new File(cacheDirectory, key + CompiledJob.EXTENSION);
+        if (compiled.exists()) {
+            try {
+                CompiledJob job = CompiledJob.open(compiled);
+                if (!compiled.setLastModified(System.currentTimeMillis())) {
+                    System.err.println("Could not update the compiled job: " + compiled.getAbsolutePath() + ", it may be evicted before it is used again.");
+                }
+                return job;
+            } catch (IOException e) {
+                System.err.println("The compiled job: " + compiled.getAbsolutePath() + " is not valid, it will be compiled again.");
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Compiles a list of modified gcode commands and stores the job under a cache key, and evicts the least recently used jobs if the cache is too large.
+     *
+     * @param key      The cache key.
+     * @param commands The list of modified gcode commands.
+     * @return The compiled job, which is compiled in memory if it could not be stored.
+     */
+    public static CompiledJob store(String key, List<String> commands)
+    {
+        File compiled = new File(cacheDirectory, key + CompiledJob.EXTENSION);
+        File directory = new File(cacheDirectory);
+        if (directory.exists() || directory.mkdirs()) {
+            try {
+                CompiledJob job = CompiledJob.write(commands, compiled);
+                evict(maxCacheSize * BYTES_IN_MEGABYTE);
+                return job;
+            } catch (IOException e) {
+                System.err.println("Could not write the compiled job: " + compiled.getAbsolutePath() + "!");
+            }
+        }
+        return CompiledJob.compile(commands);
+    }
+    
+    /**
+     * Deletes the least recently used compiled jobs until the cache is no larger than a size.<br/>
+     * A job that is deleted while it is open stays readable through its memory mapping, and a job that cannot be deleted while it is open is left in the cache.
+     *
+     * @param maxBytes The maximum size of the cache, in bytes.
+     */
+    public static synchronized void evict(long maxBytes)
+    {
+        File[] jobs = new File(cacheDirectory).listFiles((dir, name) -> name.endsWith(CompiledJob.EXTENSION));
+        if (jobs == null) {
+            return;
+        }
+        
+        long size = 0;
+        long[] lastUsed = new long[jobs.length];
+        for (int i = 0; i < jobs.length; i++) {
+            size += jobs[i].length();
+            lastUsed[i] = jobs[i].lastModified();
+        }
+        if (size <= maxBytes) {
+            return;
+        }
+        
+        Integer[] order = new Integer[jobs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> lastUsed[i]));
+        
+        for (int i = 0; i < order.length && size > maxBytes; i++) {
+            File job = jobs[order[i]];
+            long length = job.length();
+            if (job.delete()) {
+                size -= length;
+            }
+        }
+    }
+    
+    /**
+     * Returns the cache key of a gcode file, the SHA-256 of the compiled job format version, the settings and the contents of the file.
+     *
+     * @param source   The gcode file.
+     * @param settings The settings that affect the output of the GcodeModifier.
+     * @return The cache key, as a hex string.
+     * @throws IOException When the gcode file could not be read.
+     */
+    public static String cacheKey(File source, String settings) throws IOException
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        
+        digest.update((CompiledJob.VERSION + "\n" + settings + "\n").getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = new FileInputStream(source)) {
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+    
+    
+    //Inner Classes
+    
+    /**
+     * A compiled job loaded in this session, with the state of its gcode file when it was loaded.
+     */
+    private static final class SessionJob
+    {
+        
+        //Fields
+        
+        /**
+         * The last modified time of the gcode file.
+         */
+        private final long lastModified;
+        
+        /**
+         * The length of the gcode file.
+         */
+        private final long length;
+        
+        /**
+         * The settings the job was compiled with.
+         */
+        private final String settings;
+        
+        /**
+         * The compiled job.
+         */
+        private final CompiledJob job;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a SessionJob.
+         *
+         * @param lastModified The last modified time of the gcode file.
+         * @param length       The length of the gcode file.
+         * @param settings     The settings the job was compiled with.
+         * @param job          The compiled job.
+         */
+        private SessionJob(long lastModified, long length, String settings, CompiledJob job)
+        {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.settings = settings;
+            this.job = job;
+        }
+        
+    }
+    
+}
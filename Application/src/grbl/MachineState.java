@@ -0,0 +1,490 @@
+/*
+ * File:    MachineState.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+/**
+ * The state of the machine as last reported by grbl.<br/>
+ * The same instance is updated by every status report, so that polling grbl's status does not create garbage.
+ */
+public class MachineState
+{
+    
+    //Enums
+    
+    /**
+     * An enumeration of grbl's machine states.
+     */
+    public enum State
+    {
+        
+        //Values
+        
+        IDLE("Idle"),
+        RUN("Run"),
+        HOLD("Hold"),
+        JOG("Jog"),
+        ALARM("Alarm"),
+        DOOR("Door"),
+        CHECK("Check"),
+        HOME("Home"),
+        SLEEP("Sleep"),
+        QUEUE("Queue"),
+        UNKNOWN("Unknown");
+        
+        
+        //Fields
+        
+        /**
+         * The name of the state in grbl's status reports.
+         */
+        private final String name;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a State.
+         *
+         * @param name The name of the state in grbl's status reports.
+         */
+        State(String name)
+        {
+            this.name = name;
+        }
+        
+        
+        //Getters
+        
+        /**
+         * Returns the name of the state in grbl's status reports.
+         *
+         * @return The name of the state in grbl's status reports.
+         */
+        public String getName()
+        {
+            return name;
+        }
+    
+    }
+    
+    
+    //Constants
+    
+    /**
+     * The flag for the x limit pin in the pin state.
+     */
+    public static final int PIN_X = 1;
+    
+    /**
+     * The flag for the y limit pin in the pin state.
+     */
+    public static final int PIN_Y = 1 << 1;
+    
+    /**
+     * The flag for the z limit pin in the pin state.
+     */
+    public static final int PIN_Z = 1 << 2;
+    
+    /**
+     * The flag for the probe pin in the pin state.
+     */
+    public static final int PIN_PROBE = 1 << 3;
+    
+    /**
+     * The flag for the door pin in the pin state.
+     */
+    public static final int PIN_DOOR = 1 << 4;
+    
+    /**
+     * The flag for the hold pin in the pin state.
+     */
+    public static final int PIN_HOLD = 1 << 5;
+    
+    /**
+     * The flag for the soft reset pin in the pin state.
+     */
+    public static final int PIN_RESET = 1 << 6;
+    
+    /**
+     * The flag for the cycle start pin in the pin state.
+     */
+    public static final int PIN_CYCLE_START = 1 << 7;
+    
+    
+    //Fields
+    
+    /**
+     * The machine state.
+     */
+    private State state = State.UNKNOWN;
+    
+    /**
+     * The sub-state of the machine state, ie: the 0 in Hold:0, or -1 if there is none.
+     */
+    private int subState = -1;
+    
+    /**
+     * The machine position of the x, y and z axes.
+     */
+    private final double[] machinePosition = new double[3];
+    
+    /**
+     * The work position of the x, y and z axes.
+     */
+    private final double[] workPosition = new double[3];
+    
+    /**
+     * The work coordinate offset of the x, y and z axes.
+     */
+    private final double[] workCoordinateOffset = new double[3];
+    
+    /**
+     * The number of available blocks in grbl's planner buffer, or -1 if it has not been reported.
+     */
+    private int plannerBlocksAvailable = -1;
+    
+    /**
+     * The number of available bytes in grbl's serial receive buffer, or -1 if it has not been reported.
+     */
+    private int rxBytesAvailable = -1;
+    
+    /**
+     * The current feed rate.
+     */
+    private double feedRate = 0;
+    
+    /**
+     * The current spindle speed.
+     */
+    private double spindleSpeed = 0;
+    
+    /**
+     * The feed override, in percent.
+     */
+    private int feedOverride = 100;
+    
+    /**
+     * The rapid override, in percent.
+     */
+    private int rapidOverride = 100;
+    
+    /**
+     * The spindle override, in percent.
+     */
+    private int spindleOverride = 100;
+    
+    /**
+     * The flags of the input pins that are triggered.
+     */
+    private int pins = 0;
+    
+    /**
+     * The number of status reports that have been decoded into this state.
+     */
+    private long reportCount = 0;
+    
+    
+    //Methods
+    
+    /**
+     * Updates the work position from the machine position and the work coordinate offset, for reports that only include the machine position.
+     */
+    void updateWorkPosition()
+    {
+        for (int i = 0; i < 3; i++) {
+            workPosition[i] = machinePosition[i] - workCoordinateOffset[i];
+        }
+    }
+    
+    /**
+     * Updates the work coordinate offset from the machine position and the work position, for reports that include both.
+     */
+    void updateWorkCoordinateOffset()
+    {
+        for (int i = 0; i < 3; i++) {
+            workCoordinateOffset[i] = machinePosition[i] - workPosition[i];
+        }
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the machine state.
+     *
+     * @return The machine state.
+     */
+    public State getState()
+    {
+        return state;
+    }
+    
+    /**
+     * Returns the sub-state of the machine state, ie: the 0 in Hold:0.
+     *
+     * @return The sub-state of the machine state, or -1 if there is none.
+     */
+    public int getSubState()
+    {
+        return subState;
+    }
+    
+    /**
+     * Returns the machine position of an axis.
+     *
+     * @param axis The index of the axis; 0 for x, 1 for y and 2 for z.
+     * @return The machine position of the axis.
+     */
+    public double getMachinePosition(int axis)
+    {
+        return machinePosition[axis];
+    }
+    
+    /**
+     * Returns the work position of an axis.
+     *
+     * @param axis The index of the axis; 0 for x, 1 for y and 2 for z.
+     * @return The work position of the axis.
+     */
+    public double getWorkPosition(int axis)
+    {
+        return workPosition[axis];
+    }
+    
+    /**
+     * Returns the work coordinate offset of an axis.
+     *
+     * @param axis The index of the axis; 0 for x, 1 for y and 2 for z.
+     * @return The work coordinate offset of the axis.
+     */
+    public double getWorkCoordinateOffset(int axis)
+    {
+        return workCoordinateOffset[axis];
+    }
+    
+    /**
+     * Returns the number of available blocks in grbl's planner buffer.
+     *
+     * @return The number of available blocks in grbl's planner buffer, or -1 if it has not been reported.
+     */
+    public int getPlannerBlocksAvailable()
+    {
+        return plannerBlocksAvailable;
+    }
+    
+    /**
+     * Returns the number of available bytes in grbl's serial receive buffer.
+     *
+     * @return The number of available bytes in grbl's serial receive buffer, or -1 if it has not been reported.
+     */
+    public int getRxBytesAvailable()
+    {
+        return rxBytesAvailable;
+    }
+    
+    /**
+     * Returns the current feed rate.
+     *
+     * @return The current feed rate.
+     */
+    public double getFeedRate()
+    {
+        return feedRate;
+    }
+    
+    /**
+     * Returns the current spindle speed.
+     *
+     * @return The current spindle speed.
+     */
+    public double getSpindleSpeed()
+    {
+        return spindleSpeed;
+    }
+    
+    /**
+     * Returns the feed override.
+     *
+     * @return The feed override, in percent.
+     */
+    public int getFeedOverride()
+    {
+        return feedOverride;
+    }
+    
+    /**
+     * Returns the rapid override.
+     *
+     * @return The rapid override, in percent.
+     */
+    public int getRapidOverride()
+    {
+        return rapidOverride;
+    }
+    
+    /**
+     * Returns the spindle override.
+     *
+     * @return The spindle override, in percent.
+     */
+    public int getSpindleOverride()
+    {
+        return spindleOverride;
+    }
+    
+    /**
+     * Returns the flags of the input pins that are triggered.
+     *
+     * @return The flags of the input pins that are triggered.
+     */
+    public int getPins()
+    {
+        return pins;
+    }
+    
+    /**
+     * Returns whether an input pin is triggered or not.
+     *
+     * @param pin The flag of the pin, ie: PIN_X.
+     * @return Whether the pin is triggered or not.
+     */
+    public boolean isPinTriggered(int pin)
+    {
+        return (pins & pin) != 0;
+    }
+    
+    /**
+     * Returns the number of status reports that have been decoded into this state.
+     *
+     * @return The number of status reports that have been decoded into this state.
+     */
+    public long getReportCount()
+    {
+        return reportCount;
+    }
+    
+    
+    //Setters
+    
+    /**
+     * Sets the machine state.
+     *
+     * @param state    The machine state.
+     * @param subState The sub-state of the machine state, or -1 if there is none.
+     */
+    void setState(State state, int subState)
+    {
+        this.state = state;
+        this.subState = subState;
+    }
+    
+    /**
+     * Sets the machine position of an axis.
+     *
+     * @param axis  The index of the axis.
+     * @param value The machine position of the axis.
+     */
+    void setMachinePosition(int axis, double value)
+    {
+        machinePosition[axis] = value;
+    }
+    
+    /**
+     * Sets the work position of an axis.
+     *
+     * @param axis  The index of the axis.
+     * @param value The work position of the axis.
+     */
+    void setWorkPosition(int axis, double value)
+    {
+        workPosition[axis] = value;
+    }
+    
+    /**
+     * Sets the work coordinate offset of an axis.
+     *
+     * @param axis  The index of the axis.
+     * @param value The work coordinate offset of the axis.
+     */
+    void setWorkCoordinateOffset(int axis, double value)
+    {
+        workCoordinateOffset[axis] = value;
+    }
+    
+    /**
+     * Sets the number of available blocks in grbl's planner buffer.
+     *
+     * @param plannerBlocksAvailable The number of available blocks in grbl's planner buffer.
+     */
+    void setPlannerBlocksAvailable(int plannerBlocksAvailable)
+    {
+        this.plannerBlocksAvailable = plannerBlocksAvailable;
+    }
+    
+    /**
+     * Sets the number of available bytes in grbl's serial receive buffer.
+     *
+     * @param rxBytesAvailable The number of available bytes in grbl's serial receive buffer.
+     */
+    void setRxBytesAvailable(int rxBytesAvailable)
+    {
+        this.rxBytesAvailable = rxBytesAvailable;
+    }
+    
+    /**
+     * Sets the current feed rate.
+     *
+     * @param feedRate The current feed rate.
+     */
+    void setFeedRate(double feedRate)
+    {
+        this.feedRate = feedRate;
+    }
+    
+    /**
+     * Sets the current spindle speed.
+     *
+     * @param spindleSpeed The current spindle speed.
+     */
+    void setSpindleSpeed(double spindleSpeed)
+    {
+        this.spindleSpeed = spindleSpeed;
+    }
+    
+    /**
+     * Sets the feed, rapid and spindle overrides.
+     *
+     * @param feedOverride    The feed override, in percent.
+     * @param rapidOverride   The rapid override, in percent.
+     * @param spindleOverride The spindle override, in percent.
+     */
+    void setOverrides(int feedOverride, int rapidOverride, int spindleOverride)
+    {
+        this.feedOverride = feedOverride;
+        this.rapidOverride = rapidOverride;
+        this.spindleOverride = spindleOverride;
+    }
+    
+    /**
+     * Sets the flags of the input pins that are triggered.
+     *
+     * @param pins The flags of the input pins that are triggered.
+     */
+    void setPins(int pins)
+    {
+        this.pins = pins;
+    }
+    
+    /**
+     * Counts a decoded status report.
+     */
+    void countReport()
+    {
+        reportCount++;
+    }
+    
+}
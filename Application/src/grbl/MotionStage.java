@@ -0,0 +1,321 @@
+/*
+ * File:    MotionStage.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+
+import java.util.function.Consumer;
+
+/**
+ * A stage of the GcodeModifier that holds back runs of moves to replace them with fewer commands.<br/>
+ * The stage tracks the position and the modal state set by the commands passed through it, so it knows where each move starts, and counts the commands and bytes passed through it and passed on, which it reports at the end of the gcode file.
+ */
+public abstract class MotionStage implements GcodeModifier.Stage
+{
+    
+    //Fields
+    
+    /**
+     * The name of the stage, used to report the reduction of the job.
+     */
+    private final String name;
+    
+    /**
+     * The word buffer for the command being processed.
+     */
+    protected final GcodeWords words = new GcodeWords();
+    
+    /**
+     * The current x position, or NaN if it is not known.<br/>
+     * Relative positions are measured from the last G91, as only the distance between them matters.
+     */
+    protected double x = Double.NaN;
+    
+    /**
+     * The current y position, or NaN if it is not known.
+     */
+    protected double y = Double.NaN;
+    
+    /**
+     * The current z position, or NaN if it is not known.
+     */
+    protected double z = Double.NaN;
+    
+    /**
+     * A flag indicating whether positions are relative to the previous position or not.
+     */
+    protected boolean relative = false;
+    
+    /**
+     * A flag indicating whether arcs are in the XY plane or not.
+     */
+    protected boolean planeXY = true;
+    
+    /**
+     * A flag indicating whether feed rates are in inverse time or not.
+     */
+    protected boolean inverseTime = false;
+    
+    /**
+     * The number of commands passed through the stage.
+     */
+    private long commandsIn = 0;
+    
+    /**
+     * The number of bytes passed through the stage, including a line feed after each command.
+     */
+    private long bytesIn = 0;
+    
+    /**
+     * The number of commands passed on by the stage.
+     */
+    private long commandsOut = 0;
+    
+    /**
+     * The number of bytes passed on by the stage, including a line feed after each command.
+     */
+    private long bytesOut = 0;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a MotionStage.
+     *
+     * @param name The name of the stage, used to report the reduction of the job.
+     */
+    protected MotionStage(String name)
+    {
+        this.name = name;
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Processes a command, holding it back while it may be replaced.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     */
+    @Override
+    public void process(String command, Consumer<String> next)
+    {
+        if (!receive(command, next)) {
+            emit(command, next);
+        }
+    }
+    
+    /**
+     * Receives a command, holding it back while it may be replaced, or tracking it before it is passed on.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     * @return Whether the command was held back or not, if not it is to be passed on.
+     */
+    protected boolean receive(CharSequence command, Consumer<String> next)
+    {
+        commandsIn++;
+        bytesIn += command.length() + 1;
+        
+        GcodeLexer.lex(command, words);
+        if (words.size() > 0 && hold(command, next)) {
+            return true;
+        }
+        
+        release(next);
+        if (words.size() > 0) {
+            GcodeLexer.lex(command, words);
+            track();
+        }
+        return false;
+    }
+    
+    /**
+     * Passes on the commands held back at the end of the gcode file and reports the reduction of the job.
+     *
+     * @param next The next stage.
+     */
+    @Override
+    public void flush(Consumer<String> next)
+    {
+        release(next);
+        
+        if (commandsIn > 0) {
+            System.out.println(name + " reduced the job from " + commandsIn + " to " + commandsOut + " commands and from " + bytesIn + " to " + bytesOut + " bytes.");
+        }
+    }
+    
+    /**
+     * Holds back the command being processed if it may be replaced, updating the current position to the end of it.
+     *
+     * @param command The command, which has been lexed into the word buffer.
+     * @param next    The next stage.
+     * @return Whether the command was held back or not.
+     */
+    protected abstract boolean hold(CharSequence command, Consumer<String> next);
+    
+    /**
+     * Passes on the commands held back, or the commands that replace them.
+     *
+     * @param next The next stage.
+     */
+    protected abstract void release(Consumer<String> next);
+    
+    /**
+     * Passes a command on to the next stage.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     */
+    protected void emit(String command, Consumer<String> next)
+    {
+        count(command);
+        next.accept(command);
+    }
+    
+    /**
+     * Counts a command passed on by the stage.
+     *
+     * @param command The command.
+     */
+    protected void count(CharSequence command)
+    {
+        commandsOut++;
+        bytesOut += command.length() + 1;
+    }
+    
+    /**
+     * Determines whether the command being processed is a move that only has words with some letters after its motion command, each written once.
+     *
+     * @param motions The motion commands the move can start with.
+     * @param letters The letters of the words the move can have.
+     * @return Whether the command is such a move or not, false if it does not move any axis.
+     */
+    protected boolean isMove(String[] motions, String letters)
+    {
+        boolean motion = false;
+        for (String command : motions) {
+            motion |= words.isToken(0, command);
+        }
+        if (!motion) {
+            return false;
+        }
+        
+        boolean moves = false;
+        for (int i = 1; i < words.size(); i++) {
+            char letter = words.getLetter(i);
+            if (letters.indexOf(letter) == -1 || !words.isTokenStart(i) || Double.isNaN(words.getValue(i)) || words.lastIndexOf(letter) != i) {
+                return false;
+            }
+            moves |= (letter != 'F');
+        }
+        return moves;
+    }
+    
+    /**
+     * Returns the position of an axis at the end of the command being processed.
+     *
+     * @param letter   The letter of the axis.
+     * @param position The position of the axis at the start of the command.
+     * @return The position of the axis at the end of the command.
+     */
+    protected double moveTo(char letter, double position)
+    {
+        return relative ? position + words.getValue(letter, 0.0) : words.getValue(letter, position);
+    }
+    
+    /**
+     * Tracks the modal state and position set by the command being processed, which is not held back.<br/>
+     * The words of the command may be in any order, as grbl sets the modal state of a line before it moves to the axis words of the line.
+     */
+    private void track()
+    {
+        boolean moves = false;
+        boolean lost = false;
+        for (int i = 0; i < words.size(); i++) {
+            char letter = words.getLetter(i);
+            double code = words.getValue(i);
+            
+            if (letter == 'X' || letter == 'Y' || letter == 'Z') {
+                moves = true;
+            } else if (letter != 'G') {
+                continue;
+            } else if ((code == 90 || code == 91) && relative != (code == 91)) {
+                //only the distance between relative positions is known
+                relative = (code == 91);
+                x = relative ? 0.0 : Double.NaN;
+                y = x;
+                z = x;
+            } else if (code == 17 || code == 18 || code == 19) {
+                planeXY = (code == 17);
+            } else if (code == 93 || code == 94) {
+                inverseTime = (code == 93);
+            } else if (code != 0 && code != 1 && code != 2 && code != 3 && code != 4 && code != 80 && code != 90 && code != 91) {
+                //homing, probing, unit and coordinate system commands move the machine or its coordinates to a position that is not in the gcode
+                lost = true;
+            }
+        }
+        
+        if (lost) {
+            if (!relative) {
+                x = Double.NaN;
+                y = Double.NaN;
+                z = Double.NaN;
+            }
+        } else if (moves) {
+            x = moveTo('X', x);
+            y = moveTo('Y', y);
+            z = moveTo('Z', z);
+        }
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the number of commands passed through the stage.
+     *
+     * @return The number of commands passed through the stage.
+     */
+    public long getCommandsIn()
+    {
+        return commandsIn;
+    }
+    
+    /**
+     * Returns the number of commands passed on by the stage.
+     *
+     * @return The number of commands passed on by the stage.
+     */
+    public long getCommandsOut()
+    {
+        return commandsOut;
+    }
+    
+    /**
+     * Returns the number of bytes passed through the stage, including a line feed after each command.
+     *
+     * @return The number of bytes passed through the stage.
+     */
+    public long getBytesIn()
+    {
+        return bytesIn;
+    }
+    
+    /**
+     * Returns the number of bytes passed on by the stage, including a line feed after each command.
+     *
+     * @return The number of bytes passed on by the stage.
+     */
+    public long getBytesOut()
+    {
+        return bytesOut;
+    }
+    
+}
@@ -0,0 +1,300 @@
+/*
+ * File:    ParallelGcodeModifier.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.ModalState;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Modifies large gcode files on every core.<br/>
+ * The file is split into chunks at line boundaries and each chunk is modified by its own GcodeModifier in a ForkJoinPool.
+ * The modal state set by each chunk is then reconciled in file order, so the commands and the units applied to grbl are the same as when the file is modified sequentially.
+ */
+public class ParallelGcodeModifier
+{
+    
+    //Constants
+    
+    /**
+     * The size of a gcode file, in bytes, above which it is worth modifying in parallel.
+     */
+    public static final long PARALLEL_THRESHOLD = 1 << 22;
+    
+    /**
+     * The default size of a chunk, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 18;
+    
+    
+    //Fields
+    
+    /**
+     * The gcode file to modify.
+     */
+    private final String file;
+    
+    /**
+     * The pool the chunks are modified in.
+     */
+    private final ForkJoinPool pool;
+    
+    /**
+     * The size of a chunk, in bytes.
+     */
+    private final int chunkSize;
+    
+    /**
+     * The list of gcode commands.
+     */
+    private List<String> commands = new ArrayList<>();
+    
+    /**
+     * The modal state set by the gcode file.
+     */
+    private ModalState modalState = new ModalState();
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a ParallelGcodeModifier.
+     *
+     * @param file      The gcode file to modify.
+     * @param pool      The pool to modify the chunks in.
+     * @param chunkSize The size of a chunk, in bytes.
+     */
+    public ParallelGcodeModifier(String file, ForkJoinPool pool, int chunkSize)
+    {
+        this.file = file;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * The constructor for a ParallelGcodeModifier.
+     *
+     * @param file The gcode file to modify.
+     */
+    public ParallelGcodeModifier(String file)
+    {
+        this(file, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Modifies the specified gcode file.
+     *
+     * @return Whether the gcode file was successfully modified or not.
+     */
+    public boolean modify()
+    {
+        //open the gcode file
+        File gcode = new File(file);
+        if (!gcode.exists()) {
+            System.err.println("Cannot modify gcode file: " + gcode.getAbsolutePath() + ". File does not exist!");
+            return false;
+        }
+        
+        //read the gcode file
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(gcode.toPath());
+        } catch (IOException e) {
+            System.err.println("Cannot modify gcode file: " + gcode.getAbsolutePath() + ". File cannot be read!");
+            return false;
+        }
+        
+        //modify the chunks in parallel
+        List<Callable<Chunk>> tasks = new ArrayList<>();
+        int start = 0;
+        for (int end : split(bytes, chunkSize)) {
+            int chunkStart = start;
+            tasks.add(() -> modifyChunk(bytes, chunkStart, end));
+            start = end;
+        }
+        List<Future<Chunk>> results = pool.invokeAll(tasks);
+        
+        //join the chunks in file order
+        List<Chunk> chunks = new ArrayList<>(results.size());
+        int size = 0;
+        try {
+            for (Future<Chunk> result : results) {
+                Chunk chunk = result.get();
+                chunks.add(chunk);
+                size += chunk.commands.size();
+            }
+        } catch (ExecutionException e) {
+            System.err.println("Cannot modify gcode file: " + gcode.getAbsolutePath() + ". File cannot be read!");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        
+        commands = new ArrayList<>(size);
+        modalState = new ModalState();
+        for (Chunk chunk : chunks) {
+            commands.addAll(chunk.commands);
+            modalState = modalState.then(chunk.modalState);
+        }
+        
+        //the optional stages can hold commands back across chunks, so they run over the joined commands
+        commands = GcodeModifier.process(GcodeModifier.createOptimizations(), commands);
+        
+        // the units of the last chunk that set them, as the last G20 or G21 would have set them sequentially
+        if (modalState.getUnits() == ModalState.Units.METRIC) {
+            APIgrbl.grbl.setMetric();
+        } else if (modalState.getUnits() == ModalState.Units.IMPERIAL) {
+            APIgrbl.grbl.setImperial();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Modifies a chunk of the gcode file.
+     *
+     * @param bytes The bytes of the gcode file.
+     * @param start The index of the first byte of the chunk.
+     * @param end   The index after the last byte of the chunk.
+     * @return The modified chunk.
+     * @throws CharacterCodingException When the chunk is not valid UTF-8.
+     */
+    private Chunk modifyChunk(byte[] bytes, int start, int end) throws CharacterCodingException
+    {
+        CharBuffer text = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes, start, end - start));
+        
+        GcodeModifier modifier = new GcodeModifier(file, false);
+        modifier.setApplyUnits(false);
+        List<String> modified = new ArrayList<>();
+        Consumer<String> output = modified::add;
+        
+        //split the lines as BufferedReader.readLine() does
+        int lineStart = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                modifier.modify(text.subSequence(lineStart, i).toString(), output);
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < length) {
+            modifier.modify(text.subSequence(lineStart, length).toString(), output);
+        }
+        modifier.flush(output);
+        
+        return new Chunk(modified, modifier.getModalState());
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Splits the bytes of a gcode file into chunks that end at line boundaries.
+     *
+     * @param bytes     The bytes of the gcode file.
+     * @param chunkSize The approximate size of a chunk, in bytes.
+     * @return The index after the last byte of each chunk.
+     */
+    static List<Integer> split(byte[] bytes, int chunkSize)
+    {
+        List<Integer> ends = new ArrayList<>();
+        int end = 0;
+        while (end < bytes.length) {
+            end = Math.min(end + Math.max(chunkSize, 1), bytes.length);
+            
+            //a chunk ends after a line feed, which never appears inside a multi-byte UTF-8 character
+            while (end < bytes.length && bytes[end - 1] != '\n') {
+                end++;
+            }
+            ends.add(end);
+        }
+        return ends;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the list of gcode commands.
+     *
+     * @return The list of gcode commands.
+     */
+    public List<String> getCommands()
+    {
+        return commands;
+    }
+    
+    /**
+     * Returns the modal state set by the gcode file.
+     *
+     * @return The modal state set by the gcode file.
+     */
+    public ModalState getModalState()
+    {
+        return modalState;
+    }
+    
+    
+    //Inner Classes
+    
+    /**
+     * The modified commands of a chunk of the gcode file and the modal state they set.
+     */
+    private static class Chunk
+    {
+        
+        //Fields
+        
+        /**
+         * The modified commands of the chunk.
+         */
+        private final List<String> commands;
+        
+        /**
+         * The modal state set by the chunk.
+         */
+        private final ModalState modalState;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a Chunk.
+         *
+         * @param commands   The modified commands of the chunk.
+         * @param modalState The modal state set by the chunk.
+         */
+        private Chunk(List<String> commands, ModalState modalState)
+        {
+            this.commands = commands;
+            this.modalState = modalState;
+        }
+    
+    }
+    
+}
@@ -0,0 +1,277 @@
+/*
+ * File:    PathSimplifier.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.format.CoordinateFormat;
+
+import java.util.function.Consumer;
+
+/**
+ * A stage of the GcodeModifier that merges runs of nearly collinear G0 or G1 moves into a single move.<br/>
+ * Slicers write many moves that are almost in line, or shorter than the machine can resolve, so a run is merged into one move from its start to its end as long as every point it drops is within the tolerance of that move on each axis.<br/>
+ * A run never spans a change of feed rate or of motion command, and holds at most MAX_MERGED_MOVES moves, so each move is checked against a bounded number of points and the stage runs in linear time.
+ */
+public class PathSimplifier extends MotionStage
+{
+    
+    //Constants
+    
+    /**
+     * The default tolerance of the x and y axes, a tolerance of 0 disables simplification.
+     */
+    public static final double DEFAULT_SIMPLIFY_TOLERANCE = 0.0;
+    
+    /**
+     * The default tolerance of the z axis.
+     */
+    public static final double DEFAULT_SIMPLIFY_Z_TOLERANCE = 0.0;
+    
+    /**
+     * The maximum number of moves merged into one.
+     */
+    public static final int MAX_MERGED_MOVES = 64;
+    
+    /**
+     * The motion commands of the moves that can be merged.
+     */
+    private static final String[] MERGED_MOTIONS = {"G0", "G00", "G1", "G01"};
+    
+    /**
+     * The flag of a move that sets the x axis.
+     */
+    private static final int AXIS_X = 1;
+    
+    /**
+     * The flag of a move that sets the y axis.
+     */
+    private static final int AXIS_Y = 2;
+    
+    /**
+     * The flag of a move that sets the z axis.
+     */
+    private static final int AXIS_Z = 4;
+    
+    
+    //Static Fields
+    
+    /**
+     * The maximum distance on the x or y axis between a merged move and the points it drops.
+     */
+    public static double simplifyTolerance = DEFAULT_SIMPLIFY_TOLERANCE;
+    
+    /**
+     * The maximum distance on the z axis between a merged move and the points it drops.
+     */
+    public static double simplifyZTolerance = DEFAULT_SIMPLIFY_Z_TOLERANCE;
+    
+    
+    //Fields
+    
+    /**
+     * The maximum distance on the x or y axis between a merged move and the points it drops.
+     */
+    private final double tolerance;
+    
+    /**
+     * The maximum distance on the z axis between a merged move and the points it drops.
+     */
+    private final double zTolerance;
+    
+    /**
+     * The x positions of the run, starting with the position before its first move.
+     */
+    private final double[] xs = new double[MAX_MERGED_MOVES + 1];
+    
+    /**
+     * The y positions of the run, starting with the position before its first move.
+     */
+    private final double[] ys = new double[MAX_MERGED_MOVES + 1];
+    
+    /**
+     * The z positions of the run, starting with the position before its first move, or 0 while the z position is not known and the run does not move it.
+     */
+    private final double[] zs = new double[MAX_MERGED_MOVES + 1];
+    
+    /**
+     * The moves of the run that are held back, the move to each position after the first.
+     */
+    private final String[] moves = new String[MAX_MERGED_MOVES + 1];
+    
+    /**
+     * The axes set by each move of the run.
+     */
+    private final int[] axes = new int[MAX_MERGED_MOVES + 1];
+    
+    /**
+     * The number of positions in the run.
+     */
+    private int count = 0;
+    
+    /**
+     * The feed rate of the moves in the run, or NaN if they do not set one.
+     */
+    private double feed = Double.NaN;
+    
+    /**
+     * The motion command of the moves in the run, 0 or 1.
+     */
+    private int motion = 0;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a PathSimplifier.
+     *
+     * @param tolerance  The maximum distance on the x or y axis between a merged move and the points it drops.
+     * @param zTolerance The maximum distance on the z axis between a merged move and the points it drops.
+     */
+    public PathSimplifier(double tolerance, double zTolerance)
+    {
+        super("Simplification");
+        this.tolerance = tolerance;
+        this.zTolerance = zTolerance;
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Holds back the command being processed if it is a G0 or G1 move that may be merged.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     * @return Whether the command was held back or not.
+     */
+    @Override
+    protected boolean hold(CharSequence command, Consumer<String> next)
+    {
+        if (Double.isNaN(x) || Double.isNaN(y) || inverseTime || !isMove(MERGED_MOTIONS, "XYZF") || (Double.isNaN(z) && words.has('Z'))) {
+            return false;
+        }
+        
+        double moveFeed = words.getValue('F', Double.NaN);
+        int moveMotion = (int) words.getValue(0);
+        if (count > 0 && (Double.compare(moveFeed, feed) != 0 || moveMotion != motion)) {
+            release(next);
+        }
+        if (count == 0) {
+            xs[0] = x;
+            ys[0] = y;
+            zs[0] = Double.isNaN(z) ? 0.0 : z;
+            count = 1;
+            feed = moveFeed;
+            motion = moveMotion;
+        }
+        
+        x = moveTo('X', x);
+        y = moveTo('Y', y);
+        z = moveTo('Z', z);
+        
+        xs[count] = x;
+        ys[count] = y;
+        zs[count] = Double.isNaN(z) ? 0.0 : z;
+        moves[count] = command.toString();
+        axes[count] = (words.has('X') ? AXIS_X : 0) | (words.has('Y') ? AXIS_Y : 0) | (words.has('Z') ? AXIS_Z : 0);
+        count++;
+        
+        //the run up to the previous move is merged once the new move strays from it
+        if (count >= 3 && !isMergeable(count)) {
+            emitMerged(count - 1, next);
+        }
+        if (count - 1 == MAX_MERGED_MOVES) {
+            emitMerged(count, next);
+        }
+        return true;
+    }
+    
+    /**
+     * Ends the run, passing on the move it is merged into.
+     *
+     * @param next The next stage.
+     */
+    @Override
+    protected void release(Consumer<String> next)
+    {
+        if (count > 1) {
+            emitMerged(count, next);
+        }
+        count = 0;
+    }
+    
+    /**
+     * Determines whether the first positions of the run can be merged into one move.
+     *
+     * @param n The number of positions.
+     * @return Whether every position between the first and the last is within the tolerance of the move between them on each axis.
+     */
+    private boolean isMergeable(int n)
+    {
+        int last = n - 1;
+        double dx = xs[last] - xs[0];
+        double dy = ys[last] - ys[0];
+        double dz = zs[last] - zs[0];
+        double length2 = dx * dx + dy * dy + dz * dz;
+        
+        for (int k = 1; k < last; k++) {
+            double px = xs[k] - xs[0];
+            double py = ys[k] - ys[0];
+            double pz = zs[k] - zs[0];
+            
+            //the closest point of the move
+            double t = (length2 == 0) ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy + pz * dz) / length2));
+            if (Math.abs(px - t * dx) > tolerance || Math.abs(py - t * dy) > tolerance || Math.abs(pz - t * dz) > zTolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Passes on the move that the first positions of the run are merged into, starting a new run from its end.
+     *
+     * @param n    The number of positions.
+     * @param next The next stage.
+     */
+    private void emitMerged(int n, Consumer<String> next)
+    {
+        int last = n - 1;
+        if (last == 1) {
+            emit(moves[1], next);
+        } else {
+            int merged = 0;
+            for (int k = 1; k <= last; k++) {
+                merged |= axes[k];
+            }
+            
+            StringBuilder move = new StringBuilder(48).append((motion == 0) ? "G0 " : "G1 ");
+            if ((merged & AXIS_X) != 0) {
+                CoordinateFormat.appendWord(move, 'X', relative ? xs[last] - xs[0] : xs[last]);
+            }
+            if ((merged & AXIS_Y) != 0) {
+                CoordinateFormat.appendWord(move, 'Y', relative ? ys[last] - ys[0] : ys[last]);
+            }
+            if ((merged & AXIS_Z) != 0) {
+                CoordinateFormat.appendWord(move, 'Z', relative ? zs[last] - zs[0] : zs[last]);
+            }
+            if (!Double.isNaN(feed)) {
+                CoordinateFormat.appendWord(move, 'F', feed);
+            }
+            emit(move.toString(), next);
+        }
+        
+        //the end of the merged move starts the rest of the run
+        count -= last;
+        System.arraycopy(xs, last, xs, 0, count);
+        System.arraycopy(ys, last, ys, 0, count);
+        System.arraycopy(zs, last, zs, 0, count);
+        System.arraycopy(moves, last, moves, 0, count);
+        System.arraycopy(axes, last, axes, 0, count);
+        moves[0] = null;
+    }
+    
+}
@@ -0,0 +1,110 @@
+/*
+ * File:    RealtimeCommand.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+/**
+ * An enumeration of grbl's single byte realtime commands.<br/>
+ * grbl picks these out of the serial stream as soon as they arrive, so they take effect without waiting behind queued gcode lines.
+ */
+public enum RealtimeCommand
+{
+    
+    //Values
+    
+    /**
+     * Requests a status report.
+     */
+    STATUS_QUERY((byte) '?', null),
+    
+    /**
+     * Decelerates to a controlled stop and holds.
+     */
+    FEED_HOLD((byte) '!', "<Hold"),
+    
+    /**
+     * Resumes from a feed hold.
+     */
+    CYCLE_START((byte) '~', "<Run"),
+    
+    /**
+     * Immediately halts motion and resets grbl, clearing its buffers.
+     */
+    SOFT_RESET((byte) 0x18, "Grbl");
+    
+    
+    //Fields
+    
+    /**
+     * The byte sent to grbl.
+     */
+    private final byte code;
+    
+    /**
+     * The prefix of the grbl message that confirms the command has taken effect, or null if the command is not confirmed.
+     */
+    private final String confirmation;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a RealtimeCommand.
+     *
+     * @param code         The byte sent to grbl.
+     * @param confirmation The prefix of the grbl message that confirms the command has taken effect.
+     */
+    RealtimeCommand(byte code, String confirmation)
+    {
+        this.code = code;
+        this.confirmation = confirmation;
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Determines if a grbl message confirms that the command has taken effect.
+     *
+     * @param message The status report or message from grbl.
+     * @return Whether the message confirms the command or not.
+     */
+    public boolean isConfirmedBy(String message)
+    {
+        if (confirmation == null) {
+            return false;
+        }
+        if (this == CYCLE_START && message.startsWith("<Idle")) {
+            //the machine may finish its remaining moves before the next status report
+            return true;
+        }
+        return message.startsWith(confirmation);
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the byte sent to grbl.
+     *
+     * @return The byte sent to grbl.
+     */
+    public byte getCode()
+    {
+        return code;
+    }
+    
+    /**
+     * Returns whether the command is confirmed by grbl or not.
+     *
+     * @return Whether the command is confirmed by grbl or not.
+     */
+    public boolean isConfirmed()
+    {
+        return confirmation != null;
+    }
+    
+}
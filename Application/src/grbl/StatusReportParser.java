@@ -0,0 +1,307 @@
+/*
+ * File:    StatusReportParser.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+/**
+ * Decodes grbl 0.9 and 1.1 status reports into a MachineState, one character at a time.<br/>
+ * Reports are decoded without splitting them or creating Strings, so the parser creates no garbage however often grbl is polled.
+ * A parser keeps its position in the report being decoded, so each thread decoding reports needs its own parser.
+ */
+public class StatusReportParser
+{
+    
+    //Constants
+    
+    /**
+     * The machine states, cached as values() creates a new array on every call.
+     */
+    private static final MachineState.State[] STATES = MachineState.State.values();
+    
+    /**
+     * The powers of ten used to place the decimal point of a number.
+     */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+    
+    
+    //Fields
+    
+    /**
+     * The report being decoded.
+     */
+    private CharSequence report;
+    
+    /**
+     * The index of the next character to decode.
+     */
+    private int position;
+    
+    /**
+     * The index of the '>' closing the report.
+     */
+    private int end;
+    
+    
+    //Methods
+    
+    /**
+     * Decodes a status report, ie: &lt;Idle,MPos:0.000,0.000,0.000,WPos:0.000,0.000,0.000&gt; or &lt;Run|MPos:0.000,0.000,0.000|FS:500,0&gt;.<br/>
+     * Fields that are not in the report keep their previous values in the machine state.
+     *
+     * @param report The status report.
+     * @param state  The machine state to update.
+     * @return Whether the report was decoded or not.
+     */
+    public boolean parse(CharSequence report, MachineState state)
+    {
+        int length = report.length();
+        if (length < 3 || report.charAt(0) != '<' || report.charAt(length - 1) != '>') {
+            return false;
+        }
+        this.report = report;
+        this.position = 1;
+        this.end = length - 1;
+        
+        try {
+            int nameStart = position;
+            while (position < end && Character.isLetter(report.charAt(position))) {
+                position++;
+            }
+            MachineState.State machineState = matchState(nameStart, position);
+            int subState = -1;
+            if (position < end && report.charAt(position) == ':') {
+                position++;
+                subState = (int) readNumber();
+            }
+            state.setState(machineState, subState);
+            
+            boolean hasMachinePosition = false;
+            boolean hasWorkPosition = false;
+            while (position < end) {
+                char separator = report.charAt(position++);
+                if (separator != ',' && separator != '|') {
+                    return false;
+                }
+                
+                int keyStart = position;
+                while (position < end && Character.isLetter(report.charAt(position))) {
+                    position++;
+                }
+                int keyEnd = position;
+                if (position >= end || report.charAt(position) != ':') {
+                    skipField();
+                    continue;
+                }
+                position++;
+                
+                if (matches(keyStart, keyEnd, "MPos")) {
+                    for (int i = 0; i < 3; i++) {
+                        state.setMachinePosition(i, readValue(i));
+                    }
+                    hasMachinePosition = true;
+                } else if (matches(keyStart, keyEnd, "WPos")) {
+                    for (int i = 0; i < 3; i++) {
+                        state.setWorkPosition(i, readValue(i));
+                    }
+                    hasWorkPosition = true;
+                } else if (matches(keyStart, keyEnd, "WCO")) {
+                    for (int i = 0; i < 3; i++) {
+                        state.setWorkCoordinateOffset(i, readValue(i));
+                    }
+                } else if (matches(keyStart, keyEnd, "Bf")) {
+                    state.setPlannerBlocksAvailable((int) readValue(0));
+                    state.setRxBytesAvailable((int) readValue(1));
+                } else if (matches(keyStart, keyEnd, "FS")) {
+                    state.setFeedRate(readValue(0));
+                    state.setSpindleSpeed(readValue(1));
+                } else if (matches(keyStart, keyEnd, "F")) {
+                    state.setFeedRate(readValue(0));
+                } else if (matches(keyStart, keyEnd, "Ov")) {
+                    state.setOverrides((int) readValue(0), (int) readValue(1), (int) readValue(2));
+                } else if (matches(keyStart, keyEnd, "Pn")) {
+                    state.setPins(readPins());
+                } else {
+                    skipField();
+                }
+            }
+            
+            //grbl 1.1 reports one of the positions, with the work coordinate offset in some reports
+            if (hasMachinePosition && hasWorkPosition) {
+                state.updateWorkCoordinateOffset();
+            } else if (hasMachinePosition) {
+                state.updateWorkPosition();
+            } else if (hasWorkPosition) {
+                for (int i = 0; i < 3; i++) {
+                    state.setMachinePosition(i, state.getWorkPosition(i) + state.getWorkCoordinateOffset(i));
+                }
+            }
+            
+            state.countReport();
+            return true;
+        
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            this.report = null;
+        }
+    }
+    
+    /**
+     * Reads a value of a field, skipping the comma before every value but the first.
+     *
+     * @param index The index of the value in the field.
+     * @return The value.
+     * @throws NumberFormatException When the value is not a number.
+     */
+    private double readValue(int index)
+    {
+        if (index > 0) {
+            if (position >= end || report.charAt(position) != ',') {
+                throw new NumberFormatException();
+            }
+            position++;
+        }
+        return readNumber();
+    }
+    
+    /**
+     * Reads a decimal number.
+     *
+     * @return The number.
+     * @throws NumberFormatException When there is no number at the current position.
+     */
+    private double readNumber()
+    {
+        boolean negative = false;
+        if (position < end && (report.charAt(position) == '-' || report.charAt(position) == '+')) {
+            negative = report.charAt(position) == '-';
+            position++;
+        }
+        
+        long mantissa = 0;
+        int decimals = -1;
+        int start = position;
+        while (position < end) {
+            char c = report.charAt(position);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (position == start || (position == start + 1 && decimals == 0)) {
+            throw new NumberFormatException();
+        }
+        
+        double value = mantissa;
+        if (decimals > 0) {
+            value /= POWERS_OF_TEN[Math.min(decimals, POWERS_OF_TEN.length - 1)];
+        }
+        return negative ? -value : value;
+    }
+    
+    /**
+     * Reads the letters of the triggered input pins.
+     *
+     * @return The flags of the triggered input pins.
+     */
+    private int readPins()
+    {
+        int pins = 0;
+        while (position < end) {
+            switch (report.charAt(position)) {
+                case 'X':
+                    pins |= MachineState.PIN_X;
+                    break;
+                case 'Y':
+                    pins |= MachineState.PIN_Y;
+                    break;
+                case 'Z':
+                    pins |= MachineState.PIN_Z;
+                    break;
+                case 'P':
+                    pins |= MachineState.PIN_PROBE;
+                    break;
+                case 'D':
+                    pins |= MachineState.PIN_DOOR;
+                    break;
+                case 'H':
+                    pins |= MachineState.PIN_HOLD;
+                    break;
+                case 'R':
+                    pins |= MachineState.PIN_RESET;
+                    break;
+                case 'S':
+                    pins |= MachineState.PIN_CYCLE_START;
+                    break;
+                default:
+                    return pins;
+            }
+            position++;
+        }
+        return pins;
+    }
+    
+    /**
+     * Skips the rest of a field that is not decoded.<br/>
+     * grbl 1.1 separates fields with a '|', while grbl 0.9 separates them with a ',' followed by the letters of the next field.
+     */
+    private void skipField()
+    {
+        while (position < end) {
+            char c = report.charAt(position);
+            if (c == '|' || (c == ',' && position + 1 < end && Character.isLetter(report.charAt(position + 1)))) {
+                return;
+            }
+            position++;
+        }
+    }
+    
+    /**
+     * Returns the machine state named by a range of the report.
+     *
+     * @param start The index of the first character of the name.
+     * @param stop  The index after the last character of the name.
+     * @return The machine state, or UNKNOWN if the name is not recognized.
+     */
+    private MachineState.State matchState(int start, int stop)
+    {
+        for (MachineState.State state : STATES) {
+            if (matches(start, stop, state.getName())) {
+                return state;
+            }
+        }
+        return MachineState.State.UNKNOWN;
+    }
+    
+    /**
+     * Determines if a range of the report is equal to a word.
+     *
+     * @param start The index of the first character of the range.
+     * @param stop  The index after the last character of the range.
+     * @param word  The word.
+     * @return Whether the range is equal to the word or not.
+     */
+    private boolean matches(int start, int stop, String word)
+    {
+        if (stop - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (report.charAt(start + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+}
@@ -0,0 +1,117 @@
+/*
+ * File:    StreamHistory.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+/**
+ * The most recent lines of a job streamed to grbl, displayed in the gcode window.<br/>
+ * The bytes of each line are copied from the command buffer of the job into a ring of reused slots, and the text is only built when the window is redrawn, so streaming a line does not create a String.
+ */
+public class StreamHistory
+{
+    
+    //Constants
+    
+    /**
+     * The initial capacity of a slot, in bytes.
+     */
+    private static final int INITIAL_LINE_CAPACITY = 64;
+    
+    
+    //Fields
+    
+    /**
+     * The ring of slots holding the bytes of the most recent lines.
+     */
+    private final byte[][] lines;
+    
+    /**
+     * The length of the line in each slot.
+     */
+    private final int[] lengths;
+    
+    /**
+     * The number of lines recorded.
+     */
+    private long count = 0;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a StreamHistory.
+     *
+     * @param capacity The number of lines kept.
+     */
+    public StreamHistory(int capacity)
+    {
+        lines = new byte[capacity][];
+        lengths = new int[capacity];
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Records a line of a job that was streamed, replacing the oldest line kept if the history is full.
+     *
+     * @param commands The commands of the job.
+     * @param line     The index of the line in the job.
+     */
+    public synchronized void record(CommandBuffer commands, int line)
+    {
+        int slot = (int) (count % lines.length);
+        int length = commands.getLength(line);
+        if (lines[slot] == null || lines[slot].length < length) {
+            lines[slot] = new byte[Math.max(length, INITIAL_LINE_CAPACITY)];
+        }
+        
+        commands.copy(line, lines[slot], 0);
+        lengths[slot] = length;
+        count++;
+    }
+    
+    /**
+     * Forgets every line recorded.
+     */
+    public synchronized void clear()
+    {
+        count = 0;
+    }
+    
+    /**
+     * Appends the lines kept to a text, oldest first, separated by line feeds.
+     *
+     * @param text The text to append to.
+     */
+    public synchronized void appendTo(StringBuilder text)
+    {
+        long first = Math.max(0, count - lines.length);
+        for (long i = first; i < count; i++) {
+            int slot = (int) (i % lines.length);
+            if (i > first) {
+                text.append('\n');
+            }
+            for (int j = 0; j < lengths[slot]; j++) {
+                text.append((char) lines[slot][j]);
+            }
+        }
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the number of lines recorded.
+     *
+     * @return The number of lines recorded.
+     */
+    public synchronized long getCount()
+    {
+        return count;
+    }
+    
+}
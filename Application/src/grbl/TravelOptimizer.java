@@ -0,0 +1,999 @@
+/*
+ * File:    TravelOptimizer.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.format.CoordinateFormat;
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+import grbl.simulator.MotionModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * A stage of the GcodeModifier that reorders and reverses the cutting chains of a job to shorten the G0 travels between them.<br/>
+ * A chain is a run of G1, G2 or G3 moves, and chains are separated by runs of G0 moves. The chains between two commands that are not moves form a section, and the chains of a section are grouped into layers by the depth they cut to.<br/>
+ * A section is only reordered when every travel in it crosses the part above the highest point of its chains, so the travels can be replaced by a retract to the highest travel height, a rapid move to the start of the next chain and a descent to it. Layers keep their order and the first chain of each layer stays first, so each layer is ordered independently of the others, in parallel, with a nearest neighbour tour improved by 2-opt.<br/>
+ * A chain is only reversed when it is made of G1 moves that start and end at the same height above the rest of the chain, ie: a plunge, a cut and a retract.
+ */
+public class TravelOptimizer implements GcodeModifier.Stage
+{
+    
+    //Constants
+    
+    /**
+     * The default flag indicating whether the travels of jobs are optimized or not.
+     */
+    public static final boolean DEFAULT_TRAVEL_OPTIMIZATION = false;
+    
+    /**
+     * The number of positions in a tour after a chain that the 2-opt heuristic tries to reverse the tour to.
+     */
+    public static final int TWO_OPT_WINDOW = 32;
+    
+    /**
+     * The maximum number of times the 2-opt heuristic passes over a tour.
+     */
+    public static final int MAX_TWO_OPT_PASSES = 8;
+    
+    /**
+     * The motion commands of travels.
+     */
+    private static final String[] TRAVEL_MOTIONS = {"G0", "G00"};
+    
+    /**
+     * The motion commands of linear cuts.
+     */
+    private static final String[] LINEAR_MOTIONS = {"G1", "G01"};
+    
+    /**
+     * The motion commands of arcs.
+     */
+    private static final String[] ARC_MOTIONS = {"G2", "G02", "G3", "G03"};
+    
+    /**
+     * The smallest change in the length of a tour that the 2-opt heuristic considers an improvement.
+     */
+    private static final double EPSILON = 1e-9;
+    
+    
+    //Static Fields
+    
+    /**
+     * A flag indicating whether the travels of jobs are optimized or not.
+     */
+    public static boolean travelOptimization = DEFAULT_TRAVEL_OPTIMIZATION;
+    
+    
+    //Fields
+    
+    /**
+     * The pool the layers of a section are ordered in.
+     */
+    private final ForkJoinPool pool;
+    
+    /**
+     * The motion model used to estimate the time of the travels.
+     */
+    private final MotionModel model;
+    
+    /**
+     * The word buffer for the command being processed.
+     */
+    private final GcodeWords words = new GcodeWords();
+    
+    /**
+     * The current position, NaN for the axes that are not known.
+     */
+    private final double[] position = {Double.NaN, Double.NaN, Double.NaN};
+    
+    /**
+     * A flag indicating whether positions are absolute or not.
+     */
+    private boolean absolute = false;
+    
+    /**
+     * A flag indicating whether feed rates are in inverse time or not.
+     */
+    private boolean inverseTime = false;
+    
+    /**
+     * The current feed rate, or NaN if it is not known.
+     */
+    private double feed = Double.NaN;
+    
+    /**
+     * The feed rate at the start of the section.
+     */
+    private double sectionFeed = Double.NaN;
+    
+    /**
+     * The chains of the section.
+     */
+    private final List<Chain> chains = new ArrayList<>();
+    
+    /**
+     * The travel after the last chain of the section, or before the first chain if there are none yet.
+     */
+    private Travel travel = new Travel();
+    
+    /**
+     * The chain being read, or null if the last move was a travel.
+     */
+    private Chain chain = null;
+    
+    /**
+     * The length of the travels between chains before they were optimized, in mm.
+     */
+    private double travelBefore = 0;
+    
+    /**
+     * The length of the travels between chains after they were optimized, in mm.
+     */
+    private double travelAfter = 0;
+    
+    /**
+     * The estimated time of the travels between chains before they were optimized, in seconds.
+     */
+    private double timeBefore = 0;
+    
+    /**
+     * The estimated time of the travels between chains after they were optimized, in seconds.
+     */
+    private double timeAfter = 0;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a TravelOptimizer.
+     *
+     * @param pool  The pool the layers of a section are ordered in.
+     * @param model The motion model used to estimate the time of the travels.
+     */
+    public TravelOptimizer(ForkJoinPool pool, MotionModel model)
+    {
+        this.pool = pool;
+        this.model = model;
+    }
+    
+    /**
+     * The default no-argument constructor for a TravelOptimizer.
+     */
+    public TravelOptimizer()
+    {
+        this(ForkJoinPool.commonPool(), new MotionModel());
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Processes a command, holding back the moves of the section until it ends.
+     *
+     * @param command The command.
+     * @param next    The next stage.
+     */
+    @Override
+    public void process(String command, Consumer<String> next)
+    {
+        GcodeLexer.lex(command, words);
+        
+        boolean travels = isMove(TRAVEL_MOTIONS, "XYZF");
+        boolean cuts = isMove(LINEAR_MOTIONS, "XYZF") || isMove(ARC_MOTIONS, "XYZIJKRF");
+        boolean known = absolute && !inverseTime && !Double.isNaN(position[0]) && !Double.isNaN(position[1]) && !Double.isNaN(position[2]);
+        if (known && travels) {
+            double[] start = position.clone();
+            moveTo();
+            chain = null;
+            travel.add(command, start, position);
+        } else if (known && cuts) {
+            if (chain == null) {
+                if (chains.isEmpty()) {
+                    sectionFeed = feed;
+                }
+                chain = new Chain(travel, position, feed);
+                chains.add(chain);
+                travel = new Travel();
+            }
+            moveTo();
+            chain.add(command, position, feed, !words.isToken(0, "G1") && !words.isToken(0, "G01"));
+        } else if (absolute && !inverseTime && (travels || cuts)) {
+            //a move from a position that is not known sets the axes it moves to
+            release(false, next);
+            moveTo();
+            next.accept(command);
+        } else {
+            release(false, next);
+            track();
+            next.accept(command);
+        }
+    }
+    
+    /**
+     * Passes on the moves of the last section and reports the travel saved.
+     *
+     * @param next The next stage.
+     */
+    @Override
+    public void flush(Consumer<String> next)
+    {
+        release(true, next);
+        
+        if (travelBefore > 0) {
+            System.out.println(String.format("Travel optimization reduced the travel between cuts from %.1f mm to %.1f mm, an estimated %.1f seconds saved.",
+                    travelBefore, travelAfter, timeBefore - timeAfter));
+        }
+    }
+    
+    /**
+     * Ends the section, passing on its moves in the optimized order if it can be reordered.<br/>
+     * Unless the section ends the gcode file, it must end with a travel, so the commands after it follow a G0 move as they did before.
+     *
+     * @param last Whether the section ends the gcode file or not.
+     * @param next The next stage.
+     */
+    private void release(boolean last, Consumer<String> next)
+    {
+        double clearance = getClearance();
+        if (chains.size() > 1 && (last || !travel.commands.isEmpty()) && !Double.isNaN(clearance) && isMovable()) {
+            emitOptimized(clearance, !last, next);
+        } else {
+            for (Chain c : chains) {
+                c.travel.emit(next);
+                for (String command : c.commands) {
+                    next.accept(command);
+                }
+            }
+            travel.emit(next);
+        }
+        
+        chains.clear();
+        travel = new Travel();
+        chain = null;
+    }
+    
+    /**
+     * Returns the height the travels of the section can be replaced at.
+     *
+     * @return The highest height of the travels, or NaN if a travel moves across the part below the highest point of the chains.
+     */
+    private double getClearance()
+    {
+        double top = Double.NEGATIVE_INFINITY;
+        for (Chain c : chains) {
+            top = Math.max(top, c.maxZ);
+        }
+        
+        double clearance = Double.NEGATIVE_INFINITY;
+        for (int i = 1; i <= chains.size(); i++) {
+            Travel t = (i < chains.size()) ? chains.get(i).travel : travel;
+            if (t.lowestCrossing <= top) {
+                return Double.NaN;
+            }
+            clearance = Math.max(clearance, t.highest);
+        }
+        return (clearance > top) ? clearance : Double.NaN;
+    }
+    
+    /**
+     * Determines whether every chain after the first can be cut at a different time or not.
+     *
+     * @return Whether the chains can be moved or not.
+     */
+    private boolean isMovable()
+    {
+        for (int i = 1; i < chains.size(); i++) {
+            if (Double.isNaN(chains.get(i).entryFeed) && !chains.get(i).setsFeed) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Orders the chains of the section and passes on its moves with the new travels between them.
+     *
+     * @param clearance The height of the new travels.
+     * @param restore   Whether the section must end where it ended before or not.
+     * @param next      The next stage.
+     */
+    private void emitOptimized(double clearance, boolean restore, Consumer<String> next)
+    {
+        //group the chains into layers by the depth they cut to
+        List<Layer> layers = new ArrayList<>();
+        Layer layer = null;
+        for (Chain c : chains) {
+            if (layer == null || c.minZ != layer.depth) {
+                layer = new Layer(c.minZ);
+                layers.add(layer);
+            }
+            layer.chains.add(c);
+        }
+        
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Layer l : layers) {
+            tasks.add(pool.submit(l::order));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        double[] at = null;
+        double currentFeed = sectionFeed;
+        for (Layer l : layers) {
+            for (int i = 0; i < l.chains.size(); i++) {
+                Chain c = l.chains.get(l.order[i]);
+                boolean reversed = l.reversed[i];
+                
+                if (at == null) {
+                    c.travel.emit(next);
+                } else {
+                    double[] start = reversed ? c.end : c.start;
+                    travelBefore += c.travel.length;
+                    timeBefore += c.travel.time;
+                    emitTravel(at, start, clearance, sb, next);
+                }
+                
+                if (reversed) {
+                    c.emitReversed(sb, next);
+                    currentFeed = c.feeds.get(1);
+                } else {
+                    if (!c.setsFeed && c.entryFeed != currentFeed) {
+                        next.accept(CoordinateFormat.appendWord(sb, 'F', c.entryFeed).toString());
+                        sb.setLength(0);
+                    }
+                    for (String command : c.commands) {
+                        next.accept(command);
+                    }
+                    currentFeed = c.exitFeed;
+                }
+                at = reversed ? c.start : c.end;
+            }
+        }
+        
+        //the section ends where it ended before, with the feed rate it ended with before
+        Chain last = chains.get(chains.size() - 1);
+        if (restore) {
+            double[] end = travel.getStart(at, last.end, clearance);
+            if (at[0] != end[0] || at[1] != end[1] || at[2] != end[2]) {
+                emitTravel(at, end, clearance, sb, next);
+            }
+        }
+        if (!Double.isNaN(last.exitFeed) && last.exitFeed != currentFeed) {
+            next.accept(CoordinateFormat.appendWord(sb, 'F', last.exitFeed).toString());
+            sb.setLength(0);
+        }
+        travel.emit(next);
+    }
+    
+    /**
+     * Passes on a travel that retracts to the clearance height, moves above a point and descends to it.
+     *
+     * @param from      The position the travel starts at.
+     * @param to        The position the travel ends at.
+     * @param clearance The height of the travel.
+     * @param sb        The StringBuilder the commands are built in.
+     * @param next      The next stage.
+     */
+    private void emitTravel(double[] from, double[] to, double clearance, StringBuilder sb, Consumer<String> next)
+    {
+        double[][] points = {from, {from[0], from[1], clearance}, {to[0], to[1], clearance}, to};
+        for (int i = 1; i < points.length; i++) {
+            double[] a = points[i - 1];
+            double[] b = points[i];
+            if (a[0] == b[0] && a[1] == b[1] && a[2] == b[2]) {
+                continue;
+            }
+            
+            sb.append("G0 ");
+            if (a[0] != b[0] || a[1] != b[1]) {
+                CoordinateFormat.appendWord(sb, 'X', b[0]);
+                CoordinateFormat.appendWord(sb, 'Y', b[1]);
+            }
+            if (a[2] != b[2]) {
+                CoordinateFormat.appendWord(sb, 'Z', b[2]);
+            }
+            next.accept(sb.toString());
+            sb.setLength(0);
+            
+            travelAfter += distance(a, b);
+            timeAfter += rapidTime(a, b);
+        }
+    }
+    
+    /**
+     * Tracks the modal state and position set by a command that is not a move of the section.<br/>
+     * The words of the command may be in any order, as grbl sets the modal state of a line before it moves to the axis words of the line.
+     */
+    private void track()
+    {
+        boolean moves = false;
+        boolean lost = false;
+        for (int i = 0; i < words.size(); i++) {
+            char letter = words.getLetter(i);
+            double value = words.getValue(i);
+            if (letter == 'F') {
+                feed = value;
+            } else if ("XYZ".indexOf(letter) != -1) {
+                moves = true;
+            } else if (letter == 'G' && (value == 90 || value == 91)) {
+                absolute = (value == 90);
+            } else if (letter == 'G' && (value == 93 || value == 94)) {
+                inverseTime = (value == 93);
+            } else if (letter == 'G' && !(value >= 0 && value <= 4) && value != 17 && value != 18 && value != 19) {
+                //homing, probing, unit and coordinate system commands move the machine or its coordinates to a position that is not tracked
+                lost = true;
+            }
+        }
+        
+        if (lost || (moves && !absolute)) {
+            position[0] = Double.NaN;
+            position[1] = Double.NaN;
+            position[2] = Double.NaN;
+        } else if (moves) {
+            position[0] = words.getValue('X', position[0]);
+            position[1] = words.getValue('Y', position[1]);
+            position[2] = words.getValue('Z', position[2]);
+        }
+    }
+    
+    /**
+     * Determines whether the command being processed is a move that only has words with some letters after its motion command, each written once.
+     *
+     * @param motions The motion commands the move can start with.
+     * @param letters The letters of the words the move can have.
+     * @return Whether the command is such a move or not, false if it does not move any axis.
+     */
+    private boolean isMove(String[] motions, String letters)
+    {
+        boolean motion = false;
+        for (String command : motions) {
+            motion |= words.isToken(0, command);
+        }
+        if (!motion) {
+            return false;
+        }
+        
+        boolean moves = false;
+        for (int i = 1; i < words.size(); i++) {
+            char letter = words.getLetter(i);
+            if (letters.indexOf(letter) == -1 || Double.isNaN(words.getValue(i)) || words.lastIndexOf(letter) != i) {
+                return false;
+            }
+            moves |= ("XYZ".indexOf(letter) != -1);
+        }
+        return moves;
+    }
+    
+    /**
+     * Moves the current position to the end of the move being processed, and sets the feed rate of the move.
+     */
+    private void moveTo()
+    {
+        position[0] = words.getValue('X', position[0]);
+        position[1] = words.getValue('Y', position[1]);
+        position[2] = words.getValue('Z', position[2]);
+        feed = words.getValue('F', feed);
+    }
+    
+    /**
+     * Estimates the time of a rapid move that starts and ends at rest.
+     *
+     * @param from The position the move starts at.
+     * @param to   The position the move ends at.
+     * @return The time of the move, in seconds.
+     */
+    private double rapidTime(double[] from, double[] to)
+    {
+        double length = distance(from, to);
+        if (length == 0) {
+            return 0;
+        }
+        
+        double[] unit = {(to[0] - from[0]) / length, (to[1] - from[1]) / length, (to[2] - from[2]) / length};
+        double speed = model.nominalSpeed(unit, 0);
+        double acceleration = model.acceleration(unit);
+        
+        //the move accelerates to its nominal speed and decelerates from it, or turns around half way if it is too short to reach it
+        if (length >= speed * speed / acceleration) {
+            return length / speed + speed / acceleration;
+        }
+        return 2 * Math.sqrt(length / acceleration);
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Returns the distance between two positions.
+     *
+     * @param a The first position.
+     * @param b The second position.
+     * @return The distance.
+     */
+    private static double distance(double[] a, double[] b)
+    {
+        double dx = b[0] - a[0];
+        double dy = b[1] - a[1];
+        double dz = b[2] - a[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+    
+    /**
+     * Returns the distance between two positions on the x and y axes, which is the part of a travel that depends on the order of the chains.
+     *
+     * @param a The first position.
+     * @param b The second position.
+     * @return The distance.
+     */
+    private static double planarDistance(double[] a, double[] b)
+    {
+        double dx = b[0] - a[0];
+        double dy = b[1] - a[1];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the length of the travels between chains before they were optimized.
+     *
+     * @return The length of the travels, in mm.
+     */
+    public double getTravelBefore()
+    {
+        return travelBefore;
+    }
+    
+    /**
+     * Returns the length of the travels between chains after they were optimized.
+     *
+     * @return The length of the travels, in mm.
+     */
+    public double getTravelAfter()
+    {
+        return travelAfter;
+    }
+    
+    /**
+     * Returns the estimated time saved by optimizing the travels.
+     *
+     * @return The time saved, in seconds.
+     */
+    public double getTimeSaved()
+    {
+        return timeBefore - timeAfter;
+    }
+    
+    
+    //Inner Classes
+    
+    /**
+     * A run of G0 moves.
+     */
+    private class Travel
+    {
+        
+        //Fields
+        
+        /**
+         * The commands of the travel.
+         */
+        private final List<String> commands = new ArrayList<>();
+        
+        /**
+         * The lowest height the travel moves across the x or y axes at.
+         */
+        private double lowestCrossing = Double.POSITIVE_INFINITY;
+        
+        /**
+         * The highest height of the travel.
+         */
+        private double highest = Double.NEGATIVE_INFINITY;
+        
+        /**
+         * The axes the travel sets; 1 for x, 2 for y and 4 for z.
+         */
+        private int axes = 0;
+        
+        /**
+         * The length of the travel, in mm.
+         */
+        private double length = 0;
+        
+        /**
+         * The estimated time of the travel, in seconds.
+         */
+        private double time = 0;
+        
+        
+        //Methods
+        
+        /**
+         * Adds a move to the travel.
+         *
+         * @param command The command of the move, which has been lexed into the word buffer.
+         * @param from    The position the move starts at.
+         * @param to      The position the move ends at.
+         */
+        private void add(String command, double[] from, double[] to)
+        {
+            commands.add(command);
+            if (from[0] != to[0] || from[1] != to[1]) {
+                lowestCrossing = Math.min(lowestCrossing, Math.min(from[2], to[2]));
+            }
+            highest = Math.max(highest, Math.max(from[2], to[2]));
+            axes |= (words.has('X') ? 1 : 0) | (words.has('Y') ? 2 : 0) | (words.has('Z') ? 4 : 0);
+            length += distance(from, to);
+            time += rapidTime(from, to);
+        }
+        
+        /**
+         * Returns a position the travel can start at to end where it ended before.<br/>
+         * The travel sets some axes itself, so it only has to start at its previous start on the other axes.
+         *
+         * @param at        The current position.
+         * @param start     The position the travel started at before.
+         * @param clearance The height of the travels of the section.
+         * @return The position.
+         */
+        private double[] getStart(double[] at, double[] start, double clearance)
+        {
+            double x = ((axes & 1) != 0) ? at[0] : start[0];
+            double y = ((axes & 2) != 0) ? at[1] : start[1];
+            boolean moves = (x != at[0] || y != at[1]);
+            
+            //a travel that sets the z axis moves it from wherever the machine is, which is the clearance height after a move above its start
+            double z = ((axes & 4) == 0) ? start[2] : moves ? clearance : at[2];
+            return new double[] {x, y, z};
+        }
+        
+        /**
+         * Passes on the commands of the travel.
+         *
+         * @param next The next stage.
+         */
+        private void emit(Consumer<String> next)
+        {
+            for (String command : commands) {
+                next.accept(command);
+            }
+        }
+    
+    }
+    
+    /**
+     * A run of G1, G2 or G3 moves.
+     */
+    private class Chain
+    {
+        
+        //Fields
+        
+        /**
+         * The travel before the chain.
+         */
+        private final Travel travel;
+        
+        /**
+         * The commands of the chain.
+         */
+        private final List<String> commands = new ArrayList<>();
+        
+        /**
+         * The positions of the chain, starting with the position before its first move.
+         */
+        private final List<double[]> points = new ArrayList<>();
+        
+        /**
+         * The feed rate of each move, starting with the feed rate before the chain.
+         */
+        private final List<Double> feeds = new ArrayList<>();
+        
+        /**
+         * The position the chain starts at.
+         */
+        private final double[] start;
+        
+        /**
+         * The position the chain ends at.
+         */
+        private double[] end;
+        
+        /**
+         * The feed rate before the chain, or NaN if it is not known.
+         */
+        private final double entryFeed;
+        
+        /**
+         * The feed rate after the chain, or NaN if it is not known.
+         */
+        private double exitFeed;
+        
+        /**
+         * A flag indicating whether the first move of the chain sets its feed rate or not.
+         */
+        private boolean setsFeed = false;
+        
+        /**
+         * A flag indicating whether the chain has an arc or not.
+         */
+        private boolean arcs = false;
+        
+        /**
+         * The lowest height of the chain.
+         */
+        private double minZ;
+        
+        /**
+         * The highest height of the chain.
+         */
+        private double maxZ;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a Chain.
+         *
+         * @param travel The travel before the chain.
+         * @param start  The position the chain starts at.
+         * @param feed   The feed rate before the chain.
+         */
+        private Chain(Travel travel, double[] start, double feed)
+        {
+            this.travel = travel;
+            this.start = start.clone();
+            this.end = this.start;
+            this.entryFeed = feed;
+            this.exitFeed = feed;
+            this.minZ = start[2];
+            this.maxZ = start[2];
+            points.add(this.start);
+            feeds.add(feed);
+        }
+        
+        
+        //Methods
+        
+        /**
+         * Adds a move to the chain.
+         *
+         * @param command The command of the move, which has been lexed into the word buffer.
+         * @param to      The position the move ends at.
+         * @param feed    The feed rate of the move.
+         * @param arc     Whether the move is an arc or not.
+         */
+        private void add(String command, double[] to, double feed, boolean arc)
+        {
+            if (commands.isEmpty()) {
+                setsFeed = words.has('F');
+            }
+            commands.add(command);
+            end = to.clone();
+            points.add(end);
+            feeds.add(feed);
+            exitFeed = feed;
+            arcs |= arc;
+            minZ = Math.min(minZ, to[2]);
+            maxZ = Math.max(maxZ, to[2]);
+        }
+        
+        /**
+         * Determines whether the chain can be cut from its end to its start or not.
+         *
+         * @return Whether the chain can be reversed or not.
+         */
+        private boolean isReversible()
+        {
+            if (arcs || start[2] != end[2] || maxZ > start[2] || minZ == start[2]) {
+                return false;
+            }
+            for (int i = 1; i < feeds.size(); i++) {
+                if (Double.isNaN(feeds.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * Passes on the moves of the chain from its end to its start.
+         *
+         * @param sb   The StringBuilder the commands are built in.
+         * @param next The next stage.
+         */
+        private void emitReversed(StringBuilder sb, Consumer<String> next)
+        {
+            for (int i = points.size() - 1; i > 0; i--) {
+                double[] to = points.get(i - 1);
+                sb.append("G1 ");
+                CoordinateFormat.appendWord(sb, 'X', to[0]);
+                CoordinateFormat.appendWord(sb, 'Y', to[1]);
+                CoordinateFormat.appendWord(sb, 'Z', to[2]);
+                CoordinateFormat.appendWord(sb, 'F', feeds.get(i));
+                next.accept(sb.toString());
+                sb.setLength(0);
+            }
+        }
+    
+    }
+    
+    /**
+     * The chains of a section that cut to the same depth.
+     */
+    private static class Layer
+    {
+        
+        //Fields
+        
+        /**
+         * The depth the chains cut to.
+         */
+        private final double depth;
+        
+        /**
+         * The chains, in the order they were read.
+         */
+        private final List<Chain> chains = new ArrayList<>();
+        
+        /**
+         * The index of the chain at each position of the tour.
+         */
+        private int[] order;
+        
+        /**
+         * A flag for each position of the tour indicating whether its chain is reversed or not.
+         */
+        private boolean[] reversed;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a Layer.
+         *
+         * @param depth The depth the chains cut to.
+         */
+        private Layer(double depth)
+        {
+            this.depth = depth;
+        }
+        
+        
+        //Methods
+        
+        /**
+         * Orders the chains into a tour that starts with the first chain, with a nearest neighbour tour improved by 2-opt.
+         */
+        private void order()
+        {
+            int count = chains.size();
+            order = new int[count];
+            reversed = new boolean[count];
+            boolean[] reversible = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                reversible[i] = chains.get(i).isReversible();
+            }
+            
+            //nearest neighbour, entering each chain from whichever end is closer
+            boolean[] visited = new boolean[count];
+            visited[0] = true;
+            double[] at = chains.get(0).end;
+            for (int position = 1; position < count; position++) {
+                int nearest = -1;
+                boolean nearestReversed = false;
+                double nearestDistance = Double.POSITIVE_INFINITY;
+                for (int i = 1; i < count; i++) {
+                    if (visited[i]) {
+                        continue;
+                    }
+                    double distance = planarDistance(at, chains.get(i).start);
+                    if (distance < nearestDistance) {
+                        nearest = i;
+                        nearestReversed = false;
+                        nearestDistance = distance;
+                    }
+                    if (reversible[i]) {
+                        distance = planarDistance(at, chains.get(i).end);
+                        if (distance < nearestDistance) {
+                            nearest = i;
+                            nearestReversed = true;
+                            nearestDistance = distance;
+                        }
+                    }
+                }
+                visited[nearest] = true;
+                order[position] = nearest;
+                reversed[position] = nearestReversed;
+                at = nearestReversed ? chains.get(nearest).start : chains.get(nearest).end;
+            }
+            
+            //2-opt, reversing the part of the tour between two positions when every chain in it can be reversed
+            for (int pass = 0; pass < MAX_TWO_OPT_PASSES; pass++) {
+                boolean improved = false;
+                for (int i = 1; i < count; i++) {
+                    for (int j = i; j < Math.min(count, i + TWO_OPT_WINDOW); j++) {
+                        if (!reversible[order[j]]) {
+                            break;
+                        }
+                        
+                        double[] a = exit(i - 1);
+                        double[] b = entry(i);
+                        double[] c = exit(j);
+                        double before = planarDistance(a, b);
+                        double after = planarDistance(a, c);
+                        if (j + 1 < count) {
+                            double[] d = entry(j + 1);
+                            before += planarDistance(c, d);
+                            after += planarDistance(b, d);
+                        }
+                        
+                        if (after < before - EPSILON) {
+                            reverse(i, j);
+                            improved = true;
+                        }
+                    }
+                }
+                if (!improved) {
+                    break;
+                }
+            }
+        }
+        
+        /**
+         * Reverses the part of the tour between two positions, and the direction of each chain in it.
+         *
+         * @param i The first position.
+         * @param j The last position.
+         */
+        private void reverse(int i, int j)
+        {
+            for (; i <= j; i++, j--) {
+                int chain = order[i];
+                order[i] = order[j];
+                order[j] = chain;
+                
+                boolean direction = reversed[i];
+                reversed[i] = !reversed[j];
+                reversed[j] = !direction;
+            }
+        }
+        
+        /**
+         * Returns the position the tour enters the chain at a position at.
+         *
+         * @param position The position in the tour.
+         * @return The position the chain is entered at.
+         */
+        private double[] entry(int position)
+        {
+            Chain chain = chains.get(order[position]);
+            return reversed[position] ? chain.end : chain.start;
+        }
+        
+        /**
+         * Returns the position the tour leaves the chain at a position at.
+         *
+         * @param position The position in the tour.
+         * @return The position the chain is left at.
+         */
+        private double[] exit(int position)
+        {
+            Chain chain = chains.get(order[position]);
+            return reversed[position] ? chain.start : chain.end;
+        }
+    
+    }
+    
+}
@@ -0,0 +1,50 @@
+#!/usr/bin/env python
+"""\
+
+    This script is started by the serial transport on Windows to relay
+    the Arduino's serial port over its standard input and output.
+    The bytes read from the port are written to the standard output, and
+    the bytes read from the standard input are written to the port.
+
+    pySerial opens the port for overlapped I/O on Windows, so the port
+    is written while a read is pending. The script exits when the port
+    can no longer be read, as when the Arduino is unplugged.
+
+"""
+
+import serial
+import sys
+import threading
+
+
+class Relay(object):
+
+    def __init__(self, port, baudRate):
+        self.s = serial.Serial(port, baudRate)
+
+        # relay the standard input to the port in the background, it stops with the script
+        writer = threading.Thread(target=self.relayInput)
+        writer.daemon = True
+        writer.start()
+
+        self.relayOutput()
+
+    def relayInput(self):
+        # write what is received from the application to grbl, until the application closes the standard input
+        stdin = sys.stdin.buffer
+        while True:
+            data = stdin.read1(256)
+            if not data:
+                break
+            self.s.write(data)
+
+    def relayOutput(self):
+        # write what is received from grbl to the application as soon as it arrives
+        stdout = sys.stdout.buffer
+        while True:
+            data = self.s.read(max(1, self.s.in_waiting))
+            stdout.write(data)
+            stdout.flush()
+
+
+relay = Relay(sys.argv[1], int(sys.argv[2]))
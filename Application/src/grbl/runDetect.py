@@ -1,3 +0,0 @@
-import detect
-
-detect.Detect().getNumber()
\ No newline at end of file
@@ -0,0 +1,1061 @@
+/*
+ * File:    GrblSimulator.java
+ * Package: grbl.simulator
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.simulator;
+
+import grbl.transport.GrblTransport;
+import grbl.transport.SerialGrblTransport;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * An in-process grbl that speaks grbl 1.1's serial protocol, for streaming without an Arduino.<br/>
+ * Lines are received into a serial receive buffer, parsed and queued in a planner buffer, and acknowledged with "ok" or "error:N".
+ * Moves take the time given by the motion model, and the serial line takes the time given by the baud rate, on a virtual clock that can run faster than real time.
+ * Realtime status queries, feed holds, cycle starts and soft resets are handled as soon as they are received.
+ */
+public class GrblSimulator implements GrblTransport
+{
+    
+    //Constants
+    
+    /**
+     * The size of grbl's serial receive buffer.
+     */
+    public static final int RX_BUFFER_SIZE = 128;
+    
+    /**
+     * The number of blocks grbl's planner buffer can hold.
+     */
+    public static final int PLANNER_BUFFER_SIZE = 15;
+    
+    /**
+     * The maximum number of characters grbl accepts in a line.
+     */
+    public static final int LINE_BUFFER_SIZE = 80;
+    
+    /**
+     * The startup banner grbl sends when it is reset.
+     */
+    public static final String BANNER = "Grbl 1.1f ['$' for help]";
+    
+    /**
+     * The error for a word without a letter.
+     */
+    public static final int ERROR_EXPECTED_COMMAND_LETTER = 1;
+    
+    /**
+     * The error for a word without a valid number.
+     */
+    public static final int ERROR_BAD_NUMBER_FORMAT = 2;
+    
+    /**
+     * The error for a line that is too long.
+     */
+    public static final int ERROR_LINE_OVERFLOW = 11;
+    
+    /**
+     * The error for an unsupported command or word.
+     */
+    public static final int ERROR_UNSUPPORTED_COMMAND = 20;
+    
+    /**
+     * The error for a feed move without a feed rate.
+     */
+    public static final int ERROR_UNDEFINED_FEED_RATE = 22;
+    
+    /**
+     * The error for an arc without offsets or a radius.
+     */
+    public static final int ERROR_NO_OFFSETS_IN_PLANE = 26;
+    
+    /**
+     * The error for an arc whose target cannot be reached.
+     */
+    public static final int ERROR_INVALID_TARGET = 33;
+    
+    /**
+     * The number of millimeters in an inch.
+     */
+    private static final double MM_PER_INCH = 25.4;
+    
+    /**
+     * The number of nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    
+    /**
+     * The value returned when there is no upcoming event.
+     */
+    private static final long NO_EVENT = Long.MAX_VALUE;
+    
+    
+    //Fields
+    
+    /**
+     * The acceleration and maximum rate limits of the simulated machine.
+     */
+    private final MotionModel model;
+    
+    /**
+     * The clock the simulation runs on.
+     */
+    private final VirtualClock clock;
+    
+    /**
+     * The time it takes to send a byte over the serial line, in nanoseconds.
+     */
+    private final long byteTime;
+    
+    /**
+     * The serial receive buffer.
+     */
+    private final byte[] rx = new byte[RX_BUFFER_SIZE];
+    
+    /**
+     * The index of the oldest byte in the receive buffer.
+     */
+    private int rxHead = 0;
+    
+    /**
+     * The number of bytes in the receive buffer.
+     */
+    private int rxCount = 0;
+    
+    /**
+     * The ring of times the complete lines in the receive buffer finished arriving, oldest first.
+     */
+    private final long[] lineArrival = new long[RX_BUFFER_SIZE];
+    
+    /**
+     * The index of the oldest complete line in the receive buffer.
+     */
+    private int lineHead = 0;
+    
+    /**
+     * The number of complete lines in the receive buffer.
+     */
+    private int lineCount = 0;
+    
+    /**
+     * The time the serial line finishes delivering the bytes written so far.
+     */
+    private long serialBusyUntil = 0;
+    
+    /**
+     * The buffer for the line being parsed.
+     */
+    private final byte[] lineBuffer = new byte[LINE_BUFFER_SIZE];
+    
+    /**
+     * The start position of each block in the planner buffer, three coordinates per block.
+     */
+    private final double[] blockStart = new double[PLANNER_BUFFER_SIZE * 3];
+    
+    /**
+     * The end position of each block in the planner buffer, three coordinates per block.
+     */
+    private final double[] blockEnd = new double[PLANNER_BUFFER_SIZE * 3];
+    
+    /**
+     * The time each block in the planner buffer starts executing.
+     */
+    private final long[] blockStartTime = new long[PLANNER_BUFFER_SIZE];
+    
+    /**
+     * The time each block in the planner buffer finishes executing.
+     */
+    private final long[] blockEndTime = new long[PLANNER_BUFFER_SIZE];
+    
+    /**
+     * The feed rate of each block in the planner buffer, in mm/min.
+     */
+    private final double[] blockFeedRate = new double[PLANNER_BUFFER_SIZE];
+    
+    /**
+     * The index of the executing block in the planner buffer.
+     */
+    private int plannerHead = 0;
+    
+    /**
+     * The number of blocks in the planner buffer.
+     */
+    private int plannerCount = 0;
+    
+    /**
+     * The time the last planned block finishes executing.
+     */
+    private long motionEndTime = 0;
+    
+    /**
+     * The programmed position, at the end of the last planned block.
+     */
+    private final double[] position = new double[3];
+    
+    /**
+     * The direction of the last planned move.
+     */
+    private final double[] previousUnit = new double[3];
+    
+    /**
+     * The speed at the end of the last planned move, in mm/sec.
+     */
+    private double previousExitSpeed = 0;
+    
+    /**
+     * The active motion mode; 0, 1, 2 or 3.
+     */
+    private int motionMode = 0;
+    
+    /**
+     * A flag indicating whether coordinates are absolute or incremental.
+     */
+    private boolean absolute = true;
+    
+    /**
+     * A flag indicating whether units are inches or millimeters.
+     */
+    private boolean inches = false;
+    
+    /**
+     * The active feed rate, in mm/min.
+     */
+    private double feedRate = 0;
+    
+    /**
+     * A flag indicating whether the machine is in a feed hold or not.
+     */
+    private boolean hold = false;
+    
+    /**
+     * The time the feed hold started.
+     */
+    private long holdTime = 0;
+    
+    /**
+     * The responses waiting to be read.
+     */
+    private final Deque<String> responses = new ArrayDeque<>();
+    
+    /**
+     * The number of lines that have been processed.
+     */
+    private long linesProcessed = 0;
+    
+    /**
+     * The number of lines that were responded to with an error.
+     */
+    private long errorCount = 0;
+    
+    /**
+     * The number of bytes dropped because the receive buffer was full.
+     */
+    private long overflowCount = 0;
+    
+    /**
+     * A flag indicating whether the connection is open or not.
+     */
+    private volatile boolean open = false;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a GrblSimulator.
+     *
+     * @param model    The acceleration and maximum rate limits of the simulated machine.
+     * @param clock    The clock the simulation runs on.
+     * @param baudRate The baud rate of the simulated serial line, or 0 to deliver bytes instantly.
+     */
+    public GrblSimulator(MotionModel model, VirtualClock clock, int baudRate)
+    {
+        this.model = model;
+        this.clock = clock;
+        this.byteTime = (baudRate > 0) ? (long) (NANOS_PER_SECOND * 10 / baudRate) : 0;
+    }
+    
+    /**
+     * The default no-argument constructor for a GrblSimulator.<br/>
+     * The simulator uses grbl's default settings and the baud rate of the Arduino, and runs as fast as possible.
+     */
+    public GrblSimulator()
+    {
+        this(new MotionModel(), new VirtualClock(), SerialGrblTransport.BAUD_RATE);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Opens the connection, which boots the simulated grbl.
+     */
+    @Override
+    public synchronized void open()
+    {
+        if (open) {
+            return;
+        }
+        open = true;
+        responses.add(BANNER);
+        notifyAll();
+    }
+    
+    /**
+     * Receives bytes over the simulated serial line.<br/>
+     * Realtime commands are handled immediately, and other bytes are added to the receive buffer.
+     *
+     * @param data   The buffer holding the bytes to write.
+     * @param offset The offset of the first byte to write.
+     * @param length The number of bytes to write.
+     */
+    @Override
+    public synchronized void write(byte[] data, int offset, int length)
+    {
+        if (!open) {
+            return;
+        }
+        
+        long now = clock.now();
+        serialBusyUntil = Math.max(serialBusyUntil, now);
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            serialBusyUntil += byteTime;
+            
+            if (isRealtime(b)) {
+                handleRealtime(b);
+            } else if (b != '\r') {
+                if (rxCount == RX_BUFFER_SIZE) {
+                    overflowCount++;
+                    continue;
+                }
+                rx[(rxHead + rxCount++) % RX_BUFFER_SIZE] = b;
+                if (b == '\n') {
+                    lineArrival[(lineHead + lineCount++) % RX_BUFFER_SIZE] = serialBusyUntil;
+                }
+            }
+        }
+        
+        update();
+        notifyAll();
+    }
+    
+    /**
+     * Receives a realtime command, which is handled immediately.
+     *
+     * @param command The realtime command.
+     */
+    @Override
+    public synchronized void writeRealtime(byte command)
+    {
+        if (!open) {
+            return;
+        }
+        handleRealtime(command);
+        notifyAll();
+    }
+    
+    /**
+     * Reads the next response, running the simulation until one is available.
+     *
+     * @return The response, or null if the connection was closed.
+     */
+    @Override
+    public synchronized String readLine()
+    {
+        while (responses.isEmpty()) {
+            if (!open) {
+                return null;
+            }
+            
+            update();
+            if (!responses.isEmpty()) {
+                break;
+            }
+            
+            long next = nextEvent();
+            try {
+                if (next == NO_EVENT) {
+                    wait();
+                } else if (clock.isAccelerated()) {
+                    clock.advanceTo(next);
+                } else {
+                    wait(clock.realMillisUntil(next));
+                }
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return responses.poll();
+    }
+    
+    /**
+     * Closes the connection.
+     */
+    @Override
+    public synchronized void close()
+    {
+        open = false;
+        notifyAll();
+    }
+    
+    /**
+     * Finishes the blocks that have completed and processes the lines that have arrived, while there is room in the planner buffer.
+     */
+    private void update()
+    {
+        long now = clock.now();
+        if (!hold) {
+            while (plannerCount > 0 && blockEndTime[plannerHead] <= now) {
+                plannerHead = (plannerHead + 1) % PLANNER_BUFFER_SIZE;
+                plannerCount--;
+            }
+        }
+        
+        while (lineCount > 0 && plannerCount < PLANNER_BUFFER_SIZE && lineArrival[lineHead] <= now) {
+            processLine(now);
+        }
+    }
+    
+    /**
+     * Returns the time of the next event that lets the simulation make progress.
+     *
+     * @return The time of the next event, or NO_EVENT if the simulation is waiting on the host.
+     */
+    private long nextEvent()
+    {
+        if (lineCount == 0) {
+            return NO_EVENT;
+        }
+        if (plannerCount < PLANNER_BUFFER_SIZE) {
+            return lineArrival[lineHead];
+        }
+        return hold ? NO_EVENT : blockEndTime[plannerHead];
+    }
+    
+    /**
+     * Takes the oldest line out of the receive buffer, executes it and queues its response.
+     *
+     * @param now The current simulated time.
+     */
+    private void processLine(long now)
+    {
+        int length = 0;
+        int total = 0;
+        while (true) {
+            byte b = rx[rxHead];
+            rxHead = (rxHead + 1) % RX_BUFFER_SIZE;
+            rxCount--;
+            if (b == '\n') {
+                break;
+            }
+            if (length < LINE_BUFFER_SIZE) {
+                lineBuffer[length++] = b;
+            }
+            total++;
+        }
+        lineHead = (lineHead + 1) % RX_BUFFER_SIZE;
+        lineCount--;
+        linesProcessed++;
+        
+        int status = (total > LINE_BUFFER_SIZE) ? ERROR_LINE_OVERFLOW : executeLine(lineBuffer, length, now);
+        if (status == 0) {
+            responses.add("ok");
+        } else {
+            errorCount++;
+            responses.add("error:" + status);
+        }
+    }
+    
+    /**
+     * Parses and executes a line of gcode.
+     *
+     * @param line   The buffer holding the line.
+     * @param length The length of the line.
+     * @param now    The current simulated time.
+     * @return 0 if the line was executed, otherwise the grbl error code.
+     */
+    private int executeLine(byte[] line, int length, long now)
+    {
+        if (length > 0 && line[0] == '$') {
+            return executeSystemCommand(line, length);
+        }
+        
+        int motion = motionMode;
+        boolean isAbsolute = absolute;
+        boolean isInches = inches;
+        boolean dwell = false;
+        double feed = Double.NaN;
+        double[] target = new double[3];
+        boolean[] axis = new boolean[3];
+        boolean hasAxis = false;
+        double i = 0;
+        double j = 0;
+        double r = Double.NaN;
+        boolean hasOffset = false;
+        double p = 0;
+        
+        int index = 0;
+        while (index < length) {
+            char letter = Character.toUpperCase((char) line[index]);
+            if (letter == ' ' || letter == '\t' || letter == '%') {
+                index++;
+                continue;
+            }
+            if (letter == '(') {
+                while (index < length && line[index] != ')') {
+                    index++;
+                }
+                index++;
+                continue;
+            }
+            if (letter == ';') {
+                break;
+            }
+            if (letter < 'A' || letter > 'Z') {
+                return ERROR_EXPECTED_COMMAND_LETTER;
+            }
+            
+            //parse the number following the letter
+            index++;
+            int start = index;
+            if (index < length && (line[index] == '-' || line[index] == '+')) {
+                index++;
+            }
+            boolean digits = false;
+            while (index < length && ((line[index] >= '0' && line[index] <= '9') || line[index] == '.')) {
+                digits |= line[index] != '.';
+                index++;
+            }
+            if (!digits) {
+                return ERROR_BAD_NUMBER_FORMAT;
+            }
+            double value = parseNumber(line, start, index);
+            
+            switch (letter) {
+                case 'G':
+                    int code = (int) Math.round(value * 10);
+                    switch (code) {
+                        case 0:
+                        case 10:
+                        case 20:
+                        case 30:
+                            motion = code / 10;
+                            break;
+                        case 40:
+                            dwell = true;
+                            break;
+                        case 200:
+                            isInches = true;
+                            break;
+                        case 210:
+                            isInches = false;
+                            break;
+                        case 900:
+                            isAbsolute = true;
+                            break;
+                        case 910:
+                            isAbsolute = false;
+                            break;
+                        case 100:
+                        case 170:
+                        case 180:
+                        case 190:
+                        case 280:
+                        case 300:
+                        case 382:
+                        case 400:
+                        case 431:
+                        case 490:
+                        case 530:
+                        case 540:
+                        case 550:
+                        case 560:
+                        case 570:
+                        case 580:
+                        case 590:
+                        case 610:
+                        case 800:
+                        case 920:
+                        case 930:
+                        case 940:
+                            break;
+                        default:
+                            return ERROR_UNSUPPORTED_COMMAND;
+                    }
+                    break;
+                case 'M':
+                    switch ((int) value) {
+                        case 0:
+                        case 1:
+                        case 2:
+                        case 3:
+                        case 4:
+                        case 5:
+                        case 7:
+                        case 8:
+                        case 9:
+                        case 30:
+                            break;
+                        default:
+                            return ERROR_UNSUPPORTED_COMMAND;
+                    }
+                    break;
+                case 'X':
+                case 'Y':
+                case 'Z':
+                    target[letter - 'X'] = value;
+                    axis[letter - 'X'] = true;
+                    hasAxis = true;
+                    break;
+                case 'F':
+                    feed = value;
+                    break;
+                case 'I':
+                    i = value;
+                    hasOffset = true;
+                    break;
+                case 'J':
+                    j = value;
+                    hasOffset = true;
+                    break;
+                case 'R':
+                    r = value;
+                    break;
+                case 'P':
+                    p = value;
+                    break;
+                case 'K':
+                case 'L':
+                case 'N':
+                case 'S':
+                case 'T':
+                    break;
+                default:
+                    return ERROR_UNSUPPORTED_COMMAND;
+            }
+        }
+        
+        //modal state changes take effect for the whole line
+        double scale = isInches ? MM_PER_INCH : 1.0;
+        double newFeedRate = Double.isNaN(feed) ? feedRate : feed * scale;
+        if (hasAxis && motion != 0 && newFeedRate <= 0) {
+            return ERROR_UNDEFINED_FEED_RATE;
+        }
+        if (hasAxis && (motion == 2 || motion == 3) && !hasOffset && Double.isNaN(r)) {
+            return ERROR_NO_OFFSETS_IN_PLANE;
+        }
+        
+        for (int a = 0; a < 3; a++) {
+            if (axis[a]) {
+                target[a] = isAbsolute ? target[a] * scale : position[a] + target[a] * scale;
+            } else {
+                target[a] = position[a];
+            }
+        }
+        
+        double distance;
+        if (hasAxis && (motion == 2 || motion == 3)) {
+            distance = arcLength(target, i * scale, j * scale, r * scale, motion == 2);
+            if (Double.isNaN(distance)) {
+                return ERROR_INVALID_TARGET;
+            }
+        } else {
+            distance = Math.sqrt(square(target[0] - position[0]) + square(target[1] - position[1]) + square(target[2] - position[2]));
+        }
+        
+        motionMode = motion;
+        absolute = isAbsolute;
+        inches = isInches;
+        feedRate = newFeedRate;
+        
+        if (dwell) {
+            planBlock(target, (long) (p * NANOS_PER_SECOND), 0, now);
+            previousExitSpeed = 0;
+        } else if (hasAxis && distance > 0) {
+            planMove(target, distance, motion == 0 ? -1 : feedRate, now);
+        }
+        return 0;
+    }
+    
+    /**
+     * Executes a grbl system command, ie: $$ or $X.
+     *
+     * @param line   The buffer holding the line.
+     * @param length The length of the line.
+     * @return 0 if the command was executed, otherwise the grbl error code.
+     */
+    private int executeSystemCommand(byte[] line, int length)
+    {
+        if (length == 2 && line[1] == '$') {
+            for (int a = 0; a < 3; a++) {
+                responses.add("$" + (110 + a) + "=" + model.getMaxRate(a));
+            }
+            for (int a = 0; a < 3; a++) {
+                responses.add("$" + (120 + a) + "=" + model.getAcceleration(a));
+            }
+            responses.add("$11=" + model.getJunctionDeviation());
+        }
+        return 0;
+    }
+    
+    /**
+     * Plans a move from the programmed position to a target in the planner buffer.
+     *
+     * @param target   The target position, in mm.
+     * @param distance The length of the move, in mm.
+     * @param feed     The feed rate in mm/min, or a non-positive value for a rapid move.
+     * @param now      The current simulated time.
+     */
+    private void planMove(double[] target, double distance, double feed, long now)
+    {
+        double[] unit = new double[3];
+        for (int a = 0; a < 3; a++) {
+            unit[a] = (target[a] - position[a]) / distance;
+        }
+        
+        double nominalSpeed = model.nominalSpeed(unit, feed);
+        double acceleration = model.acceleration(unit);
+        
+        double entrySpeed = 0;
+        if (motionEndTime > now || hold) {
+            //the machine is still moving, so the move can join the previous one
+            entrySpeed = Math.min(Math.min(previousExitSpeed, nominalSpeed), model.junctionSpeed(previousUnit, unit, acceleration));
+        }
+        
+        double[] move = MotionModel.moveTime(distance, entrySpeed, nominalSpeed, acceleration);
+        previousExitSpeed = move[1];
+        System.arraycopy(unit, 0, previousUnit, 0, 3);
+        
+        planBlock(target, (long) (move[0] * NANOS_PER_SECOND), nominalSpeed * 60, now);
+    }
+    
+    /**
+     * Adds a block to the planner buffer, after the blocks already in it.
+     *
+     * @param target   The position at the end of the block, in mm.
+     * @param duration The time the block takes to execute, in nanoseconds.
+     * @param feed     The feed rate of the block, in mm/min.
+     * @param now      The current simulated time.
+     */
+    private void planBlock(double[] target, long duration, double feed, long now)
+    {
+        int index = (plannerHead + plannerCount++) % PLANNER_BUFFER_SIZE;
+        long start = Math.max(now, motionEndTime);
+        
+        System.arraycopy(position, 0, blockStart, index * 3, 3);
+        System.arraycopy(target, 0, blockEnd, index * 3, 3);
+        blockStartTime[index] = start;
+        blockEndTime[index] = start + duration;
+        blockFeedRate[index] = feed;
+        
+        motionEndTime = start + duration;
+        System.arraycopy(target, 0, position, 0, 3);
+    }
+    
+    /**
+     * Returns the length of an arc in the xy plane from the programmed position.
+     *
+     * @param target    The end of the arc, in mm.
+     * @param i         The x offset of the center of the arc, in mm.
+     * @param j         The y offset of the center of the arc, in mm.
+     * @param r         The radius of the arc in mm, or NaN if the center offsets are used.
+     * @param clockwise Whether the arc is clockwise or not.
+     * @return The length of the arc in mm, or NaN if the target cannot be reached.
+     */
+    private double arcLength(double[] target, double i, double j, double r, boolean clockwise)
+    {
+        double x = target[0] - position[0];
+        double y = target[1] - position[1];
+        
+        if (!Double.isNaN(r)) {
+            //find the center of the arc from its radius, as grbl does
+            double determinant = 4.0 * r * r - x * x - y * y;
+            if (determinant < 0) {
+                return Double.NaN;
+            }
+            double h = -Math.sqrt(determinant) / Math.sqrt(x * x + y * y);
+            if (!clockwise) {
+                h = -h;
+            }
+            if (r < 0) {
+                h = -h;
+            }
+            i = 0.5 * (x - y * h);
+            j = 0.5 * (y + x * h);
+        }
+        
+        double radius = Math.sqrt(i * i + j * j);
+        double startAngle = Math.atan2(-j, -i);
+        double endAngle = Math.atan2(y - j, x - i);
+        double sweep = endAngle - startAngle;
+        if (clockwise && sweep >= 0) {
+            sweep -= 2 * Math.PI;
+        } else if (!clockwise && sweep <= 0) {
+            sweep += 2 * Math.PI;
+        }
+        
+        return Math.sqrt(square(radius * sweep) + square(target[2] - position[2]));
+    }
+    
+    /**
+     * Handles a realtime command.
+     *
+     * @param command The realtime command.
+     */
+    private void handleRealtime(byte command)
+    {
+        switch (command) {
+            case '?':
+                update();
+                responses.add(statusReport());
+                break;
+            case '!':
+                if (!hold) {
+                    update();
+                    hold = true;
+                    holdTime = clock.now();
+                }
+                break;
+            case '~':
+                if (hold) {
+                    resume();
+                }
+                break;
+            case 0x18:
+                reset();
+                break;
+        }
+    }
+    
+    /**
+     * Resumes from a feed hold, delaying the planned blocks by the time spent holding.
+     */
+    private void resume()
+    {
+        long delay = Math.max(0, clock.now() - holdTime);
+        for (int n = 0; n < plannerCount; n++) {
+            int index = (plannerHead + n) % PLANNER_BUFFER_SIZE;
+            blockStartTime[index] = Math.max(blockStartTime[index], holdTime) + delay;
+            blockEndTime[index] += delay;
+        }
+        if (plannerCount > 0) {
+            motionEndTime += delay;
+        }
+        hold = false;
+    }
+    
+    /**
+     * Resets the simulated grbl, stopping motion and discarding its buffers.
+     */
+    private void reset()
+    {
+        currentPosition(hold ? holdTime : clock.now(), position);
+        
+        rxHead = 0;
+        rxCount = 0;
+        lineHead = 0;
+        lineCount = 0;
+        plannerHead = 0;
+        plannerCount = 0;
+        motionEndTime = 0;
+        previousExitSpeed = 0;
+        motionMode = 0;
+        absolute = true;
+        inches = false;
+        feedRate = 0;
+        hold = false;
+        
+        responses.add(BANNER);
+    }
+    
+    /**
+     * Returns a grbl 1.1 status report of the simulated machine.
+     *
+     * @return The status report.
+     */
+    private String statusReport()
+    {
+        long now = hold ? holdTime : clock.now();
+        double[] machinePosition = new double[3];
+        currentPosition(now, machinePosition);
+        
+        String state;
+        if (hold) {
+            state = "Hold:0";
+        } else if (plannerCount > 0) {
+            state = "Run";
+        } else {
+            state = "Idle";
+        }
+        double feed = (plannerCount > 0 && !hold && blockStartTime[plannerHead] <= now) ? blockFeedRate[plannerHead] : 0;
+        
+        return String.format("<%s|MPos:%.3f,%.3f,%.3f|Bf:%d,%d|FS:%.0f,0>", state,
+                machinePosition[0], machinePosition[1], machinePosition[2],
+                PLANNER_BUFFER_SIZE - plannerCount, RX_BUFFER_SIZE - rxCount, feed);
+    }
+    
+    /**
+     * Calculates the position of the machine at a time.
+     *
+     * @param time   The simulated time.
+     * @param result The array to store the position in.
+     */
+    private void currentPosition(long time, double[] result)
+    {
+        if (plannerCount == 0) {
+            System.arraycopy(position, 0, result, 0, 3);
+            return;
+        }
+        
+        int index = plannerHead;
+        long start = blockStartTime[index];
+        long end = blockEndTime[index];
+        double fraction = (time <= start) ? 0 : (time >= end) ? 1 : (double) (time - start) / (end - start);
+        for (int a = 0; a < 3; a++) {
+            double from = blockStart[index * 3 + a];
+            result[a] = from + (blockEnd[index * 3 + a] - from) * fraction;
+        }
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns whether the connection is open or not.
+     *
+     * @return Whether the connection is open or not.
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+    
+    /**
+     * Returns the clock the simulation runs on.
+     *
+     * @return The clock the simulation runs on.
+     */
+    public VirtualClock getClock()
+    {
+        return clock;
+    }
+    
+    /**
+     * Returns the number of lines that have been processed.
+     *
+     * @return The number of lines that have been processed.
+     */
+    public synchronized long getLinesProcessed()
+    {
+        return linesProcessed;
+    }
+    
+    /**
+     * Returns the number of lines that were responded to with an error.
+     *
+     * @return The number of lines that were responded to with an error.
+     */
+    public synchronized long getErrorCount()
+    {
+        return errorCount;
+    }
+    
+    /**
+     * Returns the number of bytes dropped because the receive buffer was full.<br/>
+     * A host that counts characters correctly never overflows the receive buffer.
+     *
+     * @return The number of bytes dropped because the receive buffer was full.
+     */
+    public synchronized long getOverflowCount()
+    {
+        return overflowCount;
+    }
+    
+    /**
+     * Returns the simulated time the last planned move finishes, which is the length of the job once every line has been acknowledged.
+     *
+     * @return The simulated time the last planned move finishes, in seconds.
+     */
+    public synchronized double getMotionEndTime()
+    {
+        return motionEndTime / NANOS_PER_SECOND;
+    }
+    
+    /**
+     * Returns the programmed position of an axis, at the end of the last planned move.
+     *
+     * @param axis The index of the axis; 0 for x, 1 for y and 2 for z.
+     * @return The programmed position, in mm.
+     */
+    public synchronized double getPosition(int axis)
+    {
+        return position[axis];
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Determines if a byte is one of grbl's realtime commands.
+     *
+     * @param b The byte.
+     * @return Whether the byte is a realtime command or not.
+     */
+    private static boolean isRealtime(byte b)
+    {
+        return b == '?' || b == '!' || b == '~' || b == 0x18;
+    }
+    
+    /**
+     * Parses a decimal number from ascii bytes without creating a String.
+     *
+     * @param buffer The buffer holding the number.
+     * @param start  The index of the first character of the number.
+     * @param end    The index after the last character of the number.
+     * @return The number.
+     */
+    private static double parseNumber(byte[] buffer, int start, int end)
+    {
+        boolean negative = false;
+        if (buffer[start] == '-' || buffer[start] == '+') {
+            negative = buffer[start] == '-';
+            start++;
+        }
+        
+        long mantissa = 0;
+        int decimals = -1;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '.') {
+                decimals = 0;
+            } else {
+                mantissa = mantissa * 10 + (buffer[i] - '0');
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            }
+        }
+        
+        double value = mantissa;
+        for (int i = 0; i < decimals; i++) {
+            value /= 10;
+        }
+        return negative ? -value : value;
+    }
+    
+    /**
+     * Returns the square of a number.
+     *
+     * @param value The number.
+     * @return The square of the number.
+     */
+    private static double square(double value)
+    {
+        return value * value;
+    }
+    
+}
@@ -0,0 +1,232 @@
+/*
+ * File:    MotionModel.java
+ * Package: grbl.simulator
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.simulator;
+
+/**
+ * The acceleration and maximum rate limits of the machine, matching grbl's $110-$112, $120-$122 and $11 settings.
+ */
+public class MotionModel
+{
+    
+    //Constants
+    
+    /**
+     * The default maximum rate of each axis, in mm/min.
+     */
+    public static final double DEFAULT_MAX_RATE = 500.0;
+    
+    /**
+     * The default acceleration of each axis, in mm/sec^2.
+     */
+    public static final double DEFAULT_ACCELERATION = 10.0;
+    
+    /**
+     * The default junction deviation, in mm.
+     */
+    public static final double DEFAULT_JUNCTION_DEVIATION = 0.01;
+    
+    
+    //Fields
+    
+    /**
+     * The maximum rate of the x, y and z axes, in mm/min.
+     */
+    private final double[] maxRate;
+    
+    /**
+     * The acceleration of the x, y and z axes, in mm/sec^2.
+     */
+    private final double[] acceleration;
+    
+    /**
+     * The junction deviation, in mm.
+     */
+    private final double junctionDeviation;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a MotionModel.
+     *
+     * @param maxRate           The maximum rate of the x, y and z axes, in mm/min.
+     * @param acceleration      The acceleration of the x, y and z axes, in mm/sec^2.
+     * @param junctionDeviation The junction deviation, in mm.
+     */
+    public MotionModel(double[] maxRate, double[] acceleration, double junctionDeviation)
+    {
+        this.maxRate = maxRate.clone();
+        this.acceleration = acceleration.clone();
+        this.junctionDeviation = junctionDeviation;
+    }
+    
+    /**
+     * The default no-argument constructor for a MotionModel, using grbl's default settings.
+     */
+    public MotionModel()
+    {
+        this(new double[] {DEFAULT_MAX_RATE, DEFAULT_MAX_RATE, DEFAULT_MAX_RATE},
+                new double[] {DEFAULT_ACCELERATION, DEFAULT_ACCELERATION, DEFAULT_ACCELERATION},
+                DEFAULT_JUNCTION_DEVIATION);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Returns the fastest speed allowed along a direction.
+     *
+     * @param unit     The unit vector of the direction.
+     * @param feedRate The requested feed rate in mm/min, or a non-positive value for a rapid move.
+     * @return The speed, in mm/sec.
+     */
+    public double nominalSpeed(double[] unit, double feedRate)
+    {
+        double rate = (feedRate > 0) ? feedRate : Double.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            if (unit[i] != 0) {
+                rate = Math.min(rate, maxRate[i] / Math.abs(unit[i]));
+            }
+        }
+        return rate / 60.0;
+    }
+    
+    /**
+     * Returns the fastest acceleration allowed along a direction.
+     *
+     * @param unit The unit vector of the direction.
+     * @return The acceleration, in mm/sec^2.
+     */
+    public double acceleration(double[] unit)
+    {
+        double limit = Double.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            if (unit[i] != 0) {
+                limit = Math.min(limit, acceleration[i] / Math.abs(unit[i]));
+            }
+        }
+        return limit;
+    }
+    
+    /**
+     * Returns the fastest speed allowed through the junction between two moves, using grbl's junction deviation.
+     *
+     * @param previous     The unit vector of the previous move.
+     * @param unit         The unit vector of the next move.
+     * @param acceleration The acceleration of the next move, in mm/sec^2.
+     * @return The speed, in mm/sec.
+     */
+    public double junctionSpeed(double[] previous, double[] unit, double acceleration)
+    {
+        double cosTheta = -(previous[0] * unit[0] + previous[1] * unit[1] + previous[2] * unit[2]);
+        if (cosTheta > 0.999999) {
+            //the move reverses direction
+            return 0;
+        }
+        if (cosTheta < -0.999999) {
+            //the move continues in a straight line
+            return Double.MAX_VALUE;
+        }
+        
+        double sinThetaD2 = Math.sqrt(0.5 * (1.0 - cosTheta));
+        return Math.sqrt(acceleration * junctionDeviation * sinThetaD2 / (1.0 - sinThetaD2));
+    }
+    
+    /**
+     * Returns the time of a trapezoidal move that accelerates from its entry speed towards its nominal speed.
+     *
+     * @param distance     The length of the move, in mm.
+     * @param entrySpeed   The speed at the start of the move, in mm/sec.
+     * @param nominalSpeed The fastest speed allowed during the move, in mm/sec.
+     * @param acceleration The acceleration of the move, in mm/sec^2.
+     * @return The time of the move in seconds, followed by the speed at the end of the move in mm/sec.
+     */
+    public static double[] moveTime(double distance, double entrySpeed, double nominalSpeed, double acceleration)
+    {
+        double accelerationDistance = (nominalSpeed * nominalSpeed - entrySpeed * entrySpeed) / (2.0 * acceleration);
+        if (accelerationDistance >= distance) {
+            double exitSpeed = Math.sqrt(entrySpeed * entrySpeed + 2.0 * acceleration * distance);
+            return new double[] {(exitSpeed - entrySpeed) / acceleration, exitSpeed};
+        }
+        return new double[] {(nominalSpeed - entrySpeed) / acceleration + (distance - accelerationDistance) / nominalSpeed, nominalSpeed};
+    }
+    
+    /**
+     * Returns the motion model with a setting reported by grbl in response to $$, ie: $110=500.000.
+     *
+     * @param setting The setting reported by grbl.
+     * @return The motion model with the setting, or this motion model if the message is not a valid motion setting.
+     */
+    public MotionModel withSetting(String setting)
+    {
+        int equals = setting.indexOf('=');
+        if (!setting.startsWith("$") || equals == -1) {
+            return this;
+        }
+        
+        int number;
+        double value;
+        try {
+            number = Integer.parseInt(setting.substring(1, equals).trim());
+            value = Double.parseDouble(setting.substring(equals + 1).trim());
+        } catch (NumberFormatException e) {
+            return this;
+        }
+        if (!(value > 0) || Double.isInfinite(value)) {
+            return this;
+        }
+        
+        if (number >= 110 && number <= 112) {
+            double[] maxRate = this.maxRate.clone();
+            maxRate[number - 110] = value;
+            return new MotionModel(maxRate, acceleration, junctionDeviation);
+        } else if (number >= 120 && number <= 122) {
+            double[] acceleration = this.acceleration.clone();
+            acceleration[number - 120] = value;
+            return new MotionModel(maxRate, acceleration, junctionDeviation);
+        } else if (number == 11) {
+            return new MotionModel(maxRate, acceleration, value);
+        }
+        return this;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the maximum rate of an axis.
+     *
+     * @param axis The index of the axis; 0 for x, 1 for y and 2 for z.
+     * @return The maximum rate, in mm/min.
+     */
+    public double getMaxRate(int axis)
+    {
+        return maxRate[axis];
+    }
+    
+    /**
+     * Returns the acceleration of an axis.
+     *
+     * @param axis The index of the axis; 0 for x, 1 for y and 2 for z.
+     * @return The acceleration, in mm/sec^2.
+     */
+    public double getAcceleration(int axis)
+    {
+        return acceleration[axis];
+    }
+    
+    /**
+     * Returns the junction deviation.
+     *
+     * @return The junction deviation, in mm.
+     */
+    public double getJunctionDeviation()
+    {
+        return junctionDeviation;
+    }
+    
+}
@@ -0,0 +1,130 @@
+/*
+ * File:    VirtualClock.java
+ * Package: grbl.simulator
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.simulator;
+
+/**
+ * The clock used by the grbl simulator.<br/>
+ * The clock either follows the wall clock at a time scale, or runs as fast as possible and only advances when the simulation needs it to.
+ */
+public class VirtualClock
+{
+    
+    //Constants
+    
+    /**
+     * The time scale that makes the clock run as fast as possible.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    
+    
+    //Fields
+    
+    /**
+     * The number of simulated seconds per real second, or 0 to run as fast as possible.
+     */
+    private final double timeScale;
+    
+    /**
+     * The wall clock time the clock was started at, in nanoseconds.
+     */
+    private final long anchor;
+    
+    /**
+     * The current simulated time when running as fast as possible, in nanoseconds.
+     */
+    private long nanos = 0;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a VirtualClock.
+     *
+     * @param timeScale The number of simulated seconds per real second, or 0 to run as fast as possible.
+     */
+    public VirtualClock(double timeScale)
+    {
+        this.timeScale = timeScale;
+        this.anchor = System.nanoTime();
+    }
+    
+    /**
+     * The default no-argument constructor for a VirtualClock, which runs as fast as possible.
+     */
+    public VirtualClock()
+    {
+        this(AS_FAST_AS_POSSIBLE);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Returns the current simulated time.
+     *
+     * @return The current simulated time, in nanoseconds.
+     */
+    public synchronized long now()
+    {
+        if (isAccelerated()) {
+            return nanos;
+        }
+        return (long) ((System.nanoTime() - anchor) * timeScale);
+    }
+    
+    /**
+     * Advances the clock to a simulated time, if the clock runs as fast as possible.<br/>
+     * A clock that follows the wall clock cannot be advanced and must be waited on instead.
+     *
+     * @param time The simulated time, in nanoseconds.
+     */
+    public synchronized void advanceTo(long time)
+    {
+        if (isAccelerated() && time > nanos) {
+            nanos = time;
+        }
+    }
+    
+    /**
+     * Returns the real time until the clock reaches a simulated time.
+     *
+     * @param time The simulated time, in nanoseconds.
+     * @return The real time until then, in milliseconds, or 0 if the clock runs as fast as possible or the time has passed.
+     */
+    public long realMillisUntil(long time)
+    {
+        if (isAccelerated()) {
+            return 0;
+        }
+        long remaining = time - now();
+        return (remaining <= 0) ? 0 : Math.max(1, (long) (remaining / timeScale / 1000000.0));
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns whether the clock runs as fast as possible or not.
+     *
+     * @return Whether the clock runs as fast as possible or not.
+     */
+    public boolean isAccelerated()
+    {
+        return timeScale <= AS_FAST_AS_POSSIBLE;
+    }
+    
+    /**
+     * Returns the number of simulated seconds per real second.
+     *
+     * @return The number of simulated seconds per real second, or 0 if the clock runs as fast as possible.
+     */
+    public double getTimeScale()
+    {
+        return timeScale;
+    }
+    
+}
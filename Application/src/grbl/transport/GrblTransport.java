@@ -0,0 +1,81 @@
+/*
+ * File:    GrblTransport.java
+ * Package: grbl.transport
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The interface that defines the contract for a connection to grbl.<br/>
+ * A transport is opened once and kept open for the whole session, so every command is written through the same connection.
+ */
+public interface GrblTransport extends Closeable
+{
+    
+    //Methods
+    
+    /**
+     * Opens the connection to grbl.
+     *
+     * @throws IOException When the connection could not be opened.
+     */
+    void open() throws IOException;
+    
+    /**
+     * Returns whether the connection to grbl is open or not.
+     *
+     * @return Whether the connection to grbl is open or not.
+     */
+    boolean isOpen();
+    
+    /**
+     * Writes raw bytes to grbl.
+     *
+     * @param data   The buffer holding the bytes to write.
+     * @param offset The offset of the first byte to write.
+     * @param length The number of bytes to write.
+     * @throws IOException When the bytes could not be written.
+     */
+    void write(byte[] data, int offset, int length) throws IOException;
+    
+    /**
+     * Writes a single byte realtime command to grbl immediately.<br/>
+     * Realtime commands do not wait for a line being written, as grbl picks them out of the serial stream wherever they arrive.
+     *
+     * @param command The realtime command.
+     * @throws IOException When the command could not be written.
+     */
+    void writeRealtime(byte command) throws IOException;
+    
+    /**
+     * Reads the next non-empty line sent by grbl, blocking until one is available.
+     *
+     * @return The line without its line terminator, or null if the connection was closed.
+     * @throws IOException When the line could not be read.
+     */
+    String readLine() throws IOException;
+    
+    /**
+     * Closes the connection to grbl.
+     */
+    @Override
+    void close();
+    
+    /**
+     * Writes a gcode line to grbl, terminated by a newline.
+     *
+     * @param line The gcode line to write.
+     * @throws IOException When the line could not be written.
+     */
+    default void writeLine(String line) throws IOException
+    {
+        byte[] data = (line + '\n').getBytes(StandardCharsets.US_ASCII);
+        write(data, 0, data.length);
+    }
+    
+}
@@ -0,0 +1,238 @@
+/*
+ * File:    LoopbackGrblTransport.java
+ * Package: grbl.transport
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An in-memory transport that stands in for grbl.<br/>
+ * Every line written is recorded and acknowledged with an "ok", and every status query is answered with an idle status report.
+ */
+public class LoopbackGrblTransport implements GrblTransport
+{
+    
+    //Constants
+    
+    /**
+     * The status report sent in response to a status query, formatted with the machine state.
+     */
+    public static final String STATUS_REPORT = "<%s,MPos:0.000,0.000,0.000,WPos:0.000,0.000,0.000>";
+    
+    /**
+     * The banner sent when grbl is reset.
+     */
+    public static final String BANNER = "Grbl 0.9j ['$' for help]";
+    
+    /**
+     * The marker placed in the response queue when the transport is closed.
+     */
+    private static final String CLOSED = new String("closed");
+    
+    
+    //Fields
+    
+    /**
+     * The lines that have been written to the transport.
+     */
+    private final List<String> sentLines = Collections.synchronizedList(new ArrayList<>());
+    
+    /**
+     * The queue of responses waiting to be read.
+     */
+    private final BlockingQueue<String> responses = new LinkedBlockingQueue<>();
+    
+    /**
+     * The line currently being written.
+     */
+    private final StringBuilder currentLine = new StringBuilder();
+    
+    /**
+     * A flag indicating whether lines are acknowledged as soon as they are written or not.
+     */
+    private final boolean autoAcknowledge;
+    
+    /**
+     * The machine state reported in status reports.
+     */
+    private String state = "Idle";
+    
+    /**
+     * A flag indicating whether the transport is open or not.
+     */
+    private volatile boolean open = false;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a LoopbackGrblTransport.
+     *
+     * @param autoAcknowledge Whether lines are acknowledged as soon as they are written or not.
+     *                        If not, responses must be queued with respond().
+     */
+    public LoopbackGrblTransport(boolean autoAcknowledge)
+    {
+        this.autoAcknowledge = autoAcknowledge;
+    }
+    
+    /**
+     * The default no-argument constructor for a LoopbackGrblTransport, which acknowledges lines as soon as they are written.
+     */
+    public LoopbackGrblTransport()
+    {
+        this(true);
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Opens the transport.
+     */
+    @Override
+    public void open()
+    {
+        open = true;
+    }
+    
+    /**
+     * Records the bytes written and queues the responses grbl would send.
+     *
+     * @param data   The buffer holding the bytes to write.
+     * @param offset The offset of the first byte to write.
+     * @param length The number of bytes to write.
+     * @throws IOException When the transport is not open.
+     */
+    @Override
+    public synchronized void write(byte[] data, int offset, int length) throws IOException
+    {
+        if (!open) {
+            throw new IOException("The loopback transport is not open!");
+        }
+        
+        for (int i = offset; i < offset + length; i++) {
+            char c = (char) data[i];
+            if (c == '?' || c == '!' || c == '~' || c == 0x18) {
+                writeRealtime(data[i]);
+            } else if (c == '\n') {
+                String line = currentLine.toString().trim();
+                currentLine.setLength(0);
+                if (!line.isEmpty()) {
+                    sentLines.add(line);
+                    if (autoAcknowledge) {
+                        responses.add("ok");
+                    }
+                }
+            } else if (c != '\r') {
+                currentLine.append(c);
+            }
+        }
+    }
+    
+    /**
+     * Handles a realtime command the way grbl would.
+     *
+     * @param command The realtime command.
+     * @throws IOException When the transport is not open.
+     */
+    @Override
+    public synchronized void writeRealtime(byte command) throws IOException
+    {
+        if (!open) {
+            throw new IOException("The loopback transport is not open!");
+        }
+        
+        switch (command) {
+            case '?':
+                responses.add(String.format(STATUS_REPORT, state));
+                break;
+            case '!':
+                state = "Hold";
+                break;
+            case '~':
+                state = "Idle";
+                break;
+            case 0x18:
+                state = "Idle";
+                currentLine.setLength(0);
+                responses.add(BANNER);
+                break;
+        }
+    }
+    
+    /**
+     * Reads the next queued response, blocking until one is available.
+     *
+     * @return The response, or null if the transport was closed.
+     */
+    @Override
+    public String readLine()
+    {
+        if (!open && responses.isEmpty()) {
+            return null;
+        }
+        
+        try {
+            String response = responses.take();
+            return (response == CLOSED) ? null : response;
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Queues a response to be read, as if it was sent by grbl.
+     *
+     * @param response The response.
+     */
+    public void respond(String response)
+    {
+        responses.add(response);
+    }
+    
+    /**
+     * Closes the transport.
+     */
+    @Override
+    public void close()
+    {
+        if (open) {
+            open = false;
+            responses.add(CLOSED);
+        }
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns whether the transport is open or not.
+     *
+     * @return Whether the transport is open or not.
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+    
+    /**
+     * Returns the lines that have been written to the transport.
+     *
+     * @return The lines that have been written to the transport.
+     */
+    public List<String> getSentLines()
+    {
+        return sentLines;
+    }
+    
+}
@@ -0,0 +1,369 @@
+/*
+ * File:    SerialGrblTransport.java
+ * Package: grbl.transport
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.transport;
+
+import utils.Constants;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A long-lived serial connection to the grbl Arduino.<br/>
+ * The port is configured and opened once and stays open for the whole job, instead of being reopened for every line.<br/>
+ * On Windows a serial port can only be opened once, and a synchronous handle does not write while a read is pending, so the port is opened with pySerial by relay.py, which uses overlapped I/O and relays the port over separate pipes for reading and writing.
+ */
+public class SerialGrblTransport implements GrblTransport
+{
+    
+    //Constants
+    
+    /**
+     * The baud rate grbl communicates at.
+     */
+    public static final int BAUD_RATE = 115200;
+    
+    /**
+     * The maximum time to wait for grbl to start up after the port is opened, in milliseconds.
+     */
+    public static final long WAKE_UP_TIMEOUT = 5000;
+    
+    /**
+     * The start of the banner grbl sends when it starts up.
+     */
+    public static final String STARTUP_BANNER = "Grbl";
+    
+    /**
+     * The realtime command that resets grbl.
+     */
+    private static final byte SOFT_RESET = 0x18;
+    
+    /**
+     * The time to wait for grbl to send more bytes while waiting for it to start up, in milliseconds.
+     */
+    private static final long WAKE_UP_POLL_INTERVAL = 10;
+    
+    /**
+     * The script relaying the serial port on Windows.
+     */
+    private static final String WINDOWS_RELAY_SCRIPT = Constants.GRBL_DIRECTORY + "relay.py";
+    
+    /**
+     * The maximum length of a line read from grbl.
+     */
+    private static final int MAX_LINE_LENGTH = 256;
+    
+    
+    //Fields
+    
+    /**
+     * The name of the serial port, ie: COM3 or /dev/ttyACM0.
+     */
+    private final String port;
+    
+    /**
+     * The open serial device, or null on Windows.
+     */
+    private RandomAccessFile device;
+    
+    /**
+     * The relay.py process relaying the serial port on Windows, or null on other systems.
+     */
+    private Process relay;
+    
+    /**
+     * The input stream of the serial device.
+     */
+    private InputStream input;
+    
+    /**
+     * The output stream of the serial device.
+     */
+    private OutputStream output;
+    
+    /**
+     * The buffer for the line currently being read.
+     */
+    private final byte[] lineBuffer = new byte[MAX_LINE_LENGTH];
+    
+    /**
+     * A flag indicating whether the connection is open or not.
+     */
+    private volatile boolean open = false;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a SerialGrblTransport.
+     *
+     * @param port The name of the serial port grbl is connected to.
+     */
+    public SerialGrblTransport(String port)
+    {
+        this.port = port;
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Opens and configures the serial port, then resets grbl and waits for it to start up.
+     *
+     * @throws IOException When the port could not be opened, or grbl did not start up.
+     */
+    @Override
+    public synchronized void open() throws IOException
+    {
+        if (open) {
+            return;
+        }
+        if (port == null || port.isEmpty()) {
+            throw new IOException("No serial port was detected for the Arduino!");
+        }
+        
+        if (isWindows()) {
+            relay = startRelay();
+            input = new BufferedInputStream(relay.getInputStream());
+            output = relay.getOutputStream();
+        } else {
+            //the port is configured while it is open, as macOS restores the settings of a port once it is closed
+            device = new RandomAccessFile(port, "rw");
+            configurePort();
+            input = new BufferedInputStream(new FileInputStream(device.getFD()));
+            output = new FileOutputStream(device.getFD());
+        }
+        open = true;
+        
+        //grbl may not have been reset when the port was opened, and a reset discards anything left in its buffers
+        try {
+            writeRealtime(SOFT_RESET);
+            awaitStartup();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Starts the process relaying the serial port on Windows.
+     *
+     * @return The relay process.
+     * @throws IOException When the process could not be started.
+     */
+    private Process startRelay() throws IOException
+    {
+        return new ProcessBuilder("py", "-u", WINDOWS_RELAY_SCRIPT, port, String.valueOf(BAUD_RATE))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+    
+    /**
+     * Sets the baud rate and line settings of the open serial port.<br/>
+     * The device is named with -f on macOS and with -F on other systems.
+     */
+    private void configurePort()
+    {
+        String deviceFlag = isMac() ? "-f" : "-F";
+        try {
+            Process process = new ProcessBuilder("stty", deviceFlag, port, String.valueOf(BAUD_RATE), "raw", "-echo", "-hupcl").start();
+            if (process.waitFor() != 0) {
+                System.err.println("Could not configure serial port: " + port + "!");
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Could not configure serial port: " + port + "!");
+        }
+    }
+    
+    /**
+     * Waits for the banner grbl sends when it starts up, discarding anything grbl sent before it.<br/>
+     * Bytes are only read once they are available, so the wait ends after WAKE_UP_TIMEOUT even if grbl never responds.
+     *
+     * @throws IOException When grbl did not start up in time, or the port could not be read.
+     */
+    private void awaitStartup() throws IOException
+    {
+        long deadline = System.currentTimeMillis() + WAKE_UP_TIMEOUT;
+        int length = 0;
+        while (System.currentTimeMillis() < deadline) {
+            if (input.available() <= 0) {
+                try {
+                    Thread.sleep(WAKE_UP_POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            
+            int b = input.read();
+            if (b < 0) {
+                break;
+            }
+            if (b == '\n' || b == '\r') {
+                if (new String(lineBuffer, 0, length, StandardCharsets.US_ASCII).startsWith(STARTUP_BANNER)) {
+                    return;
+                }
+                length = 0;
+            } else if (length < MAX_LINE_LENGTH) {
+                lineBuffer[length++] = (byte) b;
+            }
+        }
+        throw new IOException("grbl did not start up on serial port: " + port + "!");
+    }
+    
+    /**
+     * Writes raw bytes to grbl.
+     *
+     * @param data   The buffer holding the bytes to write.
+     * @param offset The offset of the first byte to write.
+     * @param length The number of bytes to write.
+     * @throws IOException When the bytes could not be written.
+     */
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException
+    {
+        if (!open) {
+            throw new IOException("The serial port: " + port + " is not open!");
+        }
+        synchronized (this) {
+            output.write(data, offset, length);
+            output.flush();
+        }
+    }
+    
+    /**
+     * Writes a single byte realtime command to grbl immediately, without waiting for a line being written.
+     *
+     * @param command The realtime command.
+     * @throws IOException When the command could not be written.
+     */
+    @Override
+    public void writeRealtime(byte command) throws IOException
+    {
+        OutputStream out = output;
+        if (!open || out == null) {
+            throw new IOException("The serial port: " + port + " is not open!");
+        }
+        out.write(command);
+        out.flush();
+    }
+    
+    /**
+     * Reads the next non-empty line sent by grbl, blocking until one is available.<br/>
+     * The port is configured to block until data arrives, so the end of the stream means the device was removed, and the connection is closed.
+     *
+     * @return The line without its line terminator, or null if the connection was closed.
+     * @throws IOException When the line could not be read, or the device was removed.
+     */
+    @Override
+    public String readLine() throws IOException
+    {
+        InputStream in = input;
+        int length = 0;
+        while (open) {
+            int b;
+            try {
+                b = in.read();
+            } catch (IOException e) {
+                if (!open) {
+                    return null;
+                }
+                throw e;
+            }
+            if (b < 0) {
+                if (!open) {
+                    return null;
+                }
+                close();
+                throw new IOException("The serial port: " + port + " was closed by the device!");
+            }
+            
+            if (b == '\n' || b == '\r') {
+                if (length > 0) {
+                    return new String(lineBuffer, 0, length, StandardCharsets.US_ASCII);
+                }
+            } else if (length < MAX_LINE_LENGTH) {
+                lineBuffer[length++] = (byte) b;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Closes the serial port.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (!open) {
+            return;
+        }
+        open = false;
+        
+        if (relay != null) {
+            relay.destroy();
+            relay = null;
+        } else {
+            try {
+                device.close();
+            } catch (IOException e) {
+                System.err.println("There was an error closing serial port: " + port + "!");
+            }
+            device = null;
+        }
+        input = null;
+        output = null;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns whether the connection is open or not.
+     *
+     * @return Whether the connection is open or not.
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+    
+    /**
+     * Returns the name of the serial port.
+     *
+     * @return The name of the serial port.
+     */
+    public String getPort()
+    {
+        return port;
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Returns whether the application is running on Windows or not.
+     *
+     * @return Whether the application is running on Windows or not.
+     */
+    private static boolean isWindows()
+    {
+        return System.getProperty("os.name").toUpperCase().contains("WIN");
+    }
+    
+    /**
+     * Returns whether the application is running on macOS or not.
+     *
+     * @return Whether the application is running on macOS or not.
+     */
+    private static boolean isMac()
+    {
+        return System.getProperty("os.name").toUpperCase().contains("MAC");
+    }
+    
+}
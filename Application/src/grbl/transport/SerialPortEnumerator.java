@@ -0,0 +1,302 @@
+/*
+ * File:    SerialPortEnumerator.java
+ * Package: grbl.transport
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.transport;
+
+import utils.CmdLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Enumerates the serial ports attached to the system directly from the operating system, without going through Python.<br/>
+ * On Linux the USB descriptors are read from sysfs, on Windows they are read from the registry.
+ */
+public final class SerialPortEnumerator
+{
+    
+    //Constants
+    
+    /**
+     * The sysfs directory of tty devices on Linux.
+     */
+    public static final String LINUX_TTY_DIRECTORY = "/sys/class/tty";
+    
+    /**
+     * The directory of device files on Linux and Mac.
+     */
+    public static final String DEVICE_DIRECTORY = "/dev/";
+    
+    /**
+     * The registry query for the serial ports of USB devices on Windows.
+     */
+    public static final String WINDOWS_USB_QUERY = "reg query HKLM\\SYSTEM\\CurrentControlSet\\Enum\\USB /s /v PortName";
+    
+    /**
+     * The registry query for the serial ports currently attached on Windows.
+     */
+    public static final String WINDOWS_SERIALCOMM_QUERY = "reg query HKLM\\HARDWARE\\DEVICEMAP\\SERIALCOMM";
+    
+    /**
+     * The prefixes of the names of USB serial devices on Linux.
+     */
+    private static final List<String> LINUX_USB_PREFIXES = Arrays.asList("ttyACM", "ttyUSB");
+    
+    /**
+     * The prefixes of the names of USB serial devices on Mac.
+     */
+    private static final List<String> MAC_USB_PREFIXES = Arrays.asList("cu.usbmodem", "cu.usbserial");
+    
+    /**
+     * The maximum number of directories between a tty device and its USB device in sysfs.
+     */
+    private static final int MAX_USB_DEPTH = 4;
+    
+    
+    //Functions
+    
+    /**
+     * Lists the USB serial ports attached to the system, with their USB descriptors.
+     *
+     * @return The list of serial ports.
+     */
+    public static List<SerialPortInfo> listPorts()
+    {
+        String os = System.getProperty("os.name").toUpperCase();
+        if (os.contains("WIN")) {
+            return parseWindowsPorts(CmdLine.executeCmd(WINDOWS_USB_QUERY), CmdLine.executeCmd(WINDOWS_SERIALCOMM_QUERY));
+        } else if (os.contains("MAC")) {
+            List<SerialPortInfo> ports = new ArrayList<>();
+            for (String port : listMacPortNames(new File(DEVICE_DIRECTORY))) {
+                ports.add(new SerialPortInfo(port, null, null, null, null));
+            }
+            return ports;
+        } else {
+            return listLinuxPorts(new File(LINUX_TTY_DIRECTORY), DEVICE_DIRECTORY);
+        }
+    }
+    
+    /**
+     * Lists the names of the USB serial ports attached to the system, without reading their USB descriptors.<br/>
+     * On Linux and Mac this only lists a directory, on Windows it starts a registry query process, see isListingPortNamesCheap().
+     *
+     * @return The sorted list of serial port names.
+     */
+    public static List<String> listPortNames()
+    {
+        String os = System.getProperty("os.name").toUpperCase();
+        List<String> names;
+        if (os.contains("WIN")) {
+            names = new ArrayList<>(parseWindowsSerialComm(CmdLine.executeCmd(WINDOWS_SERIALCOMM_QUERY)));
+        } else if (os.contains("MAC")) {
+            names = listMacPortNames(new File(DEVICE_DIRECTORY));
+        } else {
+            names = new ArrayList<>();
+            for (String name : listLinuxTtyNames(new File(LINUX_TTY_DIRECTORY))) {
+                names.add(DEVICE_DIRECTORY + name);
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+    
+    /**
+     * Returns whether listing the names of the serial ports is cheap enough to be polled often or not.<br/>
+     * On Windows each listing starts a registry query process, so it should be polled sparingly.
+     *
+     * @return Whether listing the names of the serial ports is cheap or not.
+     */
+    public static boolean isListingPortNamesCheap()
+    {
+        return !System.getProperty("os.name").toUpperCase().contains("WIN");
+    }
+    
+    /**
+     * Lists the USB serial ports described in a Linux sysfs tty directory.
+     *
+     * @param ttyDirectory    The sysfs tty directory, normally /sys/class/tty.
+     * @param deviceDirectory The directory of the device files, normally /dev/.
+     * @return The list of serial ports.
+     */
+    static List<SerialPortInfo> listLinuxPorts(File ttyDirectory, String deviceDirectory)
+    {
+        List<SerialPortInfo> ports = new ArrayList<>();
+        for (String name : listLinuxTtyNames(ttyDirectory)) {
+            File usb;
+            try {
+                usb = new File(new File(ttyDirectory, name), "device").getCanonicalFile();
+            } catch (IOException e) {
+                continue;
+            }
+            
+            //the tty device belongs to a USB interface, the descriptors are on the USB device above it
+            for (int depth = 0; usb != null && depth < MAX_USB_DEPTH && !new File(usb, "idVendor").exists(); depth++) {
+                usb = usb.getParentFile();
+            }
+            if (usb == null || !new File(usb, "idVendor").exists()) {
+                ports.add(new SerialPortInfo(deviceDirectory + name, null, null, null, null));
+                continue;
+            }
+            
+            String manufacturer = readAttribute(usb, "manufacturer");
+            String product = readAttribute(usb, "product");
+            String description = (manufacturer == null) ? product : (product == null) ? manufacturer : manufacturer + ' ' + product;
+            ports.add(new SerialPortInfo(deviceDirectory + name, readAttribute(usb, "serial"),
+                    readAttribute(usb, "idVendor"), readAttribute(usb, "idProduct"), description));
+        }
+        return ports;
+    }
+    
+    /**
+     * Lists the names of the USB serial devices in a Linux sysfs tty directory.
+     *
+     * @param ttyDirectory The sysfs tty directory, normally /sys/class/tty.
+     * @return The sorted list of device names.
+     */
+    private static List<String> listLinuxTtyNames(File ttyDirectory)
+    {
+        List<String> names = new ArrayList<>();
+        String[] entries = ttyDirectory.list();
+        if (entries == null) {
+            return names;
+        }
+        
+        for (String entry : entries) {
+            for (String prefix : LINUX_USB_PREFIXES) {
+                if (entry.startsWith(prefix) && new File(new File(ttyDirectory, entry), "device").exists()) {
+                    names.add(entry);
+                    break;
+                }
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+    
+    /**
+     * Lists the USB serial ports in a Mac device directory.
+     *
+     * @param deviceDirectory The device directory, normally /dev/.
+     * @return The sorted list of serial port names.
+     */
+    private static List<String> listMacPortNames(File deviceDirectory)
+    {
+        List<String> names = new ArrayList<>();
+        String[] entries = deviceDirectory.list();
+        if (entries == null) {
+            return names;
+        }
+        
+        for (String entry : entries) {
+            for (String prefix : MAC_USB_PREFIXES) {
+                if (entry.startsWith(prefix)) {
+                    names.add(new File(deviceDirectory, entry).getPath());
+                    break;
+                }
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+    
+    /**
+     * Reads a sysfs attribute of a device.
+     *
+     * @param device    The sysfs directory of the device.
+     * @param attribute The name of the attribute.
+     * @return The value of the attribute, or null if the device does not have it.
+     */
+    private static String readAttribute(File device, String attribute)
+    {
+        File file = new File(device, attribute);
+        if (!file.exists()) {
+            return null;
+        }
+        
+        try {
+            String value = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+            return value.isEmpty() ? null : value;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Parses the serial ports of USB devices from the output of the Windows registry queries.<br/>
+     * The registry remembers every device that was ever plugged in, so only the ports that are currently attached are kept.
+     *
+     * @param usbPortNames The output of the query for the PortName values under the USB enumerator.
+     * @param serialComm   The output of the query for the SERIALCOMM device map.
+     * @return The list of serial ports.
+     */
+    static List<SerialPortInfo> parseWindowsPorts(String usbPortNames, String serialComm)
+    {
+        Set<String> attached = parseWindowsSerialComm(serialComm);
+        
+        List<SerialPortInfo> ports = new ArrayList<>();
+        String key = null;
+        for (String line : usbPortNames.split("\\r?\\n")) {
+            if (line.startsWith("HKEY_")) {
+                key = line.trim();
+                continue;
+            }
+            
+            String[] tokens = line.trim().split("\\s+");
+            if (key == null || tokens.length != 3 || !tokens[0].equals("PortName") || !tokens[1].equals("REG_SZ") || !attached.contains(tokens[2])) {
+                continue;
+            }
+            
+            //the key is ...\Enum\USB\VID_2341&PID_0043\<serial number>\Device Parameters
+            String[] path = key.split("\\\\");
+            String vendorId = null;
+            String productId = null;
+            String serialNumber = null;
+            for (int i = 0; i < path.length - 1; i++) {
+                if (path[i].startsWith("VID_")) {
+                    for (String id : path[i].split("&")) {
+                        if (id.startsWith("VID_")) {
+                            vendorId = id.substring(4);
+                        } else if (id.startsWith("PID_")) {
+                            productId = id.substring(4);
+                        }
+                    }
+                    
+                    //devices without a serial number get an instance id generated by Windows, which contains '&'
+                    serialNumber = path[i + 1].contains("&") ? null : path[i + 1];
+                    break;
+                }
+            }
+            ports.add(new SerialPortInfo(tokens[2], serialNumber, vendorId, productId, null));
+        }
+        return ports;
+    }
+    
+    /**
+     * Parses the names of the attached serial ports from the output of the Windows SERIALCOMM registry query.
+     *
+     * @param serialComm The output of the query for the SERIALCOMM device map.
+     * @return The set of attached serial port names.
+     */
+    static Set<String> parseWindowsSerialComm(String serialComm)
+    {
+        Set<String> ports = new HashSet<>();
+        for (String line : serialComm.split("\\r?\\n")) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens.length >= 3 && tokens[tokens.length - 2].equals("REG_SZ")) {
+                ports.add(tokens[tokens.length - 1]);
+            }
+        }
+        return ports;
+    }
+    
+}
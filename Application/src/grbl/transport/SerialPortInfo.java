@@ -0,0 +1,141 @@
+/*
+ * File:    SerialPortInfo.java
+ * Package: grbl.transport
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.transport;
+
+/**
+ * Describes a serial port attached to the system.
+ */
+public class SerialPortInfo
+{
+    
+    //Fields
+    
+    /**
+     * The name of the serial port, ie: COM3 or /dev/ttyACM0.
+     */
+    private final String port;
+    
+    /**
+     * The serial number of the USB device, or null if it is not known.
+     */
+    private final String serialNumber;
+    
+    /**
+     * The USB vendor id of the device, or null if it is not known.
+     */
+    private final String vendorId;
+    
+    /**
+     * The USB product id of the device, or null if it is not known.
+     */
+    private final String productId;
+    
+    /**
+     * The description of the device reported by the system, or null if it is not known.
+     */
+    private final String description;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a SerialPortInfo.
+     *
+     * @param port         The name of the serial port.
+     * @param serialNumber The serial number of the USB device, or null if it is not known.
+     * @param vendorId     The USB vendor id of the device, or null if it is not known.
+     * @param productId    The USB product id of the device, or null if it is not known.
+     * @param description  The description of the device reported by the system, or null if it is not known.
+     */
+    public SerialPortInfo(String port, String serialNumber, String vendorId, String productId, String description)
+    {
+        this.port = port;
+        this.serialNumber = serialNumber;
+        this.vendorId = (vendorId == null) ? null : vendorId.toUpperCase();
+        this.productId = (productId == null) ? null : productId.toUpperCase();
+        this.description = description;
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Returns whether the device is an Arduino or not, judging by its vendor id and description.
+     *
+     * @return Whether the device is an Arduino or not.
+     */
+    public boolean isArduino()
+    {
+        return "2341".equals(vendorId) || "2A03".equals(vendorId) ||
+               (description != null && description.contains("Arduino"));
+    }
+    
+    /**
+     * Returns the string representation of the serial port.
+     *
+     * @return The string representation of the serial port.
+     */
+    @Override
+    public String toString()
+    {
+        return port + " [" + serialNumber + "] " + vendorId + ':' + productId + ' ' + description;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the name of the serial port.
+     *
+     * @return The name of the serial port.
+     */
+    public String getPort()
+    {
+        return port;
+    }
+    
+    /**
+     * Returns the serial number of the USB device.
+     *
+     * @return The serial number of the USB device, or null if it is not known.
+     */
+    public String getSerialNumber()
+    {
+        return serialNumber;
+    }
+    
+    /**
+     * Returns the USB vendor id of the device.
+     *
+     * @return The USB vendor id of the device, or null if it is not known.
+     */
+    public String getVendorId()
+    {
+        return vendorId;
+    }
+    
+    /**
+     * Returns the USB product id of the device.
+     *
+     * @return The USB product id of the device, or null if it is not known.
+     */
+    public String getProductId()
+    {
+        return productId;
+    }
+    
+    /**
+     * Returns the description of the device reported by the system.
+     *
+     * @return The description of the device, or null if it is not known.
+     */
+    public String getDescription()
+    {
+        return description;
+    }
+    
+}
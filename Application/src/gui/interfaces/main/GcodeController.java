@@ -7,6 +7,7 @@
 package gui.interfaces.main;
 
 import grbl.APIgrbl;
+import grbl.StreamHistory;
 import gui.interfaces.greeting.GreetingController;
 import gui.interfaces.popup.SystemNotificationController;
 import javafx.event.ActionEvent;
@@ -22,9 +23,11 @@ import utils.MachineDetector;
 import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletionException;
 
 /**
  * The controller for the gcode tab.
@@ -86,9 +89,10 @@ public class GcodeController
     public static String gcodeFile;
     
     /**
-     * The list of user commands and responses.
+     * The list of user commands and responses.<br/>
+     * grbl's responses are added by the thread reading from grbl while the UI reads the list, so the list is synchronized.
      */
-    public static List<String> commandBlock = new ArrayList<>();
+    public static final List<String> commandBlock = Collections.synchronizedList(new ArrayList<>());
     
     /**
      * The string buffer for the user command text area.
@@ -96,9 +100,9 @@ public class GcodeController
     public static String commandBlockText = "";
     
     /**
-     * The list of gcode commands that have been streamed.
+     * The gcode commands that have been streamed, of which the most recent are kept.
      */
-    public static List<String> codeBlock = new ArrayList<>();
+    public static final StreamHistory codeBlock = new StreamHistory(DEFAULT_MAX_CODE_HISTORY);
     
     /**
      * The string buffer for the gcode command text area.
@@ -186,8 +190,7 @@ public class GcodeController
         }
 
         String userCommand = textFieldCommand.getText();
-        APIgrbl.grbl.sendRequest(userCommand);
-        commandBlock.add('>' + userCommand);
+        sendUserCommand(userCommand);
         textFieldCommand.clear();
     }
     
@@ -207,27 +210,22 @@ public class GcodeController
     {
         TimerTask updateUICodeSent = new TimerTask()
         {
-            private int state;
+            private long state;
             
             @Override
             public void run()
             {
-                if (codeBlock.size() != state) {
-                    state = codeBlock.size();
+                long count = codeBlock.getCount();
+                if (count != state) {
+                    state = count;
                     
                     StringBuilder codeBlockTextBuilder = new StringBuilder();
                     double height = textAreaCodeSent.getHeight() / (textAreaCodeSent.getFont().getSize() * 2);
                     
-                    for (int i = 0; i < height - codeBlock.size() + 1; i++) {
+                    for (int i = 0; i < height - count + 1; i++) {
                         codeBlockTextBuilder.append(System.lineSeparator());
                     }
-                    for (int i = (codeBlock.size() > DEFAULT_MAX_CODE_HISTORY ? codeBlock.size() - DEFAULT_MAX_CODE_HISTORY : 0); i < codeBlock.size(); i++) {
-                        if (i == codeBlock.size() - 1) {
-                            codeBlockTextBuilder.append(codeBlock.get(i).substring(0, codeBlock.get(i).length() - 1));
-                        } else {
-                            codeBlockTextBuilder.append(codeBlock.get(i));
-                        }
-                    }
+                    codeBlock.appendTo(codeBlockTextBuilder);
                     
                     codeBlockText = codeBlockTextBuilder.toString();
                     textAreaCodeSent.textProperty().set(codeBlockText);
@@ -252,27 +250,33 @@ public class GcodeController
             @Override
             public void run()
             {
-                if (commandBlock.size() != l) {
-                    l = commandBlock.size();
+                StringBuilder commandBlockTextBuilder = new StringBuilder();
+                
+                //the list is locked while it is read, as responses are added by the thread reading from grbl
+                synchronized (commandBlock) {
+                    int size = commandBlock.size();
+                    if (size == l) {
+                        return;
+                    }
+                    l = size;
 
-                    StringBuilder commandBlockTextBuilder = new StringBuilder();
                     double height = textAreaResponse.getHeight() / (textAreaResponse.getFont().getSize() * 2);
 
-                    for (int i = 0; i < height - commandBlock.size() + 1; i++) {
+                    for (int i = 0; i < height - size + 1; i++) {
                         commandBlockTextBuilder.append(System.lineSeparator());
                     }
-                    for (int i = (commandBlock.size() > DEFAULT_MAX_CODE_HISTORY ? commandBlock.size() - DEFAULT_MAX_CODE_HISTORY : 0); i < commandBlock.size(); i++) {
+                    for (int i = (size > DEFAULT_MAX_CODE_HISTORY ? size - DEFAULT_MAX_CODE_HISTORY : 0); i < size; i++) {
                         commandBlockTextBuilder.append(commandBlock.get(i));
-                        if (i != commandBlock.size() - 1) {
+                        if (i != size - 1) {
                             commandBlockTextBuilder.append(System.lineSeparator());
                         }
                     }
-
-                    commandBlockText = commandBlockTextBuilder.toString();
-                    textAreaResponse.textProperty().set(commandBlockText);
-                    textAreaResponse.appendText("");
-                    textAreaResponse.setScrollTop(Double.MAX_VALUE);
                 }
+                
+                commandBlockText = commandBlockTextBuilder.toString();
+                textAreaResponse.textProperty().set(commandBlockText);
+                textAreaResponse.appendText("");
+                textAreaResponse.setScrollTop(Double.MAX_VALUE);
             }
         };
         commandUpdateTimer = new Timer();
@@ -332,8 +336,7 @@ public class GcodeController
                     if (stepping) {
                         userCommand += step;
                     }
-                    APIgrbl.grbl.sendRequest(userCommand);
-                    commandBlock.add('>' + userCommand);
+                    sendUserCommand(userCommand);
                 }
             });
         }
@@ -353,15 +356,36 @@ public class GcodeController
             commandUpdateTimer.cancel();
         }
         keyEnabled = false;
-        commandBlock = new ArrayList<>();
+        commandBlock.clear();
         commandBlockText = "";
-        codeBlock = new ArrayList<>();
+        codeBlock.clear();
         codeBlockText = "";
     }
     
     
     //Static Methods
     
+    /**
+     * Sends a user entered command to grbl, and adds it and grbl's response to the command history.<br/>
+     * The user is notified when the command fails, as when the connection to grbl could not be opened or grbl was reset before it responded.
+     *
+     * @param userCommand The command.
+     */
+    private static void sendUserCommand(String userCommand)
+    {
+        commandBlock.add('>' + userCommand);
+        APIgrbl.grbl.sendRequest(userCommand).whenComplete((response, error) -> {
+            if (error == null) {
+                commandBlock.add(' ' + response);
+                return;
+            }
+            
+            Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+            System.err.println("The command: " + userCommand + " failed! " + cause.getMessage());
+            SystemNotificationController.throwNotification("There was an error executing your command: " + userCommand + "\n" + cause.getMessage(), false, false);
+        });
+    }
+    
     /**
      * Starts the grbl process.
      *
@@ -140,10 +140,7 @@ public class MenuController
                 }
                 
             } else if (MachineDetector.isHotWireMachine()) {
-                double total = 0;
-                for (int step : RotationController.controller.rotationProfileMap.values()) {
-                    total += step;
-                }
+                double total = RotationController.controller.getTotalSteps();
                 
                 if (total * RotationController.rotationStep == RotationController.maxSteps) {
                     RotationController.generateQueue();
@@ -202,6 +199,11 @@ public class MenuController
         paused = true;
         pauseTime = System.currentTimeMillis();
         
+        //Hold the machine
+        if (APIgrbl.grbl != null) {
+            APIgrbl.grbl.initiatePause();
+        }
+        
         //Pause Model Animation
         Renderer.pauseModelAnimation();
     }
@@ -8,30 +8,25 @@ package gui.interfaces.main;
 
 import gui.interfaces.greeting.GreetingController;
 import gui.interfaces.popup.SystemNotificationController;
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.KeyValue;
-import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.embed.swing.SwingFXUtils;
-import javafx.event.Event;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.*;
-import javafx.scene.layout.HBox;
-import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
-import javafx.util.Duration;
 import utils.GcodeTracer;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The controller for the Rotation tab.
@@ -46,6 +41,11 @@ public class RotationController
      */
     public static final double DEFAULT_MIN_ROTATION_DEGREE = 3.6;
     
+    /**
+     * The default maximum number of profile images kept in memory.
+     */
+    public static final int DEFAULT_MAX_THUMBNAILS = 24;
+    
     
     //FXML Fields
     
@@ -80,9 +80,9 @@ public class RotationController
     public FXCollections stepOptions;
 
     /**
-     * The window for the scrolling list of gcode profiles.
+     * The strip of gcode profiles, which only creates cells for the profiles that are visible.
      */
-    public ScrollPane sp;
+    public ListView<RotationProfile> profileStrip;
     
     
     //Static Fields
@@ -102,6 +102,11 @@ public class RotationController
      */
     public static double minimumRotationDegree;
     
+    /**
+     * The maximum number of profile images kept in memory.
+     */
+    public static int maxThumbnails = DEFAULT_MAX_THUMBNAILS;
+    
     /**
      * The number of millimeters per step.
      */
@@ -121,34 +126,34 @@ public class RotationController
     //Fields
     
     /**
-     * The list of BufferedImages corresponding to the uploaded gcode files.
+     * The gcode profiles, in the order they are cut.
      */
-    public List<BufferedImage> gcodeTraces;
+    public ObservableList<RotationProfile> profiles;
     
     /**
-     * The map between the Image in the UI and their filenames.
+     * The tracer the images of the gcode profiles are loaded with.
      */
-    public Map<Image, String> gcodeTraceFileMap;
+    private GcodeTracer gcodeTracer;
     
     /**
-     * The map between the filename of the profile and the generated BufferedImage.
+     * The image shown for a gcode profile while its image is loaded.
      */
-    public Map<String, Image> gcodeTraceMap;
+    private Image blankTrace;
     
     /**
-     * The map between the Image in the UI and the number of steps for that profile.
+     * The images of the most recently shown gcode profiles, by profile id, holding at most maxThumbnails images.
      */
-    public Map<Image, Integer> rotationProfileMap;
+    private Map<Integer, Image> thumbnails;
     
     /**
-     * The index of the gcode profile current selected.
+     * The images of gcode profiles that are being loaded, by profile id.
      */
-    private int index;
+    private Map<Integer, CompletableFuture<Image>> loadingThumbnails;
     
     /**
-     * A flag indicating whether or not the first scroll is to the first element.
+     * The index of the gcode profile current selected.
      */
-    private boolean firstScroll = true;
+    private int index;
 
     /**
      * A flag indicating whether or not we can drag elements, it is set to true before clicking print.
@@ -156,29 +161,9 @@ public class RotationController
     public boolean draggable = true;
 
     /**
-     * The temporary field for the image that is going to be received when swapping images
+     * The index of the gcode profile that is being dragged, or -1 if no profile is being dragged.
      */
-    private Image recieverImage;
-
-    /**
-     * The temporary field for the file that is going to be sent when swapping images
-     */
-    private String giverFile;
-
-    /**
-     * The temporary field for the file that is going to be received when swapping images
-     */
-    private String recieverFile;
-
-    /**
-     * The temporary field for the steps of the image that is going to be sent when swapping images
-     */
-    private int giverSteps;
-
-    /**
-     * The temporary field for the steps of the image that is going to be received when swapping images
-     */
-    private int recieverSteps;
+    private int draggedProfile = -1;
     
     /**
      * The map of valid step rotation degrees.
@@ -217,13 +202,20 @@ public class RotationController
     {
         controller = this;
         
-        //produce gcode traces to display to the user
-        GcodeTracer gcodeTracer = new GcodeTracer();
+        //the images of the gcode profiles are loaded in the background when they are shown, so the tab is shown before they are traced
+        gcodeTracer = new GcodeTracer();
         queue.clear();
-        gcodeTraceFileMap = new HashMap<>();
-        gcodeTraceMap = new HashMap<>();
-        gcodeTraces = gcodeTracer.traceGcodeSet(GreetingController.getSlices());
-        rotationProfileMap = new HashMap<>();
+        blankTrace = SwingFXUtils.toFXImage(GcodeTracer.createBlankTrace(), null);
+        thumbnails = new LinkedHashMap<Integer, Image>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest)
+            {
+                return size() > maxThumbnails;
+            }
+        };
+        loadingThumbnails = new HashMap<>();
+        profiles = FXCollections.observableArrayList();
         
         // Init index
         index = 0;
@@ -246,7 +238,7 @@ public class RotationController
         
         rotationStep = validStepDegrees.get("1/" + maxSteps);
         
-        renderImages();
+        renderProfiles();
     }
     
     /**
@@ -268,166 +260,105 @@ public class RotationController
     }
     
     /**
-     * Renders the gcode profiles in the UI.
+     * Renders the gcode profiles in the UI.<br/>
+     * The strip only creates cells for the visible profiles, and reuses them as it is scrolled, so the images of the other profiles are not loaded.
      */
-    private void renderImages()
+    private void renderProfiles()
     {
-        // Create display area
-        sp = new ScrollPane();
-        sp.setPrefSize(600, 340);
-        HBox hbox = new HBox();
-        hbox.setSpacing(20);
-        hbox.setStyle("-fx-padding: 40px; -fx-alignment: CENTER;");
-        hbox.setAlignment(Pos.CENTER);
-        
-        // Adding to the scrollpane
-        if (gcodeTraces.size() <= 4) {
-            sp.setFitToWidth(true);
+        // Initialize all evenly spaced degrees
+        List<String> slices = GreetingController.getSlices();
+        if (!slices.isEmpty()) {
+            int d = maxSteps / slices.size();
+            int degreeGap = maxSteps - (d * slices.size());
+            for (int i = 0; i < slices.size(); i++) {
+                profiles.add(new RotationProfile(i, new File(slices.get(i)).getAbsolutePath(), (i < degreeGap) ? (d + 1) : d));
+            }
         }
-        sp.setContent(hbox);
-        sp.setVbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
+        
+        // Create display area
+        profileStrip = new ListView<>(profiles);
+        profileStrip.setOrientation(Orientation.HORIZONTAL);
+        profileStrip.setPrefSize(600, 340);
+        profileStrip.setStyle("-fx-background-color: transparent; -fx-padding: 20px;");
+        profileStrip.setCellFactory(list -> new ProfileCell());
         
         // Change the view when something is selected.
-        sp.hvalueProperty().addListener((ov, old_val, new_val) -> {
+        profileStrip.getSelectionModel().selectedIndexProperty().addListener((ov, old_val, new_val) -> {
             index = new_val.intValue();
-            firstScroll = false;
-            handleSPAnimation();
+            handleSelection();
         });
-    
-        vBox.getChildren().add(0, sp);
+        
+        vBox.getChildren().add(0, profileStrip);
         vBox.setAlignment(Pos.CENTER);
         
-        if (gcodeTraces.isEmpty()) {
-            return;
+        if (!profiles.isEmpty()) {
+            profileStrip.getSelectionModel().select(0);
         }
-        
-        int d = maxSteps / gcodeTraces.size();
-        int degreeGap = maxSteps - (d * gcodeTraces.size());
-        
-        ImageView firstPic = null;
-        
-        // Add images as a row
-        for (int i = 0; i < gcodeTraces.size(); i++) {
-            Image image = SwingFXUtils.toFXImage(gcodeTraces.get(i), null);
-            ImageView pic = new ImageView(image);
-            gcodeTraceFileMap.put(image, new File(GreetingController.getSlices().get(i)).getAbsolutePath());
-            gcodeTraceMap.put(new File(GreetingController.getSlices().get(i)).getAbsolutePath(), image);
-            
-            if (i == 0) {
-                firstPic = pic;
-            }
-
-            // Initialize all evenly spaced degrees
-            if (degreeGap > 0) {
-                rotationProfileMap.put(image, d + 1);
-                degreeGap--;
-            } else {
-                rotationProfileMap.put(image, d);
-            }
-
-            pic.setPreserveRatio(true);
-            pic.setId(String.valueOf(i));
-            pic.setFitHeight(220);
-            
-            // Let images be selected
-            pic.setOnMouseClicked(event -> {
-                int newIndex = Integer.parseInt(pic.getId());
-                textFieldDegrees.setText(String.valueOf(rotationProfileMap.get(pic.getImage())));
-                if (newIndex == 0 && firstScroll) {
-                    handleSPAnimation();
-                } else {
-                    slowScrollToImage(newIndex);
-                }
-            });
-
-            pic.setOnDragDetected(event -> {
-                if (draggable) {
-                    Dragboard db = pic.startDragAndDrop(TransferMode.MOVE);
-                    ClipboardContent content = new ClipboardContent();
-                    content.putImage(pic.getImage());
-                    db.setContent(content);
-                    giverFile = gcodeTraceFileMap.get(pic.getImage());
-                    giverSteps = rotationProfileMap.get(pic.getImage());
-                    event.consume();
-                }
-            });
-
-            pic.setOnDragOver(event -> {
-                if (draggable) {
-                    if (event.getDragboard().hasImage()) {
-                        event.acceptTransferModes(TransferMode.MOVE);
-                    }
-                }
-            });
-
-            pic.setOnDragDropped(event -> {
-                if (draggable) {
-                    Image newPic = event.getDragboard().getImage();
-                    recieverImage = pic.getImage();
-    
-                    recieverFile = gcodeTraceFileMap.get(recieverImage);
-                    recieverSteps = rotationProfileMap.get(recieverImage);
-    
-                    gcodeTraceFileMap.remove(pic.getImage());
-                    rotationProfileMap.remove(pic.getImage());
-    
-                    pic.setImage(newPic);
-    
-                    gcodeTraceFileMap.put(pic.getImage(), giverFile);
-                    gcodeTraceMap.put(giverFile, pic.getImage());
-                    rotationProfileMap.put(pic.getImage(), giverSteps);
-    
-                    HBox temp = (HBox) sp.getContent();
-                    int newIndex = Integer.parseInt(pic.getId());
-                    VBox box = (VBox) temp.getChildren().get(newIndex);
-                    VBox vbox = (VBox) temp.getChildren().get(newIndex);
-                    Text text = (Text) vbox.getChildren().get(1);
+    }
     
-                    text.setText(String.valueOf(giverSteps));
+    /**
+     * Loads the image of a gcode profile, from memory if it has been shown recently.<br/>
+     * This must be called on the JavaFX thread.
+     *
+     * @param profile The gcode profile.
+     * @return The future completed on the JavaFX thread with the image of the gcode profile.
+     */
+    public CompletableFuture<Image> loadThumbnail(RotationProfile profile)
+    {
+        Image thumbnail = thumbnails.get(profile.getId());
+        if (thumbnail != null) {
+            return CompletableFuture.completedFuture(thumbnail);
+        }
+        
+        CompletableFuture<Image> loading = loadingThumbnails.get(profile.getId());
+        if (loading == null) {
+            CompletableFuture<Image> loaded = new CompletableFuture<>();
+            gcodeTracer.loadGcodeAsync(profile.getFile()).whenComplete((image, e) -> Platform.runLater(() -> {
+                loadingThumbnails.remove(profile.getId());
+                if (e != null) {
+                    System.err.println("There was an error tracing the gcode profile: " + profile.getFile());
+                    e.printStackTrace();
+                    loaded.completeExceptionally(e);
+                    return;
                 }
-            });
-
-            pic.setOnDragDone(event -> {
-                if (draggable) {
-                    gcodeTraceFileMap.remove(pic.getImage());
-                    rotationProfileMap.remove(pic.getImage());
-    
-                    pic.setImage(recieverImage);
-    
-                    gcodeTraceFileMap.put(pic.getImage(), recieverFile);
-                    gcodeTraceMap.put(recieverFile, pic.getImage());
-                    rotationProfileMap.put(pic.getImage(), recieverSteps);
-    
-                    HBox temp = (HBox) sp.getContent();
-                    int newIndex = Integer.parseInt(pic.getId());
-                    VBox box = (VBox) temp.getChildren().get(newIndex);
-                    VBox vbox = (VBox) temp.getChildren().get(newIndex);
-                    Text text = (Text) vbox.getChildren().get(1);
+                
+                thumbnails.put(profile.getId(), image);
+                loaded.complete(image);
+            }));
+            loadingThumbnails.put(profile.getId(), loaded);
+            loading = loaded;
+        }
+        return loading;
+    }
     
-                    text.setText(String.valueOf(recieverSteps));
-                }
-            });
-
-            VBox vbox = new VBox();
-            vbox.getChildren().add(pic);
-            
-            // Setting the new degree
-            Text text = new Text(String.valueOf(rotationProfileMap.get(image)));
-            
-            // Add to the parent
-            vbox.getChildren().add(text);
-            vbox.setAlignment(Pos.CENTER);
-            HBox.setHgrow(vbox, Priority.ALWAYS);
-            hbox.getChildren().add(vbox);
+    /**
+     * Returns the gcode profile of a gcode file.
+     *
+     * @param file The absolute path of the gcode file.
+     * @return The gcode profile, or null if the gcode file is not a profile.
+     */
+    public RotationProfile getProfile(String file)
+    {
+        for (RotationProfile profile : profiles) {
+            if (profile.getFile().equals(file)) {
+                return profile;
+            }
         }
-        
-        sp.setHmax((gcodeTraces.size() - 1) * 1.0);
-        
-        if (firstPic != null) {
-            Event.fireEvent(firstPic, new MouseEvent(MouseEvent.MOUSE_CLICKED, 0,
-                    0, 0, 0, MouseButton.PRIMARY, 1, true, true, true, true,
-                    true, true, true, true, true, true, null));
+        return null;
+    }
+    
+    /**
+     * Returns the total number of rotation steps of the gcode profiles.
+     *
+     * @return The total number of rotation steps of the gcode profiles.
+     */
+    public int getTotalSteps()
+    {
+        int total = 0;
+        for (RotationProfile profile : profiles) {
+            total += profile.getSteps();
         }
+        return total;
     }
     
     /**
@@ -442,86 +373,42 @@ public class RotationController
             return;
         }
     
-        HBox temp = (HBox) sp.getContent();
-        VBox box = (VBox) temp.getChildren().get(index);
-        
-        Integer d = Integer.parseInt(input);
-        rotationProfileMap.replace(((ImageView) box.getChildren().get(0)).getImage(), d);
-        
-        // Set new selected value
-        temp.getChildren().get(index).setScaleX(1.1);
-        temp.getChildren().get(index).setScaleY(1.1);
-        
-        VBox vbox = (VBox) temp.getChildren().get(index);
-        Text text = (Text) vbox.getChildren().get(1);
+        if (index < 0 || index >= profiles.size()) {
+            return;
+        }
         
-        text.setText(String.valueOf(d));
+        profiles.get(index).setSteps(Integer.parseInt(input));
+        profileStrip.refresh();
     }
     
     /**
-     * Handles the animation of the scroll pane.
+     * Shows the file name and the steps of the selected gcode profile.
      */
-    private void handleSPAnimation()
+    private void handleSelection()
     {
-        HBox temp = (HBox) sp.getContent();
-        
-        temp.getChildren().get(index).setScaleX(1.1);
-        temp.getChildren().get(index).setScaleY(1.1);
-        
-        VBox vbox = (VBox) temp.getChildren().get(index);
+        if (index < 0 || index >= profiles.size()) {
+            return;
+        }
+        RotationProfile profile = profiles.get(index);
+        textFieldDegrees.setText(String.valueOf(profile.getSteps()));
         
-        ImageView iv = (ImageView) vbox.getChildren().get(0);
-        Image im = iv.getImage();
-        if (im == null) {
-            System.err.println("Image for profile at index: " + index + " is null");
-            
-        } else {
-            StringBuilder sb = new StringBuilder("Profile #" + (Integer.valueOf(iv.getId()) + 1) + " - " + (new File(gcodeTraceFileMap.get(im))).getName());
-            final int maxTextWidth = 36;
-            int j = 0;
-            for (int i = 0; i < sb.length(); i++) {
-                if (sb.charAt(i) == '\n') {
+        StringBuilder sb = new StringBuilder("Profile #" + (index + 1) + " - " + (new File(profile.getFile())).getName());
+        final int maxTextWidth = 36;
+        int j = 0;
+        for (int i = 0; i < sb.length(); i++) {
+            if (sb.charAt(i) == '\n') {
+                j = 0;
+            } else {
+                j++;
+                if (j == maxTextWidth) {
+                    sb.insert(i, "\n");
                     j = 0;
-                } else {
-                    j++;
-                    if (j == maxTextWidth) {
-                        sb.insert(i, "\n");
-                        j = 0;
-                        i--;
-                    }
+                    i--;
                 }
             }
-    
-            fileName.setText(sb.toString());
-        }
-        
-        // Prevent index out of bounds and return other images to normal size
-        if (index + 1 < temp.getChildren().size()) {
-            temp.getChildren().get(index + 1).setScaleX(1);
-            temp.getChildren().get(index + 1).setScaleY(1);
         }
         
-        if (index - 1 >= 0) {
-            temp.getChildren().get(index - 1).setScaleX(1);
-            temp.getChildren().get(index - 1).setScaleY(1);
-        }
-    }
-    
-    /**
-     * Automatically scrolls to the selected gcode profile.
-     *
-     * @param value The index of the gcode profile to scroll to.
-     */
-    private void slowScrollToImage(int value)
-    {
-        double speed = .8;
-        if (gcodeTraces.size() < 5) {
-            speed = .4;
-        }
-        Animation animation = new Timeline(
-                new KeyFrame(Duration.seconds(speed),
-                        new KeyValue(sp.hvalueProperty(), value)));
-        animation.play();
+        fileName.setText(sb.toString());
     }
     
     /**
@@ -601,33 +488,137 @@ public class RotationController
      */
     public static void generateQueue()
     {
-        List<Image> profiles = new ArrayList<>();
-        
-        HBox temp = (HBox) controller.sp.getContent();
-        for (int i = 0; i < controller.gcodeTraces.size(); i++) {
-            VBox box = (VBox) temp.getChildren().get(i);
-            Image image = ((ImageView) box.getChildren().get(0)).getImage();
-            profiles.add(image);
-        }
-        
-        generateQueueHelper(profiles);
+        generateQueueHelper(controller.profiles);
     }
     
     /**
      * Generates the rotation profile queue.
      *
-     * @param profiles The list of profile images in the queue.
+     * @param profiles The list of profiles in the queue.
      */
-    public static void generateQueueHelper(List<Image> profiles)
+    public static void generateQueueHelper(List<RotationProfile> profiles)
     {
         queue.clear();
     
-        for (Image image : profiles) {
-            int cycles = controller.rotationProfileMap.get(image);
-            for (int j = 0; j < cycles; j++) {
-                queue.add(controller.gcodeTraceFileMap.get(image));
+        for (RotationProfile profile : profiles) {
+            for (int j = 0; j < profile.getSteps(); j++) {
+                queue.add(profile.getFile());
             }
         }
     }
     
+    
+    //Inner Classes
+    
+    /**
+     * A cell of the strip of gcode profiles, showing the image and the steps of a profile.
+     */
+    private class ProfileCell extends ListCell<RotationProfile>
+    {
+        
+        //Fields
+        
+        /**
+         * The view of the image of the profile.
+         */
+        private final ImageView pic = new ImageView();
+        
+        /**
+         * The text of the steps of the profile.
+         */
+        private final Text text = new Text();
+        
+        /**
+         * The container of the image and steps of the profile.
+         */
+        private final VBox vbox = new VBox();
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a ProfileCell.
+         */
+        private ProfileCell()
+        {
+            pic.setPreserveRatio(true);
+            pic.setFitHeight(220);
+            vbox.getChildren().addAll(pic, text);
+            vbox.setAlignment(Pos.CENTER);
+            setStyle("-fx-background-color: transparent; -fx-padding: 0 10px;");
+            
+            setOnDragDetected(event -> {
+                if (draggable && !isEmpty()) {
+                    Dragboard db = startDragAndDrop(TransferMode.MOVE);
+                    ClipboardContent content = new ClipboardContent();
+                    content.putImage(pic.getImage());
+                    db.setContent(content);
+                    draggedProfile = getIndex();
+                    event.consume();
+                }
+            });
+            
+            setOnDragOver(event -> {
+                if (draggable && draggedProfile >= 0 && !isEmpty()) {
+                    event.acceptTransferModes(TransferMode.MOVE);
+                }
+            });
+            
+            // Swap the dragged profile with this one
+            setOnDragDropped(event -> {
+                if (draggable && draggedProfile >= 0 && !isEmpty()) {
+                    Collections.swap(profiles, draggedProfile, getIndex());
+                    event.setDropCompleted(true);
+                    handleSelection();
+                }
+                event.consume();
+            });
+            
+            setOnDragDone(event -> draggedProfile = -1);
+        }
+        
+        
+        //Methods
+        
+        /**
+         * Shows a profile in the cell, with a blank image until the image of the profile has been loaded.
+         *
+         * @param profile The profile.
+         * @param empty   Whether the cell is empty or not.
+         */
+        @Override
+        protected void updateItem(RotationProfile profile, boolean empty)
+        {
+            super.updateItem(profile, empty);
+            if (empty || profile == null) {
+                pic.setImage(null);
+                setGraphic(null);
+                return;
+            }
+            
+            text.setText(String.valueOf(profile.getSteps()));
+            pic.setImage(blankTrace);
+            loadThumbnail(profile).thenAccept(image -> {
+                if (getItem() == profile) {
+                    pic.setImage(image);
+                }
+            });
+            setGraphic(vbox);
+        }
+        
+        /**
+         * Enlarges the selected profile.
+         *
+         * @param selected Whether the cell is selected or not.
+         */
+        @Override
+        public void updateSelected(boolean selected)
+        {
+            super.updateSelected(selected);
+            vbox.setScaleX(selected ? 1.1 : 1);
+            vbox.setScaleY(selected ? 1.1 : 1);
+        }
+        
+    }
+    
 }
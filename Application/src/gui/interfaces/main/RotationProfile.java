@@ -0,0 +1,96 @@
+/*
+ * File:    RotationProfile.java
+ * Package: gui.interfaces.main
+ * Author:  Nicolas Lopez
+ */
+
+package gui.interfaces.main;
+
+/**
+ * A gcode profile in the Rotation tab.<br/>
+ * A profile is identified by its id, the index of its file in the uploaded slices, so it keeps its identity when it is moved in the strip or its image is paged out.
+ */
+public class RotationProfile
+{
+    
+    //Fields
+    
+    /**
+     * The id of the profile.
+     */
+    private final int id;
+    
+    /**
+     * The absolute path of the gcode file of the profile.
+     */
+    private final String file;
+    
+    /**
+     * The number of rotation steps the profile is cut for.
+     */
+    private int steps;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a RotationProfile.
+     *
+     * @param id    The id of the profile.
+     * @param file  The absolute path of the gcode file of the profile.
+     * @param steps The number of rotation steps the profile is cut for.
+     */
+    public RotationProfile(int id, String file, int steps)
+    {
+        this.id = id;
+        this.file = file;
+        this.steps = steps;
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the id of the profile.
+     *
+     * @return The id of the profile.
+     */
+    public int getId()
+    {
+        return id;
+    }
+    
+    /**
+     * Returns the absolute path of the gcode file of the profile.
+     *
+     * @return The absolute path of the gcode file of the profile.
+     */
+    public String getFile()
+    {
+        return file;
+    }
+    
+    /**
+     * Returns the number of rotation steps the profile is cut for.
+     *
+     * @return The number of rotation steps the profile is cut for.
+     */
+    public int getSteps()
+    {
+        return steps;
+    }
+    
+    
+    //Setters
+    
+    /**
+     * Sets the number of rotation steps the profile is cut for.
+     *
+     * @param steps The number of rotation steps the profile is cut for.
+     */
+    public void setSteps(int steps)
+    {
+        this.steps = steps;
+    }
+    
+}
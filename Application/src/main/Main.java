@@ -57,6 +57,11 @@ public class Main
      */
     public static final boolean bypassArduinoForTracer = false;
     
+    /**
+     * A flag indicating whether or not to stream to a simulated grbl instead of the Arduino.
+     */
+    public static final boolean simulateGrbl = false;
+    
     
     //Static Fields
     
@@ -7,6 +7,12 @@
 package utils;
 
 import grbl.APIgrbl;
+import grbl.ArcFitter;
+import grbl.GcodeCompactor;
+import grbl.GrblStreamer;
+import grbl.JobCache;
+import grbl.PathSimplifier;
+import grbl.TravelOptimizer;
 import gui.interfaces.main.GcodeController;
 import gui.interfaces.main.ModelController;
 import gui.interfaces.main.RotationController;
@@ -100,8 +106,17 @@ public class ConfigurationManager
         ModelController.maxYTravelHotwire = getConfigAsInt("MAX_X_TRAVEL_CNC", ModelController.DEFAULT_MAX_Y_TRAVEL_HOTWIRE);
         
         RotationController.minimumRotationDegree = getConfigAsDouble("MIN_ROTATION_DEGREE", RotationController.DEFAULT_MIN_ROTATION_DEGREE);
+        RotationController.maxThumbnails = getConfigAsInt("MAX_THUMBNAILS", RotationController.DEFAULT_MAX_THUMBNAILS);
+        TraceCache.maxCacheSize = getConfigAsInt("TRACE_CACHE_SIZE", TraceCache.DEFAULT_MAX_CACHE_SIZE);
     
         APIgrbl.timeRemainingHistoryCount = getConfigAsInt("TIME_REMAINING_HISTORY_COUNT", APIgrbl.DEFAULT_TIME_REMAINING_HISTORY_COUNT);
+        GrblStreamer.rxBufferSize = getConfigAsInt("RX_BUFFER_SIZE", GrblStreamer.DEFAULT_RX_BUFFER_SIZE);
+        ArcFitter.arcTolerance = getConfigAsDouble("ARC_TOLERANCE", ArcFitter.DEFAULT_ARC_TOLERANCE);
+        PathSimplifier.simplifyTolerance = getConfigAsDouble("SIMPLIFY_TOLERANCE", PathSimplifier.DEFAULT_SIMPLIFY_TOLERANCE);
+        PathSimplifier.simplifyZTolerance = getConfigAsDouble("SIMPLIFY_Z_TOLERANCE", PathSimplifier.DEFAULT_SIMPLIFY_Z_TOLERANCE);
+        TravelOptimizer.travelOptimization = getConfigAsBoolean("TRAVEL_OPTIMIZATION", TravelOptimizer.DEFAULT_TRAVEL_OPTIMIZATION);
+        GcodeCompactor.compactStream = getConfigAsBoolean("COMPACT_STREAM", GcodeCompactor.DEFAULT_COMPACT_STREAM);
+        JobCache.maxCacheSize = getConfigAsInt("JOB_CACHE_SIZE", JobCache.DEFAULT_MAX_CACHE_SIZE);
         
         GcodeController.maxCodeHistory = getConfigAsInt("MAX_CODE_HISTORY", GcodeController.DEFAULT_MAX_CODE_HISTORY);
         Tracer.maxTraces = getConfigAsInt("MAX_TRACES", Tracer.DEFAULT_MAX_TRACES);
@@ -135,6 +150,22 @@ public class ConfigurationManager
         }
     }
     
+    /**
+     * Gets a configuration value as a boolean.
+     *
+     * @param name The name of the configuration.
+     * @param def  The default value of the configuration.
+     * @return The configuration value.
+     */
+    public static boolean getConfigAsBoolean(String name, boolean def)
+    {
+        if (settings.containsKey(name)) {
+            return Boolean.parseBoolean(settings.get(name));
+        } else {
+            return def;
+        }
+    }
+    
     /**
      * Gets a configuration value as a double.
      *
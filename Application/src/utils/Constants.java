@@ -52,6 +52,16 @@ public class Constants
      */
     public static final String GRBL_TEMP_DIRECTORY = "resources" + File.separator + "gcode" + File.separator + "temp" + File.separator;
     
+    /**
+     * The path to the directory of compiled gcode jobs.
+     */
+    public static final String GRBL_CACHE_DIRECTORY = "resources" + File.separator + "gcode" + File.separator + "cache" + File.separator;
+    
+    /**
+     * The path to the directory of cached profile traces.
+     */
+    public static final String TRACE_CACHE_DIRECTORY = GRBL_CACHE_DIRECTORY + "traces" + File.separator;
+    
     
     //JAVA3D
     
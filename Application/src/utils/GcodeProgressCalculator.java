@@ -6,13 +6,20 @@
 
 package utils;
 
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+import gcode.toolpath.ArcGeometry;
+import gcode.toolpath.ToolpathBuffer;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Provides utilities for calculating the distance of gcode instructions.
@@ -20,6 +27,27 @@ import java.util.StringTokenizer;
 public class GcodeProgressCalculator
 {
     
+    //Constants
+    
+    /**
+     * The number of gcode instructions above which the distance is calculated in parallel.
+     */
+    public static final int PARALLEL_THRESHOLD = 100000;
+    
+    /**
+     * The number of gcode instructions calculated by a task before it is split.
+     */
+    private static final int TASK_SIZE = 8192;
+    
+    
+    //Static Fields
+    
+    /**
+     * The word buffer of each thread calculating distances.
+     */
+    private static final ThreadLocal<GcodeWords> WORDS = ThreadLocal.withInitial(GcodeWords::new);
+    
+    
     //Functions
     
     /**
@@ -55,6 +83,10 @@ public class GcodeProgressCalculator
      */
     public static double calculateFileProgressUnits(List<String> gcodeCommands)
     {
+        if (gcodeCommands.size() >= PARALLEL_THRESHOLD) {
+            return calculateFileProgressUnits(gcodeCommands, ForkJoinPool.commonPool());
+        }
+        
         double distance = 0.0;
         for (String gcodeCommand : gcodeCommands) {
             distance += calculateInstructionProgressUnits(gcodeCommand);
@@ -62,6 +94,27 @@ public class GcodeProgressCalculator
         return distance;
     }
     
+    /**
+     * Calculates the total distance travelled by a gcode file in parallel.<br/>
+     * The distance of each instruction only depends on the instruction, so the instructions are calculated in a ForkJoinPool and then summed in order, giving exactly the same total as the sequential calculation.
+     *
+     * @param gcodeCommands The list of gcode instructions to calculate the distance for.
+     * @param pool          The pool to calculate the distances in.
+     * @return The total distance travelled by a gcode file, or -1 if there was an error.
+     */
+    public static double calculateFileProgressUnits(List<String> gcodeCommands, ForkJoinPool pool)
+    {
+        List<String> instructions = (gcodeCommands instanceof RandomAccess) ? gcodeCommands : new ArrayList<>(gcodeCommands);
+        double[] distances = new double[instructions.size()];
+        pool.invoke(new DistanceTask(instructions, distances, 0, distances.length));
+        
+        double distance = 0.0;
+        for (double instructionDistance : distances) {
+            distance += instructionDistance;
+        }
+        return distance;
+    }
+    
     /**
      * Calculates the distance travelled by a gcode instruction.
      *
@@ -70,46 +123,168 @@ public class GcodeProgressCalculator
      */
     public static double calculateInstructionProgressUnits(String instruction)
     {
-        List<String> tokens = new ArrayList<>();
-        StringTokenizer st = new StringTokenizer(instruction);
-        while (st.hasMoreTokens()) {
-            tokens.add(st.nextToken());
+        GcodeWords words = WORDS.get();
+        GcodeLexer.lex(instruction, words);
+        return calculateInstructionProgressUnits(words);
+    }
+    
+    /**
+     * Calculates the distance travelled by a gcode instruction that has already been lexed.
+     *
+     * @param words The words of the gcode instruction to calculate the distance for.
+     * @return The distance travelled by a gcode instruction.
+     */
+    public static double calculateInstructionProgressUnits(GcodeWords words)
+    {
+        boolean line = words.isCommand('G', 1) || words.isCommand('G', 0);
+        boolean arc = words.isCommand('G', 2) || words.isCommand('G', 3);
+        if (line || arc) {
+            if (words.isMalformed('X') || words.isMalformed('Y') || words.isMalformed('Z') || words.isMalformed('F') ||
+                    (arc && (words.isMalformed('I') || words.isMalformed('J') || words.isMalformed('R')))) {
+                System.err.println("Error calculating the gcode distance for instruction: " + words.getLine() + ". Number is not formatted properly!");
+                return 0;
+            }
+            
+            double x = words.getValue('X', 0);
+            double y = words.getValue('Y', 0);
+            double z = words.getValue('Z', 0);
+            double f = words.getValue('F', 0);
+            
+            double distance = Math.sqrt(x * x + y * y + z * z);
+            if (arc) {
+                distance = calculateArcDistance(words, x, y, z, distance);
+            }
+            if (f != 0) {
+                distance /= (f / 60); //divide by velocity in mm/sec
+            }
+            
+            return distance;
         }
         
-        if (tokens.size() > 0) {
-            if (tokens.get(0).equals("G1") || tokens.get(0).equals("G0")) {
-                double x = 0;
-                double y = 0;
-                double z = 0;
-                double f = 0;
-                
-                try {
-                    for (String token : tokens) {
-                        if (token.startsWith("X")) {
-                            x = Double.parseDouble(token.substring(1));
-                        } else if (token.startsWith("Y")) {
-                            y = Double.parseDouble(token.substring(1));
-                        } else if (token.startsWith("Z")) {
-                            z = Double.parseDouble(token.substring(1));
-                        } else if (token.startsWith("F")) {
-                            f = Double.parseDouble(token.substring(1));
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    System.err.println("Error calculating the gcode distance for instruction: " + instruction + ". Number is not formatted properly!");
-                    return 0;
-                }
+        return 0;
+    }
+    
+    /**
+     * Calculates the distance travelled along a G2 or G3 arc in the XY plane.
+     *
+     * @param words    The words of the arc.
+     * @param x        The x distance from the start to the end of the arc.
+     * @param y        The y distance from the start to the end of the arc.
+     * @param z        The z distance from the start to the end of the arc.
+     * @param straight The straight distance from the start to the end of the arc, which is used if the arc has no center.
+     * @return The distance travelled along the arc.
+     */
+    private static double calculateArcDistance(GcodeWords words, double x, double y, double z, double straight)
+    {
+        boolean clockwise = words.isCommand('G', 2);
+        double i = words.getValue('I', 0);
+        double j = words.getValue('J', 0);
+        if (words.has('R')) {
+            double[] center = new double[2];
+            if (!ArcGeometry.centerFromRadius(x, y, words.getValue('R', 0), clockwise, center)) {
+                return straight;
+            }
+            i = center[0];
+            j = center[1];
+        }
+        
+        double radius = Math.sqrt(i * i + j * j);
+        if (radius == 0) {
+            return straight;
+        }
+        double arc = radius * ArcGeometry.sweep(-i, -j, x - i, y - j, clockwise);
+        return Math.sqrt(arc * arc + z * z);
+    }
+    
+    /**
+     * Returns the total distance travelled by a toolpath, which was summed as the toolpath was built.
+     *
+     * @param toolpath The toolpath to calculate the distance for.
+     * @return The total distance travelled by the toolpath.
+     */
+    public static double calculateFileProgressUnits(ToolpathBuffer toolpath)
+    {
+        return toolpath.getTotalTime();
+    }
+    
+    
+    //Inner Classes
     
-                double distance = Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2) + Math.pow(z, 2));
-                if (f != 0) {
-                    distance /= (f / 60); //divide by velocity in mm/sec
+    /**
+     * A task that calculates the distances of a range of gcode instructions.
+     */
+    private static class DistanceTask extends RecursiveAction
+    {
+        
+        //Constants
+        
+        /**
+         * The serial version UID of the task.
+         */
+        private static final long serialVersionUID = 1L;
+        
+        
+        //Fields
+        
+        /**
+         * The list of gcode instructions.
+         */
+        private final List<String> instructions;
+        
+        /**
+         * The distances of the gcode instructions.
+         */
+        private final double[] distances;
+        
+        /**
+         * The index of the first gcode instruction of the range.
+         */
+        private final int start;
+        
+        /**
+         * The index after the last gcode instruction of the range.
+         */
+        private final int end;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a DistanceTask.
+         *
+         * @param instructions The list of gcode instructions.
+         * @param distances    The distances of the gcode instructions.
+         * @param start        The index of the first gcode instruction of the range.
+         * @param end          The index after the last gcode instruction of the range.
+         */
+        private DistanceTask(List<String> instructions, double[] distances, int start, int end)
+        {
+            this.instructions = instructions;
+            this.distances = distances;
+            this.start = start;
+            this.end = end;
+        }
+        
+        
+        //Methods
+        
+        /**
+         * Calculates the distances of the range, splitting it in half while it is larger than a task.
+         */
+        @Override
+        protected void compute()
+        {
+            if (end - start <= TASK_SIZE) {
+                for (int i = start; i < end; i++) {
+                    distances[i] = calculateInstructionProgressUnits(instructions.get(i));
                 }
-                
-                return distance;
+                return;
             }
+            
+            int middle = (start + end) >>> 1;
+            invokeAll(new DistanceTask(instructions, distances, start, middle), new DistanceTask(instructions, distances, middle, end));
         }
         
-        return 0;
     }
     
 }
@@ -6,8 +6,12 @@
 
 package utils;
 
+import gcode.toolpath.ToolpathBuffer;
+import gcode.toolpath.ToolpathBuilder;
 import gui.interfaces.main.ModelController;
 import gui.interfaces.popup.SystemNotificationController;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
 import renderer.Renderer;
 
 import javax.imageio.ImageIO;
@@ -19,11 +23,13 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * Traces a G-code file to make an image.
+ * Traces a G-code file to make an image.<br/>
+ * The profiles of a set are traced in parallel, each with its own trace state, so they can be shown as soon as each one is traced.<br/>
+ * Traces are kept in the TraceCache, so a profile that was already traced with the same foam and image size is loaded instead of traced again.
  */
 public class GcodeTracer
 {
@@ -51,32 +57,61 @@ public class GcodeTracer
     public static final int scaleFactor = 3;
     
     /**
-     * The current profile number.
+     * The number of profiles traced at the same time.
      */
-    public static int n = 0;
+    public static final int TRACE_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
     
     
-    //Fields
+    //Static Fields
+    
+    /**
+     * The pool profiles are traced in, shared by every GcodeTracer so loading several sets never uses more than TRACE_THREADS threads.
+     */
+    private static final ForkJoinPool TRACE_POOL = new ForkJoinPool(TRACE_THREADS);
+    
+    /**
+     * The pixels of the background of a trace, the grid, axes and foam outline, or null if it has not been rendered.
+     */
+    private static int[] background = null;
+    
+    /**
+     * The foam length the background was rendered for.
+     */
+    private static double backgroundFoamLength = Double.NaN;
     
     /**
-     * The current x trace positions.
+     * The foam height the background was rendered for.
      */
-    private double traceX;
+    private static double backgroundFoamHeight = Double.NaN;
+    
+    
+    //Fields
     
     /**
-     * The current y trace positions.
+     * The pool the profiles are traced in.
      */
-    private double traceY;
+    private final ForkJoinPool pool;
+    
+    
+    //Constructors
     
     /**
-     * The initial x trace position.
+     * The constructor for a GcodeTracer.
+     *
+     * @param pool The pool to trace the profiles in.
      */
-    private double initTraceX;
+    public GcodeTracer(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
     
     /**
-     * The initial y trace position.
+     * The default no-argument constructor for a GcodeTracer.
      */
-    private double initTraceY;
+    public GcodeTracer()
+    {
+        this(TRACE_POOL);
+    }
     
     
     //Methods
@@ -87,24 +122,98 @@ public class GcodeTracer
      * @param gcodeFiles The list of gcode files to trace.
      * @return The list of BufferedImages produced from the gcode files.
      */
-    public synchronized List<BufferedImage> traceGcodeSet(List<String> gcodeFiles)
+    public List<BufferedImage> traceGcodeSet(List<String> gcodeFiles)
     {
-        n = 0;
-        
         List<BufferedImage> traces = new ArrayList<>();
+        for (CompletableFuture<BufferedImage> trace : traceGcodeSetAsync(gcodeFiles)) {
+            traces.add(trace.join());
+        }
+        return traces;
+    }
+    
+    /**
+     * Starts tracing a list of gcode files in the pool, without waiting for them to be traced.
+     *
+     * @param gcodeFiles The list of gcode files to trace.
+     * @return The list of futures completed with the BufferedImages produced from the gcode files, in the order of the files.
+     */
+    public List<CompletableFuture<BufferedImage>> traceGcodeSetAsync(List<String> gcodeFiles)
+    {
+        List<CompletableFuture<BufferedImage>> traces = new ArrayList<>();
         for (String gcode : gcodeFiles) {
-            traces.add(traceGcode(gcode));
+            traces.add(CompletableFuture.supplyAsync(() -> traceGcode(gcode), pool));
         }
         return traces;
     }
     
+    /**
+     * Starts loading the traces of a list of gcode files in the pool, from the TraceCache for the profiles that have been traced before.
+     *
+     * @param gcodeFiles The list of gcode files to load the traces of.
+     * @return The list of futures completed with the Images of the gcode files, in the order of the files.
+     */
+    public List<CompletableFuture<Image>> loadGcodeSetAsync(List<String> gcodeFiles)
+    {
+        List<CompletableFuture<Image>> traces = new ArrayList<>();
+        for (String gcode : gcodeFiles) {
+            traces.add(loadGcodeAsync(gcode));
+        }
+        return traces;
+    }
+    
+    /**
+     * Starts loading the trace of a gcode file in the pool, from the TraceCache if the profile has been traced before.
+     *
+     * @param gcode The gcode file to load the trace of.
+     * @return The future completed with the Image of the gcode file.
+     */
+    public CompletableFuture<Image> loadGcodeAsync(String gcode)
+    {
+        String settings = getTraceSettings();
+        return CompletableFuture.supplyAsync(() -> loadGcode(gcode, settings), pool);
+    }
+    
+    /**
+     * Loads the trace of a gcode file from the TraceCache, or traces it and caches it if it has not been traced with the same settings before.
+     *
+     * @param gcode    The gcode file to load the trace of.
+     * @param settings The settings that affect the trace.
+     * @return The Image of the trace.
+     */
+    private Image loadGcode(String gcode, String settings)
+    {
+        String key = null;
+        try {
+            key = TraceCache.cacheKey(new File(gcode), settings);
+        } catch (IOException e) {
+            System.err.println("Error reading gcode file:" + gcode + ", its trace will not be cached.");
+        }
+        
+        if (key != null) {
+            File cached = TraceCache.find(key);
+            if (cached != null) {
+                Image image = new Image(cached.toURI().toString());
+                if (!image.isError()) {
+                    return image;
+                }
+                System.err.println("The cached trace: " + cached.getAbsolutePath() + " is not valid, it will be traced again.");
+            }
+        }
+        
+        BufferedImage trace = traceGcode(gcode);
+        if (key != null) {
+            TraceCache.store(key, trace);
+        }
+        return SwingFXUtils.toFXImage(trace, null);
+    }
+    
     /**
      * Traces the gcode for a file.
      *
      * @param gcode The gcode file to trace.
      * @return The BufferedImage that was created from the gcode.
      */
-    private synchronized BufferedImage traceGcode(String gcode)
+    private BufferedImage traceGcode(String gcode)
     {
         List<String> lines = new ArrayList<>();
         try {
@@ -113,53 +222,73 @@ public class GcodeTracer
             System.err.println("Error reading lines of gcode file:" + gcode + ".");
             e.printStackTrace();
         }
-        BufferedImage trace = new BufferedImage(IMAGE_SIZE_X / scaleFactor, IMAGE_SIZE_Y / scaleFactor, BufferedImage.TYPE_INT_RGB);
-        
-        initTraceX = IMAGE_SIZE_X / 2;
-        initTraceY = IMAGE_BORDER;
-        
-        traceX = initTraceX;
-        traceY = initTraceY + (IMAGE_SIZE_Y - 2 * IMAGE_BORDER) - (Renderer.foamHeight * Renderer.MILLIMETERS_IN_INCH);
-    
-        Graphics2D g2 = trace.createGraphics();
-        initializeImage(g2);
+        Trace trace = new Trace();
         
-        Pattern g1Pattern = Pattern.compile("G[01]\\s*(X(?<x>[-]?\\d*\\.?\\d*))?\\s*(Y(?<y>[-]?\\d*\\.?\\d*))?.*");
+        ToolpathBuilder builder = new ToolpathBuilder();
         for (String line : lines) {
-            Matcher g1Matcher = g1Pattern.matcher(line);
-            if (g1Matcher.matches()) {
-                double x = 0;
-                double y = 0;
-                try {
-                    if (line.contains("X")) {
-                        x = Double.valueOf(g1Matcher.group("x"));
-                    }
-                    if (line.contains("Y")) {
-                        y = Double.valueOf(g1Matcher.group("y"));
-                    }
-                } catch (NumberFormatException e) {
-                    System.err.println("Gcode instruction: \"" + line + "\" is not formatted correctly!");
-                    SystemNotificationController.throwNotification("Gcode instruction: \"" + line + "\" is not formatted correctly!", true, false);
-                    break;
-                }
-                if (!moveTrace(g2, x, y)) {
-                    break;
-                }
+            if (!builder.append(line)) {
+                System.err.println("Gcode instruction: \"" + line + "\" is not formatted correctly!");
+                SystemNotificationController.throwNotification("Gcode instruction: \"" + line + "\" is not formatted correctly!", true, false);
+                break;
             }
         }
         
-        n++;
-        File d1 = new File(Constants.GRBL_TEMP_DIRECTORY);
-        if (!d1.exists()) {
-            d1.mkdir();
-        }
-        File d2 = new File(d1, "images");
-        if (!d2.exists()) {
-            d2.mkdir();
+        ToolpathBuffer toolpath = builder.getToolpath();
+        for (int i = 0; i < toolpath.size(); i++) {
+            double x = toolpath.getX(i) - toolpath.getX(i - 1);
+            double y = toolpath.getY(i) - toolpath.getY(i - 1);
+            if (!trace.move(x, y)) {
+                break;
+            }
         }
-        saveImage(trace, "JPG", new File(Constants.GRBL_TEMP_DIRECTORY + "images" + File.separator + n + ".jpg"));
         
-        return trace;
+        return trace.getImage();
+    }
+    
+    
+    //Functions
+    
+    /**
+     * Creates an image with the background of a gcode trace and no profile, to show while the profile is traced.
+     *
+     * @return The image.
+     */
+    public static BufferedImage createBlankTrace()
+    {
+        TraceRaster raster = new TraceRaster(IMAGE_SIZE_X / scaleFactor, IMAGE_SIZE_Y / scaleFactor);
+        raster.fill(getBackground());
+        return raster.getImage();
+    }
+    
+    /**
+     * Returns the settings that affect a trace, which are part of its key in the TraceCache.
+     *
+     * @return The settings that affect a trace.
+     */
+    private static String getTraceSettings()
+    {
+        return "FOAM_LENGTH=" + Renderer.foamLength + ",FOAM_HEIGHT=" + Renderer.foamHeight +
+                ",SCALE_FACTOR=" + scaleFactor + ",IMAGE_SIZE=" + IMAGE_SIZE_X + "x" + IMAGE_SIZE_Y;
+    }
+    
+    /**
+     * Returns the background of a trace, which is only rendered again when the size of the foam changes.
+     *
+     * @return The pixels of the background.
+     */
+    private static synchronized int[] getBackground()
+    {
+        if (background == null || backgroundFoamLength != Renderer.foamLength || backgroundFoamHeight != Renderer.foamHeight) {
+            backgroundFoamLength = Renderer.foamLength;
+            backgroundFoamHeight = Renderer.foamHeight;
+            
+            BufferedImage image = new BufferedImage(IMAGE_SIZE_X / scaleFactor, IMAGE_SIZE_Y / scaleFactor, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = image.createGraphics();
+            initializeImage(g2);
+            g2.dispose();
+            background = new TraceRaster(image).copyPixels();
+        }
+        return background;
     }
     
     /**
@@ -167,7 +296,7 @@ public class GcodeTracer
      *
      * @param g2 The graphics context to initialize.
      */
-    private void initializeImage(Graphics2D g2)
+    private static void initializeImage(Graphics2D g2)
     {
         //initialize image
         g2.setColor(Color.WHITE);
@@ -201,30 +330,6 @@ public class GcodeTracer
         g2.drawLine((int) ((IMAGE_SIZE_X / 2) - (Renderer.foamLength * Renderer.MILLIMETERS_IN_INCH / 2)) / scaleFactor, (int) (IMAGE_SIZE_Y - IMAGE_BORDER - (Renderer.foamHeight * Renderer.MILLIMETERS_IN_INCH)) / scaleFactor, (int) ((IMAGE_SIZE_X / 2) + (Renderer.foamLength * Renderer.MILLIMETERS_IN_INCH / 2)) / scaleFactor, (int) (IMAGE_SIZE_Y - IMAGE_BORDER - (Renderer.foamHeight * Renderer.MILLIMETERS_IN_INCH)) / scaleFactor);
     }
     
-    /**
-     * Performs a move from the gcode.
-     *
-     * @param g2 The graphics context.
-     * @param x  The relative x movement.
-     * @param y  The relative y movement.
-     *
-     * @return Whether the trace stayed in the bounds of the machine or not.
-     */
-    private synchronized boolean moveTrace(Graphics2D g2, double x, double y)
-    {
-        g2.setColor(Color.BLACK);
-        g2.drawLine((int) traceX / scaleFactor, (int) traceY / scaleFactor, (int) (traceX + x) / scaleFactor, (int) (traceY + y) / scaleFactor);
-        g2.drawLine(((int) traceX / scaleFactor) - 1, ((int) traceY / scaleFactor) - 1, ((int) (traceX + x) / scaleFactor) - 1,((int) (traceY + y) / scaleFactor) - 1);
-        g2.drawLine(((int) traceX / scaleFactor) + 1, ((int) traceY / scaleFactor) + 1,  ((int) (traceX + x) / scaleFactor) + 1, ((int) (traceY + y) / scaleFactor) + 1);
-        traceX += x;
-        traceY += y;
-        
-        return true;
-    }
-    
-    
-    //Functions
-    
     /**
      * Saves a BufferedImage to a file.
      *
@@ -242,4 +347,79 @@ public class GcodeTracer
         }
     }
     
+    
+    //Inner Classes
+    
+    /**
+     * The state of the trace of one profile.
+     */
+    private static class Trace
+    {
+        
+        //Fields
+        
+        /**
+         * The raster the profile is traced on.
+         */
+        private final TraceRaster raster;
+        
+        /**
+         * The current x trace position.
+         */
+        private double traceX;
+        
+        /**
+         * The current y trace position.
+         */
+        private double traceY;
+        
+        
+        //Constructors
+        
+        /**
+         * The constructor for a Trace, starting at the top center of the foam.
+         */
+        private Trace()
+        {
+            raster = new TraceRaster(IMAGE_SIZE_X / scaleFactor, IMAGE_SIZE_Y / scaleFactor);
+            raster.fill(getBackground());
+            
+            traceX = IMAGE_SIZE_X / 2;
+            traceY = IMAGE_BORDER + (IMAGE_SIZE_Y - 2 * IMAGE_BORDER) - (Renderer.foamHeight * Renderer.MILLIMETERS_IN_INCH);
+        }
+        
+        
+        //Methods
+        
+        /**
+         * Performs a move from the gcode.
+         *
+         * @param x The relative x movement.
+         * @param y The relative y movement.
+         * @return Whether the trace stayed in the bounds of the machine or not.
+         */
+        private boolean move(double x, double y)
+        {
+            raster.drawThickLine((int) traceX / scaleFactor, (int) traceY / scaleFactor, (int) (traceX + x) / scaleFactor, (int) (traceY + y) / scaleFactor, Color.BLACK.getRGB());
+            traceX += x;
+            traceY += y;
+            
+            return true;
+        }
+        
+        
+        //Getters
+        
+        /**
+         * Returns the image the profile is traced on.
+         *
+         * @return The image the profile is traced on.
+         */
+        private BufferedImage getImage()
+        {
+            return raster.getImage();
+        }
+        
+    }
+    
 }
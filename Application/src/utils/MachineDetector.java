@@ -7,10 +7,15 @@
 package utils;
 
 import grbl.DetectGrbl;
+import grbl.transport.SerialPortEnumerator;
 import main.Main;
 
+import java.util.List;
+
 /**
- * Handles machine detection.
+ * Handles machine detection.<br/>
+ * The machine is detected once per session and only detected again when a serial device is plugged in or removed.<br/>
+ * The serial ports are not polled while a job is streaming, and when listing them is expensive the poll backs off while nothing changes.
  */
 public final class MachineDetector
 {
@@ -39,6 +44,16 @@ public final class MachineDetector
      * The default id of the Hotwire Machine Arduino.
      */
     public static final String DEFAULT_HOTWIRE_ARDUINO = "85735313033351202220";
+    
+    /**
+     * The interval between checks for serial devices being plugged in or removed, in milliseconds.
+     */
+    public static final long HOT_PLUG_POLL_INTERVAL = 2000;
+    
+    /**
+     * The maximum interval between checks for serial devices being plugged in or removed when listing the serial ports is expensive, in milliseconds.
+     */
+    public static final long HOT_PLUG_MAX_POLL_INTERVAL = 30000;
 
     
     //Static Fields
@@ -48,6 +63,26 @@ public final class MachineDetector
      */
     private static Machine machine;
     
+    /**
+     * The serial port that the connected machine is attached to.
+     */
+    private static String port;
+    
+    /**
+     * The names of the serial ports that were attached when the machine was detected.
+     */
+    private static List<String> attachedPorts;
+    
+    /**
+     * The thread that detects the machine again when a serial device is plugged in or removed.
+     */
+    private static Thread hotPlugMonitor;
+    
+    /**
+     * A flag indicating whether the hot plug monitor is suspended or not.
+     */
+    private static volatile boolean hotPlugMonitorSuspended = false;
+    
     /**
      * The id of the CNC Machine Arduino.
      */
@@ -64,22 +99,76 @@ public final class MachineDetector
     /**
      * Detects which machine is connected.
      */
-    public static void detectMachine()
+    public static synchronized void detectMachine()
     {
-        DetectGrbl detect = new DetectGrbl();
+        attachedPorts = SerialPortEnumerator.listPortNames();
+        DetectGrbl detect = new DetectGrbl(cncArduino, hotwireArduino);
         String type = detect.getType();
+        port = detect.getPort();
 
         if (Main.development) {
             machine = Main.developmentMode;
         } else {
-            if (type.compareTo(cncArduino) == 0) {
+            if (type == null) {
+                machine = Machine.NONE;
+            } else if (type.equals(cncArduino)) {
                 machine = Machine.CNC;
-            } else if (type.compareTo(hotwireArduino) == 0) {
+            } else if (type.equals(hotwireArduino)) {
                 machine = Machine.HOTWIRE;
             } else {
                 machine = Machine.NONE;
             }
         }
+        
+        startHotPlugMonitor();
+    }
+    
+    /**
+     * Starts the thread that detects the machine again when a serial device is plugged in or removed, if it is not already running.
+     */
+    private static void startHotPlugMonitor()
+    {
+        if (hotPlugMonitor != null) {
+            return;
+        }
+        
+        boolean cheap = SerialPortEnumerator.isListingPortNamesCheap();
+        hotPlugMonitor = new Thread(() -> {
+            long interval = HOT_PLUG_POLL_INTERVAL;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+                if (hotPlugMonitorSuspended) {
+                    continue;
+                }
+                
+                List<String> ports = SerialPortEnumerator.listPortNames();
+                boolean changed;
+                synchronized (MachineDetector.class) {
+                    changed = !ports.equals(attachedPorts);
+                    if (changed) {
+                        detectMachine();
+                    }
+                }
+                interval = (cheap || changed) ? HOT_PLUG_POLL_INTERVAL : Math.min(interval * 2, HOT_PLUG_MAX_POLL_INTERVAL);
+            }
+        }, "serial-hot-plug-monitor");
+        hotPlugMonitor.setDaemon(true);
+        hotPlugMonitor.start();
+    }
+    
+    /**
+     * Suspends or resumes the thread that detects the machine again when a serial device is plugged in or removed.<br/>
+     * The monitor is suspended while a job is streaming, so the serial ports are not polled or probed during the job.
+     *
+     * @param suspended Whether the hot plug monitor is suspended or not.
+     */
+    public static void setHotPlugMonitorSuspended(boolean suspended)
+    {
+        hotPlugMonitorSuspended = suspended;
     }
     
     /**
@@ -87,7 +176,7 @@ public final class MachineDetector
      *
      * @return The type of machine connected to.
      */
-    public static Machine getMachineType()
+    public static synchronized Machine getMachineType()
     {
         if (machine == null) {
             detectMachine();
@@ -96,6 +185,20 @@ public final class MachineDetector
         return machine;
     }
     
+    /**
+     * Returns the serial port that the connected machine is attached to.
+     *
+     * @return The serial port that the connected machine is attached to.
+     */
+    public static synchronized String getPort()
+    {
+        if (machine == null) {
+            detectMachine();
+        }
+        
+        return port;
+    }
+    
     /**
      * Returns whether the machine connected to is the CNC machine or not.
      *
@@ -0,0 +1,170 @@
+/*
+ * File:    TraceCache.java
+ * Package: utils
+ * Author:  Zachary Gill
+ */
+
+package utils;
+
+import grbl.JobCache;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A cache of profile traces on disk.<br/>
+ * A trace is stored as a PNG under the SHA-256 of its gcode file and the settings it was traced with, so opening the same profiles again loads their images instead of tracing them.<br/>
+ * The least recently used traces are deleted when the cache grows larger than its maximum size.
+ */
+public final class TraceCache
+{
+    
+    //Constants
+    
+    /**
+     * The version of the traces, which changes the cache keys when the way a profile is traced changes.
+     */
+    public static final int VERSION = 1;
+    
+    /**
+     * The extension of a cached trace.
+     */
+    public static final String EXTENSION = ".png";
+    
+    /**
+     * The default maximum size of the cache, in megabytes.
+     */
+    public static final int DEFAULT_MAX_CACHE_SIZE = 32;
+    
+    /**
+     * The number of bytes in a megabyte.
+     */
+    private static final long BYTES_IN_MEGABYTE = 1024L * 1024L;
+    
+    
+    //Static Fields
+    
+    /**
+     * The directory of cached traces.
+     */
+    public static String cacheDirectory = Constants.TRACE_CACHE_DIRECTORY;
+    
+    /**
+     * The maximum size of the cache, in megabytes.
+     */
+    public static int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    
+    
+    //Functions
+    
+    /**
+     * Returns the cached trace stored under a cache key, and marks it as recently used.
+     *
+     * @param key The cache key.
+     * @return The cached trace, or null if there is no trace stored under the cache key.
+     */
+    public static File find(String key)
+    {
+        File trace = new File(cacheDirectory, key + EXTENSION);
+        if (!trace.isFile()) {
+            return null;
+        }
+        
+        if (!trace.setLastModified(System.currentTimeMillis())) {
+            System.err.println("Could not update the cached trace: " + trace.getAbsolutePath() + ", it may be evicted before it is used again.");
+        }
+        return trace;
+    }
+    
+    /**
+     * Stores a trace under a cache key, and evicts the least recently used traces if the cache is too large.
+     *
+     * @param key   The cache key.
+     * @param image The trace.
+     * @return The cached trace, or null if it could not be stored.
+     */
+    public static File store(String key, BufferedImage image)
+    {
+        File directory = new File(cacheDirectory);
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        
+        //the trace is written to a temporary file first, so a trace that is being written is never found
+        File trace = new File(directory, key + EXTENSION);
+        File temp = null;
+        try {
+            temp = File.createTempFile("trace", ".tmp", directory);
+            if (!ImageIO.write(image, "PNG", temp)) {
+                throw new IOException("There is no PNG writer available");
+            }
+            Files.move(temp.toPath(), trace.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not write the cached trace: " + trace.getAbsolutePath() + "!");
+            if (temp != null && temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+            return null;
+        }
+        
+        evict(maxCacheSize * BYTES_IN_MEGABYTE);
+        return trace;
+    }
+    
+    /**
+     * Deletes the least recently used traces until the cache is no larger than a size.
+     *
+     * @param maxBytes The maximum size of the cache, in bytes.
+     */
+    public static synchronized void evict(long maxBytes)
+    {
+        File[] traces = new File(cacheDirectory).listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (traces == null) {
+            return;
+        }
+        
+        long size = 0;
+        long[] lastUsed = new long[traces.length];
+        for (int i = 0; i < traces.length; i++) {
+            size += traces[i].length();
+            lastUsed[i] = traces[i].lastModified();
+        }
+        if (size <= maxBytes) {
+            return;
+        }
+        
+        Integer[] order = new Integer[traces.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> lastUsed[i]));
+        
+        for (int i = 0; i < order.length && size > maxBytes; i++) {
+            File trace = traces[order[i]];
+            long length = trace.length();
+            if (trace.delete()) {
+                size -= length;
+            }
+        }
+    }
+    
+    /**
+     * Returns the cache key of a trace, the SHA-256 of the trace version, the settings and the contents of the gcode file.
+     *
+     * @param source   The gcode file.
+     * @param settings The settings that affect the trace.
+     * @return The cache key, as a hex string.
+     * @throws IOException When the gcode file could not be read.
+     */
+    public static String cacheKey(File source, String settings) throws IOException
+    {
+        return JobCache.cacheKey(source, "TRACE_VERSION=" + VERSION + "," + settings);
+    }
+    
+}
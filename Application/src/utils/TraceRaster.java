@@ -0,0 +1,223 @@
+/*
+ * File:    TraceRaster.java
+ * Package: utils
+ * Author:  Zachary Gill
+ */
+
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Draws the lines of a profile trace straight into the pixels of a BufferedImage.<br/>
+ * A trace draws every segment of a profile, so the lines are drawn with Bresenham's algorithm into the int[] backing the image instead of through a Graphics2D, and the background of a trace is copied into it as a block of pixels.
+ */
+public class TraceRaster
+{
+    
+    //Fields
+    
+    /**
+     * The image drawn on.
+     */
+    private final BufferedImage image;
+    
+    /**
+     * The pixels of the image, row by row.
+     */
+    private final int[] pixels;
+    
+    /**
+     * The width of the image.
+     */
+    private final int width;
+    
+    /**
+     * The height of the image.
+     */
+    private final int height;
+    
+    
+    //Constructors
+    
+    /**
+     * The constructor for a TraceRaster drawing on an image.
+     *
+     * @param image The image to draw on, of type TYPE_INT_RGB.
+     */
+    public TraceRaster(BufferedImage image)
+    {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("A trace can only be drawn on an image of type TYPE_INT_RGB!");
+        }
+        
+        this.image = image;
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+    }
+    
+    /**
+     * The constructor for a TraceRaster drawing on a new image.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    public TraceRaster(int width, int height)
+    {
+        this(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    }
+    
+    
+    //Methods
+    
+    /**
+     * Replaces the pixels of the image with a background.
+     *
+     * @param background The pixels of the background, row by row, from an image of the same size.
+     */
+    public void fill(int[] background)
+    {
+        if (background.length != pixels.length) {
+            throw new IllegalArgumentException("The background is not the size of the image!");
+        }
+        System.arraycopy(background, 0, pixels, 0, pixels.length);
+    }
+    
+    /**
+     * Draws a line one pixel wide.
+     *
+     * @param x0  The x coordinate of the start of the line.
+     * @param y0  The y coordinate of the start of the line.
+     * @param x1  The x coordinate of the end of the line.
+     * @param y1  The y coordinate of the end of the line.
+     * @param rgb The color of the line.
+     */
+    public void drawLine(int x0, int y0, int x1, int y1, int rgb)
+    {
+        drawLine(x0, y0, x1, y1, rgb, false);
+    }
+    
+    /**
+     * Draws a line three pixels wide, as the line and the lines one pixel up and left and one pixel down and right of it.
+     *
+     * @param x0  The x coordinate of the start of the line.
+     * @param y0  The y coordinate of the start of the line.
+     * @param x1  The x coordinate of the end of the line.
+     * @param y1  The y coordinate of the end of the line.
+     * @param rgb The color of the line.
+     */
+    public void drawThickLine(int x0, int y0, int x1, int y1, int rgb)
+    {
+        drawLine(x0, y0, x1, y1, rgb, true);
+    }
+    
+    /**
+     * Returns a copy of the pixels of the image, to fill other images with.
+     *
+     * @return The pixels of the image, row by row.
+     */
+    public int[] copyPixels()
+    {
+        return pixels.clone();
+    }
+    
+    /**
+     * Draws a line with Bresenham's algorithm.
+     *
+     * @param x0    The x coordinate of the start of the line.
+     * @param y0    The y coordinate of the start of the line.
+     * @param x1    The x coordinate of the end of the line.
+     * @param y1    The y coordinate of the end of the line.
+     * @param rgb   The color of the line.
+     * @param thick Whether the line is drawn three pixels wide or not.
+     */
+    private void drawLine(int x0, int y0, int x1, int y1, int rgb, boolean thick)
+    {
+        int margin = thick ? 1 : 0;
+        if (Math.max(x0, x1) + margin < 0 || Math.min(x0, x1) - margin >= width ||
+                Math.max(y0, y1) + margin < 0 || Math.min(y0, y1) - margin >= height) {
+            return;
+        }
+        
+        //the pixels are opaque, as a Graphics2D writes them
+        int color = rgb | 0xFF000000;
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = (x0 < x1) ? 1 : -1;
+        int sy = (y0 < y1) ? 1 : -1;
+        int error = dx + dy;
+        
+        int x = x0;
+        int y = y0;
+        while (true) {
+            plot(x, y, color);
+            if (thick) {
+                plot(x - 1, y - 1, color);
+                plot(x + 1, y + 1, color);
+            }
+            
+            if (x == x1 && y == y1) {
+                break;
+            }
+            int error2 = 2 * error;
+            if (error2 >= dy) {
+                error += dy;
+                x += sx;
+            }
+            if (error2 <= dx) {
+                error += dx;
+                y += sy;
+            }
+        }
+    }
+    
+    /**
+     * Sets a pixel, if it is in the image.
+     *
+     * @param x     The x coordinate of the pixel.
+     * @param y     The y coordinate of the pixel.
+     * @param color The color of the pixel.
+     */
+    private void plot(int x, int y, int color)
+    {
+        if (x >= 0 && x < width && y >= 0 && y < height) {
+            pixels[y * width + x] = color;
+        }
+    }
+    
+    
+    //Getters
+    
+    /**
+     * Returns the image drawn on.
+     *
+     * @return The image drawn on.
+     */
+    public BufferedImage getImage()
+    {
+        return image;
+    }
+    
+    /**
+     * Returns the width of the image.
+     *
+     * @return The width of the image.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    /**
+     * Returns the height of the image.
+     *
+     * @return The height of the image.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+    
+}
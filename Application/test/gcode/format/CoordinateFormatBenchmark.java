@@ -0,0 +1,124 @@
+/*
+ * File:    CoordinateFormatBenchmark.java
+ * Package: gcode.format
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.format;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures the time and garbage of formatting moves with the CoordinateFormat, against the String.format() calls it replaced.<br/>
+ * Each move has an X, Y, Z and F word, like the moves rebuilt by GcodeModifier.truncatePrecision() and APIgrbl.adjustGcode().
+ */
+public class CoordinateFormatBenchmark
+{
+    
+    //Constants
+    
+    /**
+     * The number of moves formatted in each run.
+     */
+    private static final int MOVES = 1000000;
+    
+    /**
+     * The number of runs to warm up the JIT with before measuring.
+     */
+    private static final int WARM_UP_RUNS = 3;
+    
+    
+    //Static Fields
+    
+    /**
+     * A value accumulated from every formatted move, so that the JIT cannot eliminate the work.
+     */
+    private static long sink = 0;
+    
+    
+    //Main Method
+    
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Arguments to the main method.
+     */
+    public static void main(String[] args)
+    {
+        Random random = new Random(0);
+        double[] values = new double[MOVES * 4];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (random.nextDouble() - 0.5) * 600;
+        }
+        
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            runCoordinateFormat(values);
+            runStringFormat(values);
+        }
+        
+        System.out.println(MOVES + " moves");
+        measure("  CoordinateFormat", () -> runCoordinateFormat(values));
+        measure("  String.format   ", () -> runStringFormat(values));
+        System.out.println(sink == 0 ? "" : " ");
+    }
+    
+    /**
+     * Measures and prints the time and allocation per move of a run.
+     *
+     * @param name The name of the run.
+     * @param run  The run.
+     */
+    private static void measure(String name, Runnable run)
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        run.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        
+        System.out.println(String.format("%s %8.1f ns/move %8.1f bytes/move", name, (double) elapsed / MOVES, (double) allocated / MOVES));
+    }
+    
+    /**
+     * Formats the moves with the CoordinateFormat into a reused StringBuilder.
+     *
+     * @param values The X, Y, Z and F values of the moves.
+     */
+    private static void runCoordinateFormat(double[] values)
+    {
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = 0; i < values.length; i += 4) {
+            sb.setLength(0);
+            sb.append("G1 ");
+            CoordinateFormat.appendWord(sb, 'X', values[i]);
+            CoordinateFormat.appendWord(sb, 'Y', values[i + 1]);
+            CoordinateFormat.appendWord(sb, 'Z', values[i + 2]);
+            CoordinateFormat.appendWord(sb, 'F', values[i + 3]);
+            sink += sb.length();
+        }
+    }
+    
+    /**
+     * Formats the moves with String.format(), as the GcodeModifier used to.
+     *
+     * @param values The X, Y, Z and F values of the moves.
+     */
+    private static void runStringFormat(double[] values)
+    {
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = 0; i < values.length; i += 4) {
+            sb.setLength(0);
+            sb.append("G1 ");
+            sb.append(String.format("X%.3f ", values[i]));
+            sb.append(String.format("Y%.3f ", values[i + 1]));
+            sb.append(String.format("Z%.3f ", values[i + 2]));
+            sb.append(String.format("F%.3f ", values[i + 3]));
+            sink += sb.length();
+        }
+    }
+    
+}
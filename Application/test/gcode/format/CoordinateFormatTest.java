@@ -0,0 +1,72 @@
+/*
+ * File:    CoordinateFormatTest.java
+ * Package: gcode.format
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.format;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Locale;
+import java.util.Random;
+
+@RunWith(PowerMockRunner.class)
+public class CoordinateFormatTest
+{
+    
+    @Test
+    public void testFormat()
+    {
+        Assert.assertEquals("12.500", CoordinateFormat.format(12.5));
+        Assert.assertEquals("-92.259", CoordinateFormat.format(-92.259));
+        Assert.assertEquals("0.000", CoordinateFormat.format(0.0));
+        Assert.assertEquals("-0.000", CoordinateFormat.format(-0.0));
+        Assert.assertEquals("-0.000", CoordinateFormat.format(-0.0004));
+        Assert.assertEquals("104.144", CoordinateFormat.format(104.14449));
+        Assert.assertEquals("200.000", CoordinateFormat.format(199.9996));
+        
+        //ties are rounded up from the shortest decimal representation, like String.format()
+        Assert.assertEquals("1.001", CoordinateFormat.format(1.0005));
+        Assert.assertEquals("-0.002", CoordinateFormat.format(-0.0015));
+        
+        Assert.assertEquals("100000000000000000000.000", CoordinateFormat.format(1e20));
+        Assert.assertEquals("NaN", CoordinateFormat.format(Double.NaN));
+        Assert.assertEquals("-Infinity", CoordinateFormat.format(Double.NEGATIVE_INFINITY));
+        
+        StringBuilder sb = new StringBuilder("G1 ");
+        CoordinateFormat.appendWord(sb, 'X', 1.5);
+        CoordinateFormat.appendWord(sb, 'F', 200);
+        Assert.assertEquals("G1 X1.500 F200.000 ", sb.toString());
+    }
+    
+    @Test
+    public void testSameAsStringFormat()
+    {
+        Random random = new Random(13);
+        for (int i = 0; i < 20000; i++) {
+            double value;
+            switch (i % 4) {
+                case 0:
+                    value = (random.nextDouble() - 0.5) * 2000;
+                    break;
+                case 1:
+                    //values halfway between two outputs
+                    value = (random.nextInt(2000000) - 1000000) / 1000.0 + 0.0005;
+                    break;
+                case 2:
+                    value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(14) - 4);
+                    break;
+                default:
+                    value = Double.longBitsToDouble(random.nextLong());
+                    break;
+            }
+            
+            Assert.assertEquals(String.format(Locale.ROOT, "%.3f", value), CoordinateFormat.format(value));
+        }
+    }
+    
+}
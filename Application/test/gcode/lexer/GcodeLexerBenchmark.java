@@ -0,0 +1,180 @@
+/*
+ * File:    GcodeLexerBenchmark.java
+ * Package: gcode.lexer
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.lexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the time and garbage of lexing the gcode samples with the GcodeLexer, against the StringTokenizer and regex tokenizers it replaced.<br/>
+ * The samples in resources/gcode are repeated up to millions of lines.
+ */
+public class GcodeLexerBenchmark
+{
+    
+    //Constants
+    
+    /**
+     * The number of lines lexed in each run.
+     */
+    private static final int LINES = 2000000;
+    
+    /**
+     * The number of runs to warm up the JIT with before measuring.
+     */
+    private static final int WARM_UP_RUNS = 3;
+    
+    /**
+     * The directory of the gcode samples.
+     */
+    private static final String SAMPLE_DIRECTORY = "resources" + File.separator + "gcode";
+    
+    /**
+     * The pattern GcodeTracer used to match moves.
+     */
+    private static final Pattern MOVE_PATTERN = Pattern.compile("G[01]\\s*(X(?<x>[-]?\\d*\\.?\\d*))?\\s*(Y(?<y>[-]?\\d*\\.?\\d*))?.*");
+    
+    
+    //Static Fields
+    
+    /**
+     * A value accumulated from every lexed line, so that the JIT cannot eliminate the work.
+     */
+    private static double sink = 0;
+    
+    
+    //Main Method
+    
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Arguments to the main method.
+     * @throws IOException When the gcode samples could not be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        List<String> samples = new ArrayList<>();
+        File[] files = new File(SAMPLE_DIRECTORY).listFiles((dir, name) -> name.endsWith(".gcode"));
+        if (files != null) {
+            for (File file : files) {
+                samples.addAll(Files.readAllLines(file.toPath()));
+            }
+        }
+        if (samples.isEmpty()) {
+            System.err.println("No gcode samples were found in: " + new File(SAMPLE_DIRECTORY).getAbsolutePath());
+            return;
+        }
+        
+        String[] lines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = samples.get(i % samples.size());
+        }
+        
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            runLexer(lines);
+            runTokenizer(lines);
+            runRegex(lines);
+        }
+        
+        System.out.println(samples.size() + " sample lines, repeated to " + LINES + " lines");
+        measure("  GcodeLexer     ", () -> runLexer(lines));
+        measure("  StringTokenizer", () -> runTokenizer(lines));
+        measure("  Regex          ", () -> runRegex(lines));
+        System.out.println(sink == 0 ? "" : " ");
+    }
+    
+    /**
+     * Measures and prints the time and allocation per line of a run.
+     *
+     * @param name The name of the run.
+     * @param run  The run.
+     */
+    private static void measure(String name, Runnable run)
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        run.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        
+        System.out.println(String.format("%s %8.1f ns/line %8.1f bytes/line", name, (double) elapsed / LINES, (double) allocated / LINES));
+    }
+    
+    /**
+     * Lexes the lines with the GcodeLexer.
+     *
+     * @param lines The lines.
+     */
+    private static void runLexer(String[] lines)
+    {
+        GcodeWords words = new GcodeWords();
+        for (String line : lines) {
+            GcodeLexer.lex(line, words);
+            if (words.isCommand('G', 1) || words.isCommand('G', 0)) {
+                sink += words.getValue('X', 0) + words.getValue('Y', 0) + words.getValue('Z', 0) + words.getValue('F', 0);
+            }
+        }
+    }
+    
+    /**
+     * Lexes the lines with a StringTokenizer, as GcodeProgressCalculator and GcodeModifier used to.
+     *
+     * @param lines The lines.
+     */
+    private static void runTokenizer(String[] lines)
+    {
+        for (String line : lines) {
+            List<String> tokens = new ArrayList<>();
+            StringTokenizer st = new StringTokenizer(line);
+            while (st.hasMoreTokens()) {
+                tokens.add(st.nextToken());
+            }
+            
+            if (tokens.size() > 0 && (tokens.get(0).equals("G1") || tokens.get(0).equals("G0"))) {
+                try {
+                    for (String token : tokens) {
+                        if (token.startsWith("X") || token.startsWith("Y") || token.startsWith("Z") || token.startsWith("F")) {
+                            sink += Double.parseDouble(token.substring(1));
+                        }
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+    }
+    
+    /**
+     * Lexes the lines with a regex, as GcodeTracer used to.
+     *
+     * @param lines The lines.
+     */
+    private static void runRegex(String[] lines)
+    {
+        for (String line : lines) {
+            Matcher matcher = MOVE_PATTERN.matcher(line);
+            if (matcher.matches()) {
+                String x = matcher.group("x");
+                String y = matcher.group("y");
+                try {
+                    sink += ((x == null || x.isEmpty()) ? 0 : Double.parseDouble(x)) + ((y == null || y.isEmpty()) ? 0 : Double.parseDouble(y));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+    }
+    
+}
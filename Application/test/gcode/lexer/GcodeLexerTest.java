@@ -0,0 +1,124 @@
+/*
+ * File:    GcodeLexerTest.java
+ * Package: gcode.lexer
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.lexer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Random;
+
+@RunWith(PowerMockRunner.class)
+public class GcodeLexerTest
+{
+    
+    @Test
+    public void testLex()
+    {
+        GcodeWords words = new GcodeWords();
+        
+        Assert.assertEquals(4, GcodeLexer.lex("G1 X104.144 Y-92.259 F2.43818", words));
+        Assert.assertTrue(words.isCommand('G', 1));
+        Assert.assertFalse(words.isCommand('G', 0));
+        Assert.assertEquals('X', words.getLetter(1));
+        Assert.assertEquals(104.144, words.getValue(1), 0.0);
+        Assert.assertEquals(-92.259, words.getValue('Y', 0), 0.0);
+        Assert.assertEquals(2.43818, words.getValue('F', 0), 0.0);
+        Assert.assertEquals(7.5, words.getValue('Z', 7.5), 0.0);
+        Assert.assertEquals("X104.144", words.getText(1));
+        Assert.assertTrue(words.isToken(0, "G1"));
+        
+        //the buffer is reused for the next line
+        Assert.assertEquals(2, GcodeLexer.lex("G01 Z.5", words));
+        Assert.assertTrue(words.isCommand('G', 1));
+        Assert.assertFalse(words.isToken(0, "G1"));
+        Assert.assertEquals(0.5, words.getValue('Z', 0), 0.0);
+        Assert.assertFalse(words.has('X'));
+        
+        //words do not need whitespace between them
+        Assert.assertEquals(3, GcodeLexer.lex("G1X5Y-2", words));
+        Assert.assertTrue(words.isTokenStart(0));
+        Assert.assertFalse(words.isTokenStart(1));
+        Assert.assertEquals(7, words.getTokenEnd(0));
+        Assert.assertFalse(words.isToken(0, "G1"));
+        Assert.assertEquals(5, words.getValue('X', 0), 0.0);
+        
+        //comments end the line
+        Assert.assertEquals(2, GcodeLexer.lex("  G28 X0 ; home X9", words));
+        Assert.assertEquals(0, words.getValue('X', -1), 0.0);
+        Assert.assertEquals(0, GcodeLexer.lex("; only a comment", words));
+        Assert.assertEquals(0, GcodeLexer.lex("", words));
+        
+        //repeated words take the value of the last one
+        GcodeLexer.lex("G1 X1 X2", words);
+        Assert.assertEquals(2, words.getValue('X', 0), 0.0);
+        Assert.assertEquals(1, words.indexOf('X'));
+        Assert.assertEquals(2, words.lastIndexOf('X'));
+    }
+    
+    @Test
+    public void testMalformed()
+    {
+        GcodeWords words = new GcodeWords();
+        
+        Assert.assertEquals(4, GcodeLexer.lex("G1 X Y1..2 Z-", words));
+        Assert.assertTrue(words.isMalformed('X'));
+        Assert.assertTrue(words.isMalformed('Y'));
+        Assert.assertTrue(words.isMalformed('Z'));
+        Assert.assertFalse(words.isMalformed('G'));
+        Assert.assertEquals("Y1..2", words.getText(2));
+        
+        Assert.assertEquals(1, GcodeLexer.lex("M30*", words));
+        Assert.assertTrue(Double.isNaN(words.getValue(0)));
+        Assert.assertEquals("M30*", words.getText(0));
+        
+        Assert.assertEquals(2, GcodeLexer.lex("GF", words));
+        Assert.assertTrue(words.isMalformed('G'));
+        Assert.assertTrue(words.isMalformed('F'));
+        
+        Assert.assertEquals(2, GcodeLexer.lex("*5 X1", words));
+        Assert.assertTrue(Double.isNaN(words.getValue(0)));
+        Assert.assertEquals(1, words.getValue('X', 0), 0.0);
+    }
+    
+    @Test
+    public void testNumbersMatchParseDouble()
+    {
+        GcodeWords words = new GcodeWords();
+        Random random = new Random(42);
+        
+        String[] fixed = {"0", "-0", "+5", "5.", ".5", "-.5", "007.250", "0.000001", "123456789012345", "1234567890123456789",
+                "0.1234567890123456789", "99999999999999999999.5", "0.00000000000000000000000001"};
+        for (String number : fixed) {
+            GcodeLexer.lex("X" + number, words);
+            Assert.assertEquals(number, Double.doubleToLongBits(Double.parseDouble(number)), Double.doubleToLongBits(words.getValue(0)));
+        }
+        
+        for (int i = 0; i < 10000; i++) {
+            String number;
+            switch (i % 3) {
+                case 0:
+                    number = String.format("%.3f", (random.nextDouble() - 0.5) * 2000);
+                    break;
+                case 1:
+                    number = String.valueOf((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12)));
+                    break;
+                default:
+                    number = String.valueOf(random.nextInt(100000)) + '.' + random.nextInt(100000);
+                    break;
+            }
+            if (number.contains("E")) {
+                continue;
+            }
+            
+            GcodeLexer.lex("X" + number, words);
+            Assert.assertEquals(number, Double.doubleToLongBits(Double.parseDouble(number)), Double.doubleToLongBits(words.getValue(0)));
+        }
+    }
+    
+}
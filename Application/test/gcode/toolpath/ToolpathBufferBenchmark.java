@@ -0,0 +1,95 @@
+/*
+ * File:    ToolpathBufferBenchmark.java
+ * Package: gcode.toolpath
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.toolpath;
+
+import gcode.ModalState;
+import utils.GcodeProgressCalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures building the ToolpathBuffer of a job with ten million segments, and the heap it takes, against the budget it was created with.<br/>
+ * The moves of the samples in resources/gcode are repeated up to the number of segments; run with a heap of at least 1 GB.
+ */
+public class ToolpathBufferBenchmark
+{
+    
+    //Constants
+    
+    /**
+     * The number of segments in the toolpath.
+     */
+    private static final int SEGMENTS = 10000000;
+    
+    /**
+     * The directory of the gcode samples.
+     */
+    private static final String SAMPLE_DIRECTORY = "resources" + File.separator + "gcode";
+    
+    
+    //Main Method
+    
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Arguments to the main method.
+     * @throws IOException When the gcode samples could not be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        List<String> moves = new ArrayList<>();
+        File[] files = new File(SAMPLE_DIRECTORY).listFiles((dir, name) -> name.endsWith(".gcode"));
+        if (files != null) {
+            for (File file : files) {
+                for (String line : Files.readAllLines(file.toPath())) {
+                    if (line.startsWith("G1 X") || line.startsWith("G0 X")) {
+                        moves.add(line);
+                    }
+                }
+            }
+        }
+        if (moves.isEmpty()) {
+            System.err.println("No gcode samples were found in: " + new File(SAMPLE_DIRECTORY).getAbsolutePath());
+            return;
+        }
+        
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        ToolpathBuilder builder = new ToolpathBuilder(new ToolpathBuffer(SEGMENTS, 0, 0, 0), ModalState.DistanceMode.RELATIVE);
+        for (int i = 0; i < SEGMENTS; i++) {
+            builder.append(moves.get(i % moves.size()));
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        ToolpathBuffer toolpath = builder.getToolpath();
+        
+        System.out.println(toolpath.size() + " segments from " + moves.size() + " sample moves");
+        System.out.println(String.format("  build     %8.1f ns/segment", (double) elapsed / SEGMENTS));
+        System.out.println(String.format("  heap      %8.1f MB, budget %.1f MB", allocated / 1048576.0, ToolpathBuffer.bytesFor(SEGMENTS) / 1048576.0));
+        
+        start = System.nanoTime();
+        double progress = GcodeProgressCalculator.calculateFileProgressUnits(toolpath);
+        System.out.println(String.format("  progress  %8.1f ns from the prefix sums", (double) (System.nanoTime() - start)));
+        
+        start = System.nanoTime();
+        double parsed = 0.0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            parsed += GcodeProgressCalculator.calculateInstructionProgressUnits(moves.get(i % moves.size()));
+        }
+        System.out.println(String.format("  progress  %8.1f ms from parsing every line again", (System.nanoTime() - start) / 1e6));
+        System.out.println((progress == parsed) ? "" : "  the progress from the prefix sums is not the same!");
+    }
+    
+}
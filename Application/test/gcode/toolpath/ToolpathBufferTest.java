@@ -0,0 +1,159 @@
+/*
+ * File:    ToolpathBufferTest.java
+ * Package: gcode.toolpath
+ * Author:  Nicolas Lopez
+ */
+
+package gcode.toolpath;
+
+import gcode.ModalState;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+import utils.GcodeProgressCalculator;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class ToolpathBufferTest
+{
+    
+    @Test
+    public void testBuild()
+    {
+        ToolpathBuilder builder = new ToolpathBuilder();
+        List<String> lines = Arrays.asList(
+                "G21",
+                "G1 X3 Y4 F60",
+                "M3 S100",
+                "G0 Z1",
+                "G90",
+                "G1 X10",
+                "G2 X0 Y4 I-5 J0",
+                "G1 X1..2",
+                "G1 Y5 F120");
+        for (String line : lines) {
+            builder.append(line);
+        }
+        ToolpathBuffer toolpath = builder.getToolpath();
+        
+        int arcSegments = ArcGeometry.segments(5, Math.PI, ToolpathBuilder.ARC_TOLERANCE, ToolpathBuilder.MAX_ARC_SEGMENTS);
+        Assert.assertEquals(4 + arcSegments, toolpath.size());
+        Assert.assertEquals(9, builder.getLines());
+        Assert.assertEquals(7, builder.getMalformedLine());
+        Assert.assertEquals(ModalState.Units.METRIC, builder.getModalState().getUnits());
+        Assert.assertEquals(ModalState.DistanceMode.ABSOLUTE, builder.getModalState().getDistanceMode());
+        
+        //relative moves
+        Assert.assertEquals(ToolpathBuffer.LINEAR, toolpath.getType(0));
+        Assert.assertEquals(1, toolpath.getLine(0));
+        Assert.assertEquals(3, toolpath.getX(0), 0.0);
+        Assert.assertEquals(4, toolpath.getY(0), 0.0);
+        Assert.assertEquals(60, toolpath.getFeed(0), 0.0);
+        Assert.assertEquals(5, toolpath.getDistance(0), 0.0);
+        Assert.assertEquals(5, toolpath.getTime(0), 0.0);
+        Assert.assertEquals(ToolpathBuffer.RAPID, toolpath.getType(1));
+        Assert.assertEquals(1, toolpath.getZ(1), 0.0);
+        Assert.assertEquals(60, toolpath.getFeed(1), 0.0);
+        
+        //absolute moves
+        Assert.assertEquals(10, toolpath.getX(2), 0.0);
+        Assert.assertEquals(4, toolpath.getY(2), 0.0);
+        int arcEnd = 2 + arcSegments;
+        Assert.assertEquals(arcEnd, toolpath.findSegment(6));
+        Assert.assertEquals(ToolpathBuffer.ARC_CW, toolpath.getType(3));
+        Assert.assertEquals(ToolpathBuffer.ARC_CW, toolpath.getType(arcEnd));
+        Assert.assertEquals(6, toolpath.getLine(3));
+        Assert.assertEquals(0, toolpath.getX(arcEnd), 0.0);
+        Assert.assertEquals(4, toolpath.getY(arcEnd), 0.0);
+        Assert.assertEquals(5, toolpath.getY(arcEnd + 1), 0.0);
+        Assert.assertEquals(120, toolpath.getFeed(arcEnd + 1), 0.0);
+        Assert.assertEquals(8, toolpath.getLine(arcEnd + 1));
+        
+        //the segments of the clockwise arc stay within the tolerance of the circle around (5, 4)
+        for (int i = 3; i <= arcEnd; i++) {
+            Assert.assertEquals(5, Math.hypot(toolpath.getX(i) - 5, toolpath.getY(i) - 4), 1e-9);
+            Assert.assertTrue(toolpath.getY(i) <= 4 + 1e-9);
+        }
+        Assert.assertEquals(-1, toolpath.getMinY(), ToolpathBuilder.ARC_TOLERANCE);
+        
+        //prefix sums
+        double arcLength = 2 * arcSegments * 5 * Math.sin(Math.PI / 2 / arcSegments);
+        double arcTime = GcodeProgressCalculator.calculateInstructionProgressUnits("G2 X0 Y4 I-5 J0");
+        Assert.assertEquals(5 + 1 + 7 + arcLength + 1, toolpath.getTotalDistance(), 1e-9);
+        Assert.assertEquals(5 + 1 + 10 + arcTime + 2.5, toolpath.getTotalTime(), 1e-9);
+        Assert.assertEquals(0, toolpath.getTime(3) - toolpath.getTime(2), 0.0);
+        Assert.assertEquals(0, toolpath.getMinX(), 0.0);
+        Assert.assertEquals(10, toolpath.getMaxX(), 0.0);
+        Assert.assertEquals(1, toolpath.getMaxZ(), 0.0);
+        
+        Assert.assertEquals(2, toolpath.findSegment(5));
+        Assert.assertEquals(-1, toolpath.findSegment(2));
+        Assert.assertEquals(0, toolpath.countSegmentsBefore(4.9));
+        Assert.assertEquals(2, toolpath.countSegmentsBefore(6));
+        Assert.assertEquals(toolpath.size(), toolpath.countSegmentsBefore(100));
+    }
+    
+    @Test
+    public void testArcProgress()
+    {
+        //a relative counter clockwise half circle of radius 5 at 600 units per minute
+        Assert.assertEquals(5 * Math.PI / 10, GcodeProgressCalculator.calculateInstructionProgressUnits("G3 X-10 Y0 I-5 J0 F600"), 1e-9);
+        Assert.assertEquals(5 * Math.PI / 10, GcodeProgressCalculator.calculateInstructionProgressUnits("G3 X-10 Y0 R5 F600"), 1e-9);
+        Assert.assertEquals(15 * Math.PI / 20, GcodeProgressCalculator.calculateInstructionProgressUnits("G2 X-5 Y5 R-5 F600"), 1e-9);
+        
+        //a full circle
+        Assert.assertEquals(10 * Math.PI, GcodeProgressCalculator.calculateInstructionProgressUnits("G2 I5"), 1e-9);
+        
+        ToolpathBuffer toolpath = ToolpathBuilder.build(Arrays.asList("G91", "G2 X-5 Y5 R-5"));
+        Assert.assertEquals(-5, toolpath.getX(toolpath.size() - 1), 1e-9);
+        Assert.assertEquals(5, toolpath.getY(toolpath.size() - 1), 1e-9);
+        Assert.assertEquals(-5, toolpath.getMinY(), ToolpathBuilder.ARC_TOLERANCE);
+        Assert.assertEquals(15 * Math.PI / 2, toolpath.getTotalTime(), 1e-9);
+    }
+    
+    @Test
+    public void testSameProgressAsGcodeProgressCalculator() throws Exception
+    {
+        List<String> lines = Files.readAllLines(new File("resources" + File.separator + "gcode" + File.separator + "can.gcode").toPath());
+        
+        double distance = 0.0;
+        for (String line : lines) {
+            distance += GcodeProgressCalculator.calculateInstructionProgressUnits(line);
+        }
+        
+        ToolpathBuffer toolpath = ToolpathBuilder.build(lines);
+        Assert.assertEquals(distance, GcodeProgressCalculator.calculateFileProgressUnits(toolpath), 0.0);
+    }
+    
+    @Test
+    public void testBudget()
+    {
+        int segments = ToolpathBuffer.BLOCK_SIZE * 2 + 10;
+        ToolpathBuffer toolpath = new ToolpathBuffer(segments, 1, 2, 3);
+        Assert.assertEquals(1, toolpath.getX(-1), 0.0);
+        
+        for (int i = 0; i < segments; i++) {
+            toolpath.append(ToolpathBuffer.LINEAR, 1 + i, 2, 3, 100, i * 2, 0.5);
+        }
+        Assert.assertEquals(segments, toolpath.size());
+        Assert.assertEquals(ToolpathBuffer.BLOCK_SIZE + 1, toolpath.getX(ToolpathBuffer.BLOCK_SIZE), 0.0);
+        Assert.assertEquals(segments - 1, toolpath.getTotalDistance(), 0.0);
+        Assert.assertEquals(segments * 0.5, toolpath.getTotalTime(), 0.0);
+        Assert.assertEquals(ToolpathBuffer.BLOCK_SIZE * 2 + 5, toolpath.findSegment(ToolpathBuffer.BLOCK_SIZE * 4 + 10));
+        
+        try {
+            toolpath.append(ToolpathBuffer.LINEAR, 0, 0, 0, 100, segments * 2, 0);
+            Assert.fail();
+        } catch (IllegalStateException ignored) {
+        }
+        
+        Assert.assertEquals((long) segments * ToolpathBuffer.BYTES_PER_SEGMENT, ToolpathBuffer.bytesFor(segments));
+        Assert.assertEquals(10000000, ToolpathBuffer.segmentsFor(10000000L * ToolpathBuffer.BYTES_PER_SEGMENT));
+    }
+    
+}
@@ -0,0 +1,181 @@
+/*
+ * File:    ArcFitterTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.format.CoordinateFormat;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class ArcFitterTest
+{
+    
+    @Test
+    public void testAbsoluteArc() throws Exception
+    {
+        //a clockwise quarter circle of radius 10 around the origin, from (0, 10) to (10, 0)
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G0 X0.000 Y10.000 "));
+        commands.addAll(circle(0, 0, 10, 90, 0, 16, false, "F600.000 "));
+        commands.add("M5");
+        
+        List<String> fitted = fit(0.05, commands);
+        Assert.assertEquals(Arrays.asList("G90", "G0 X0.000 Y10.000 ", "G2 X10.000 Y0.000 I0.000 J-10.000 F600.000 ", "M5"), fitted);
+    }
+    
+    @Test
+    public void testRelativeArc() throws Exception
+    {
+        //a counter clockwise half circle of radius 5, from (5, 0) to (-5, 0), as relative moves
+        List<String> commands = new ArrayList<>(Collections.singletonList("G91"));
+        commands.addAll(circle(0, 0, 5, 0, 180, 24, true, ""));
+        
+        List<String> fitted = fit(0.05, commands);
+        Assert.assertEquals(Arrays.asList("G91", "G3 X-10.000 Y0.000 I-5.000 J0.000 "), fitted);
+    }
+    
+    @Test
+    public void testUnfittedMoves() throws Exception
+    {
+        //straight lines
+        List<String> straight = Arrays.asList("G91", "G1 X1.000 Y1.000 ", "G1 X1.000 Y1.000 ", "G1 X1.000 Y1.000 ", "G1 X1.000 Y1.000 ", "G1 X2.000 Y0.000 ");
+        Assert.assertEquals(straight, fit(0.05, straight));
+        
+        //an arc whose moves change feed rate
+        List<String> feeds = new ArrayList<>(Collections.singletonList("G91"));
+        List<String> moves = circle(0, 0, 5, 0, 90, 8, true, "");
+        for (int i = 0; i < moves.size(); i++) {
+            feeds.add(moves.get(i) + "F" + (100 + i) + ".000 ");
+        }
+        Assert.assertEquals(feeds, fit(0.05, feeds));
+        
+        //an arc that starts before the position is known
+        List<String> unknown = new ArrayList<>(Collections.singletonList("G90"));
+        unknown.addAll(circle(0, 0, 10, 90, 0, 16, false, ""));
+        List<String> fitted = fit(0.05, unknown);
+        Assert.assertEquals(Arrays.asList("G90", "G1 X0.980 Y9.952 "), fitted.subList(0, 2));
+        Assert.assertTrue(fitted.get(2).startsWith("G2 X10.000 Y0.000 I-0.98"));
+        Assert.assertEquals(3, fitted.size());
+        
+        //an arc outside of the XY plane
+        List<String> plane = new ArrayList<>(Arrays.asList("G91", "G18"));
+        plane.addAll(circle(0, 0, 5, 0, 90, 8, true, ""));
+        Assert.assertEquals(plane, fit(0.05, plane));
+    }
+    
+    @Test
+    public void testTolerance() throws Exception
+    {
+        //every other point of the arc is 0.05 outside of it
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G0 X10.000 Y0.000 "));
+        for (int i = 1; i <= 16; i++) {
+            double angle = Math.toRadians(90.0 * i / 16);
+            double radius = 10 + ((i % 2 == 1) ? 0.05 : 0);
+            commands.add("G1 X" + CoordinateFormat.format(radius * Math.cos(angle)) + " Y" + CoordinateFormat.format(radius * Math.sin(angle)) + " ");
+        }
+        
+        Assert.assertEquals(commands, fit(0.01, commands));
+        List<String> fitted = fit(0.1, commands);
+        Assert.assertEquals(3, fitted.size());
+        Assert.assertTrue(fitted.get(2).startsWith("G3 X0.000 Y10.000 I-10.000 J"));
+        Assert.assertEquals(0, Double.parseDouble(fitted.get(2).substring(fitted.get(2).indexOf('J') + 1)), 0.001);
+    }
+    
+    @Test
+    public void testMotionAfterArc() throws Exception
+    {
+        //a move without a motion command after an arc is still a G1 move
+        List<String> commands = new ArrayList<>(Collections.singletonList("G91"));
+        commands.addAll(circle(0, 0, 5, 0, 90, 8, true, ""));
+        commands.add("X1 Y1");
+        commands.add("G0 X1");
+        commands.add("X1");
+        
+        List<String> fitted = fit(0.05, commands);
+        Assert.assertEquals(5, fitted.size());
+        Assert.assertTrue(fitted.get(1).startsWith("G3 X-5.000 Y5.000 I-4.99"));
+        Assert.assertEquals(Arrays.asList("G1 X1 Y1", "G0 X1", "X1"), fitted.subList(2, 5));
+    }
+    
+    @Test
+    public void testModifier() throws Exception
+    {
+        GcodeModifier m = new GcodeModifier("");
+        ArcFitter fitter = new ArcFitter(0.05);
+        m.addStage(fitter);
+        
+        List<String> lines = new ArrayList<>(Collections.singletonList("G91 ; relative"));
+        for (String move : circle(0, 0, 5, 0, 180, 24, true, "")) {
+            lines.add(move + "E0.5");
+        }
+        
+        List<String> commands = m.modify(lines);
+        Assert.assertEquals(Arrays.asList("G91", "G3 X-10.000 Y0.000 I-5.000 J0.000 F0.500 "), commands);
+    }
+    
+    @Test
+    public void testOptimizations() throws Exception
+    {
+        Assert.assertTrue(GcodeModifier.createOptimizations().isEmpty());
+        
+        ArcFitter.arcTolerance = 0.01;
+        try {
+            Assert.assertEquals(1, GcodeModifier.createOptimizations().size());
+            Assert.assertTrue(GcodeModifier.createOptimizations().get(0) instanceof ArcFitter);
+        } finally {
+            ArcFitter.arcTolerance = ArcFitter.DEFAULT_ARC_TOLERANCE;
+        }
+    }
+    
+    /**
+     * Passes commands through an ArcFitter.
+     *
+     * @param tolerance The chord tolerance.
+     * @param commands  The commands.
+     * @return The commands passed on by the ArcFitter.
+     */
+    private static List<String> fit(double tolerance, List<String> commands)
+    {
+        return GcodeModifier.process(Collections.singletonList(new ArcFitter(tolerance)), commands);
+    }
+    
+    /**
+     * Creates the G1 moves along an arc.
+     *
+     * @param centerX  The x coordinate of the center of the arc.
+     * @param centerY  The y coordinate of the center of the arc.
+     * @param radius   The radius of the arc.
+     * @param from     The angle the arc starts at, in degrees.
+     * @param to       The angle the arc ends at, in degrees.
+     * @param moves    The number of moves.
+     * @param relative Whether the moves are relative or not.
+     * @param suffix   The words after the position of each move.
+     * @return The moves.
+     */
+    private static List<String> circle(double centerX, double centerY, double radius, double from, double to, int moves, boolean relative, String suffix)
+    {
+        List<String> commands = new ArrayList<>();
+        double lastX = Double.parseDouble(CoordinateFormat.format(centerX + radius * Math.cos(Math.toRadians(from))));
+        double lastY = Double.parseDouble(CoordinateFormat.format(centerY + radius * Math.sin(Math.toRadians(from))));
+        for (int i = 1; i <= moves; i++) {
+            double angle = Math.toRadians(from + (to - from) * i / moves);
+            double x = Double.parseDouble(CoordinateFormat.format(centerX + radius * Math.cos(angle)));
+            double y = Double.parseDouble(CoordinateFormat.format(centerY + radius * Math.sin(angle)));
+            commands.add("G1 X" + CoordinateFormat.format(relative ? x - lastX : x) + " Y" + CoordinateFormat.format(relative ? y - lastY : y) + " " + suffix);
+            lastX = x;
+            lastY = y;
+        }
+        return commands;
+    }
+    
+}
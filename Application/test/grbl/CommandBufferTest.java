@@ -0,0 +1,160 @@
+/*
+ * File:    CommandBufferTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import grbl.transport.LoopbackGrblTransport;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class CommandBufferTest
+{
+    
+    @Test
+    public void testSharedBlocks()
+    {
+        List<String> profile = Arrays.asList("G1 X1.000 Y0.000 F300", "G1 X0.000 Y1.000", "G1 X-1.000 Y-1.000");
+        
+        CommandBuffer commands = new CommandBuffer();
+        commands.append("G21");
+        commands.append("G91");
+        int profileBlock = commands.addBlock(profile);
+        int rotationBlock = commands.addBlock(Collections.singletonList("G0 Z5"));
+        for (int step = 0; step < 100; step++) {
+            commands.appendBlock(profileBlock);
+            commands.appendBlock(rotationBlock);
+        }
+        
+        Assert.assertEquals(2 + 100 * 4, commands.size());
+        Assert.assertEquals(6, commands.getStoredLines());
+        Assert.assertEquals("G21".length() + "G91".length() + "G0 Z5".length() + profile.stream().mapToInt(String::length).sum(), commands.getStoredBytes());
+        
+        List<String> expected = new ArrayList<>(Arrays.asList("G21", "G91"));
+        for (int step = 0; step < 100; step++) {
+            expected.addAll(profile);
+            expected.add("G0 Z5");
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i), commands.get(i));
+            Assert.assertEquals(expected.get(i).length(), commands.getLength(i));
+        }
+        
+        //lines can also be read out of order
+        Assert.assertEquals("G1 X0.000 Y1.000", commands.get(2 + 57 * 4 + 1));
+        Assert.assertEquals("G91", commands.get(1));
+        Assert.assertEquals("G0 Z5", commands.get(commands.size() - 1));
+    }
+    
+    @Test
+    public void testAppend()
+    {
+        CommandBuffer commands = new CommandBuffer();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            lines.add("G1 X" + i);
+        }
+        commands.appendAll(lines.subList(0, 5000));
+        for (String line : lines.subList(5000, 10000)) {
+            commands.append(line);
+        }
+        commands.append("G1 X°");
+        
+        Assert.assertEquals(10001, commands.size());
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(lines.get(i), commands.get(i));
+        }
+        Assert.assertEquals("G1 X?", commands.get(10000));
+        
+        byte[] buffer = new byte[16];
+        Assert.assertEquals(8, commands.copy(1234, buffer, 2));
+        Assert.assertEquals("G1 X1234", new String(buffer, 2, 8, StandardCharsets.US_ASCII));
+        
+        try {
+            commands.get(10001);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+    }
+    
+    @Test
+    public void testLineView()
+    {
+        CommandBuffer commands = new CommandBuffer();
+        int block = commands.addBlock(Arrays.asList("G1 X1", "G1 Y2"));
+        commands.append("G21");
+        commands.appendBlock(block);
+        commands.appendBlock(block);
+        
+        CommandBuffer.LineView view = commands.newLineView();
+        Assert.assertEquals("G21", view.moveTo(0).toString());
+        Assert.assertEquals(3, view.length());
+        Assert.assertEquals('2', view.charAt(1));
+        Assert.assertEquals("G1 Y2", view.moveTo(4).toString());
+        Assert.assertEquals("Y2", view.subSequence(3, 5).toString());
+        try {
+            view.charAt(5);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+        
+        //the view still reads its line after the arena grows
+        view.moveTo(1);
+        for (int i = 0; i < 10000; i++) {
+            commands.append("G1 X" + i);
+        }
+        Assert.assertEquals("G1 X1", view.toString());
+        Assert.assertEquals("G1 X9999", view.moveTo(commands.size() - 1).toString());
+    }
+    
+    @Test
+    public void testStreaming() throws Exception
+    {
+        CommandBuffer commands = new CommandBuffer();
+        int block = commands.addBlock(Arrays.asList("G1 X1 F100", "G1 X0"));
+        commands.appendBlock(block);
+        commands.appendBlock(block);
+        
+        LoopbackGrblTransport transport = new LoopbackGrblTransport();
+        transport.open();
+        GrblStreamer streamer = new GrblStreamer(transport, new GrblStreamer.Listener()
+        {
+            @Override
+            public void lineAcknowledged(int tag, String response)
+            {
+            }
+            
+            @Override
+            public void statusReported(String report)
+            {
+            }
+            
+            @Override
+            public void messageReceived(String message)
+            {
+            }
+        }, GrblStreamer.DEFAULT_RX_BUFFER_SIZE);
+        streamer.start();
+        
+        for (int i = 0; i < commands.size(); i++) {
+            Assert.assertTrue(streamer.send(commands, i, i));
+        }
+        Assert.assertTrue(streamer.drain());
+        streamer.stop();
+        transport.close();
+        
+        Assert.assertEquals(Arrays.asList("G1 X1 F100", "G1 X0", "G1 X1 F100", "G1 X0"), transport.getSentLines());
+    }
+    
+}
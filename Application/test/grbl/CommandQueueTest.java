@@ -0,0 +1,103 @@
+/*
+ * File:    CommandQueueTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(PowerMockRunner.class)
+public class CommandQueueTest
+{
+    
+    @Test
+    public void testOrder()
+    {
+        CommandQueue queue = new CommandQueue();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+        
+        CommandQueue.Command first = queue.offer("G0 X1");
+        queue.offer("G0 X2");
+        Assert.assertFalse(queue.isEmpty());
+        
+        Assert.assertSame(first, queue.poll());
+        Assert.assertEquals("G0 X2", queue.poll().getText());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+        
+        first.getResponse().complete("ok");
+        Assert.assertEquals("ok", first.getResponse().getNow(null));
+    }
+    
+    @Test
+    public void testMultipleProducers() throws Exception
+    {
+        CommandQueue queue = new CommandQueue();
+        int producers = 4;
+        int commands = 1000;
+        
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                for (int i = 0; i < commands; i++) {
+                    queue.offer(producer + ":" + i);
+                }
+            }).start();
+        }
+        start.countDown();
+        
+        //every command is received once, in the order its producer offered it
+        int[] next = new int[producers];
+        for (int n = 0; n < producers * commands; n++) {
+            String[] command = queue.take().getText().split(":");
+            int producer = Integer.parseInt(command[0]);
+            Assert.assertEquals(next[producer]++, Integer.parseInt(command[1]));
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+    
+    @Test
+    public void testWakeUp() throws Exception
+    {
+        CommandQueue queue = new CommandQueue();
+        AtomicReference<String> received = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        
+        Thread consumer = new Thread(() -> {
+            try {
+                received.set(queue.take().getText());
+                done.countDown();
+                queue.take();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+        
+        long offered = System.nanoTime();
+        queue.offer("$X");
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals("$X", received.get());
+        Assert.assertTrue(System.nanoTime() - offered < TimeUnit.MILLISECONDS.toNanos(100));
+        
+        consumer.interrupt();
+        consumer.join(1000);
+        Assert.assertFalse(consumer.isAlive());
+    }
+    
+}
@@ -0,0 +1,250 @@
+/*
+ * File:    CompiledJobTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+import utils.GcodeProgressCalculator;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class CompiledJobTest
+{
+    
+    private static final List<String> COMMANDS = Arrays.asList(
+            "G21",
+            "G90",
+            "G0 X10.000 Y20.000 ",
+            "G1 X12.000 Y20.000 Z-1.000 F600.000 ",
+            "G2 X14.000 Y22.000 I2.000 J0.000",
+            "M5"
+    );
+    
+    @Test
+    public void testWriteAndOpen() throws Exception
+    {
+        File file = File.createTempFile("job", CompiledJob.EXTENSION);
+        file.deleteOnExit();
+        
+        CompiledJob written = CompiledJob.write(COMMANDS, file);
+        CompiledJob opened = CompiledJob.open(file);
+        CompiledJob compiled = CompiledJob.compile(COMMANDS);
+        
+        for (CompiledJob job : Arrays.asList(written, opened, compiled)) {
+            Assert.assertEquals(COMMANDS.size(), job.size());
+            Assert.assertEquals(CompiledJob.UNITS_METRIC, job.getUnits());
+            for (int i = 0; i < COMMANDS.size(); i++) {
+                Assert.assertEquals(COMMANDS.get(i), job.get(i));
+                Assert.assertEquals(COMMANDS.get(i).length(), job.getLength(i));
+            }
+            
+            Assert.assertEquals(CompiledJob.OP_OTHER, job.getOpcode(0));
+            Assert.assertEquals(CompiledJob.OP_RAPID, job.getOpcode(2));
+            Assert.assertEquals(CompiledJob.OP_LINEAR, job.getOpcode(3));
+            Assert.assertEquals(CompiledJob.OP_ARC_CW, job.getOpcode(4));
+            Assert.assertEquals(CompiledJob.OP_OTHER, job.getOpcode(5));
+            
+            Assert.assertEquals(10.0, job.getX(2), 0.0);
+            Assert.assertEquals(20.0, job.getY(2), 0.0);
+            Assert.assertTrue(Double.isNaN(job.getZ(2)));
+            Assert.assertTrue(Double.isNaN(job.getF(2)));
+            Assert.assertEquals(-1.0, job.getZ(3), 0.0);
+            Assert.assertEquals(600.0, job.getF(3), 0.0);
+            Assert.assertEquals(2.0, job.getWord('I', 4), 0.0);
+            Assert.assertEquals(0.0, job.getWord('J', 4), 0.0);
+            Assert.assertTrue(Double.isNaN(job.getWord('R', 4)));
+            Assert.assertTrue(Double.isNaN(job.getX(0)));
+            
+            //the motion time of a line with a feed rate is its length over its speed
+            Assert.assertEquals(Math.sqrt(12 * 12 + 20 * 20 + 1) / 10, job.getMotionTime(3), 0.000001);
+            Assert.assertEquals(GcodeProgressCalculator.calculateInstructionProgressUnits(COMMANDS.get(4)), job.getMotionTime(4), 0.000001);
+            Assert.assertEquals(job.getMotionTime(2) + job.getMotionTime(3) + job.getMotionTime(4), job.getTotalMotionTime(), 0.000001);
+        }
+        
+        CommandBuffer commands = new CommandBuffer();
+        commands.append("G21");
+        commands.appendBlock(commands.addBlock(opened));
+        Assert.assertEquals(COMMANDS.size() + 1, commands.size());
+        Assert.assertEquals(COMMANDS.get(3), commands.get(4));
+        
+        //the lines of a compiled job keep a reference to it, and lines that are not moves or have other words are not read from the columns
+        CommandBuffer.LineView view = commands.newLineView();
+        Assert.assertNull(view.moveTo(0).getCompiledJob());
+        Assert.assertSame(opened, view.moveTo(4).getCompiledJob());
+        Assert.assertEquals(3, view.getCompiledLine());
+        
+        CompiledJob other = CompiledJob.compile(Arrays.asList("G1 X1 S1000", "G91 G0 X1", "G1 X1 X2", "G1 Xa", "G0 X1.000"));
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(CompiledJob.OP_OTHER, other.getOpcode(i));
+            Assert.assertTrue(Double.isNaN(other.getX(i)));
+        }
+        Assert.assertEquals(CompiledJob.OP_RAPID, other.getOpcode(4));
+    }
+    
+    @Test
+    public void testReplace() throws Exception
+    {
+        File directory = Files.createTempDirectory("jobs").toFile();
+        directory.deleteOnExit();
+        File file = new File(directory, "job" + CompiledJob.EXTENSION);
+        file.deleteOnExit();
+        
+        //a job that is open keeps its commands when its file is written again
+        CompiledJob first = CompiledJob.write(COMMANDS, file);
+        CompiledJob second = CompiledJob.write(Arrays.asList("G20", "G0 X1.000 "), file);
+        Assert.assertEquals(COMMANDS.get(3), first.get(3));
+        Assert.assertEquals(CompiledJob.UNITS_IMPERIAL, second.getUnits());
+        Assert.assertEquals("G0 X1.000 ", CompiledJob.open(file).get(1));
+        
+        //the temporary file the job was written to is gone
+        Assert.assertArrayEquals(new String[] {file.getName()}, directory.list());
+    }
+    
+    @Test
+    public void testInvalidFile() throws Exception
+    {
+        File file = File.createTempFile("job", CompiledJob.EXTENSION);
+        file.deleteOnExit();
+        
+        try {
+            CompiledJob.open(file);
+            Assert.fail();
+        } catch (Exception ignored) {
+        }
+        
+        CompiledJob.write(COMMANDS, file);
+        try (RandomAccessFile compiled = new RandomAccessFile(file, "rw")) {
+            compiled.setLength(compiled.length() - 1);
+        }
+        try {
+            CompiledJob.open(file);
+            Assert.fail();
+        } catch (Exception ignored) {
+        }
+    }
+    
+    @Test
+    public void testJobCache() throws Exception
+    {
+        File directory = Files.createTempDirectory("cache").toFile();
+        directory.deleteOnExit();
+        File source = File.createTempFile("job", ".gcode");
+        source.deleteOnExit();
+        Files.write(source.toPath(), COMMANDS);
+        
+        String key = JobCache.cacheKey(source, "MAX_SPEED=200.0");
+        Assert.assertEquals(64, key.length());
+        Assert.assertEquals(key, JobCache.cacheKey(source, "MAX_SPEED=200.0"));
+        Assert.assertNotEquals(key, JobCache.cacheKey(source, "MAX_SPEED=100.0"));
+        
+        //a job that was already compiled is loaded without modifying the gcode file
+        String cacheDirectory = JobCache.cacheDirectory;
+        JobCache.cacheDirectory = directory.getAbsolutePath();
+        try {
+            File compiled = new File(directory, key + CompiledJob.EXTENSION);
+            compiled.deleteOnExit();
+            CompiledJob.write(Arrays.asList("G21", "G0 X1.000 "), compiled);
+            
+            CompiledJob job = JobCache.load(source.getAbsolutePath(), "MAX_SPEED=200.0");
+            Assert.assertNotNull(job);
+            Assert.assertEquals(2, job.size());
+            Assert.assertEquals("G0 X1.000 ", job.get(1));
+        } finally {
+            JobCache.cacheDirectory = cacheDirectory;
+        }
+        
+        Files.write(source.toPath(), Arrays.asList("G21", "G0 X2.000"));
+        Assert.assertNotEquals(key, JobCache.cacheKey(source, "MAX_SPEED=200.0"));
+    }
+        
+    @Test
+    public void testEviction() throws Exception
+    {
+        File directory = Files.createTempDirectory("cache").toFile();
+        directory.deleteOnExit();
+        
+        String cacheDirectory = JobCache.cacheDirectory;
+        JobCache.cacheDirectory = directory.getAbsolutePath();
+        try {
+            //only the first job is open, as a job that is open cannot be deleted on every system
+            CompiledJob a = JobCache.store("a", COMMANDS);
+            File[] files = {new File(directory, "a" + CompiledJob.EXTENSION), new File(directory, "b" + CompiledJob.EXTENSION), new File(directory, "c" + CompiledJob.EXTENSION)};
+            Files.copy(files[0].toPath(), files[1].toPath());
+            Files.copy(files[0].toPath(), files[2].toPath());
+            files[0].setLastModified(1000000);
+            files[1].setLastModified(2000000);
+            files[2].setLastModified(3000000);
+            long length = files[0].length();
+            
+            //a job that is found is the most recently used
+            Assert.assertNotNull(JobCache.find("a"));
+            
+            JobCache.evict(3 * length);
+            Assert.assertTrue(files[0].exists() && files[1].exists() && files[2].exists());
+            
+            JobCache.evict(2 * length);
+            Assert.assertTrue(files[0].exists());
+            Assert.assertFalse(files[1].exists());
+            Assert.assertTrue(files[2].exists());
+            
+            //a job that is open can still be read once it is evicted
+            JobCache.evict(0);
+            Assert.assertFalse(files[2].exists());
+            Assert.assertEquals(COMMANDS.get(3), a.get(3));
+        } finally {
+            JobCache.cacheDirectory = cacheDirectory;
+        }
+    }
+    
+    @Test
+    public void testSessionCache() throws Exception
+    {
+        File directory = Files.createTempDirectory("cache").toFile();
+        directory.deleteOnExit();
+        File source = File.createTempFile("profile", ".gcode");
+        source.deleteOnExit();
+        Files.write(source.toPath(), COMMANDS);
+        source.setLastModified(1000000);
+        
+        String cacheDirectory = JobCache.cacheDirectory;
+        JobCache.cacheDirectory = directory.getAbsolutePath();
+        try {
+            File compiled = new File(directory, JobCache.cacheKey(source, "MAX_SPEED=200.0") + CompiledJob.EXTENSION);
+            compiled.deleteOnExit();
+            CompiledJob.write(Arrays.asList("G21", "G0 X1.000 "), compiled);
+            
+            //a profile that is cut again is the same compiled job, until its file or the settings change
+            CompiledJob job = JobCache.loadSession(source.getAbsolutePath(), "MAX_SPEED=200.0");
+            Assert.assertNotNull(job);
+            Assert.assertSame(job, JobCache.loadSession(source.getAbsolutePath(), "MAX_SPEED=200.0"));
+            
+            File other = new File(directory, JobCache.cacheKey(source, "MAX_SPEED=100.0") + CompiledJob.EXTENSION);
+            other.deleteOnExit();
+            CompiledJob.write(Arrays.asList("G21", "G0 X3.000 "), other);
+            Assert.assertEquals("G0 X3.000 ", JobCache.loadSession(source.getAbsolutePath(), "MAX_SPEED=100.0").get(1));
+            
+            Files.write(source.toPath(), Arrays.asList("G21", "G0 X2.000"));
+            source.setLastModified(2000000);
+            File changed = new File(directory, JobCache.cacheKey(source, "MAX_SPEED=200.0") + CompiledJob.EXTENSION);
+            changed.deleteOnExit();
+            CompiledJob.write(Arrays.asList("G21", "G0 X2.000 "), changed);
+            CompiledJob reloaded = JobCache.loadSession(source.getAbsolutePath(), "MAX_SPEED=200.0");
+            Assert.assertNotSame(job, reloaded);
+            Assert.assertEquals("G0 X2.000 ", reloaded.get(1));
+        } finally {
+            JobCache.cacheDirectory = cacheDirectory;
+        }
+    }
+    
+}
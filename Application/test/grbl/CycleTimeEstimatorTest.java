@@ -0,0 +1,215 @@
+/*
+ * File:    CycleTimeEstimatorTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import grbl.simulator.MotionModel;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(PowerMockRunner.class)
+public class CycleTimeEstimatorTest
+{
+    
+    /**
+     * The time of a 100 mm move from rest to rest with the default motion model, in seconds.
+     */
+    private static final double MOVE_TIME = CycleTimeEstimator.moveTime(100, 0, 0, MotionModel.DEFAULT_MAX_RATE / 60, MotionModel.DEFAULT_ACCELERATION);
+    
+    @Test
+    public void testMoveTime() throws Exception
+    {
+        //the move accelerates to 500 mm/min over 3.47 mm, and decelerates over 3.47 mm
+        Assert.assertEquals(2 * (500.0 / 60 / 10) + (100 - 2 * (500.0 / 60) * (500.0 / 60) / 20) / (500.0 / 60), MOVE_TIME, 0.000001);
+        Assert.assertEquals(MOVE_TIME, estimate("G90", "G1 X100 F600").getTotalTime(), 0.000001);
+        
+        //a short move does not reach its nominal speed
+        Assert.assertEquals(2 * Math.sqrt(1.0 / 10), CycleTimeEstimator.moveTime(1, 0, 0, 100, 10), 0.000001);
+    }
+    
+    @Test
+    public void testJunctions() throws Exception
+    {
+        //moves in a straight line do not slow down between them, and moves that reverse stop between them
+        List<String> commands = new ArrayList<>(Arrays.asList("G91", "G1 F600"));
+        for (int i = 0; i < 100; i++) {
+            commands.add("G1 X1");
+        }
+        Assert.assertEquals(MOVE_TIME, estimate(commands).getTotalTime(), 0.000001);
+        
+        Assert.assertEquals(2 * MOVE_TIME, estimate("G91", "G1 X100 F600", "G1 X-100").getTotalTime(), 0.000001);
+        
+        //a corner slows down to the speed allowed by the junction deviation
+        double corner = estimate("G91", "G1 X100 F600", "G1 Y100").getTotalTime();
+        Assert.assertTrue(corner > MOVE_TIME * 1.5 && corner < 2 * MOVE_TIME);
+    }
+    
+    @Test
+    public void testPlannerBuffer() throws Exception
+    {
+        //tiny moves slow down to stop within the moves in the planner buffer
+        List<String> commands = new ArrayList<>(Arrays.asList("G91", "G1 F600"));
+        for (int i = 0; i < 10000; i++) {
+            commands.add("G1 X0.01");
+        }
+        double stoppable = Math.sqrt(2 * MotionModel.DEFAULT_ACCELERATION * 0.01 * (CycleTimeEstimator.PLANNER_BUFFER_SIZE - 1));
+        Assert.assertEquals(100 / stoppable, estimate(commands).getTotalTime(), 1);
+        Assert.assertTrue(estimate(commands).getTotalTime() > 4 * MOVE_TIME);
+    }
+    
+    @Test
+    public void testStops() throws Exception
+    {
+        //grbl stops before commands it waits for, and dwells for the time of a G4
+        Assert.assertEquals(2 * MOVE_TIME, estimate("G91", "G1 X100 F600", "M3 S1000", "G1 X100").getTotalTime(), 0.000001);
+        Assert.assertEquals(2 * MOVE_TIME + 2.5, estimate("G91", "G1 X100 F600", "G4 P2.5", "G1 X100").getTotalTime(), 0.000001);
+        
+        //modal commands do not stop the machine
+        double longMove = CycleTimeEstimator.moveTime(200, 0, 0, MotionModel.DEFAULT_MAX_RATE / 60, MotionModel.DEFAULT_ACCELERATION);
+        Assert.assertEquals(longMove, estimate("G91", "G1 X100 F600", "G21 G17", "G1 X100").getTotalTime(), 0.000001);
+    }
+    
+    @Test
+    public void testModalState() throws Exception
+    {
+        MotionModel fast = new MotionModel(new double[] {100000, 100000, 100000}, new double[] {1e9, 1e9, 1e9}, 0.01);
+        
+        //100 mm in inches, with an absolute move that does not move
+        Assert.assertEquals(10, estimate(fast, "G20 G91", "G1 X3.937007874 F23.62204724", "G90", "G1 X3.937007874").getTotalTime(), 0.0001);
+        
+        //a half circle of radius 10 mm
+        Assert.assertEquals(Math.PI, estimate(fast, "G90", "G2 X20 Y0 I10 J0 F600").getTotalTime(), 0.0001);
+        Assert.assertEquals(Math.PI, estimate(fast, "G90", "G3 X20 Y0 R-10 F600").getTotalTime(), 0.0001);
+        
+        //a rapid move at the maximum rate of the axis, and an inverse time move taking 1/F minutes
+        Assert.assertEquals(0.06, estimate(fast, "G91", "G0 X100").getTotalTime(), 0.0001);
+        Assert.assertEquals(30, estimate(fast, "G91", "G93", "G1 X100 F2").getTotalTime(), 0.0001);
+    }
+    
+    @Test
+    public void testRemainingTime() throws Exception
+    {
+        Random random = new Random(3);
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G1 F600"));
+        for (int i = 0; i < 1000; i++) {
+            commands.add("G1 X" + random.nextInt(100) + " Y" + random.nextInt(100));
+            if (i % 100 == 0) {
+                commands.add("M5");
+            }
+        }
+        
+        CycleTimeEstimator estimator = estimate(commands);
+        double total = 0;
+        for (int line = 0; line < estimator.getLines(); line++) {
+            total += estimator.getLineTime(line);
+        }
+        Assert.assertEquals(estimator.getTotalTime(), total, 0.000001);
+        
+        //the lines in a full planner buffer are still to be executed
+        Assert.assertEquals(total, estimator.getRemainingTime(0), 0.000001);
+        Assert.assertEquals(total, estimator.getRemainingTime(3 + CycleTimeEstimator.PLANNER_BUFFER_SIZE), 0.000001);
+        Assert.assertTrue(estimator.getRemainingTime(4 + CycleTimeEstimator.PLANNER_BUFFER_SIZE) < total);
+        Assert.assertTrue(estimator.getRemainingTime(commands.size()) > 0 && estimator.getRemainingTime(commands.size()) < total / 20);
+        double remaining = total;
+        for (int line = 0; line <= commands.size(); line++) {
+            Assert.assertTrue(estimator.getRemainingTime(line) <= remaining);
+            remaining = estimator.getRemainingTime(line);
+        }
+    }
+    
+    @Test
+    public void testSettings() throws Exception
+    {
+        MotionModel model = new MotionModel();
+        Assert.assertSame(model, model.withSetting("ok"));
+        Assert.assertSame(model, model.withSetting("$130=200.000"));
+        Assert.assertSame(model, model.withSetting("$110=abc"));
+        
+        model = model.withSetting("$110=1000.000").withSetting("$121=50.000").withSetting("$11=0.020");
+        Assert.assertEquals(1000, model.getMaxRate(0), 0);
+        Assert.assertEquals(MotionModel.DEFAULT_MAX_RATE, model.getMaxRate(1), 0);
+        Assert.assertEquals(50, model.getAcceleration(1), 0);
+        Assert.assertEquals(0.02, model.getJunctionDeviation(), 0);
+    }
+    
+    @Test
+    public void testCompiledJob() throws Exception
+    {
+        //moves read from the columns of a compiled job are planned the same as their text
+        List<String> commands = Arrays.asList("G21", "G90", "G1 F600", "G0 X10 Y20", "G1 X12 Y20 Z-1 F300", "G2 X14 Y22 I2 J0",
+                "G3 X10 Y22 R2", "G4 P0.5", "G91 G1 X5", "G1 X-5 Y3", "G20", "G1 X1 F20", "M5");
+        CommandBuffer buffer = new CommandBuffer();
+        buffer.append("G21");
+        buffer.appendBlock(buffer.addBlock(CompiledJob.compile(commands)));
+        buffer.append("M3");
+        
+        CycleTimeEstimator compiled = new CycleTimeEstimator(new MotionModel());
+        CommandBuffer.LineView view = buffer.newLineView();
+        for (int line = 0; line < buffer.size(); line++) {
+            compiled.append(view.moveTo(line));
+        }
+        compiled.finish();
+        
+        List<String> text = new ArrayList<>();
+        text.add("G21");
+        text.addAll(commands);
+        text.add("M3");
+        CycleTimeEstimator expected = estimate(text);
+        
+        Assert.assertEquals(expected.getLines(), compiled.getLines());
+        Assert.assertEquals(expected.getTotalTime(), compiled.getTotalTime(), 0.000001);
+        for (int line = 0; line < buffer.size(); line++) {
+            Assert.assertEquals(expected.getLineTime(line), compiled.getLineTime(line), 0.000001);
+        }
+    }
+    
+    /**
+     * Plans commands with the default motion model.
+     *
+     * @param commands The commands.
+     * @return The planned job.
+     */
+    private static CycleTimeEstimator estimate(String... commands)
+    {
+        return estimate(new MotionModel(), commands);
+    }
+    
+    /**
+     * Plans commands with the default motion model.
+     *
+     * @param commands The commands.
+     * @return The planned job.
+     */
+    private static CycleTimeEstimator estimate(List<String> commands)
+    {
+        return estimate(new MotionModel(), commands.toArray(new String[0]));
+    }
+    
+    /**
+     * Plans commands.
+     *
+     * @param model    The motion model.
+     * @param commands The commands.
+     * @return The planned job.
+     */
+    private static CycleTimeEstimator estimate(MotionModel model, String... commands)
+    {
+        CycleTimeEstimator estimator = new CycleTimeEstimator(model);
+        for (String command : commands) {
+            estimator.append(command);
+        }
+        estimator.finish();
+        return estimator;
+    }
+    
+}
@@ -0,0 +1,46 @@
+/*
+ * File:    DetectGrblTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import grbl.transport.SerialPortInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class DetectGrblTest
+{
+    
+    @Test
+    public void testDetectMachine()
+    {
+        List<SerialPortInfo> ports = Arrays.asList(
+                new SerialPortInfo("/dev/ttyUSB0", "A600XYZ", "0403", "6001", "FTDI FT232R USB UART"),
+                new SerialPortInfo("/dev/ttyACM0", "1234", "2341", "0043", null),
+                new SerialPortInfo("/dev/ttyACM1", "85735313033351202220", "2341", "0043", null)
+        );
+        
+        //a known serial number is preferred over the first Arduino
+        DetectGrbl detect = new DetectGrbl(ports, "55735323835351017091", "85735313033351202220");
+        Assert.assertEquals("85735313033351202220", detect.getType());
+        Assert.assertEquals("/dev/ttyACM1", detect.getPort());
+        
+        detect = new DetectGrbl(ports, "55735323835351017091");
+        Assert.assertEquals("1234", detect.getType());
+        Assert.assertEquals("/dev/ttyACM0", detect.getPort());
+        
+        detect = new DetectGrbl(Collections.emptyList(), "55735323835351017091");
+        Assert.assertNull(detect.getType());
+        Assert.assertNull(detect.getPort());
+    }
+    
+}
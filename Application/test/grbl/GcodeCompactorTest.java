@@ -0,0 +1,234 @@
+/*
+ * File:    GcodeCompactorTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(PowerMockRunner.class)
+public class GcodeCompactorTest
+{
+    
+    @Test
+    public void testMinimalNumbers() throws Exception
+    {
+        List<String> commands = Arrays.asList(
+                "G90", "G1 X10.500 Y-0.000 Z0.250 F600.000 ", "G0 X+007.0 Y-0.5 Z100 ");
+        
+        Assert.assertEquals(Arrays.asList(
+                "G90", "G1X10.5Y0Z.25F600", "G0X7Y-.5Z100"), compact(commands));
+    }
+    
+    @Test
+    public void testModalWords() throws Exception
+    {
+        //repeated motion commands, feed rates and axes are dropped
+        List<String> commands = Arrays.asList(
+                "G90", "G0 X0.000 Y0.000 Z1.000 ",
+                "G1 X1.000 Y0.000 Z1.000 F600.000 ", "G1 X2.000 Y0.000 Z1.000 F600.000 ", "G1 X2.000 Y1.000 Z1.000 F300.000 ",
+                "G1 X2.000 Y1.000 Z1.000 F300.000 ", "M5", "X3.000 Y1.000 ", "G2 X4.000 Y1.000 I0.500 J0.000 ", "G2 X4.000 Y1.000 I-0.500 J0.000 ");
+        
+        Assert.assertEquals(Arrays.asList(
+                "G90", "G0X0Y0Z1",
+                "G1X1F600", "X2", "Y1F300",
+                "", "M5", "X3", "G2X4Y1I.5J0", "X4Y1I-.5J0"), compact(commands));
+    }
+    
+    @Test
+    public void testRelative() throws Exception
+    {
+        List<String> commands = Arrays.asList("G91", "G1 X1.000 Y0.000 Z0.000 F600.000 ", "G1 X0.000 Y-1.000 Z0.000 F600.000 ", "G1 X0.000 Y0.000 Z0.000 ");
+        
+        Assert.assertEquals(Arrays.asList("G91", "G1X1F600", "Y-1", ""), compact(commands));
+    }
+    
+    @Test
+    public void testUnknownState() throws Exception
+    {
+        //axes are kept until the distance mode is known, and the modal state is forgotten after other commands
+        List<String> commands = Arrays.asList(
+                "G1 X1.000 Y0.000 F600.000 ", "G1 X1.000 Y0.000 F600.000 ",
+                "G90", "G1 X1.000 Y0.000 F600.000 ", "G1 X1.000 Y0.000 F600.000 ", "G28", "G1 X1.000 Y0.000 F600.000 ",
+                "G21 G91", "G1 X0.000 Y1.000 ");
+        
+        Assert.assertEquals(Arrays.asList(
+                "G1X1Y0F600", "X1Y0",
+                "G90", "G1X1Y0F600", "", "G28", "G1X1Y0F600",
+                "G21 G91", "G1X0Y1"), compact(commands));
+    }
+    
+    @Test
+    public void testMotionWithoutMove() throws Exception
+    {
+        //a motion command that does not move is not sent, but still applies to the moves after it
+        List<String> commands = Arrays.asList("G90", "G0 X0.000 Y0.000 ", "G1 X0.000 F100.000 ", "X1.000 ", "G0 X1.000 ", "X2.000 ");
+        
+        Assert.assertEquals(Arrays.asList("G90", "G0X0Y0", "F100", "G1X1", "", "G0X2"), compact(commands));
+    }
+    
+    @Test
+    public void testReset() throws Exception
+    {
+        GcodeCompactor compactor = new GcodeCompactor();
+        Assert.assertEquals("G90", compactor.compact("G90"));
+        Assert.assertEquals("G1X1Y2F600", compactor.compact("G1 X1.000 Y2.000 F600.000 "));
+        
+        compactor.reset();
+        Assert.assertEquals("G1X1Y2F600", compactor.compact("G1 X1.000 Y2.000 F600.000 "));
+    }
+    
+    @Test
+    public void testIdenticalPath() throws Exception
+    {
+        //a random job mixing every kind of command the compactor handles
+        Random random = new Random(42);
+        List<String> commands = new ArrayList<>();
+        String[] others = {"G90", "G91", "G21", "G28", "M3 S1000", "M5", "G4 P0.5", "G1", "F300"};
+        for (int i = 0; i < 5000; i++) {
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                commands.add(others[random.nextInt(others.length)]);
+            } else if (kind == 1) {
+                commands.add(((random.nextBoolean()) ? "G2" : "G3") + " X" + coordinate(random) + " Y" + coordinate(random) + " I1.000 J0.000 ");
+            } else {
+                StringBuilder move = new StringBuilder((kind < 5) ? "" : (kind < 8) ? "G0 " : "G1 ");
+                for (char axis : "XYZ".toCharArray()) {
+                    if (random.nextInt(3) > 0) {
+                        move.append(axis).append(coordinate(random)).append(' ');
+                    }
+                }
+                if (random.nextInt(4) == 0) {
+                    move.append("F").append(100 * random.nextInt(3)).append(".000 ");
+                }
+                commands.add(move.toString());
+            }
+        }
+        
+        List<String> compacted = compact(commands);
+        Assert.assertEquals(trace(commands), trace(compacted));
+        
+        int bytes = 0;
+        int compactedBytes = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            bytes += commands.get(i).length();
+            compactedBytes += compacted.get(i).length();
+        }
+        Assert.assertTrue(compactedBytes < bytes / 2);
+    }
+    
+    @Test
+    public void testLineView() throws Exception
+    {
+        //lines read from a command buffer are compacted like their strings
+        List<String> commands = Arrays.asList(
+                "G90", "G0 X0.000 Y0.000 Z1.000 ", "G1 X1.000 Y0.000 Z1.000 F600.000 ", "G1 X1.000 Y0.000 Z1.000 F600.000 ",
+                "M5", "X3.000 Y1.000 ", "G2 X4.000 Y1.000 I0.500 J0.000 ", "G28", "G1 X2.000 Y1.000 Z1.000 F300.000 ");
+        CommandBuffer buffer = new CommandBuffer();
+        buffer.appendAll(commands);
+        
+        GcodeCompactor compactor = new GcodeCompactor();
+        CommandBuffer.LineView view = buffer.newLineView();
+        List<String> compacted = new ArrayList<>();
+        for (int i = 0; i < buffer.size(); i++) {
+            compacted.add(compactor.compact(view.moveTo(i)).toString());
+        }
+        Assert.assertEquals(compact(commands), compacted);
+        
+        GcodeCompactor stringCompactor = new GcodeCompactor();
+        for (String command : commands) {
+            stringCompactor.compact(command);
+        }
+        Assert.assertEquals(stringCompactor.getCommandsOut(), compactor.getCommandsOut());
+        Assert.assertEquals(stringCompactor.getBytesOut(), compactor.getBytesOut());
+        Assert.assertEquals(stringCompactor.getBytesIn(), compactor.getBytesIn());
+    }
+    
+    /**
+     * Returns a random coordinate from a small set, so moves often repeat a position.
+     *
+     * @param random The random number generator.
+     * @return The coordinate.
+     */
+    private static String coordinate(Random random)
+    {
+        return String.format("%.3f", (random.nextInt(5) - 2) * 0.5);
+    }
+    
+    /**
+     * Passes commands through a GcodeCompactor.
+     *
+     * @param commands The commands.
+     * @return The compacted commands.
+     */
+    private static List<String> compact(List<String> commands)
+    {
+        GcodeCompactor compactor = new GcodeCompactor();
+        List<String> compacted = new ArrayList<>();
+        for (String command : commands) {
+            compacted.add(compactor.compact(command));
+        }
+        return compacted;
+    }
+    
+    /**
+     * Interprets commands the way grbl does, listing the moves that change the position of the machine and the other commands.
+     *
+     * @param commands The commands.
+     * @return The moves and the other commands.
+     */
+    private static List<String> trace(List<String> commands)
+    {
+        List<String> trace = new ArrayList<>();
+        GcodeWords words = new GcodeWords();
+        double[] position = {0, 0, 0};
+        int motion = 0;
+        double feed = 0;
+        boolean relative = false;
+        for (String command : commands) {
+            if (GcodeLexer.lex(command, words) == 0) {
+                continue;
+            }
+            
+            if (words.getLetter(0) == 'G') {
+                double code = words.getValue(0);
+                if (code != 0 && code != 1 && code != 2 && code != 3) {
+                    relative = (code == 91) || (relative && code != 90);
+                    trace.add(command);
+                    continue;
+                }
+                motion = (int) code;
+            } else if (words.getLetter(0) != 'X' && words.getLetter(0) != 'Y' && words.getLetter(0) != 'Z' && words.getLetter(0) != 'F') {
+                trace.add(command);
+                continue;
+            }
+            
+            feed = words.getValue('F', feed);
+            double[] target = new double[3];
+            boolean moves = false;
+            for (int axis = 0; axis < 3; axis++) {
+                char letter = "XYZ".charAt(axis);
+                target[axis] = relative ? position[axis] + words.getValue(letter, 0) : words.getValue(letter, position[axis]);
+                moves |= (target[axis] != position[axis]);
+            }
+            if (moves || (motion >= 2 && (words.has('I') || words.has('J')))) {
+                trace.add("G" + motion + " " + Arrays.toString(target) + " F" + feed + " I" + words.getValue('I', 0) + " J" + words.getValue('J', 0));
+            }
+            position = target;
+        }
+        return trace;
+    }
+    
+}
@@ -14,7 +14,10 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 @RunWith(PowerMockRunner.class)
 public class GcodeModifierTest
@@ -27,7 +30,7 @@ public class GcodeModifierTest
         m.modify();
         
         List<String> commands = m.getCommands();
-    
+        
         File expectedOutput = new File("resources\\gcode\\modifierTest\\expected.gcode");
         List<String> expectedCommands = Files.readAllLines(Paths.get(expectedOutput.getAbsolutePath()));
         
@@ -36,4 +39,94 @@ public class GcodeModifierTest
         }
     }
     
-}
+    @Test
+    public void testAcceptableCommands() throws Exception
+    {
+        for (GcodeCommand command : GcodeCommand.values()) {
+            String line = "  " + command.getText() + " X1";
+            Assert.assertEquals(command, GcodeCommand.lookup(line, 2, 2 + command.getText().length()));
+        }
+        
+        Assert.assertNull(GcodeCommand.lookup("G38.6", 0, 5));
+        Assert.assertNull(GcodeCommand.lookup("M7", 0, 2));
+        Assert.assertNull(GcodeCommand.lookup("g1", 0, 2));
+        Assert.assertNull(GcodeCommand.lookup("G", 0, 1));
+        Assert.assertNull(GcodeCommand.lookup("", 0, 0));
+        Assert.assertEquals(GcodeCommand.G1, GcodeCommand.lookup("G10L2", 0, 2));
+    }
+    
+    @Test
+    public void testModifyLines() throws Exception
+    {
+        GcodeModifier m = new GcodeModifier("");
+        List<String> commands = m.modify(Arrays.asList(
+                "  G1 X1.23456 Y2 ; move", "", ";comment", "M107", "G0 E5 F9000", "G38.2 Z-1", "G1 Xa Y1"));
+        
+        Assert.assertEquals(Arrays.asList("G1 X1.235 Y2.000 ", "G0 F200.000 ", "G38.2 Z-1", "G1 Xa Y1"), commands);
+    }
+    
+    @Test
+    public void testModifyArcs() throws Exception
+    {
+        List<String> arcs = Arrays.asList(
+                "G2 X1.23456 Y2 I0.5 J-0.25 F100 ; arc", "G3 X1 Y1 R-2.0004 S5", "G2 X1 Y1 I1 P2", "G2 X1 Ia");
+        
+        //arcs are left as they are when arc fitting is disabled
+        GcodeModifier m = new GcodeModifier("");
+        Assert.assertEquals(Arrays.asList("G2 X1.23456 Y2 I0.5 J-0.25 F100", "G3 X1 Y1 R-2.0004 S5", "G2 X1 Y1 I1 P2", "G2 X1 Ia"), m.modify(arcs));
+        
+        double arcTolerance = ArcFitter.arcTolerance;
+        try {
+            ArcFitter.arcTolerance = 0.01;
+            m = new GcodeModifier("");
+            List<String> commands = m.modify(arcs);
+            
+            Assert.assertEquals(Arrays.asList("G2 X1.235 Y2.000 I0.500 J-0.250 F100.000 ", "G3 X1.000 Y1.000 R-2.000 S5 ", "G2 X1.000 Y1.000 I1.000 P2 ", "G2 X1 Ia"), commands);
+        } finally {
+            ArcFitter.arcTolerance = arcTolerance;
+        }
+    }
+    
+    @Test
+    public void testStages() throws Exception
+    {
+        GcodeModifier m = new GcodeModifier("");
+        
+        //a stage that holds back every other command until the next one arrives
+        m.addStage(new GcodeModifier.Stage()
+        {
+            private String held = null;
+            
+            @Override
+            public void process(String line, Consumer<String> next)
+            {
+                if (held == null) {
+                    held = line;
+                } else {
+                    next.accept(line);
+                    next.accept(held);
+                    held = null;
+                }
+            }
+            
+            @Override
+            public void flush(Consumer<String> next)
+            {
+                if (held != null) {
+                    next.accept(held);
+                    held = null;
+                }
+            }
+        });
+        
+        List<String> commands = new ArrayList<>();
+        m.modify("G4 P1", commands::add);
+        Assert.assertTrue(commands.isEmpty());
+        m.modify("M5", commands::add);
+        m.modify("M3 S100", commands::add);
+        Assert.assertEquals(Arrays.asList("M5", "G4 P1"), commands);
+        m.flush(commands::add);
+        Assert.assertEquals(Arrays.asList("M5", "G4 P1", "M3 S100"), commands);
+    }
+    
+}
\ No newline at end of file
@@ -0,0 +1,130 @@
+/*
+ * File:    GcodePipelineTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class GcodePipelineTest
+{
+    
+    @Test
+    public void testSameAsGcodeModifier() throws Exception
+    {
+        File gcode = File.createTempFile("pipeline", ".gcode");
+        gcode.deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add("G1 X" + i + ".12345 Y-" + i + " E0.5 ; extrude");
+            lines.add("  ");
+            lines.add("M107");
+            lines.add("G0 F" + (i * 10) + " X" + i);
+        }
+        Files.write(gcode.toPath(), lines);
+        
+        GcodeModifier m = new GcodeModifier(gcode.getAbsolutePath());
+        Assert.assertTrue(m.modify());
+        List<String> expected = m.getCommands();
+        
+        GcodePipeline pipeline = new GcodePipeline(gcode.getAbsolutePath(), null, 16);
+        pipeline.start();
+        List<String> commands = new ArrayList<>();
+        String command;
+        while ((command = pipeline.poll(1000)) != null || !pipeline.isFinished()) {
+            if (command != null) {
+                commands.add(command);
+            }
+        }
+        
+        Assert.assertFalse(pipeline.isFailed());
+        Assert.assertEquals(expected, commands);
+        Assert.assertEquals(expected.size(), pipeline.getProduced());
+        Assert.assertEquals(expected.size(), pipeline.getEstimatedSize());
+    }
+    
+    @Test
+    public void testStreamsBeforeModified() throws Exception
+    {
+        File gcode = File.createTempFile("pipeline", ".gcode");
+        gcode.deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            lines.add("G1 X" + i + " Y" + i);
+        }
+        Files.write(gcode.toPath(), lines);
+        
+        GcodePipeline pipeline = new GcodePipeline(gcode.getAbsolutePath(), null, 16);
+        pipeline.start();
+        
+        //the first command is available while the rest of the file is still waiting to be modified
+        Assert.assertEquals("G1 X0.000 Y0.000 ", pipeline.poll(1000));
+        Assert.assertFalse(pipeline.isFinished());
+        Assert.assertTrue(pipeline.getProduced() < 1000);
+        Assert.assertTrue(pipeline.getEstimatedSize() > pipeline.getProduced());
+        
+        pipeline.cancel();
+        pipeline.join(1000);
+        Assert.assertFalse(pipeline.isAlive());
+    }
+    
+    @Test
+    public void testCachesCompiledJob() throws Exception
+    {
+        File directory = Files.createTempDirectory("cache").toFile();
+        directory.deleteOnExit();
+        File gcode = File.createTempFile("pipeline", ".gcode");
+        gcode.deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            lines.add("G1 X" + i + " Y" + i + " F100");
+        }
+        Files.write(gcode.toPath(), lines);
+        
+        String cacheDirectory = JobCache.cacheDirectory;
+        JobCache.cacheDirectory = directory.getAbsolutePath();
+        try {
+            String key = JobCache.cacheKey(gcode, "MAX_SPEED=200.0");
+            Assert.assertNull(JobCache.find(key));
+            
+            GcodePipeline pipeline = new GcodePipeline(gcode.getAbsolutePath(), key);
+            pipeline.start();
+            int count = 0;
+            while (pipeline.poll(1000) != null || !pipeline.isFinished()) {
+                count++;
+            }
+            pipeline.join(5000);
+            
+            CompiledJob job = JobCache.find(key);
+            Assert.assertNotNull(job);
+            new File(directory, key + CompiledJob.EXTENSION).deleteOnExit();
+            Assert.assertEquals(count, job.size());
+            Assert.assertEquals("G1 X499.000 Y499.000 F100.000 ", job.get(499));
+        } finally {
+            JobCache.cacheDirectory = cacheDirectory;
+        }
+    }
+    
+    @Test
+    public void testMissingFile() throws Exception
+    {
+        GcodePipeline pipeline = new GcodePipeline("missing" + File.separator + "file.gcode", null);
+        pipeline.start();
+        
+        Assert.assertNull(pipeline.poll(5000));
+        Assert.assertTrue(pipeline.isFinished());
+        Assert.assertTrue(pipeline.isFailed());
+    }
+    
+}
@@ -0,0 +1,88 @@
+/*
+ * File:    GrblRealtimeChannelTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import grbl.transport.LoopbackGrblTransport;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class GrblRealtimeChannelTest
+{
+    
+    @Test
+    public void testLatencyMeasurement() throws Exception
+    {
+        LoopbackGrblTransport transport = new LoopbackGrblTransport(false);
+        transport.open();
+        GrblRealtimeChannel channel = new GrblRealtimeChannel(transport);
+        
+        Assert.assertEquals(-1, channel.getLastLatency(RealtimeCommand.FEED_HOLD), 0);
+        
+        channel.send(RealtimeCommand.FEED_HOLD);
+        Assert.assertEquals(RealtimeCommand.FEED_HOLD, channel.getPending());
+        Assert.assertTrue(channel.handle(transport.readLine()));
+        Assert.assertNull(channel.getPending());
+        Assert.assertEquals(1, channel.getConfirmedCount(RealtimeCommand.FEED_HOLD));
+        Assert.assertTrue(channel.getLastLatency(RealtimeCommand.FEED_HOLD) >= 0);
+        Assert.assertEquals(channel.getLastLatency(RealtimeCommand.FEED_HOLD), channel.getMaxLatency(RealtimeCommand.FEED_HOLD), 0);
+        
+        channel.send(RealtimeCommand.CYCLE_START);
+        Assert.assertTrue(channel.handle(transport.readLine()));
+        Assert.assertEquals(1, channel.getConfirmedCount(RealtimeCommand.CYCLE_START));
+        
+        channel.send(RealtimeCommand.SOFT_RESET);
+        Assert.assertTrue(channel.handle(transport.readLine()));
+        Assert.assertEquals(1, channel.getConfirmedCount(RealtimeCommand.SOFT_RESET));
+        
+        channel.send(RealtimeCommand.STATUS_QUERY);
+        Assert.assertFalse(channel.handle(transport.readLine()));
+        Assert.assertNull(channel.getPending());
+        
+        transport.close();
+    }
+    
+    @Test
+    public void testUnconfirmedCommand() throws Exception
+    {
+        LoopbackGrblTransport transport = new LoopbackGrblTransport(false);
+        transport.open();
+        GrblRealtimeChannel channel = new GrblRealtimeChannel(transport);
+        
+        //grbl keeps reporting that it is running, so the feed hold is never confirmed
+        channel.send(RealtimeCommand.FEED_HOLD);
+        for (int i = 1; i < GrblRealtimeChannel.MAX_CONFIRM_ATTEMPTS; i++) {
+            Assert.assertFalse(channel.handle("<Run|MPos:0.000,0.000,0.000|FS:0,0>"));
+            Assert.assertEquals(RealtimeCommand.FEED_HOLD, channel.getPending());
+        }
+        Assert.assertFalse(channel.handle("<Run|MPos:0.000,0.000,0.000|FS:0,0>"));
+        Assert.assertNull(channel.getPending());
+        Assert.assertEquals(1, channel.getFailedCount(RealtimeCommand.FEED_HOLD));
+        Assert.assertEquals(0, channel.getConfirmedCount(RealtimeCommand.FEED_HOLD));
+        
+        //a failed command is no longer polled for
+        Assert.assertFalse(channel.handle("<Hold:0|MPos:0.000,0.000,0.000|FS:0,0>"));
+        Assert.assertEquals(0, channel.getConfirmedCount(RealtimeCommand.FEED_HOLD));
+        
+        transport.close();
+    }
+    
+    @Test
+    public void testRealtimeCommandConfirmation() throws Exception
+    {
+        Assert.assertTrue(RealtimeCommand.FEED_HOLD.isConfirmedBy("<Hold:0|MPos:0.000,0.000,0.000|FS:0,0>"));
+        Assert.assertTrue(RealtimeCommand.FEED_HOLD.isConfirmedBy("<Hold,MPos:0.000,0.000,0.000,WPos:0.000,0.000,0.000>"));
+        Assert.assertFalse(RealtimeCommand.FEED_HOLD.isConfirmedBy("<Run,MPos:0.000,0.000,0.000,WPos:0.000,0.000,0.000>"));
+        Assert.assertTrue(RealtimeCommand.CYCLE_START.isConfirmedBy("<Run|MPos:0.000,0.000,0.000|FS:0,0>"));
+        Assert.assertTrue(RealtimeCommand.CYCLE_START.isConfirmedBy("<Idle|MPos:0.000,0.000,0.000|FS:0,0>"));
+        Assert.assertTrue(RealtimeCommand.SOFT_RESET.isConfirmedBy("Grbl 1.1f ['$' for help]"));
+        Assert.assertFalse(RealtimeCommand.STATUS_QUERY.isConfirmedBy("<Idle|MPos:0.000,0.000,0.000|FS:0,0>"));
+    }
+    
+}
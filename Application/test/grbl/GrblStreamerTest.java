@@ -0,0 +1,181 @@
+/*
+ * File:    GrblStreamerTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import grbl.transport.LoopbackGrblTransport;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class GrblStreamerTest
+{
+    
+    @Test
+    public void testCharacterCounting() throws Exception
+    {
+        LoopbackGrblTransport transport = new LoopbackGrblTransport(false);
+        transport.open();
+        RecordingListener listener = new RecordingListener();
+        GrblStreamer streamer = new GrblStreamer(transport, listener, 20);
+        streamer.start();
+        
+        //"G1 X1.000" is 10 bytes with its newline, so only two fit in a 20 byte buffer
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < 3; i++) {
+                    streamer.send("G1 X1.000", i);
+                }
+            } catch (Exception e) {
+                Assert.fail();
+            }
+        });
+        sender.start();
+        sender.join(500);
+        
+        Assert.assertTrue(sender.isAlive());
+        Assert.assertEquals(2, transport.getSentLines().size());
+        Assert.assertEquals(20, streamer.getBytesInFlight());
+        
+        transport.respond("ok");
+        sender.join(1000);
+        
+        Assert.assertFalse(sender.isAlive());
+        Assert.assertEquals(3, transport.getSentLines().size());
+        Assert.assertEquals(20, streamer.getBytesInFlight());
+        
+        transport.respond("ok");
+        transport.respond("error:20");
+        Assert.assertTrue(streamer.drain());
+        
+        Assert.assertEquals(0, streamer.getBytesInFlight());
+        Assert.assertEquals(1, streamer.getErrorCount());
+        Assert.assertEquals("0:ok", listener.acknowledged.get(0));
+        Assert.assertEquals("1:ok", listener.acknowledged.get(1));
+        Assert.assertEquals("2:error:20", listener.acknowledged.get(2));
+        
+        streamer.stop();
+        transport.close();
+    }
+    
+    @Test
+    public void testResponseDispatch() throws Exception
+    {
+        LoopbackGrblTransport transport = new LoopbackGrblTransport();
+        transport.open();
+        RecordingListener listener = new RecordingListener();
+        GrblStreamer streamer = new GrblStreamer(transport, listener, GrblStreamer.DEFAULT_RX_BUFFER_SIZE);
+        
+        transport.respond("Grbl 0.9j ['$' for help]");
+        streamer.start();
+        
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(streamer.send("G1 X" + i + " Y" + i, i));
+        }
+        transport.write(new byte[] {'?'}, 0, 1);
+        Assert.assertTrue(streamer.drain());
+        
+        Assert.assertFalse(streamer.send("G1 X0.000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000", 100));
+        
+        streamer.stop();
+        transport.close();
+        
+        Assert.assertEquals(100, listener.acknowledged.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i + ":ok", listener.acknowledged.get(i));
+        }
+        Assert.assertEquals(Collections.singletonList("Grbl 0.9j ['$' for help]"), listener.messages);
+    }
+    
+    @Test
+    public void testHalt() throws Exception
+    {
+        LoopbackGrblTransport transport = new LoopbackGrblTransport(false);
+        transport.open();
+        RecordingListener listener = new RecordingListener();
+        GrblStreamer streamer = new GrblStreamer(transport, listener, 20);
+        streamer.start();
+        
+        //the third line waits for room in the buffer when the streamer is halted
+        List<Boolean> sent = Collections.synchronizedList(new ArrayList<>());
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < 3; i++) {
+                    sent.add(streamer.send("G1 X1.000", i));
+                }
+            } catch (Exception e) {
+                Assert.fail();
+            }
+        });
+        sender.start();
+        sender.join(500);
+        Assert.assertTrue(sender.isAlive());
+        
+        streamer.halt();
+        sender.join(1000);
+        
+        Assert.assertFalse(sender.isAlive());
+        Assert.assertEquals(2, transport.getSentLines().size());
+        Assert.assertEquals(0, streamer.getBytesInFlight());
+        Assert.assertEquals(3, sent.size());
+        Assert.assertFalse(sent.get(2));
+        Assert.assertTrue(streamer.isRunning());
+        Assert.assertFalse(streamer.send("G1 X2.000", 3));
+        
+        streamer.resume();
+        Assert.assertTrue(streamer.send("G1 X2.000", 4));
+        Assert.assertEquals(3, transport.getSentLines().size());
+        
+        //the late responses to the lines sent before the reset are ignored until grbl's startup banner
+        transport.respond("ok");
+        transport.respond("ok");
+        transport.respond(LoopbackGrblTransport.BANNER);
+        transport.respond("ok");
+        Assert.assertTrue(streamer.drain());
+        
+        Assert.assertEquals(Collections.singletonList("4:ok"), listener.acknowledged);
+        Assert.assertEquals(Collections.singletonList(LoopbackGrblTransport.BANNER), listener.messages);
+        
+        streamer.stop();
+        transport.close();
+    }
+    
+    /**
+     * Records the responses dispatched by a GrblStreamer.
+     */
+    private static class RecordingListener implements GrblStreamer.Listener
+    {
+        
+        final List<String> acknowledged = Collections.synchronizedList(new ArrayList<>());
+        
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        
+        @Override
+        public void lineAcknowledged(int tag, String response)
+        {
+            acknowledged.add(tag + ":" + response);
+        }
+        
+        @Override
+        public void statusReported(String report)
+        {
+        }
+        
+        @Override
+        public void messageReceived(String message)
+        {
+            messages.add(message);
+        }
+    
+    }
+    
+}
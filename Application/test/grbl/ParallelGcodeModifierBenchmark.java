@@ -0,0 +1,158 @@
+/*
+ * File:    ParallelGcodeModifierBenchmark.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import utils.GcodeProgressCalculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how modifying a gcode file and calculating its distance scale from one core to every core.<br/>
+ * The samples in resources/gcode are repeated up to millions of lines and written to a temporary file.
+ */
+public class ParallelGcodeModifierBenchmark
+{
+    
+    //Constants
+    
+    /**
+     * The number of lines in the benchmarked file.
+     */
+    private static final int LINES = 2000000;
+    
+    /**
+     * The number of runs to warm up the JIT with before measuring.
+     */
+    private static final int WARM_UP_RUNS = 2;
+    
+    /**
+     * The directory of the gcode samples.
+     */
+    private static final String SAMPLE_DIRECTORY = "resources" + File.separator + "gcode";
+    
+    
+    //Static Fields
+    
+    /**
+     * A value accumulated from every run, so that the JIT cannot eliminate the work.
+     */
+    private static double sink = 0;
+    
+    
+    //Main Method
+    
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Arguments to the main method.
+     * @throws IOException When the gcode samples could not be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        List<String> samples = new ArrayList<>();
+        File[] files = new File(SAMPLE_DIRECTORY).listFiles((dir, name) -> name.endsWith(".gcode"));
+        if (files != null) {
+            for (File file : files) {
+                samples.addAll(Files.readAllLines(file.toPath()));
+            }
+        }
+        if (samples.isEmpty()) {
+            System.err.println("No gcode samples were found in: " + new File(SAMPLE_DIRECTORY).getAbsolutePath());
+            return;
+        }
+        
+        List<String> lines = new ArrayList<>(LINES);
+        for (int i = 0; i < LINES; i++) {
+            lines.add(samples.get(i % samples.size()));
+        }
+        File gcode = File.createTempFile("benchmark", ".gcode");
+        gcode.deleteOnExit();
+        Files.write(gcode.toPath(), lines);
+        String file = gcode.getAbsolutePath();
+        
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(LINES + " lines, " + (gcode.length() >> 20) + " MB, " + cores + " cores");
+        
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            runSequential(file, lines);
+        }
+        double sequential = measure("  sequential", () -> runSequential(file, lines));
+        
+        List<Integer> parallelisms = new ArrayList<>();
+        for (int parallelism = 1; parallelism < cores; parallelism *= 2) {
+            parallelisms.add(parallelism);
+        }
+        parallelisms.add(cores);
+        
+        for (int parallelism : parallelisms) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                runParallel(file, lines, pool);
+            }
+            double elapsed = measure(String.format("  %2d cores  ", parallelism), () -> runParallel(file, lines, pool));
+            System.out.println(String.format("              %.2fx", sequential / elapsed));
+            pool.shutdown();
+        }
+        System.out.println(sink == 0 ? "" : " ");
+    }
+    
+    /**
+     * Measures and prints the time of a run.
+     *
+     * @param name The name of the run.
+     * @param run  The run.
+     * @return The time of the run, in nanoseconds.
+     */
+    private static double measure(String name, Runnable run)
+    {
+        long start = System.nanoTime();
+        run.run();
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.println(String.format("%s %8.1f ms %8.1f ns/line", name, elapsed / 1e6, (double) elapsed / LINES));
+        return elapsed;
+    }
+    
+    /**
+     * Modifies the file and calculates the distance of the lines on the calling thread.
+     *
+     * @param file  The gcode file.
+     * @param lines The lines of the gcode file.
+     */
+    private static void runSequential(String file, List<String> lines)
+    {
+        GcodeModifier m = new GcodeModifier(file);
+        m.modify();
+        
+        double distance = 0.0;
+        for (String line : lines) {
+            distance += GcodeProgressCalculator.calculateInstructionProgressUnits(line);
+        }
+        sink += m.getCommands().size() + distance;
+    }
+    
+    /**
+     * Modifies the file and calculates the distance of the lines in a pool.
+     *
+     * @param file  The gcode file.
+     * @param lines The lines of the gcode file.
+     * @param pool  The pool.
+     */
+    private static void runParallel(String file, List<String> lines, ForkJoinPool pool)
+    {
+        ParallelGcodeModifier m = new ParallelGcodeModifier(file, pool, ParallelGcodeModifier.DEFAULT_CHUNK_SIZE);
+        m.modify();
+        
+        sink += m.getCommands().size() + GcodeProgressCalculator.calculateFileProgressUnits(lines, pool);
+    }
+    
+}
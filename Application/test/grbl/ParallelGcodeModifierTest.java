@@ -0,0 +1,95 @@
+/*
+ * File:    ParallelGcodeModifierTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.ModalState;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+@RunWith(PowerMockRunner.class)
+public class ParallelGcodeModifierTest
+{
+    
+    @Test
+    public void testSameAsGcodeModifier() throws Exception
+    {
+        File gcode = File.createTempFile("parallel", ".gcode");
+        gcode.deleteOnExit();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("G1 X").append(i).append(".12345 Y-").append(i).append(" E0.5 ; extrude\r\n");
+            text.append("  \n");
+            text.append("M107\r");
+            text.append("G0 F").append(i * 10).append(" X").append(i).append('\n');
+            if (i % 300 == 0) {
+                text.append((i % 600 == 0) ? "G20\n" : "G21\n");
+                text.append((i % 900 == 0) ? "G91\n" : "G90\n");
+            }
+        }
+        text.append("G1 X1 F150 ; é"); //no line ending at the end of the file
+        Files.write(gcode.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+        
+        APIgrbl grbl = new APIgrbl();
+        APIgrbl.grbl = grbl;
+        
+        GcodeModifier m = new GcodeModifier(gcode.getAbsolutePath());
+        Assert.assertTrue(m.modify());
+        boolean mm = Whitebox.getInternalState(grbl, "mm");
+        Assert.assertFalse(mm);
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int chunkSize : Arrays.asList(1, 64, 1000, 1 << 20)) {
+                grbl.setMetric();
+                ParallelGcodeModifier p = new ParallelGcodeModifier(gcode.getAbsolutePath(), pool, chunkSize);
+                Assert.assertTrue(p.modify());
+                
+                Assert.assertEquals(m.getCommands(), p.getCommands());
+                Assert.assertEquals(m.getModalState().getUnits(), p.getModalState().getUnits());
+                Assert.assertEquals(m.getModalState().getDistanceMode(), p.getModalState().getDistanceMode());
+                Assert.assertEquals(m.getModalState().getFeed(), p.getModalState().getFeed(), 0.0);
+                Assert.assertEquals(mm, Whitebox.getInternalState(grbl, "mm"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        
+        Assert.assertEquals(ModalState.Units.IMPERIAL, m.getModalState().getUnits());
+        Assert.assertEquals(ModalState.DistanceMode.RELATIVE, m.getModalState().getDistanceMode());
+        Assert.assertEquals(150.0, m.getModalState().getFeed(), 0.0);
+    }
+    
+    @Test
+    public void testSplit() throws Exception
+    {
+        byte[] bytes = "G1 X1\nG1 X2\r\nG1 X3".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList(6, 13, 18), ParallelGcodeModifier.split(bytes, 1));
+        Assert.assertEquals(Arrays.asList(13, 18), ParallelGcodeModifier.split(bytes, 7));
+        Assert.assertEquals(Arrays.asList(18), ParallelGcodeModifier.split(bytes, 100));
+        Assert.assertTrue(ParallelGcodeModifier.split(new byte[0], 100).isEmpty());
+    }
+    
+    @Test
+    public void testMissingFile() throws Exception
+    {
+        ParallelGcodeModifier p = new ParallelGcodeModifier("missing" + File.separator + "file.gcode");
+        Assert.assertFalse(p.modify());
+        List<String> commands = p.getCommands();
+        Assert.assertTrue(commands.isEmpty());
+    }
+    
+}
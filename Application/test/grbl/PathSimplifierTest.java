@@ -0,0 +1,137 @@
+/*
+ * File:    PathSimplifierTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class PathSimplifierTest
+{
+    
+    @Test
+    public void testCollinearMoves() throws Exception
+    {
+        //relative moves that wander by less than the tolerance
+        List<String> commands = new ArrayList<>(Collections.singletonList("G91"));
+        for (int i = 0; i < 10; i++) {
+            commands.add("G1 X1.000 Y" + ((i % 2 == 0) ? "0.004" : "-0.004") + " F600.000 ");
+        }
+        commands.add("M5");
+        
+        Assert.assertEquals(Arrays.asList("G91", "G1 X10.000 Y0.000 F600.000 ", "M5"), simplify(0.01, 0, commands));
+        Assert.assertEquals(commands, simplify(0.001, 0, commands));
+    }
+    
+    @Test
+    public void testShortMoves() throws Exception
+    {
+        //absolute moves shorter than the tolerance around a corner
+        List<String> commands = Arrays.asList(
+                "G90", "G0 X0.000 Y0.000 Z1.000 ",
+                "G1 X5.000 Y0.000 ", "G1 X5.003 Y0.001 ", "G1 X5.004 Y0.004 ", "G1 X5.000 Y5.000 ");
+        
+        Assert.assertEquals(Arrays.asList(
+                "G90", "G0 X0.000 Y0.000 Z1.000 ",
+                "G1 X5.004 Y0.004 ", "G1 X5.000 Y5.000 "), simplify(0.01, 0, commands));
+    }
+    
+    @Test
+    public void testBoundaries() throws Exception
+    {
+        //runs end at a change of motion command or feed rate
+        List<String> commands = Arrays.asList(
+                "G90", "G0 X0.000 Y0.000 Z0.000 ",
+                "G0 X1.000 ", "G0 X2.000 ",
+                "G1 X3.000 F100.000 ", "G1 X4.000 F100.000 ",
+                "G1 X5.000 F200.000 ", "G1 X6.000 F200.000 ", "G1 X7.000 ");
+        
+        Assert.assertEquals(Arrays.asList(
+                "G90", "G0 X0.000 Y0.000 Z0.000 ",
+                "G0 X2.000 ", "G1 X4.000 F100.000 ", "G1 X6.000 F200.000 ", "G1 X7.000 "), simplify(0.01, 0, commands));
+    }
+    
+    @Test
+    public void testAxisTolerance() throws Exception
+    {
+        //a z deviation within the x and y tolerance but not the z tolerance
+        List<String> commands = Arrays.asList("G91", "G1 X1.000 Z0.005 ", "G1 X1.000 Z-0.005 ");
+        
+        Assert.assertEquals(commands, simplify(0.01, 0, commands));
+        Assert.assertEquals(Arrays.asList("G91", "G1 X2.000 Z0.000 "), simplify(0.01, 0.01, commands));
+    }
+    
+    @Test
+    public void testUnknownPosition() throws Exception
+    {
+        //moves are not merged until the absolute position is known
+        List<String> commands = Arrays.asList("G90", "G1 X1.000 ", "G1 X2.000 ", "G1 X2.000 Y0.000 ", "G1 X3.000 ", "G28", "G1 X4.000 Y0.000 ", "G1 X5.000 ");
+        
+        Assert.assertEquals(Arrays.asList("G90", "G1 X1.000 ", "G1 X2.000 ", "G1 X2.000 Y0.000 ", "G1 X3.000 ", "G28", "G1 X4.000 Y0.000 ", "G1 X5.000 "),
+                simplify(0.01, 0, commands));
+    }
+    
+    @Test
+    public void testWordOrder() throws Exception
+    {
+        //a move that does not start with its motion command still moves the position, so the reversal after it is kept
+        List<String> commands = Arrays.asList("G90", "G1 X0 Y0", "G90 G1 X100 Y0", "G1 X50 Y0.3", "G1 X100 Y0.6");
+        Assert.assertEquals(commands, simplify(0.5, 0.5, commands));
+        
+        commands = Arrays.asList("G90", "G1 X0 Y0 Z0", "N10 G1 X100", "F500 X10", "G1 X100 Y0.3");
+        Assert.assertEquals(commands, simplify(0.5, 0.5, commands));
+    }
+    
+    @Test
+    public void testMaxMergedMoves() throws Exception
+    {
+        List<String> commands = new ArrayList<>(Collections.singletonList("G91"));
+        for (int i = 0; i < PathSimplifier.MAX_MERGED_MOVES * 3 + 1; i++) {
+            commands.add("G1 Y0.500 ");
+        }
+        
+        String merged = "G1 Y" + (PathSimplifier.MAX_MERGED_MOVES / 2) + ".000 ";
+        Assert.assertEquals(Arrays.asList("G91", merged, merged, merged, "G1 Y0.500 "), simplify(0.01, 0, commands));
+    }
+    
+    @Test
+    public void testOptimizations() throws Exception
+    {
+        ArcFitter.arcTolerance = 0.01;
+        PathSimplifier.simplifyTolerance = 0.01;
+        try {
+            List<GcodeModifier.Stage> optimizations = GcodeModifier.createOptimizations();
+            Assert.assertEquals(2, optimizations.size());
+            Assert.assertTrue(optimizations.get(0) instanceof ArcFitter);
+            Assert.assertTrue(optimizations.get(1) instanceof PathSimplifier);
+        } finally {
+            ArcFitter.arcTolerance = ArcFitter.DEFAULT_ARC_TOLERANCE;
+            PathSimplifier.simplifyTolerance = PathSimplifier.DEFAULT_SIMPLIFY_TOLERANCE;
+        }
+    }
+    
+    /**
+     * Passes commands through a PathSimplifier.
+     *
+     * @param tolerance  The tolerance of the x and y axes.
+     * @param zTolerance The tolerance of the z axis.
+     * @param commands   The commands.
+     * @return The commands passed on by the PathSimplifier.
+     */
+    private static List<String> simplify(double tolerance, double zTolerance, List<String> commands)
+    {
+        return GcodeModifier.process(Collections.singletonList(new PathSimplifier(tolerance, zTolerance)), commands);
+    }
+    
+}
@@ -0,0 +1,117 @@
+/*
+ * File:    StatusReportParserBenchmark.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the time and garbage of decoding grbl status reports with the StatusReportParser, against splitting them as APIgrbl used to.
+ */
+public class StatusReportParserBenchmark
+{
+    
+    //Constants
+    
+    /**
+     * The number of reports decoded in each run.
+     */
+    private static final int ITERATIONS = 5000000;
+    
+    /**
+     * The number of runs to warm up the JIT with before measuring.
+     */
+    private static final int WARM_UP_RUNS = 3;
+    
+    /**
+     * The status reports decoded by the benchmark.
+     */
+    private static final String[] REPORTS = {
+            "<Run,MPos:10.500,-2.250,0.000,WPos:5.500,-2.250,-1.000>",
+            "<Run|MPos:123.456,78.901,-2.500|Bf:12,96|FS:500,12000|Ov:100,100,100>"
+    };
+    
+    
+    //Static Fields
+    
+    /**
+     * A value accumulated from every decoded report, so that the JIT cannot eliminate the work.
+     */
+    private static double sink = 0;
+    
+    
+    //Main Method
+    
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Arguments to the main method.
+     */
+    public static void main(String[] args)
+    {
+        for (String report : REPORTS) {
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                runParser(report);
+                runSplit(report);
+            }
+            
+            System.out.println(report);
+            measure("  StatusReportParser", () -> runParser(report));
+            measure("  String.split      ", () -> runSplit(report));
+        }
+        System.out.println(sink == 0 ? "" : " ");
+    }
+    
+    /**
+     * Measures and prints the time and allocation per report of a run.
+     *
+     * @param name The name of the run.
+     * @param run  The run.
+     */
+    private static void measure(String name, Runnable run)
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        run.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        
+        System.out.println(String.format("%s %8.1f ns/report %8.1f bytes/report", name, (double) elapsed / ITERATIONS, (double) allocated / ITERATIONS));
+    }
+    
+    /**
+     * Decodes a report with the StatusReportParser.
+     *
+     * @param report The status report.
+     */
+    private static void runParser(String report)
+    {
+        StatusReportParser parser = new StatusReportParser();
+        MachineState state = new MachineState();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parser.parse(report, state);
+            sink += state.getMachinePosition(0);
+        }
+    }
+    
+    /**
+     * Decodes a report by splitting it, as APIgrbl.updateCoordinates() used to.
+     *
+     * @param report The status report.
+     */
+    private static void runSplit(String report)
+    {
+        for (int i = 0; i < ITERATIONS; i++) {
+            String[] decomposed = report.split("[,|:]");
+            sink += Double.parseDouble(decomposed[2]) + Double.parseDouble(decomposed[3]) + Double.parseDouble(decomposed[4]);
+            sink += String.format("%.2f", sink).length();
+        }
+    }
+    
+}
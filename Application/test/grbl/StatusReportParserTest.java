@@ -0,0 +1,99 @@
+/*
+ * File:    StatusReportParserTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class StatusReportParserTest
+{
+    
+    private static final double DELTA = 0.0000001;
+    
+    @Test
+    public void testGrbl09Report()
+    {
+        StatusReportParser parser = new StatusReportParser();
+        MachineState state = new MachineState();
+        
+        Assert.assertTrue(parser.parse("<Run,MPos:10.500,-2.250,0.000,WPos:5.500,-2.250,-1.000>", state));
+        Assert.assertEquals(MachineState.State.RUN, state.getState());
+        Assert.assertEquals(-1, state.getSubState());
+        Assert.assertEquals(10.5, state.getMachinePosition(0), DELTA);
+        Assert.assertEquals(-2.25, state.getMachinePosition(1), DELTA);
+        Assert.assertEquals(0.0, state.getMachinePosition(2), DELTA);
+        Assert.assertEquals(5.5, state.getWorkPosition(0), DELTA);
+        Assert.assertEquals(-1.0, state.getWorkPosition(2), DELTA);
+        Assert.assertEquals(5.0, state.getWorkCoordinateOffset(0), DELTA);
+        Assert.assertEquals(1.0, state.getWorkCoordinateOffset(2), DELTA);
+        
+        Assert.assertTrue(parser.parse("<Idle,MPos:1.000,2.000,3.000,WPos:1.000,2.000,3.000,Buf:0,RX:0,Ln:12,F:250.>", state));
+        Assert.assertEquals(MachineState.State.IDLE, state.getState());
+        Assert.assertEquals(3.0, state.getMachinePosition(2), DELTA);
+        Assert.assertEquals(250.0, state.getFeedRate(), DELTA);
+        Assert.assertEquals(2, state.getReportCount());
+    }
+    
+    @Test
+    public void testGrbl11Report()
+    {
+        StatusReportParser parser = new StatusReportParser();
+        MachineState state = new MachineState();
+        
+        Assert.assertTrue(parser.parse("<Hold:1|MPos:3.000,4.000,-5.125|Bf:12,96|FS:500,12000|WCO:1.000,1.000,-0.125|Ov:110,50,100|Pn:XZP|A:S>", state));
+        Assert.assertEquals(MachineState.State.HOLD, state.getState());
+        Assert.assertEquals(1, state.getSubState());
+        Assert.assertEquals(-5.125, state.getMachinePosition(2), DELTA);
+        Assert.assertEquals(2.0, state.getWorkPosition(0), DELTA);
+        Assert.assertEquals(-5.0, state.getWorkPosition(2), DELTA);
+        Assert.assertEquals(12, state.getPlannerBlocksAvailable());
+        Assert.assertEquals(96, state.getRxBytesAvailable());
+        Assert.assertEquals(500.0, state.getFeedRate(), DELTA);
+        Assert.assertEquals(12000.0, state.getSpindleSpeed(), DELTA);
+        Assert.assertEquals(110, state.getFeedOverride());
+        Assert.assertEquals(50, state.getRapidOverride());
+        Assert.assertEquals(100, state.getSpindleOverride());
+        Assert.assertTrue(state.isPinTriggered(MachineState.PIN_X));
+        Assert.assertFalse(state.isPinTriggered(MachineState.PIN_Y));
+        Assert.assertTrue(state.isPinTriggered(MachineState.PIN_Z));
+        Assert.assertTrue(state.isPinTriggered(MachineState.PIN_PROBE));
+        
+        //reports without WCO keep using the last reported offset
+        Assert.assertTrue(parser.parse("<Run|MPos:11.000,1.000,0.000|FS:250,0>", state));
+        Assert.assertEquals(MachineState.State.RUN, state.getState());
+        Assert.assertEquals(10.0, state.getWorkPosition(0), DELTA);
+        Assert.assertEquals(0.125, state.getWorkPosition(2), DELTA);
+        Assert.assertEquals(250.0, state.getFeedRate(), DELTA);
+        
+        Assert.assertTrue(parser.parse("<Jog|WPos:0.000,0.000,0.000|F:100>", state));
+        Assert.assertEquals(MachineState.State.JOG, state.getState());
+        Assert.assertEquals(1.0, state.getMachinePosition(0), DELTA);
+        Assert.assertEquals(-0.125, state.getMachinePosition(2), DELTA);
+        Assert.assertEquals(100.0, state.getFeedRate(), DELTA);
+    }
+    
+    @Test
+    public void testMalformedReport()
+    {
+        StatusReportParser parser = new StatusReportParser();
+        MachineState state = new MachineState();
+        
+        Assert.assertFalse(parser.parse("", state));
+        Assert.assertFalse(parser.parse("ok", state));
+        Assert.assertFalse(parser.parse("<Idle|MPos:1.000,2.000", state));
+        Assert.assertFalse(parser.parse("<Idle|MPos:1.000,,3.000>", state));
+        Assert.assertFalse(parser.parse("<Idle|MPos:1.000,2.000,abc>", state));
+        Assert.assertEquals(0, state.getReportCount());
+        
+        Assert.assertTrue(parser.parse("<Sleeping|MPos:0.000,0.000,0.000>", state));
+        Assert.assertEquals(MachineState.State.UNKNOWN, state.getState());
+    }
+    
+}
@@ -0,0 +1,54 @@
+/*
+ * File:    StreamHistoryTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+
+@RunWith(PowerMockRunner.class)
+public class StreamHistoryTest
+{
+    
+    @Test
+    public void testRecord() throws Exception
+    {
+        CommandBuffer commands = new CommandBuffer();
+        commands.appendAll(Arrays.asList("G21", "G90", "G1 X1.000 Y1.000 F300.000 ", "M5"));
+        StreamHistory history = new StreamHistory(3);
+        
+        StringBuilder text = new StringBuilder();
+        history.appendTo(text);
+        Assert.assertEquals("", text.toString());
+        
+        history.record(commands, 0);
+        history.record(commands, 1);
+        text.setLength(0);
+        history.appendTo(text);
+        Assert.assertEquals("G21\nG90", text.toString());
+        Assert.assertEquals(2, history.getCount());
+        
+        //only the most recent lines are kept
+        history.record(commands, 2);
+        history.record(commands, 3);
+        history.record(commands, 0);
+        text.setLength(0);
+        history.appendTo(text);
+        Assert.assertEquals("G1 X1.000 Y1.000 F300.000 \nM5\nG21", text.toString());
+        Assert.assertEquals(5, history.getCount());
+        
+        history.clear();
+        text.setLength(0);
+        history.appendTo(text);
+        Assert.assertEquals("", text.toString());
+        Assert.assertEquals(0, history.getCount());
+    }
+    
+}
@@ -0,0 +1,246 @@
+/*
+ * File:    TravelOptimizerTest.java
+ * Package: grbl
+ * Author:  Nicolas Lopez
+ */
+
+package grbl;
+
+import gcode.lexer.GcodeLexer;
+import gcode.lexer.GcodeWords;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(PowerMockRunner.class)
+public class TravelOptimizerTest
+{
+    
+    @Test
+    public void testReorder() throws Exception
+    {
+        //closed squares cut far apart and back
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G0 Z5.000 "));
+        for (int x : new int[] {0, 30, 10, 20}) {
+            addSquare(commands, x, 0, -1);
+        }
+        commands.addAll(Arrays.asList("G0 Z5.000 ", "M5"));
+        
+        TravelOptimizer optimizer = new TravelOptimizer();
+        List<String> optimized = optimize(optimizer, commands);
+        Assert.assertEquals(Arrays.asList(0.0, 10.0, 20.0, 30.0), getChainStarts(optimized));
+        Assert.assertEquals(cuts(commands), cuts(optimized));
+        Assert.assertEquals(Arrays.asList("G0 Z5.000 ", "M5"), optimized.subList(optimized.size() - 2, optimized.size()));
+        
+        //the travels between squares are 60 mm across the part before and 30 mm after, with the same retracts, and a travel back to the last square
+        Assert.assertEquals(60 + 3 * 8, optimizer.getTravelBefore(), 0.001);
+        Assert.assertEquals(30 + 3 * 8 + 10 + 4, optimizer.getTravelAfter(), 0.001);
+    }
+    
+    @Test
+    public void testReverse() throws Exception
+    {
+        //lines all cut in the same direction are cut back and forth
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G0 Z5.000 "));
+        for (int x = 0; x < 30; x += 10) {
+            commands.addAll(Arrays.asList("G0 X" + x + ".000 Y0.000 ", "G0 Z1.000 ", "G1 Z-1.000 F100.000 ", "G1 Y10.000 F300.000 ", "G1 Z1.000 F100.000 ", "G0 Z5.000 "));
+        }
+        
+        TravelOptimizer optimizer = new TravelOptimizer();
+        List<String> optimized = optimize(optimizer, commands);
+        Assert.assertTrue(optimized.contains("G1 X10.000 Y10.000 Z-1.000 F100.000 "));
+        Assert.assertTrue(optimized.contains("G1 X10.000 Y0.000 Z-1.000 F300.000 "));
+        Assert.assertEquals(cuts(commands), cuts(optimized));
+        Assert.assertTrue(optimizer.getTravelAfter() < optimizer.getTravelBefore());
+    }
+    
+    @Test
+    public void testLayers() throws Exception
+    {
+        //layers are cut in order, each starting with the chain it started with
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G0 Z5.000 "));
+        for (int depth = 1; depth <= 2; depth++) {
+            for (int x : new int[] {20, 0, 30, 10}) {
+                addSquare(commands, x, 0, -depth);
+            }
+        }
+        commands.add("G0 Z5.000 ");
+        
+        List<String> optimized = optimize(new TravelOptimizer(), commands);
+        Assert.assertEquals(Arrays.asList(20.0, 30.0, 10.0, 0.0, 20.0, 30.0, 10.0, 0.0), getChainStarts(optimized));
+        Assert.assertEquals(cuts(commands), cuts(optimized));
+    }
+    
+    @Test
+    public void testWordOrder() throws Exception
+    {
+        //a move that does not start with its motion command sets the position the section starts from
+        List<String> commands = new ArrayList<>(Collections.singletonList("N10 G90 G0 X0.000 Y0.000 Z5.000 "));
+        for (int x : new int[] {0, 30, 10, 20}) {
+            addSquare(commands, x, 0, -1);
+        }
+        
+        TravelOptimizer optimizer = new TravelOptimizer();
+        List<String> optimized = optimize(optimizer, commands);
+        Assert.assertEquals(Arrays.asList(0.0, 10.0, 20.0, 30.0), getChainStarts(optimized));
+        Assert.assertEquals(cuts(commands), cuts(optimized));
+        
+        //an axis word in relative positions loses the position, so nothing after it is reordered
+        commands.set(0, "N10 G91 G0 X0.000 Y0.000 Z5.000 ");
+        Assert.assertEquals(commands, optimize(new TravelOptimizer(), commands));
+    }
+    
+    @Test
+    public void testUnsafeTravels() throws Exception
+    {
+        //a travel across the part below the top of the chains, or a job in relative positions, is left as it is
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G0 Z5.000 "));
+        for (int x : new int[] {0, 30, 10}) {
+            addSquare(commands, x, 0, -1);
+        }
+        commands.set(2 + 9 + 8, "G0 Z0.500 ");
+        Assert.assertEquals(commands, optimize(new TravelOptimizer(), commands));
+        
+        commands.set(0, "G91");
+        Assert.assertEquals(commands, optimize(new TravelOptimizer(), commands));
+    }
+    
+    @Test
+    public void testSectionEnd() throws Exception
+    {
+        //the commands after a section start where they started before
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G0 Z5.000 "));
+        for (int x : new int[] {0, 30, 10}) {
+            addSquare(commands, x, 0, -1);
+        }
+        commands.addAll(Arrays.asList("G0 Z5.000 ", "G91", "G1 X1.000 F100.000 "));
+        
+        List<String> optimized = optimize(new TravelOptimizer(), commands);
+        Assert.assertEquals(Arrays.asList("G0 X10.000 Y0.000 ", "G0 Z5.000 ", "G0 Z5.000 ", "G91", "G1 X1.000 F100.000 "), optimized.subList(optimized.size() - 5, optimized.size()));
+        Assert.assertEquals(cuts(commands), cuts(optimized));
+    }
+    
+    @Test
+    public void testRandomJob() throws Exception
+    {
+        Random random = new Random(7);
+        List<String> commands = new ArrayList<>(Arrays.asList("G90", "G0 Z5.000 "));
+        for (int i = 0; i < 200; i++) {
+            double x = random.nextInt(100);
+            double y = random.nextInt(100);
+            commands.addAll(Arrays.asList("G0 X" + x + " Y" + y, "G0 Z1.000 ", "G1 Z" + -(1 + i / 100) + " F100.000 "));
+            for (int j = random.nextInt(4); j >= 0; j--) {
+                commands.add("G1 X" + (x += random.nextInt(5)) + " Y" + (y += random.nextInt(5)) + " F300.000 ");
+            }
+            commands.addAll(Arrays.asList("G1 Z1.000 F100.000 ", "G0 Z5.000 "));
+        }
+        commands.add("M5");
+        
+        TravelOptimizer optimizer = new TravelOptimizer();
+        List<String> optimized = optimize(optimizer, commands);
+        Assert.assertEquals(cuts(commands), cuts(optimized));
+        Assert.assertTrue(optimizer.getTravelAfter() < optimizer.getTravelBefore() / 2);
+        Assert.assertTrue(optimizer.getTimeSaved() > 0);
+    }
+    
+    @Test
+    public void testOptimizations() throws Exception
+    {
+        TravelOptimizer.travelOptimization = true;
+        try {
+            List<GcodeModifier.Stage> optimizations = GcodeModifier.createOptimizations();
+            Assert.assertEquals(1, optimizations.size());
+            Assert.assertTrue(optimizations.get(0) instanceof TravelOptimizer);
+        } finally {
+            TravelOptimizer.travelOptimization = TravelOptimizer.DEFAULT_TRAVEL_OPTIMIZATION;
+        }
+    }
+    
+    /**
+     * Adds a travel to a square, and a square cut with a plunge and a retract.
+     *
+     * @param commands The commands to add to.
+     * @param x        The x position of the corner of the square.
+     * @param y        The y position of the corner of the square.
+     * @param depth    The depth of the square.
+     */
+    private static void addSquare(List<String> commands, int x, int y, int depth)
+    {
+        commands.addAll(Arrays.asList(
+                "G0 X" + x + ".000 Y" + y + ".000 ", "G0 Z1.000 ", "G1 Z" + depth + ".000 F100.000 ",
+                "G1 X" + (x + 5) + ".000 F300.000 ", "G1 Y" + (y + 5) + ".000 ", "G1 X" + x + ".000 ", "G1 Y" + y + ".000 ",
+                "G1 Z1.000 F100.000 ", "G0 Z5.000 "));
+    }
+    
+    /**
+     * Passes commands through a TravelOptimizer.
+     *
+     * @param optimizer The TravelOptimizer.
+     * @param commands  The commands.
+     * @return The commands passed on by the TravelOptimizer.
+     */
+    private static List<String> optimize(TravelOptimizer optimizer, List<String> commands)
+    {
+        return GcodeModifier.process(Collections.singletonList(optimizer), commands);
+    }
+    
+    /**
+     * Returns the x position each chain starts its cut at.
+     *
+     * @param commands The commands.
+     * @return The x position of each plunge.
+     */
+    private static List<Double> getChainStarts(List<String> commands)
+    {
+        List<Double> starts = new ArrayList<>();
+        GcodeWords words = new GcodeWords();
+        double x = 0;
+        for (String command : commands) {
+            GcodeLexer.lex(command, words);
+            if (words.isToken(0, "G1") && !words.has('X') && !words.has('Y') && words.getValue('Z', 0) < 0) {
+                starts.add(x);
+            }
+            x = words.getValue('X', x);
+        }
+        return starts;
+    }
+    
+    /**
+     * Returns the cuts of the commands, and checks that every travel across the part is above the cuts.
+     *
+     * @param commands The commands.
+     * @return The cuts, in either direction, sorted.
+     */
+    private static List<String> cuts(List<String> commands)
+    {
+        List<String> cuts = new ArrayList<>();
+        GcodeWords words = new GcodeWords();
+        double[] position = {0, 0, 0};
+        for (String command : commands) {
+            GcodeLexer.lex(command, words);
+            if (!words.isToken(0, "G0") && !words.isToken(0, "G1")) {
+                continue;
+            }
+            
+            double[] target = {words.getValue('X', position[0]), words.getValue('Y', position[1]), words.getValue('Z', position[2])};
+            if (words.isToken(0, "G1")) {
+                String a = Arrays.toString(position);
+                String b = Arrays.toString(target);
+                cuts.add((a.compareTo(b) < 0) ? a + b : b + a);
+            } else if (target[0] != position[0] || target[1] != position[1]) {
+                Assert.assertTrue(position[2] > 1 && target[2] > 1);
+            }
+            position = target;
+        }
+        Collections.sort(cuts);
+        return cuts;
+    }
+    
+}
@@ -0,0 +1,91 @@
+/*
+ * File:    GrblSimulatorBenchmark.java
+ * Package: grbl.simulator
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.simulator;
+
+import grbl.GrblStreamer;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Measures the end-to-end throughput of streaming gcode to the grbl simulator.<br/>
+ * Streams the gcode file given as the first argument, or a generated job of the number of lines given as the second argument.
+ */
+public class GrblSimulatorBenchmark
+{
+    
+    //Constants
+    
+    /**
+     * The number of lines in the generated job.
+     */
+    private static final int DEFAULT_LINE_COUNT = 1000000;
+    
+    
+    //Main Method
+    
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Arguments to the main method.
+     * @throws IOException When there was an error reading the gcode file.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        GrblSimulator simulator = new GrblSimulator();
+        simulator.open();
+        GrblStreamer streamer = new GrblStreamer(simulator, new GrblStreamer.Listener()
+        {
+            @Override
+            public void lineAcknowledged(int tag, String response)
+            {
+            }
+            
+            @Override
+            public void statusReported(String report)
+            {
+            }
+            
+            @Override
+            public void messageReceived(String message)
+            {
+            }
+        }, GrblStreamer.DEFAULT_RX_BUFFER_SIZE);
+        streamer.start();
+        
+        long start = System.nanoTime();
+        long lines = 0;
+        if (args.length > 0 && !args[0].isEmpty()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(args[0]))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    streamer.send(line, (int) lines++);
+                }
+            }
+        } else {
+            int count = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_LINE_COUNT;
+            streamer.send("G21 G90 F500", -1);
+            for (int i = 0; i < count; i++) {
+                double angle = i * 0.01;
+                streamer.send(String.format("G1 X%.3f Y%.3f", 50 + 40 * Math.cos(angle), 50 + 40 * Math.sin(angle)), i);
+            }
+            lines = count + 1;
+        }
+        streamer.drain();
+        long elapsed = System.nanoTime() - start;
+        
+        streamer.stop();
+        simulator.close();
+        
+        double seconds = elapsed / 1000000000.0;
+        System.out.println(String.format("Streamed %d lines in %.3f s: %.0f lines/sec", lines, seconds, lines / seconds));
+        System.out.println(String.format("Simulated job time: %.1f s, errors: %d, overflows: %d",
+                simulator.getMotionEndTime(), simulator.getErrorCount(), simulator.getOverflowCount()));
+    }
+    
+}
@@ -0,0 +1,169 @@
+/*
+ * File:    GrblSimulatorTest.java
+ * Package: grbl.simulator
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.simulator;
+
+import grbl.GrblStreamer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class GrblSimulatorTest
+{
+    
+    @Test
+    public void testStreaming() throws Exception
+    {
+        GrblSimulator simulator = new GrblSimulator();
+        simulator.open();
+        List<String> acknowledged = Collections.synchronizedList(new ArrayList<>());
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        GrblStreamer streamer = new GrblStreamer(simulator, new GrblStreamer.Listener()
+        {
+            @Override
+            public void lineAcknowledged(int tag, String response)
+            {
+                acknowledged.add(response);
+            }
+            
+            @Override
+            public void statusReported(String report)
+            {
+            }
+            
+            @Override
+            public void messageReceived(String message)
+            {
+                messages.add(message);
+            }
+        }, GrblStreamer.DEFAULT_RX_BUFFER_SIZE);
+        streamer.start();
+        
+        Assert.assertTrue(streamer.send("G21 G90 F300", -1));
+        for (int i = 0; i < 2000; i++) {
+            Assert.assertTrue(streamer.send("G1 X" + (i % 2 == 0 ? "10.000" : "0.000") + " Y" + (i / 100) + ".000", i));
+        }
+        //every line has been dispatched to the listener once the streamer has counted its acknowledgement
+        Assert.assertTrue(streamer.awaitAcknowledged(2001));
+        Assert.assertEquals(0, streamer.getLinesInFlight());
+        streamer.stop();
+        simulator.close();
+        
+        Assert.assertEquals(2001, streamer.getAcknowledgedLines());
+        Assert.assertEquals(2001, acknowledged.size());
+        Assert.assertEquals(2001, simulator.getLinesProcessed());
+        Assert.assertEquals(0, simulator.getErrorCount());
+        Assert.assertEquals(0, simulator.getOverflowCount());
+        Assert.assertEquals(Collections.singletonList(GrblSimulator.BANNER), messages);
+        Assert.assertEquals(0.0, simulator.getPosition(0), 0.0);
+        Assert.assertEquals(19.0, simulator.getPosition(1), 0.0);
+        
+        //every move reverses direction, so the job takes longer than 2000 moves of 10mm at 5mm/sec
+        Assert.assertTrue(simulator.getMotionEndTime() > 4000);
+    }
+    
+    @Test
+    public void testMotionTime() throws Exception
+    {
+        MotionModel model = new MotionModel(new double[] {6000, 6000, 6000}, new double[] {100, 100, 100}, MotionModel.DEFAULT_JUNCTION_DEVIATION);
+        GrblSimulator simulator = new GrblSimulator(model, new VirtualClock(), 0);
+        simulator.open();
+        Assert.assertEquals(GrblSimulator.BANNER, simulator.readLine());
+        
+        //accelerates to 10mm/sec over 0.5mm in 0.1sec, then covers the remaining 99.5mm in 9.95sec
+        simulator.writeLine("G1 X100 F600");
+        Assert.assertEquals("ok", simulator.readLine());
+        Assert.assertEquals(10.05, simulator.getMotionEndTime(), 0.000001);
+        
+        //continues in a straight line at full speed
+        simulator.writeLine("G91 X10");
+        Assert.assertEquals("ok", simulator.readLine());
+        Assert.assertEquals(11.05, simulator.getMotionEndTime(), 0.000001);
+        
+        //the rapid reverses direction, so it starts from a stop and accelerates to 100mm/sec over 50mm in 1sec
+        simulator.writeLine("G0 X-110");
+        Assert.assertEquals("ok", simulator.readLine());
+        Assert.assertEquals(12.65, simulator.getMotionEndTime(), 0.000001);
+        Assert.assertEquals(0.0, simulator.getPosition(0), 0.000001);
+        
+        simulator.writeLine("G4 P0.5");
+        Assert.assertEquals("ok", simulator.readLine());
+        Assert.assertEquals(13.15, simulator.getMotionEndTime(), 0.000001);
+        
+        simulator.close();
+    }
+    
+    @Test
+    public void testErrors() throws Exception
+    {
+        GrblSimulator simulator = new GrblSimulator();
+        simulator.open();
+        Assert.assertEquals(GrblSimulator.BANNER, simulator.readLine());
+        
+        simulator.writeLine("G1 X1");
+        Assert.assertEquals("error:" + GrblSimulator.ERROR_UNDEFINED_FEED_RATE, simulator.readLine());
+        simulator.writeLine("G99");
+        Assert.assertEquals("error:" + GrblSimulator.ERROR_UNSUPPORTED_COMMAND, simulator.readLine());
+        simulator.writeLine("G1 X F100");
+        Assert.assertEquals("error:" + GrblSimulator.ERROR_BAD_NUMBER_FORMAT, simulator.readLine());
+        simulator.writeLine("G2 X10 F100");
+        Assert.assertEquals("error:" + GrblSimulator.ERROR_NO_OFFSETS_IN_PLANE, simulator.readLine());
+        simulator.writeLine("G1 X0.00000000000000000000000000000000000000000000000000000000000000000000000000000001");
+        Assert.assertEquals("error:" + GrblSimulator.ERROR_LINE_OVERFLOW, simulator.readLine());
+        simulator.writeLine("G0 X1 (comment) ; comment");
+        Assert.assertEquals("ok", simulator.readLine());
+        simulator.writeLine("");
+        Assert.assertEquals("ok", simulator.readLine());
+        
+        simulator.writeLine("$$");
+        Assert.assertTrue(simulator.readLine().startsWith("$110="));
+        for (int i = 0; i < 6; i++) {
+            Assert.assertTrue(simulator.readLine().startsWith("$"));
+        }
+        Assert.assertEquals("ok", simulator.readLine());
+        
+        Assert.assertEquals(5, simulator.getErrorCount());
+        simulator.close();
+        Assert.assertNull(simulator.readLine());
+    }
+    
+    @Test
+    public void testRealtimeCommands() throws Exception
+    {
+        GrblSimulator simulator = new GrblSimulator(new MotionModel(), new VirtualClock(), 0);
+        simulator.open();
+        Assert.assertEquals(GrblSimulator.BANNER, simulator.readLine());
+        
+        simulator.writeRealtime((byte) '?');
+        Assert.assertEquals("<Idle|MPos:0.000,0.000,0.000|Bf:15,128|FS:0,0>", simulator.readLine());
+        
+        simulator.writeLine("G1 X10 F300");
+        Assert.assertEquals("ok", simulator.readLine());
+        simulator.writeRealtime((byte) '?');
+        Assert.assertEquals("<Run|MPos:0.000,0.000,0.000|Bf:14,128|FS:300,0>", simulator.readLine());
+        
+        simulator.writeRealtime((byte) '!');
+        simulator.writeRealtime((byte) '?');
+        Assert.assertTrue(simulator.readLine().startsWith("<Hold:0|"));
+        simulator.writeRealtime((byte) '~');
+        simulator.writeRealtime((byte) '?');
+        Assert.assertTrue(simulator.readLine().startsWith("<Run|"));
+        
+        simulator.writeRealtime((byte) 0x18);
+        Assert.assertEquals(GrblSimulator.BANNER, simulator.readLine());
+        simulator.writeRealtime((byte) '?');
+        Assert.assertTrue(simulator.readLine().startsWith("<Idle|"));
+        
+        simulator.close();
+    }
+    
+}
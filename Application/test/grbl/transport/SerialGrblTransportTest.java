@@ -0,0 +1,49 @@
+/*
+ * File:    SerialGrblTransportTest.java
+ * Package: grbl.transport
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.transport;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+@RunWith(PowerMockRunner.class)
+public class SerialGrblTransportTest
+{
+    
+    @Test
+    public void testDeviceRemoved() throws Exception
+    {
+        Assume.assumeFalse(System.getProperty("os.name").toUpperCase().contains("WIN"));
+        
+        //a file stands in for the device, the reset is written over its first byte and its end is the device being removed
+        File device = File.createTempFile("tty", null);
+        device.deleteOnExit();
+        Files.write(device.toPath(), "\r\nok\r\nGrbl 1.1f ['$' for help]\r\nok\r\n".getBytes(StandardCharsets.US_ASCII));
+        
+        //opening the port waits for the startup banner, and discards the lines before it
+        SerialGrblTransport transport = new SerialGrblTransport(device.getAbsolutePath());
+        transport.open();
+        Assert.assertTrue(transport.isOpen());
+        Assert.assertEquals("ok", transport.readLine());
+        
+        try {
+            transport.readLine();
+            Assert.fail();
+        } catch (IOException ignored) {
+        }
+        Assert.assertFalse(transport.isOpen());
+        Assert.assertNull(transport.readLine());
+    }
+    
+}
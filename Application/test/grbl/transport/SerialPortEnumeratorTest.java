@@ -0,0 +1,92 @@
+/*
+ * File:    SerialPortEnumeratorTest.java
+ * Package: grbl.transport
+ * Author:  Nicolas Lopez
+ */
+
+package grbl.transport;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class SerialPortEnumeratorTest
+{
+    
+    @Test
+    public void testLinuxPorts() throws Exception
+    {
+        File sys = Files.createTempDirectory("sys").toFile();
+        
+        //ttyACM0 -> usb device 1-1 -> interface 1-1:1.0
+        File usb = new File(sys, "devices/usb1/1-1");
+        File usbInterface = new File(usb, "1-1:1.0");
+        Assert.assertTrue(usbInterface.mkdirs());
+        Files.write(new File(usb, "idVendor").toPath(), "2341\n".getBytes());
+        Files.write(new File(usb, "idProduct").toPath(), "0043\n".getBytes());
+        Files.write(new File(usb, "serial").toPath(), "55735323835351017091\n".getBytes());
+        Files.write(new File(usb, "manufacturer").toPath(), "Arduino (www.arduino.cc)\n".getBytes());
+        
+        File tty = new File(sys, "class/tty");
+        Assert.assertTrue(new File(tty, "ttyACM0").mkdirs());
+        Files.createSymbolicLink(new File(tty, "ttyACM0/device").toPath(), usbInterface.toPath());
+        
+        //serial devices that are not USB are ignored
+        Assert.assertTrue(new File(tty, "ttyS0/device").mkdirs());
+        Assert.assertTrue(new File(tty, "tty1").mkdirs());
+        
+        List<SerialPortInfo> ports = SerialPortEnumerator.listLinuxPorts(tty, "/dev/");
+        Assert.assertEquals(1, ports.size());
+        SerialPortInfo port = ports.get(0);
+        Assert.assertEquals("/dev/ttyACM0", port.getPort());
+        Assert.assertEquals("55735323835351017091", port.getSerialNumber());
+        Assert.assertEquals("2341", port.getVendorId());
+        Assert.assertEquals("0043", port.getProductId());
+        Assert.assertEquals("Arduino (www.arduino.cc)", port.getDescription());
+        Assert.assertTrue(port.isArduino());
+    }
+    
+    @Test
+    public void testWindowsPorts()
+    {
+        String usbPortNames = "\r\n" +
+                "HKEY_LOCAL_MACHINE\\SYSTEM\\CurrentControlSet\\Enum\\USB\\VID_2341&PID_0043\\55735323835351017091\\Device Parameters\r\n" +
+                "    PortName    REG_SZ    COM3\r\n" +
+                "\r\n" +
+                "HKEY_LOCAL_MACHINE\\SYSTEM\\CurrentControlSet\\Enum\\USB\\VID_2341&PID_0043\\85735313033351202220\\Device Parameters\r\n" +
+                "    PortName    REG_SZ    COM4\r\n" +
+                "\r\n" +
+                "HKEY_LOCAL_MACHINE\\SYSTEM\\CurrentControlSet\\Enum\\USB\\VID_1A86&PID_7523\\5&2ad2b4f5&0&2\\Device Parameters\r\n" +
+                "    PortName    REG_SZ    COM5\r\n" +
+                "\r\n" +
+                "End of search: 3 match(es) found.\r\n";
+        String serialComm = "\r\n" +
+                "HKEY_LOCAL_MACHINE\\HARDWARE\\DEVICEMAP\\SERIALCOMM\r\n" +
+                "    \\Device\\USBSER000    REG_SZ    COM3\r\n" +
+                "    \\Device\\Serial2    REG_SZ    COM5\r\n" +
+                "\r\n";
+        
+        Assert.assertEquals(new HashSet<>(Arrays.asList("COM3", "COM5")), SerialPortEnumerator.parseWindowsSerialComm(serialComm));
+        
+        //COM4 was plugged in before, but is not attached anymore
+        List<SerialPortInfo> ports = SerialPortEnumerator.parseWindowsPorts(usbPortNames, serialComm);
+        Assert.assertEquals(2, ports.size());
+        Assert.assertEquals("COM3", ports.get(0).getPort());
+        Assert.assertEquals("55735323835351017091", ports.get(0).getSerialNumber());
+        Assert.assertEquals("2341", ports.get(0).getVendorId());
+        Assert.assertTrue(ports.get(0).isArduino());
+        Assert.assertEquals("COM5", ports.get(1).getPort());
+        Assert.assertNull(ports.get(1).getSerialNumber());
+        Assert.assertEquals("7523", ports.get(1).getProductId());
+        Assert.assertFalse(ports.get(1).isArduino());
+    }
+    
+}
@@ -7,17 +7,14 @@
 package gui.interfaces.main;
 
 import gui.interfaces.popup.SystemNotificationController;
-import javafx.scene.image.Image;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 @RunWith(PowerMockRunner.class)
@@ -66,29 +63,12 @@ public class RotationControllerTest
         RotationController sut = new RotationController();
         RotationController.controller = sut;
         RotationController.rotationStep = (int) (360.0 / RotationController.DEFAULT_MIN_ROTATION_DEGREE);
-    
-        Image i1 = Mockito.mock(Image.class);
-        Image i2 = Mockito.mock(Image.class);
-        Image i3 = Mockito.mock(Image.class);
-        Image i4 = Mockito.mock(Image.class);
         
-        List<Image> profiles = new ArrayList<>();
-        profiles.add(i1);
-        profiles.add(i2);
-        profiles.add(i3);
-        profiles.add(i4);
-    
-        sut.rotationProfileMap = new HashMap<>();
-        sut.rotationProfileMap.put(profiles.get(0), 45);
-        sut.rotationProfileMap.put(profiles.get(1), 10);
-        sut.rotationProfileMap.put(profiles.get(2), 15);
-        sut.rotationProfileMap.put(profiles.get(3), 30);
-    
-        sut.gcodeTraceFileMap = new HashMap<>();
-        sut.gcodeTraceFileMap.put(profiles.get(0), "a");
-        sut.gcodeTraceFileMap.put(profiles.get(1), "b");
-        sut.gcodeTraceFileMap.put(profiles.get(2), "c");
-        sut.gcodeTraceFileMap.put(profiles.get(3), "d");
+        List<RotationProfile> profiles = new ArrayList<>();
+        profiles.add(new RotationProfile(0, "a", 45));
+        profiles.add(new RotationProfile(1, "b", 10));
+        profiles.add(new RotationProfile(2, "c", 15));
+        profiles.add(new RotationProfile(3, "d", 30));
         
         RotationController.generateQueueHelper(profiles);
         int j = 0;
@@ -114,10 +94,9 @@ public class RotationControllerTest
         RotationController.rotationStep = 4;
         RotationController.generateQueueHelper(profiles);
     
-        sut.rotationProfileMap.put(profiles.get(0), 1);
-        sut.rotationProfileMap.put(profiles.get(1), 1);
-        sut.rotationProfileMap.put(profiles.get(2), 1);
-        sut.rotationProfileMap.put(profiles.get(3), 1);
+        for (RotationProfile profile : profiles) {
+            profile.setSteps(1);
+        }
         RotationController.generateQueueHelper(profiles);
     }
     
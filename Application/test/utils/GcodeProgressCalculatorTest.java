@@ -12,6 +12,13 @@ import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({})
 public class GcodeProgressCalculatorTest
@@ -29,4 +36,29 @@ public class GcodeProgressCalculatorTest
         Assert.assertEquals(3423.831, GcodeProgressCalculator.calculateInstructionProgressUnits("G1 X104.144 Y92.259 F2.43818"), .01);
     }
     
+    @Test
+    public void testCalculateFileProgressUnitsParallel() throws Exception
+    {
+        List<String> can = Files.readAllLines(new File("resources" + File.separator + "gcode" + File.separator + "can.gcode").toPath());
+        List<String> lines = new ArrayList<>();
+        while (lines.size() < GcodeProgressCalculator.PARALLEL_THRESHOLD) {
+            lines.addAll(can);
+        }
+        
+        double sequential = 0.0;
+        for (String line : lines) {
+            sequential += GcodeProgressCalculator.calculateInstructionProgressUnits(line);
+        }
+        
+        //the parallel total is summed in order, so it is exactly the sequential total
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assert.assertEquals(sequential, GcodeProgressCalculator.calculateFileProgressUnits(lines, pool), 0.0);
+            Assert.assertEquals(sequential, GcodeProgressCalculator.calculateFileProgressUnits(new LinkedList<>(lines), pool), 0.0);
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(sequential, GcodeProgressCalculator.calculateFileProgressUnits(lines), 0.0);
+    }
+    
 }
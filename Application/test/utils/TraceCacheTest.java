@@ -0,0 +1,122 @@
+/*
+ * File:    TraceCacheTest.java
+ * Package: utils
+ * Author:  Zachary Gill
+ */
+
+package utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+@RunWith(PowerMockRunner.class)
+public class TraceCacheTest
+{
+    
+    /**
+     * The directory of cached traces before the test.
+     */
+    private String cacheDirectory;
+    
+    /**
+     * The directory of cached traces during the test.
+     */
+    private File directory;
+    
+    @Before
+    public void setup() throws Exception
+    {
+        cacheDirectory = TraceCache.cacheDirectory;
+        directory = Files.createTempDirectory("traces").toFile();
+        TraceCache.cacheDirectory = directory.getAbsolutePath();
+    }
+    
+    @After
+    public void cleanup() throws Exception
+    {
+        TraceCache.cacheDirectory = cacheDirectory;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    @Test
+    public void testCacheKey() throws Exception
+    {
+        File source = new File(directory, "profile.gcode");
+        Files.write(source.toPath(), Arrays.asList("G21", "G1 X1.000 Y1.000"));
+        
+        String key = TraceCache.cacheKey(source, "FOAM_LENGTH=5.0,FOAM_HEIGHT=5.0");
+        Assert.assertEquals(64, key.length());
+        Assert.assertEquals(key, TraceCache.cacheKey(source, "FOAM_LENGTH=5.0,FOAM_HEIGHT=5.0"));
+        Assert.assertNotEquals(key, TraceCache.cacheKey(source, "FOAM_LENGTH=5.0,FOAM_HEIGHT=6.0"));
+        
+        Files.write(source.toPath(), Arrays.asList("G21", "G1 X2.000 Y1.000"));
+        Assert.assertNotEquals(key, TraceCache.cacheKey(source, "FOAM_LENGTH=5.0,FOAM_HEIGHT=5.0"));
+    }
+    
+    @Test
+    public void testStore() throws Exception
+    {
+        Assert.assertNull(TraceCache.find("a"));
+        
+        BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(3, 4, 0xFF00FF);
+        File trace = TraceCache.store("a", image);
+        Assert.assertNotNull(trace);
+        Assert.assertEquals(trace, TraceCache.find("a"));
+        
+        //only the stored trace is left in the cache
+        Assert.assertEquals(1, directory.listFiles().length);
+        BufferedImage stored = ImageIO.read(trace);
+        Assert.assertEquals(20, stored.getWidth());
+        Assert.assertEquals(10, stored.getHeight());
+        Assert.assertEquals(0xFF00FF, stored.getRGB(3, 4) & 0xFFFFFF);
+        Assert.assertEquals(0, stored.getRGB(4, 4) & 0xFFFFFF);
+    }
+    
+    @Test
+    public void testEviction() throws Exception
+    {
+        BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        File a = TraceCache.store("a", image);
+        File b = TraceCache.store("b", image);
+        File c = TraceCache.store("c", image);
+        a.setLastModified(1000000);
+        b.setLastModified(2000000);
+        c.setLastModified(3000000);
+        
+        //a trace that is found is the most recently used
+        TraceCache.find("a");
+        
+        TraceCache.evict(a.length() + b.length() + c.length());
+        Assert.assertTrue(a.exists() && b.exists() && c.exists());
+        
+        TraceCache.evict(a.length() + c.length());
+        Assert.assertTrue(a.exists());
+        Assert.assertFalse(b.exists());
+        Assert.assertTrue(c.exists());
+        
+        TraceCache.evict(a.length());
+        Assert.assertTrue(a.exists());
+        Assert.assertFalse(c.exists());
+        
+        TraceCache.evict(0);
+        Assert.assertNull(TraceCache.find("a"));
+    }
+    
+}
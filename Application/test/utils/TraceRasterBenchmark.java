@@ -0,0 +1,103 @@
+/*
+ * File:    TraceRasterBenchmark.java
+ * Package: utils
+ * Author:  Zachary Gill
+ */
+
+package utils;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Measures the time to trace a profile with a TraceRaster, compared to drawing each segment as three lines with a Graphics2D.<br/>
+ * Traces a generated profile of the number of segments given as the first argument, on an image the size of a trace.
+ */
+public class TraceRasterBenchmark
+{
+    
+    //Constants
+    
+    /**
+     * The number of segments in the generated profile.
+     */
+    private static final int DEFAULT_SEGMENT_COUNT = 100000;
+    
+    /**
+     * The width of the image, the size of a trace of the default hot wire machine.
+     */
+    private static final int WIDTH = 214;
+    
+    /**
+     * The height of the image, the size of a trace of the default hot wire machine.
+     */
+    private static final int HEIGHT = 114;
+    
+    /**
+     * The number of times each trace is repeated, after it has been warmed up.
+     */
+    private static final int REPETITIONS = 20;
+    
+    
+    //Main Method
+    
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Arguments to the main method.
+     */
+    public static void main(String[] args)
+    {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SEGMENT_COUNT;
+        
+        //a spiral of short segments, as a profile sliced from a smooth model is
+        int[] x = new int[count + 1];
+        int[] y = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            double angle = i * 0.002;
+            double radius = 10 + 40.0 * i / count;
+            x[i] = (int) (WIDTH / 2 + radius * Math.cos(angle));
+            y[i] = (int) (HEIGHT / 2 + radius * Math.sin(angle) / 2);
+        }
+        
+        TraceRaster background = new TraceRaster(WIDTH, HEIGHT);
+        background.drawLine(0, HEIGHT / 2, WIDTH - 1, HEIGHT / 2, Color.LIGHT_GRAY.getRGB());
+        int[] pixels = background.copyPixels();
+        
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < REPETITIONS; r++) {
+                BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g2 = image.createGraphics();
+                g2.setColor(Color.WHITE);
+                g2.fillRect(0, 0, WIDTH, HEIGHT);
+                g2.setColor(Color.LIGHT_GRAY);
+                g2.drawLine(0, HEIGHT / 2, WIDTH - 1, HEIGHT / 2);
+                g2.setColor(Color.BLACK);
+                for (int i = 0; i < count; i++) {
+                    g2.drawLine(x[i], y[i], x[i + 1], y[i + 1]);
+                    g2.drawLine(x[i] - 1, y[i] - 1, x[i + 1] - 1, y[i + 1] - 1);
+                    g2.drawLine(x[i] + 1, y[i] + 1, x[i + 1] + 1, y[i + 1] + 1);
+                }
+                g2.dispose();
+            }
+            long graphics = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for (int r = 0; r < REPETITIONS; r++) {
+                TraceRaster raster = new TraceRaster(WIDTH, HEIGHT);
+                raster.fill(pixels);
+                for (int i = 0; i < count; i++) {
+                    raster.drawThickLine(x[i], y[i], x[i + 1], y[i + 1], Color.BLACK.getRGB());
+                }
+            }
+            long kernel = System.nanoTime() - start;
+            
+            if (run > 0) {
+                System.out.println(String.format("Traced %d segments with Graphics2D in %.2f ms", count, graphics / 1000000.0 / REPETITIONS));
+                System.out.println(String.format("Traced %d segments with TraceRaster in %.2f ms", count, kernel / 1000000.0 / REPETITIONS));
+            }
+        }
+    }
+    
+}
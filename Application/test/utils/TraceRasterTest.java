@@ -0,0 +1,100 @@
+/*
+ * File:    TraceRasterTest.java
+ * Package: utils
+ * Author:  Zachary Gill
+ */
+
+package utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+@RunWith(PowerMockRunner.class)
+public class TraceRasterTest
+{
+    
+    @Test
+    public void testDrawLine() throws Exception
+    {
+        //horizontal, vertical and diagonal lines are drawn with the same pixels as a Graphics2D draws them
+        int[][] lines = {{2, 3, 17, 3}, {17, 3, 2, 3}, {5, 1, 5, 18}, {1, 1, 18, 18}, {18, 2, 2, 18}, {7, 7, 7, 7}};
+        for (int[] line : lines) {
+            TraceRaster raster = new TraceRaster(20, 20);
+            raster.drawLine(line[0], line[1], line[2], line[3], Color.WHITE.getRGB());
+            
+            BufferedImage expected = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = expected.createGraphics();
+            g2.setColor(Color.WHITE);
+            g2.drawLine(line[0], line[1], line[2], line[3]);
+            g2.dispose();
+            
+            Assert.assertArrayEquals(Arrays.toString(line), new TraceRaster(expected).copyPixels(), raster.copyPixels());
+        }
+    }
+    
+    @Test
+    public void testDrawThickLine() throws Exception
+    {
+        //a thick line is the line and the lines one pixel up and left and one pixel down and right of it
+        Random random = new Random(5);
+        for (int i = 0; i < 100; i++) {
+            int x0 = random.nextInt(30) - 5;
+            int y0 = random.nextInt(30) - 5;
+            int x1 = random.nextInt(30) - 5;
+            int y1 = random.nextInt(30) - 5;
+            
+            TraceRaster thick = new TraceRaster(20, 20);
+            thick.drawThickLine(x0, y0, x1, y1, Color.WHITE.getRGB());
+            
+            TraceRaster lines = new TraceRaster(20, 20);
+            lines.drawLine(x0, y0, x1, y1, Color.WHITE.getRGB());
+            lines.drawLine(x0 - 1, y0 - 1, x1 - 1, y1 - 1, Color.WHITE.getRGB());
+            lines.drawLine(x0 + 1, y0 + 1, x1 + 1, y1 + 1, Color.WHITE.getRGB());
+            
+            Assert.assertArrayEquals(lines.copyPixels(), thick.copyPixels());
+        }
+    }
+    
+    @Test
+    public void testClipping() throws Exception
+    {
+        //lines outside of the image are not drawn, and lines crossing its edges are drawn up to them
+        TraceRaster raster = new TraceRaster(10, 10);
+        raster.drawThickLine(-50, -50, -2, -40, Color.WHITE.getRGB());
+        raster.drawThickLine(20, 0, 40, 9, Color.WHITE.getRGB());
+        Assert.assertArrayEquals(new int[100], raster.copyPixels());
+        
+        raster.drawLine(-5, 4, 15, 4, Color.WHITE.getRGB());
+        int[] pixels = raster.copyPixels();
+        for (int x = 0; x < 10; x++) {
+            Assert.assertEquals(Color.WHITE.getRGB(), pixels[4 * 10 + x]);
+        }
+        Assert.assertEquals(10, Arrays.stream(pixels).filter(pixel -> pixel != 0).count());
+    }
+    
+    @Test
+    public void testFill() throws Exception
+    {
+        TraceRaster background = new TraceRaster(10, 5);
+        background.drawLine(0, 0, 9, 4, Color.GRAY.getRGB());
+        
+        TraceRaster raster = new TraceRaster(10, 5);
+        raster.fill(background.copyPixels());
+        Assert.assertArrayEquals(background.copyPixels(), raster.copyPixels());
+        Assert.assertEquals(Color.GRAY.getRGB(), raster.getImage().getRGB(9, 4));
+        
+        try {
+            raster.fill(new int[49]);
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+    
+}